@@ -0,0 +1,59 @@
+package expressivo;
+
+import expressivo.ExpressionParser.Engine;
+
+import java.util.Random;
+
+/**
+ * Compares loading an expression from its text with the hand-written parser to loading it from its binary encoding
+ * with ExpressionCodec, for the derivatives of long polynomials, which share many subexpressions.
+ * Run with java -ea:none expressivo.CodecBenchmark [terms...]
+ * The cache of ExpressionParser is bypassed, so every iteration parses the input again.
+ */
+public class CodecBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    /**
+     * @param args the numbers of terms of the polynomials to differentiate, by default 100, 1000 and 10000
+     */
+    public static void main(String[] args) {
+        int[] sizes = {100, 1000, 10000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%8s %10s %10s %14s %14s %8s%n", "terms", "chars", "bytes", "parse(us)", "decode(us)",
+                          "speedup");
+        for (int terms : sizes) {
+            Expression derivative = Expression.parse(ParserBenchmark.polynomial(new Random(terms), terms))
+                    .differentiate("x");
+            String text = derivative.toString();
+            byte[] bytes = ExpressionCodec.toBytes(derivative);
+            double parse = microsPerLoad(text, null);
+            double decode = microsPerLoad(null, bytes);
+            System.out.printf("%8d %10d %10d %14.1f %14.1f %8.1fx%n",
+                              terms, text.length(), bytes.length, parse, decode, parse / decode);
+        }
+    }
+
+    /**
+     * @return average time in microseconds to parse text, or else to decode bytes, after warming up
+     */
+    private static double microsPerLoad(String text, byte[] bytes) {
+        long start = 0;
+        int hash = 0;
+        for (int i = 0; i < WARMUP_ROUNDS + MEASURED_ROUNDS; i++) {
+            if (i == WARMUP_ROUNDS) start = System.nanoTime();
+            Expression loaded = text != null ? ExpressionParser.parseUncached(text, Engine.HANDWRITTEN)
+                                             : ExpressionCodec.fromBytes(bytes);
+            hash += loaded.hashCode();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (hash == 42) System.out.print(""); // keep the results alive
+        return elapsed / 1000.0 / MEASURED_ROUNDS;
+    }
+}
@@ -0,0 +1,53 @@
+package expressivo;
+
+import static expressivo.ExpressionInterner.product;
+import static expressivo.ExpressionInterner.sum;
+import static expressivo.ExpressionInterner.variable;
+
+/**
+ * Measures equivalent() by random evaluation against the expansion of the polynomials (confidence 1) on a product of
+ * n sums (x1 + y1)*...*(xn + yn) and the same product with its factors in reverse order, whose expansions have 2^n
+ * terms.
+ * Run with java -ea:none expressivo.EquivalenceBenchmark [maximal n]
+ */
+public class EquivalenceBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    /**
+     * @param args the maximal number of factors, by default 16
+     */
+    public static void main(String[] args) {
+        int maximal = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        System.out.printf("%10s %12s %14s %12s%n", "factors", "random ms", "expanded ms", "speedup");
+        for (int n = 4; n <= maximal; n += 4) {
+            Expression forward = null;
+            Expression backward = null;
+            for (int i = 1; i <= n; i++) {
+                Expression factor = sum(variable("x" + i), variable("y" + i));
+                Expression reversed = sum(variable("x" + (n + 1 - i)), variable("y" + (n + 1 - i)));
+                forward = forward == null ? factor : product(forward, factor);
+                backward = backward == null ? reversed : product(backward, reversed);
+            }
+            double random = millis(forward, backward, Equivalence.DEFAULT_CONFIDENCE);
+            double expanded = millis(forward, backward, 1);
+            System.out.printf("%10d %12.3f %14.3f %11.0fx%n", n, random, expanded, expanded / random);
+        }
+    }
+
+    /**
+     * @return the fastest time in milliseconds of ROUNDS checks that left and right are equivalent, after as many
+     *         rounds of warming up
+     */
+    private static double millis(Expression left, Expression right, double confidence) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 2 * ROUNDS; round++) {
+            long start = System.nanoTime();
+            boolean equivalent = Equivalence.equivalent(left, right, confidence);
+            long elapsed = System.nanoTime() - start;
+            if (!equivalent) throw new AssertionError("not equivalent: " + left + " and " + right);
+            if (round >= ROUNDS) best = Math.min(best, elapsed);
+        }
+        return best / 1e6;
+    }
+}
@@ -0,0 +1,136 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares evaluating a polynomial with simplify(environment) to evaluating its CompiledExpression, with different
+ * values of the variables in every evaluation, and evaluating it row by row with the CompiledExpression to evaluating
+ * all rows at once with Expression.evaluate(columns, output).
+ * Run with java -ea:none expressivo.EvaluationBenchmark [terms...]
+ */
+public class EvaluationBenchmark {
+
+    private static final int WARMUP_ROUNDS = 20000;
+    private static final int MEASURED_ROUNDS = 20000;
+    private static final List<String> VARIABLES = Arrays.asList("x", "y", "z", "w");
+    private static final int BATCH_TERMS = 100;
+    private static final int[] BATCH_ROWS = {1000, 100000, 1000000};
+
+    /**
+     * @param args the numbers of terms of the polynomials to evaluate, by default 10, 100 and 1000
+     */
+    public static void main(String[] args) {
+        int[] sizes = {10, 100, 1000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%8s %14s %14s %8s%n", "terms", "simplify(ns)", "compiled(ns)", "speedup");
+        for (int terms : sizes) {
+            Expression expression = Expression.parse(ParserBenchmark.polynomial(new Random(terms), terms));
+            int rounds = Math.max(10, MEASURED_ROUNDS / terms);
+            double simplify = nanosPerSimplify(expression, Math.max(10, WARMUP_ROUNDS / terms), rounds);
+            double compiled = nanosPerEvaluate(expression.compile(VARIABLES), 10 * WARMUP_ROUNDS, MEASURED_ROUNDS);
+            System.out.printf("%8d %14.1f %14.1f %8.1fx%n", terms, simplify, compiled, simplify / compiled);
+        }
+
+        System.out.printf("%n%d terms%n%8s %14s %14s %8s%n", BATCH_TERMS, "rows", "compiled(ns/row)",
+                          "columns(ns/row)", "speedup");
+        Expression expression = Expression.parse(ParserBenchmark.polynomial(new Random(BATCH_TERMS), BATCH_TERMS));
+        CompiledExpression compiled = expression.compile(VARIABLES);
+        for (int rows : BATCH_ROWS) {
+            Map<String, double[]> columns = new HashMap<>();
+            for (int j = 0; j < VARIABLES.size(); j++) {
+                double[] column = new double[rows];
+                for (int row = 0; row < rows; row++) {
+                    column[row] = 1 + (row + j) % 7 * 0.25;
+                }
+                columns.put(VARIABLES.get(j), column);
+            }
+            double[] output = new double[rows];
+            double rowByRow = nanosPerRow(compiled, columns, output);
+            double batch = nanosPerRow(expression, columns, output);
+            System.out.printf("%8d %14.2f %14.2f %8.1fx%n", rows, rowByRow, batch, rowByRow / batch);
+        }
+    }
+
+    /**
+     * @return average time in nanoseconds per row to evaluate all rows of columns with compiled, after warming up
+     */
+    private static double nanosPerRow(CompiledExpression compiled, Map<String, double[]> columns, double[] output) {
+        double[][] inputs = new double[VARIABLES.size()][];
+        for (int j = 0; j < inputs.length; j++) {
+            inputs[j] = columns.get(VARIABLES.get(j));
+        }
+        double[] values = new double[inputs.length];
+        long start = 0;
+        int rounds = Math.max(3, 10000000 / output.length);
+        for (int round = 0; round < 2 * rounds; round++) {
+            if (round == rounds) start = System.nanoTime();
+            for (int row = 0; row < output.length; row++) {
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = inputs[j][row];
+                }
+                output[row] = compiled.evaluate(values);
+            }
+        }
+        return (double) (System.nanoTime() - start) / rounds / output.length;
+    }
+
+    /**
+     * @return average time in nanoseconds per row to evaluate all rows of columns at once, after warming up
+     */
+    private static double nanosPerRow(Expression expression, Map<String, double[]> columns, double[] output) {
+        long start = 0;
+        int rounds = Math.max(3, 10000000 / output.length);
+        for (int round = 0; round < 2 * rounds; round++) {
+            if (round == rounds) start = System.nanoTime();
+            expression.evaluate(columns, output);
+        }
+        return (double) (System.nanoTime() - start) / rounds / output.length;
+    }
+
+    /**
+     * @return average time in nanoseconds to evaluate expression with simplify(environment), after warming up
+     */
+    private static double nanosPerSimplify(Expression expression, int warmup, int rounds) {
+        Map<String, Double> environment = new HashMap<>();
+        double sum = 0;
+        long start = 0;
+        for (int i = 0; i < warmup + rounds; i++) {
+            if (i == warmup) start = System.nanoTime();
+            for (int j = 0; j < VARIABLES.size(); j++) {
+                environment.put(VARIABLES.get(j), 1 + (i + j) % 7 * 0.25);
+            }
+            sum += ((Constant) expression.simplify(environment).simplify()).getValue();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sum == 42) System.out.print(""); // keep the results alive
+        return (double) elapsed / rounds;
+    }
+
+    /**
+     * @return average time in nanoseconds to evaluate compiled, after warming up
+     */
+    private static double nanosPerEvaluate(CompiledExpression compiled, int warmup, int rounds) {
+        double[] values = new double[VARIABLES.size()];
+        double sum = 0;
+        long start = 0;
+        for (int i = 0; i < warmup + rounds; i++) {
+            if (i == warmup) start = System.nanoTime();
+            for (int j = 0; j < values.length; j++) {
+                values[j] = 1 + (i + j) % 7 * 0.25;
+            }
+            sum += compiled.evaluate(values);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sum == 42) System.out.print(""); // keep the results alive
+        return (double) elapsed / rounds;
+    }
+}
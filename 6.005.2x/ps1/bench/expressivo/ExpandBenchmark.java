@@ -0,0 +1,84 @@
+package expressivo;
+
+import java.util.Random;
+
+import static expressivo.ExpressionInterner.constant;
+import static expressivo.ExpressionInterner.power;
+import static expressivo.ExpressionInterner.product;
+import static expressivo.ExpressionInterner.sum;
+import static expressivo.ExpressionInterner.variable;
+
+/**
+ * Measures Expression.expand() of the product of two polynomials of n terms each, of three shapes:
+ * dense univariate with integer coefficients (multiplied by Karatsuba's algorithm), dense univariate with fractional
+ * coefficients (multiplied as dense arrays by the schoolbook method), and sparse in three variables (multiplied in a
+ * hash table of packed exponent rows, with up to n^2 terms in the product). "of" is the time to convert both factors
+ * to polynomials, "times" the time to multiply them, and "expand" the time of the whole expand().
+ * Run with java -ea:none expressivo.ExpandBenchmark [maximal n]
+ */
+public class ExpandBenchmark {
+
+    private static final int ROUNDS = 5;
+    /** The sparse products have up to n^2 terms, so they are only measured up to this n */
+    private static final int MAXIMAL_SPARSE_TERMS = 1000;
+
+    /**
+     * @param args the maximal number of terms of a factor, by default 10000
+     */
+    public static void main(String[] args) {
+        int maximal = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        System.out.printf("%8s %12s %12s %10s %10s %10s%n", "terms", "shape", "product", "of ms", "times ms",
+                          "expand ms");
+        for (int n = 1000; n <= maximal; n *= 10) {
+            for (String shape : new String[] {"integer", "fractional", "sparse"}) {
+                if (shape.equals("sparse") && n > MAXIMAL_SPARSE_TERMS) {
+                    continue;
+                }
+                Random random = new Random(n);
+                Expression left = factor(shape, n, random);
+                Expression right = factor(shape, n, random);
+                double ofMillis = Double.MAX_VALUE;
+                double timesMillis = Double.MAX_VALUE;
+                double expandMillis = Double.MAX_VALUE;
+                int productTerms = 0;
+                for (int round = 0; round < ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    Polynomial leftPolynomial = Polynomial.of(left);
+                    Polynomial rightPolynomial = Polynomial.of(right);
+                    long converted = System.nanoTime();
+                    productTerms = leftPolynomial.times(rightPolynomial).getTermCount();
+                    long multiplied = System.nanoTime();
+                    product(left, right).expand();
+                    long expanded = System.nanoTime();
+                    ofMillis = Math.min(ofMillis, (converted - start) / 1e6);
+                    timesMillis = Math.min(timesMillis, (multiplied - converted) / 1e6);
+                    expandMillis = Math.min(expandMillis, (expanded - multiplied) / 1e6);
+                }
+                System.out.printf("%8d %12s %12d %10.1f %10.1f %10.1f%n", n, shape, productTerms, ofMillis,
+                                  timesMillis, expandMillis);
+            }
+        }
+    }
+
+    /**
+     * @return a sum of n terms c*x^k of distinct degrees k below 2n for the dense shapes, or c*x^i*y^j*z^k with
+     *         random exponents below 100 for the sparse shape
+     */
+    private static Expression factor(String shape, int n, Random random) {
+        Expression factor = null;
+        for (int i = 0; i < n; i++) {
+            double coefficient = shape.equals("fractional") ? random.nextInt(1000) / 8.0 + 0.125
+                                                             : 1 + random.nextInt(1000);
+            Expression term;
+            if (shape.equals("sparse")) {
+                term = product(product(product(constant(coefficient), power(variable("x"), random.nextInt(100))),
+                                       power(variable("y"), random.nextInt(100))),
+                               power(variable("z"), random.nextInt(100)));
+            } else {
+                term = product(constant(coefficient), power(variable("x"), 2 * i + random.nextInt(2)));
+            }
+            factor = factor == null ? term : sum(factor, term);
+        }
+        return factor;
+    }
+}
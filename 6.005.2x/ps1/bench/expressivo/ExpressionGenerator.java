@@ -0,0 +1,158 @@
+package expressivo;
+
+import java.util.Random;
+
+/**
+ * Generates the inputs of the benchmarks: random expressions of a given shape and number of leaves, as text in the
+ * language of Expression.parse(). The same shape, size and seed always give the same text, so results of different
+ * commits are measured on the same inputs.
+ */
+public class ExpressionGenerator {
+
+    /**
+     * The shapes of the generated expressions, each with n leaves, which are random variables from VARIABLES and
+     * random constants.
+     */
+    public enum Shape {
+        /** ((((a?b)?c)?d)...), where every ? is a random + or * */
+        LEFT_DEEP,
+        /** a complete binary tree of depth log2(n), with a random + or * at every inner node */
+        BALANCED,
+        /** a flat sum of about n/2 terms, each the product of a constant and one or two variables */
+        WIDE_SUM,
+        /** a*(b+c*(d+e*(...))), products and sums alternately nested to the right, n/2 deep */
+        NESTED_PRODUCT
+    }
+
+    private static final String[] VARIABLES = {"x", "y", "z", "w"};
+
+    /**
+     * @param shape the shape of the expression
+     * @param leaves the number of leaves, at least 1
+     * @param seed the seed of the random choices
+     * @return the text of a random expression of shape with leaves leaves
+     * @throws IllegalArgumentException if leaves is not positive
+     */
+    public static String generate(Shape shape, int leaves, long seed) {
+        if (leaves < 1) {
+            throw new IllegalArgumentException("An expression has at least one leaf, not " + leaves);
+        }
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        switch (shape) {
+            case LEFT_DEEP:
+                for (int i = 1; i < leaves; i++) {
+                    text.append('(');
+                }
+                appendLeaf(text, random);
+                for (int i = 1; i < leaves; i++) {
+                    text.append(operator(random));
+                    appendLeaf(text, random);
+                    text.append(')');
+                }
+                break;
+            case BALANCED:
+                appendBalanced(text, leaves, random);
+                break;
+            case WIDE_SUM:
+                for (int used = 0; used < leaves; ) {
+                    if (used > 0) text.append(" + ");
+                    text.append(1 + random.nextInt(99)).append('*').append(variable(random));
+                    used += 2;
+                    if (used < leaves && random.nextBoolean()) {
+                        text.append('*').append(variable(random));
+                        used++;
+                    }
+                }
+                break;
+            case NESTED_PRODUCT:
+                int depth = 0;
+                appendLeaf(text, random);
+                for (int i = 1; i < leaves; i++) {
+                    if (i % 2 == 1) {
+                        text.append("*(");
+                        depth++;
+                    } else {
+                        text.append('+');
+                    }
+                    appendLeaf(text, random);
+                }
+                for (int i = 0; i < depth; i++) {
+                    text.append(')');
+                }
+                break;
+            default:
+                throw new AssertionError("Unknown shape: " + shape);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Append a balanced tree of the given number of leaves, parenthesized unless it is a single leaf.
+     */
+    private static void appendBalanced(StringBuilder text, int leaves, Random random) {
+        if (leaves == 1) {
+            appendLeaf(text, random);
+            return;
+        }
+        text.append('(');
+        appendBalanced(text, leaves / 2, random);
+        text.append(operator(random));
+        appendBalanced(text, leaves - leaves / 2, random);
+        text.append(')');
+    }
+
+    /**
+     * Append a random variable, or with probability 1/4 a random integer or decimal constant.
+     */
+    private static void appendLeaf(StringBuilder text, Random random) {
+        if (random.nextInt(4) == 0) {
+            text.append(random.nextInt(10));
+            if (random.nextBoolean()) {
+                text.append('.').append(1 + random.nextInt(9));
+            }
+        } else {
+            text.append(variable(random));
+        }
+    }
+
+    private static String variable(Random random) {
+        return VARIABLES[random.nextInt(VARIABLES.length)];
+    }
+
+    private static char operator(Random random) {
+        return random.nextBoolean() ? '+' : '*';
+    }
+
+    /**
+     * @param expression any expression
+     * @return an expression equal to expression whose nodes are new and not interned, so none of the results of
+     *         simplify() and differentiate() memoized by the nodes of expression are reused
+     */
+    public static Expression copy(Expression expression) {
+        return ExpressionTraversal.foldShared(expression, new ExpressionTraversal.Fold<Expression>() {
+            @Override
+            public Expression leaf(Expression node) {
+                if (node instanceof Constant) {
+                    return new Constant(((Constant) node).getValue());
+                }
+                return new Variable(((Variable) node).getVariable());
+            }
+
+            @Override
+            public Expression sum(Sum node, Expression left, Expression right) {
+                return new Sum(left, right);
+            }
+
+            @Override
+            public Expression product(Product node, Expression left, Expression right) {
+                return new Product(left, right);
+            }
+
+            @Override
+            public Expression power(Power node, Expression base) {
+                return new Power(base, node.getExponent());
+            }
+        });
+    }
+}
@@ -0,0 +1,161 @@
+package expressivo;
+
+import expressivo.ExpressionGenerator.Shape;
+import expressivo.ExpressionParser.Engine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the core operations of Expression on random expressions of every shape of ExpressionGenerator
+ * and several sizes (numbers of leaves), generated from a fixed seed.
+ *
+ * simplify() and differentiate() remember their results in the nodes (see Memoization), so the benchmarks of them
+ * run on a new copy of the expression for every invocation, which is not interned and has nothing memoized;
+ * simplifyMemoized measures the lookup of the remembered result instead. parse bypasses the parse cache, and
+ * parseCached measures a hit; both use the engine parameter. hashCode() is computed when a node is built, so hash
+ * measures reading it.
+ *
+ * The results are written as JSON, one record per benchmark and parameters, which can be compared between commits,
+ * e.g. with a JMH result visualizer or a diff of the scores. Run with the JMH jars of lib/ on the classpath, which
+ * also generates the benchmark code when this class is compiled:
+ *      java expressivo.ExpressionJmhBenchmark [result file, by default jmh-result.json]
+ * or with the JMH command line, e.g. to select parameters:
+ *      java org.openjdk.jmh.Main ExpressionJmhBenchmark -p shape=WIDE_SUM -rf json -rff result.json
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionJmhBenchmark {
+
+    /** Default name of the result file */
+    public static final String RESULT_FILE = "jmh-result.json";
+
+    @Param({"LEFT_DEEP", "BALANCED", "WIDE_SUM", "NESTED_PRODUCT"})
+    public Shape shape;
+
+    @Param({"16", "256", "4096"})
+    public int size;
+
+    @Param({"6005"})
+    public long seed;
+
+    /** The grammar engine recurses on nested parentheses, so it overflows the stack on the deep shapes */
+    @Param({"HANDWRITTEN"})
+    public Engine engine;
+
+    private String input;
+    private Expression expression;
+    private Expression copy;
+    private Map<String, Double> environment;
+
+    /**
+     * Generate the input and parse it once.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        ExpressionParser.setEngine(engine);
+        input = ExpressionGenerator.generate(shape, size, seed);
+        expression = Expression.parse(input);
+        copy = ExpressionGenerator.copy(expression);
+        environment = new HashMap<>();
+        environment.put("x", 2.0);
+        environment.put("y", 0.5);
+    }
+
+    /**
+     * A copy of the expression with nothing memoized, made anew for every invocation.
+     */
+    @State(Scope.Thread)
+    public static class Fresh {
+        private Expression expression;
+
+        /**
+         * @param benchmark the benchmark whose expression is copied
+         */
+        @Setup(Level.Invocation)
+        public void setUp(ExpressionJmhBenchmark benchmark) {
+            expression = ExpressionGenerator.copy(benchmark.expression);
+        }
+    }
+
+    @Benchmark
+    public Expression parse() {
+        return ExpressionParser.parseUncached(input);
+    }
+
+    @Benchmark
+    public Expression parseCached() {
+        return Expression.parse(input);
+    }
+
+    @Benchmark
+    public Expression simplify(Fresh fresh) {
+        return fresh.expression.simplify();
+    }
+
+    @Benchmark
+    public Expression simplifyMemoized() {
+        return expression.simplify();
+    }
+
+    @Benchmark
+    public Expression simplifyEnvironment(Fresh fresh) {
+        return fresh.expression.simplify(environment);
+    }
+
+    @Benchmark
+    public Expression differentiate(Fresh fresh) {
+        return fresh.expression.differentiate("x");
+    }
+
+    @Benchmark
+    public String print() {
+        return expression.toString();
+    }
+
+    @Benchmark
+    public boolean equalsCopy() {
+        return copy.equals(expression);
+    }
+
+    @Benchmark
+    public int hash() {
+        return expression.hashCode();
+    }
+
+    /**
+     * Run all benchmarks of this class and write their results as JSON.
+     * @param args the result file, by default RESULT_FILE
+     * @throws RunnerException if JMH fails to run the benchmarks
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ExpressionJmhBenchmark.class.getSimpleName())
+                .resultFormat(ResultFormatType.JSON)
+                .result(args.length > 0 ? args[0] : RESULT_FILE)
+                .build();
+        new Runner(options).run();
+    }
+}
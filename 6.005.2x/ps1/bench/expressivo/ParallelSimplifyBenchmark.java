@@ -0,0 +1,78 @@
+package expressivo;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static expressivo.ExpressionInterner.constant;
+import static expressivo.ExpressionInterner.product;
+import static expressivo.ExpressionInterner.sum;
+import static expressivo.ExpressionInterner.variable;
+
+/**
+ * Measures the speedup of ParallelSimplifier on a wide polynomial (a left-deep chain of random terms) with pools of
+ * 1, 2, 4, ... threads up to the number of processors, compared to normalize() on one thread.
+ * Run with java -ea:none expressivo.ParallelSimplifyBenchmark [terms] [distinct]
+ */
+public class ParallelSimplifyBenchmark {
+
+    private static final String[] VARIABLES = {"x", "y", "z", "w", "v", "u"};
+    private static final int ROUNDS = 5;
+
+    /**
+     * @param args the number of terms, by default 100000, and the maximal degree of the terms, by default 6, which
+     *             determines how many terms are distinct
+     */
+    public static void main(String[] args) {
+        int terms = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int degree = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        Expression expression = polynomial(new Random(terms), terms, degree);
+        Polynomial expected = Polynomial.of(expression);
+        System.out.printf("%d terms, %d distinct, %d processors%n", terms, expected.getTermCount(),
+                          Runtime.getRuntime().availableProcessors());
+
+        // normalize() adds the terms one by one, which is quadratic, so it is measured only once
+        double sequential = millis(expression, null, 1);
+        System.out.printf("%10s %10s %12s %14s%n", "threads", "ms", "vs 1 thread", "vs normalize");
+        System.out.printf("%10s %10.1f%n", "normalize", sequential);
+        double single = 0;
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            double time = millis(expression, pool, ROUNDS);
+            pool.shutdown();
+            if (threads == 1) single = time;
+            System.out.printf("%10d %10.1f %11.2fx %13.1fx%n", threads, time, single / time, sequential / time);
+        }
+    }
+
+    /**
+     * @return a left-deep sum of terms random terms of degree up to degree, with integer coefficients
+     */
+    static Expression polynomial(Random random, int terms, int degree) {
+        Expression polynomial = null;
+        for (int i = 0; i < terms; i++) {
+            Expression term = constant(1 + random.nextInt(100));
+            for (int f = 0, factors = random.nextInt(degree + 1); f < factors; f++) {
+                term = product(term, variable(VARIABLES[random.nextInt(VARIABLES.length)]));
+            }
+            polynomial = polynomial == null ? term : sum(polynomial, term);
+        }
+        return polynomial;
+    }
+
+    /**
+     * @return the fastest time in milliseconds of rounds to simplify expression on pool, or with normalize() if pool
+     *         is null, after as many rounds of warming up
+     */
+    private static double millis(Expression expression, ForkJoinPool pool, int rounds) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 2 * rounds; round++) {
+            long start = System.nanoTime();
+            Polynomial polynomial = pool == null ? Polynomial.of(expression)
+                                                 : ParallelSimplifier.polynomial(expression, pool);
+            long elapsed = System.nanoTime() - start;
+            if (polynomial.getTermCount() == 0) System.out.print(""); // keep the result alive
+            if (round >= rounds) best = Math.min(best, elapsed);
+        }
+        return best / 1e6;
+    }
+}
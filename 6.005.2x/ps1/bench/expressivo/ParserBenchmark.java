@@ -0,0 +1,71 @@
+package expressivo;
+
+import expressivo.ExpressionParser.Engine;
+
+import java.util.Random;
+
+/**
+ * Compares the grammar-based parser with the hand-written parser on long polynomials, e.g.
+ * "3*x*y + 0.5*x*x*z + ...". Run with java -ea:none expressivo.ParserBenchmark [terms...]
+ * The cache of ExpressionParser is bypassed, so every iteration parses the input again.
+ */
+public class ParserBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+    private static final String[] VARIABLES = {"x", "y", "z", "w"};
+
+    /**
+     * @param args the numbers of terms of the polynomials to parse, by default 10, 100, 1000 and 5000
+     */
+    public static void main(String[] args) {
+        int[] sizes = {10, 100, 1000, 5000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%8s %10s %14s %14s %8s%n", "terms", "chars", "grammar(us)", "handwritten(us)", "speedup");
+        for (int terms : sizes) {
+            String input = polynomial(new Random(terms), terms);
+            double grammar = microsPerParse(input, Engine.GRAMMAR);
+            double handwritten = microsPerParse(input, Engine.HANDWRITTEN);
+            System.out.printf("%8d %10d %14.1f %14.1f %8.1fx%n",
+                              terms, input.length(), grammar, handwritten, grammar / handwritten);
+        }
+    }
+
+    /**
+     * @return average time in microseconds to parse input with engine, after warming up
+     */
+    private static double microsPerParse(String input, Engine engine) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            ExpressionParser.parseUncached(input, engine);
+        }
+        long start = System.nanoTime();
+        int hash = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            hash += ExpressionParser.parseUncached(input, engine).hashCode();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (hash == 42) System.out.print(""); // keep the results alive
+        return elapsed / 1000.0 / MEASURED_ROUNDS;
+    }
+
+    /**
+     * @return a sum of terms products of a constant and one to three variables
+     */
+    static String polynomial(Random random, int terms) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) builder.append(" + ");
+            builder.append(random.nextInt(100)).append('.').append(random.nextInt(10));
+            int factors = 1 + random.nextInt(3);
+            for (int j = 0; j < factors; j++) {
+                builder.append('*').append(VARIABLES[random.nextInt(VARIABLES.length)]);
+            }
+        }
+        return builder.toString();
+    }
+}
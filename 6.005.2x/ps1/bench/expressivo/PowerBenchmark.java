@@ -0,0 +1,44 @@
+package expressivo;
+
+import static expressivo.ExpressionInterner.power;
+import static expressivo.ExpressionInterner.product;
+import static expressivo.ExpressionInterner.variable;
+
+/**
+ * Measures the derivative of x^n written as a chain of n factors x*x*...*x against the derivative of the single Power
+ * x^n: the product rule gives a derivative with a term per factor, the power rule a single term n*x^(n-1).
+ * Sizes are in distinct nodes and in characters of toString().
+ * Run with java -ea:none expressivo.PowerBenchmark [maximal n]
+ */
+public class PowerBenchmark {
+
+    /**
+     * @param args the maximal degree, by default 100000
+     */
+    public static void main(String[] args) {
+        int maximal = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        System.out.printf("%10s %12s %12s %10s %12s %12s %10s%n",
+                          "degree", "chain nodes", "chain chars", "chain ms", "power nodes", "power chars", "power ms");
+        Variable x = variable("x");
+        for (int n = 10; n <= maximal; n *= 10) {
+            // built without simplification, which would merge the chain into a power
+            Expression chain = x;
+            for (int i = 1; i < n; i++) {
+                chain = product(chain, x);
+            }
+            long start = System.nanoTime();
+            Expression chainDerivative = chain.differentiate("x");
+            double chainMillis = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            Expression powerDerivative = power(x, n).differentiate("x");
+            double powerMillis = (System.nanoTime() - start) / 1e6;
+
+            System.out.printf("%10d %12d %12d %10.3f %12d %12d %10.3f%n", n,
+                              ExpressionTraversal.postorder(chainDerivative).size(),
+                              ExpressionPrinter.length(chainDerivative), chainMillis,
+                              ExpressionTraversal.postorder(powerDerivative).size(),
+                              ExpressionPrinter.length(powerDerivative), powerMillis);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package expressivo;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Compares writing the text of large expressions by recursive string concatenation, the former implementation of
+ * toString(), to ExpressionPrinter: toString() into a presized buffer, streaming into a StringBuilder and streaming
+ * into a Writer. The expressions are balanced trees of sums and products, and left-deep chains of sums, which the
+ * recursive baseline cannot write without overflowing the stack.
+ * Run with java -ea:none expressivo.PrinterBenchmark [leaves...]
+ */
+public class PrinterBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    /**
+     * @param args the numbers of leaves of the expressions to write, by default 10^4, 10^5 and 10^6
+     */
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {10000, 100000, 1000000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%8s %8s %10s %14s %14s %14s %14s%n", "shape", "leaves", "chars", "recursive(ms)",
+                          "toString(ms)", "builder(ms)", "writer(ms)");
+        for (int leaves : sizes) {
+            run("balanced", leaves, balanced(0, leaves), true);
+            run("chain", leaves, chain(leaves), false);
+        }
+    }
+
+    private static void run(String shape, int leaves, Expression expression, boolean recursive) throws IOException {
+        long length = ExpressionPrinter.length(expression);
+        double concatenated = Double.NaN;
+        if (recursive) {
+            long start = 0;
+            for (int round = 0; round < 2 * ROUNDS; round++) {
+                if (round == ROUNDS) start = System.nanoTime();
+                check(recursiveText(expression).length(), length);
+            }
+            concatenated = (System.nanoTime() - start) / 1e6 / ROUNDS;
+        }
+        long start = 0;
+        for (int round = 0; round < 2 * ROUNDS; round++) {
+            if (round == ROUNDS) start = System.nanoTime();
+            check(ExpressionPrinter.toString(expression).length(), length);
+        }
+        double presized = (System.nanoTime() - start) / 1e6 / ROUNDS;
+        for (int round = 0; round < 2 * ROUNDS; round++) {
+            if (round == ROUNDS) start = System.nanoTime();
+            StringBuilder builder = new StringBuilder();
+            ExpressionPrinter.print(expression, builder);
+            check(builder.length(), length);
+        }
+        double streamed = (System.nanoTime() - start) / 1e6 / ROUNDS;
+        for (int round = 0; round < 2 * ROUNDS; round++) {
+            if (round == ROUNDS) start = System.nanoTime();
+            StringWriter writer = new StringWriter();
+            ExpressionPrinter.print(expression, writer);
+            check(writer.getBuffer().length(), length);
+        }
+        double written = (System.nanoTime() - start) / 1e6 / ROUNDS;
+        System.out.printf("%8s %8d %10d %14.2f %14.2f %14.2f %14.2f%n", shape, leaves, length, concatenated,
+                          presized, streamed, written);
+    }
+
+    private static void check(long actual, long expected) {
+        if (actual != expected) {
+            throw new AssertionError("wrote " + actual + " characters instead of " + expected);
+        }
+    }
+
+    /**
+     * @return the text of expression by recursive concatenation, as toString() was implemented before
+     */
+    private static String recursiveText(Expression expression) {
+        if (expression instanceof Sum) {
+            Sum sum = (Sum) expression;
+            return "(" + recursiveText(sum.getLeft()) + "+" + recursiveText(sum.getRight()) + ")";
+        } else if (expression instanceof Product) {
+            Product product = (Product) expression;
+            return recursiveText(product.getLeft()) + "*" + recursiveText(product.getRight());
+        }
+        return expression.toString();
+    }
+
+    /**
+     * @return a balanced tree of leaves distinct variables, alternating sums and products by level
+     */
+    private static Expression balanced(int first, int leaves) {
+        if (leaves == 1) {
+            return new Variable("x" + first);
+        }
+        int half = leaves / 2;
+        Expression left = balanced(first, half);
+        Expression right = balanced(first + half, leaves - half);
+        return Integer.numberOfTrailingZeros(leaves) % 2 == 0 ? new Sum(left, right) : new Product(left, right);
+    }
+
+    /**
+     * @return the left-deep sum x0*y + x1*y + ... of leaves/2 products, built without simplification
+     */
+    private static Expression chain(int leaves) {
+        Expression expression = new Product(new Variable("x0"), new Variable("y"));
+        for (int i = 1; i < leaves / 2; i++) {
+            expression = new Sum(expression, new Product(new Variable("x" + i), new Variable("y")));
+        }
+        return expression;
+    }
+}
@@ -0,0 +1,84 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Measures Newton's method on a calibration-like workload, solving a polynomial in x for many values of its
+ * parameters: with a Solver, which evaluates compiled code, against Newton steps that evaluate the expression and its
+ * derivative with simplify(environment), building ASTs on every step.
+ * Run with java -ea:none expressivo.SolverBenchmark [solves]
+ */
+public class SolverBenchmark {
+
+    private static final String EXPRESSION = "a*x*x*x + b*x*x + c*x + 1";
+    private static final int ROUNDS = 5;
+
+    /**
+     * @param args the number of solves per round, by default 100000
+     */
+    public static void main(String[] args) {
+        int solves = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Expression expression = Expression.parse(EXPRESSION);
+        Solver solver = new Solver(expression, Collections.singletonList("x"), Arrays.asList("a", "b", "c"));
+        Expression derivative = expression.differentiate("x").simplify();
+
+        System.out.printf("%d solves of %s = target%n", solves, EXPRESSION);
+        System.out.printf("%12s %10s %14s%n", "evaluation", "ms", "ns per solve");
+        double compiled = millis(() -> {
+            double sum = 0;
+            for (int i = 0; i < solves; i++) {
+                sum += solver.root(10 + i % 100, 1, 1, 2, 3);
+            }
+            return sum;
+        });
+        System.out.printf("%12s %10.1f %14.1f%n", "compiled", compiled, compiled * 1e6 / solves);
+        double simplified = millis(() -> {
+            double sum = 0;
+            for (int i = 0; i < solves / 100; i++) {
+                sum += newton(expression, derivative, 10 + i % 100, 1);
+            }
+            return sum;
+        });
+        System.out.printf("%12s %10.1f %14.1f%n", "simplify", simplified, simplified * 1e6 / (solves / 100));
+    }
+
+    /**
+     * @return a root of expression = target by Newton's method from guess, evaluating with simplify(environment)
+     */
+    private static double newton(Expression expression, Expression derivative, double target, double guess) {
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("a", 1.0);
+        environment.put("b", 2.0);
+        environment.put("c", 3.0);
+        double x = guess;
+        for (int iteration = 0; iteration < 100; iteration++) {
+            environment.put("x", x);
+            double value = ((Constant) expression.simplify(environment)).getValue();
+            double slope = ((Constant) derivative.simplify(environment)).getValue();
+            double step = (value - target) / slope;
+            x -= step;
+            if (Math.abs(step) <= Solver.TOLERANCE * (1 + Math.abs(x))) break;
+        }
+        return x;
+    }
+
+    /**
+     * @return the fastest time in milliseconds of ROUNDS runs of work, after as many rounds of warming up
+     */
+    private static double millis(DoubleSupplier work) {
+        long best = Long.MAX_VALUE;
+        double sink = 0;
+        for (int round = 0; round < 2 * ROUNDS; round++) {
+            long start = System.nanoTime();
+            sink += work.getAsDouble();
+            long elapsed = System.nanoTime() - start;
+            if (round >= ROUNDS) best = Math.min(best, elapsed);
+        }
+        if (sink == 0) System.out.print(""); // keep the results alive
+        return best / 1e6;
+    }
+}
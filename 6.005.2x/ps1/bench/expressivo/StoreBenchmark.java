@@ -0,0 +1,137 @@
+package expressivo;
+
+import java.util.Arrays;
+
+/**
+ * Measures the memory footprint and the evaluation time of a large model as an interned object tree and as an
+ * ExpressionStore. The model is the sum of n terms c_i * x_j * x_k over 1000 variables, with distinct constants, so
+ * it has about 4n distinct nodes. The footprint is the growth of the used heap after garbage collection while the
+ * model is referenced, which includes the entries of the interner for the object tree.
+ * Run with java -ea:none expressivo.StoreBenchmark [maximal n]
+ */
+public class StoreBenchmark {
+
+    private static final int VARIABLES = 1000;
+    private static final int ROUNDS = 5;
+
+    /**
+     * @param args the maximal number of terms, by default 1000000
+     */
+    public static void main(String[] args) {
+        int maximal = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        double[] values = new double[VARIABLES];
+        Arrays.fill(values, 1.0 / 3);
+        System.out.printf("%10s %10s %12s %12s %8s %12s %12s %8s%n", "terms", "nodes", "tree MB", "store MB", "ratio",
+                          "tree ms", "store ms", "speedup");
+        for (int n = 10000; n <= maximal; n *= 10) {
+            long before = usedMemory();
+            Expression tree = tree(n);
+            long treeBytes = usedMemory() - before;
+
+            before = usedMemory();
+            ExpressionStore store = store(n);
+            long storeBytes = usedMemory() - before;
+
+            double[] treeValues = new double[1];
+            double treeMillis = millis(() -> treeValues[0] = evaluate(tree, values));
+            double[] storeValues = new double[1];
+            double storeMillis = millis(() -> storeValues[0] = store.evaluate(values));
+            if (treeValues[0] != storeValues[0]) {
+                throw new AssertionError("different values " + treeValues[0] + " and " + storeValues[0]);
+            }
+            System.out.printf("%10d %10d %12.1f %12.1f %7.1fx %12.2f %12.2f %7.1fx%n", n, store.size(),
+                              treeBytes / 1e6, storeBytes / 1e6, (double) treeBytes / storeBytes,
+                              treeMillis, storeMillis, treeMillis / storeMillis);
+        }
+    }
+
+    /**
+     * @return the model of n terms as an interned object tree
+     */
+    private static Expression tree(int n) {
+        Expression model = null;
+        for (int i = 0; i < n; i++) {
+            Expression term = ExpressionInterner.product(
+                    ExpressionInterner.product(ExpressionInterner.constant(i + 0.5),
+                                               ExpressionInterner.variable(name(i % VARIABLES))),
+                    ExpressionInterner.variable(name(i * 7 % VARIABLES)));
+            model = model == null ? term : ExpressionInterner.sum(model, term);
+        }
+        return model;
+    }
+
+    /**
+     * @return the model of n terms as a store, built without an object tree
+     */
+    private static ExpressionStore store(int n) {
+        ExpressionStore.Builder builder = new ExpressionStore.Builder();
+        int model = -1;
+        for (int i = 0; i < n; i++) {
+            int factor = builder.product(builder.constant(i + 0.5), builder.variable(name(i % VARIABLES)));
+            int term = builder.product(factor, builder.variable(name(i * 7 % VARIABLES)));
+            model = model < 0 ? term : builder.sum(model, term);
+        }
+        return builder.build(model);
+    }
+
+    /**
+     * @return the name of variable i, which only has letters
+     */
+    private static String name(int i) {
+        StringBuilder name = new StringBuilder("v");
+        for (int rest = i; rest > 0; rest /= 26) {
+            name.append((char) ('a' + rest % 26));
+        }
+        return name.toString();
+    }
+
+    /**
+     * @return the value of expression by a traversal of the object tree, where every variable has the value
+     *         values[0], like in the store since all values are equal
+     */
+    private static double evaluate(Expression expression, double[] values) {
+        return ExpressionTraversal.foldShared(expression, new ExpressionTraversal.Fold<Double>() {
+            @Override
+            public Double leaf(Expression node) {
+                return node instanceof Constant ? ((Constant) node).getValue() : values[0];
+            }
+
+            @Override
+            public Double sum(Sum node, Double left, Double right) {
+                return left + right;
+            }
+
+            @Override
+            public Double product(Product node, Double left, Double right) {
+                return left * right;
+            }
+
+            @Override
+            public Double power(Power node, Double base) {
+                return Power.raise(base, node.getExponent());
+            }
+        });
+    }
+
+    /**
+     * @return the fastest time in milliseconds of ROUNDS runs, after as many rounds of warming up
+     */
+    private static double millis(Runnable run) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 2 * ROUNDS; round++) {
+            long start = System.nanoTime();
+            run.run();
+            long elapsed = System.nanoTime() - start;
+            if (round >= ROUNDS) best = Math.min(best, elapsed);
+        }
+        return best / 1e6;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
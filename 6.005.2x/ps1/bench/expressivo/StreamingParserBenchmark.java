@@ -0,0 +1,110 @@
+package expressivo;
+
+import expressivo.ExpressionParser.Engine;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares three ways to parse a polynomial file of several megabytes (see ParserBenchmark.polynomial()): reading it
+ * into a String first, streaming it from a Reader, and memory-mapping it. The peak is the largest growth of the used
+ * heap during the parse, over the heap after garbage collection, which for the String includes the bytes of the file
+ * and its characters, and for all three the AST and the entries of the interner.
+ * Run with java -ea:none expressivo.StreamingParserBenchmark [maximal terms]
+ */
+public class StreamingParserBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    /** A way to parse a file */
+    private interface Method {
+        Expression parse(Path file) throws IOException;
+    }
+
+    /**
+     * @param args the maximal number of terms, by default 1000000
+     * @throws IOException if the temporary file cannot be written or read
+     */
+    public static void main(String[] args) throws IOException {
+        int maximal = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Method string = file -> ExpressionParser.parseUncached(
+                new String(Files.readAllBytes(file), StandardCharsets.US_ASCII), Engine.HANDWRITTEN);
+        Method reader = file -> {
+            try (Reader in = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+                return ExpressionParser.parse(in);
+            }
+        };
+        Method mapped = ExpressionParser::parse;
+        Method[] methods = {string, reader, mapped};
+
+        Path file = Files.createTempFile("polynomial", ".txt");
+        try {
+            Files.write(file, ParserBenchmark.polynomial(new Random(0), 10000).getBytes(StandardCharsets.US_ASCII));
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                for (Method method : methods) {
+                    method.parse(file);
+                }
+            }
+            System.out.printf("%10s %8s %12s %12s %12s %12s %12s %12s%n", "terms", "file MB", "string ms",
+                              "string MB", "reader ms", "reader MB", "mapped ms", "mapped MB");
+            for (int terms = 10000; terms <= maximal; terms *= 10) {
+                Files.write(file, ParserBenchmark.polynomial(new Random(terms), terms)
+                                                 .getBytes(StandardCharsets.US_ASCII));
+                System.out.printf("%10d %8.1f", terms, Files.size(file) / 1e6);
+                Integer expectedHash = null;
+                for (Method method : methods) {
+                    long before = usedMemoryAndResetPeak();
+                    long start = System.nanoTime();
+                    int hash = method.parse(file).hashCode();
+                    double millis = (System.nanoTime() - start) / 1e6;
+                    long peak = peakMemory() - before;
+                    // only the hash is kept, so the next method does not find the nodes of the AST in the interner
+                    if (expectedHash != null && expectedHash != hash) {
+                        throw new AssertionError("different ASTs");
+                    }
+                    expectedHash = hash;
+                    System.out.printf(" %12.1f %12.1f", millis, peak / 1e6);
+                }
+                System.out.println();
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * @return the used heap after garbage collection, after which the peak usage of every heap pool is reset
+     */
+    private static long usedMemoryAndResetPeak() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return the sum of the peak usages of the heap pools since they were last reset
+     */
+    private static long peakMemory() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
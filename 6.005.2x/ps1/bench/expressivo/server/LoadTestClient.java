@@ -0,0 +1,178 @@
+package expressivo.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Load test of an ExpressivoServer on the loopback interface: several connections each send a number of d/dx and
+ * simplify requests on random polynomials, with up to a given number of requests in flight (pipelined), and the
+ * throughput and client-side latency percentiles are printed, followed by the stats of the server.
+ * Without --port, a server is started in this process on a free port.
+ * Run with java -ea:none expressivo.server.LoadTestClient [--port PORT] [--connections C] [--requests N]
+ *     [--depth D] [--distinct K]
+ */
+public class LoadTestClient {
+
+    /**
+     * @param args the port of a running server, the number of connections (default 4), the number of requests per
+     *             connection (default 10000), the number of requests in flight per connection (default 16), and the
+     *             number of distinct requests (default 1000), which determines the cache hit rate
+     */
+    public static void main(String[] args) throws Exception {
+        int port = -1;
+        int connections = 4;
+        int requests = 10000;
+        int depth = 16;
+        int distinct = 1000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            int value = Integer.parseInt(args[i + 1]);
+            switch (args[i]) {
+                case "--port": port = value; break;
+                case "--connections": connections = value; break;
+                case "--requests": requests = value; break;
+                case "--depth": depth = value; break;
+                case "--distinct": distinct = value; break;
+                default: throw new IllegalArgumentException("unknown option: \"" + args[i] + "\"");
+            }
+        }
+
+        ExpressivoServer local = null;
+        if (port < 0) {
+            local = new ExpressivoServer(0, Runtime.getRuntime().availableProcessors(),
+                                         ExpressivoProtocol.DEFAULT_CACHE_CAPACITY);
+            ExpressivoServer server = local;
+            Thread serving = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            serving.setDaemon(true);
+            serving.start();
+            port = local.getPort();
+        }
+
+        List<String> pool = requests(new Random(distinct), distinct);
+        LatencyRecorder latencies = new LatencyRecorder(Math.max(1, connections * requests));
+        List<Thread> clients = new ArrayList<>();
+        int[] errors = new int[connections];
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            int client = c;
+            int serverPort = port;
+            int inFlight = depth;
+            int count = requests;
+            Thread thread = new Thread(() -> {
+                try {
+                    errors[client] = run(serverPort, pool, new Random(client), count, inFlight, latencies);
+                } catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            thread.start();
+            clients.add(thread);
+        }
+        for (Thread thread : clients) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int totalErrors = 0;
+        for (int e : errors) {
+            totalErrors += e;
+        }
+        System.out.printf("%d connections x %d requests, %d in flight, %d distinct: %.0f requests/s, %d errors%n",
+                          connections, requests, depth, distinct, connections * requests / seconds, totalErrors);
+        System.out.println("client " + latencies);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            out.write("stats\nbye\n");
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                                                         StandardCharsets.UTF_8));
+            System.out.println("server " + in.readLine().substring("ok ".length()));
+        }
+        if (local != null) {
+            local.close();
+        }
+    }
+
+    /**
+     * Send count requests drawn from pool over one connection, with up to depth requests in flight.
+     * @return the number of error responses
+     */
+    private static int run(int port, List<String> pool, Random random, int count, int depth,
+                           LatencyRecorder latencies) throws IOException, InterruptedException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                                                         StandardCharsets.UTF_8));
+            // the send times of the requests in flight, in order; the reader takes them as the responses arrive
+            BlockingQueue<Long> sent = new ArrayBlockingQueue<>(depth);
+            int[] errors = {0};
+            Thread reader = new Thread(() -> {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        String response = in.readLine();
+                        latencies.record(System.nanoTime() - sent.take());
+                        if (response == null || !response.startsWith("ok ")) {
+                            errors[0]++;
+                        }
+                    }
+                } catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            reader.start();
+            for (int i = 0; i < count; i++) {
+                sent.put(System.nanoTime());
+                out.write(pool.get(random.nextInt(pool.size())));
+                out.write('\n');
+                if (sent.remainingCapacity() == 0 || i == count - 1) {
+                    out.flush();
+                }
+            }
+            reader.join();
+            out.write("bye\n");
+            out.flush();
+            return errors[0];
+        }
+    }
+
+    /**
+     * @return distinct requests, half of them d/dx and half simplify, on random polynomials of 1 to 20 terms
+     */
+    private static List<String> requests(Random random, int distinct) {
+        String[] variables = {"x", "y", "z"};
+        List<String> requests = new ArrayList<>();
+        for (int i = 0; i < distinct; i++) {
+            StringBuilder polynomial = new StringBuilder();
+            int terms = 1 + random.nextInt(20);
+            for (int t = 0; t < terms; t++) {
+                if (t > 0) polynomial.append(" + ");
+                polynomial.append(1 + random.nextInt(9));
+                for (int f = 0, factors = 1 + random.nextInt(3); f < factors; f++) {
+                    polynomial.append('*').append(variables[random.nextInt(variables.length)]);
+                }
+            }
+            // a distinct constant term keeps the requests distinct
+            polynomial.append(" + ").append(i);
+            requests.add(i % 2 == 0 ? "d/dx " + polynomial
+                                    : "simplify x=" + (1 + random.nextInt(5)) + " " + polynomial);
+        }
+        return requests;
+    }
+}
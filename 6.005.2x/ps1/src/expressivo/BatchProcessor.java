@@ -0,0 +1,254 @@
+package expressivo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Batch interface to the expression system: executes a stream of records concurrently, and writes their outputs in
+ * input order.
+ *
+ * The input consists of lines as in the console interface (see Main), grouped into records: a record starts with a
+ * line that is not a command (usually an expression) and continues with the commands after it, e.g.
+ *      x*x*y
+ *      !d/dx
+ *      !simplify x=1
+ * Every record is executed in a Session of its own, so the records are independent and are executed on a bounded
+ * pool of worker threads. Blank lines are skipped. For every other line one output line is written: its output, or
+ * "line n: " followed by the error if it fails, after which the rest of the record is still executed.
+ * At most WINDOW_PER_THREAD records per thread are read ahead of the record whose output is written next, so memory
+ * stays bounded on inputs of any length.
+ */
+public class BatchProcessor {
+
+    /** Number of records per worker thread that may be read ahead of the output */
+    static final int WINDOW_PER_THREAD = 4;
+
+    private static final String ERROR_PREFIX = "line ";
+
+    /**
+     * Execute the records of a file or of standard input, and write their outputs to standard output, followed by
+     * a summary on standard error. Usage: java expressivo.BatchProcessor [--threads n] [file]
+     * @param args the number of worker threads, by default the number of processors, and the input file, by default
+     *             standard input
+     * @throws IOException if there is an error reading the input
+     */
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String file = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (file == null && !args[i].startsWith("--")) {
+                file = args[i];
+            } else {
+                throw new IllegalArgumentException("usage: java expressivo.BatchProcessor [--threads n] [file]");
+            }
+        }
+        try (BufferedReader in = file == null
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            Summary summary = process(in, out, threads);
+            out.flush();
+            System.err.println(summary);
+        }
+    }
+
+    /**
+     * Execute the records of in on a pool of worker threads, and write their outputs to out in input order.
+     * @param in the input lines, read until its end
+     * @param out receives one output line per nonblank input line, in the order of the input
+     * @param threads the number of worker threads, at least 1
+     * @return the number of records, lines and errors, and the time taken
+     * @throws IOException if in or out throws it
+     * @throws IllegalArgumentException if threads < 1
+     */
+    public static Summary process(BufferedReader in, Writer out, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least 1 thread, not " + threads);
+        }
+        long start = System.nanoTime();
+        int records = 0;
+        int lines = 0;
+        int errors = 0;
+        int window = WINDOW_PER_THREAD * threads;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Deque<Future<Result>> pending = new ArrayDeque<>();
+            Record record = null;
+            int lineNumber = 0;
+            for (String line = in.readLine(); ; line = in.readLine()) {
+                lineNumber++;
+                boolean done = line == null;
+                boolean blank = !done && line.trim().isEmpty();
+                if (done || (!blank && !line.startsWith("!") && record != null)) {
+                    // the current record is complete
+                    if (record != null) {
+                        pending.addLast(pool.submit(record::execute));
+                        records++;
+                        record = null;
+                    }
+                    while (pending.size() >= window || (done && !pending.isEmpty())) {
+                        Result result = await(pending.removeFirst());
+                        result.write(out);
+                        lines += result.outputs.size();
+                        errors += result.errors;
+                    }
+                }
+                if (done) {
+                    break;
+                } else if (!blank) {
+                    if (record == null) {
+                        record = new Record();
+                    }
+                    record.add(lineNumber, line);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return new Summary(records, lines, errors, System.nanoTime() - start);
+    }
+
+    /**
+     * @return the result of future, waiting for it if necessary
+     */
+    private static Result await(Future<Result> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a record", e);
+        } catch (ExecutionException e) {
+            // every line catches its own RuntimeExceptions, so this is an Error
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new AssertionError("Unexpected exception in a record", e.getCause());
+        }
+    }
+
+    /**
+     * The input lines of a record, an expression followed by commands on it.
+     */
+    private static class Record {
+        private final List<Integer> lineNumbers = new ArrayList<>();
+        private final List<String> lines = new ArrayList<>();
+
+        void add(int lineNumber, String line) {
+            lineNumbers.add(lineNumber);
+            lines.add(line);
+        }
+
+        /**
+         * @return the outputs of the lines, each executed in one new session
+         */
+        Result execute() {
+            Session session = new Session();
+            List<String> outputs = new ArrayList<>(lines.size());
+            int errors = 0;
+            for (int i = 0; i < lines.size(); i++) {
+                String output;
+                try {
+                    output = session.execute(lines.get(i));
+                } catch (NoSuchElementException nse) {
+                    // the record starts with a command
+                    output = error(i, "must enter an expression before using this command");
+                    errors++;
+                } catch (RuntimeException re) {
+                    output = error(i, re.getClass().getName() + ": " + re.getMessage());
+                    errors++;
+                }
+                outputs.add(output);
+            }
+            return new Result(outputs, errors);
+        }
+
+        private String error(int i, String message) {
+            return ERROR_PREFIX + lineNumbers.get(i) + ": " + message;
+        }
+    }
+
+    /**
+     * The output lines of a record.
+     */
+    private static class Result {
+        private final List<String> outputs;
+        private final int errors;
+
+        Result(List<String> outputs, int errors) {
+            this.outputs = outputs;
+            this.errors = errors;
+        }
+
+        void write(Writer out) throws IOException {
+            for (String output : outputs) {
+                out.write(output);
+                out.write(System.lineSeparator());
+            }
+        }
+    }
+
+    /**
+     * Immutable summary of a batch: how many records and lines were executed, how many lines failed, and how long
+     * it took.
+     */
+    public static class Summary {
+        private final int records;
+        private final int lines;
+        private final int errors;
+        private final long nanos;
+
+        Summary(int records, int lines, int errors, long nanos) {
+            this.records = records;
+            this.lines = lines;
+            this.errors = errors;
+            this.nanos = nanos;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+
+        public int getLines() {
+            return lines;
+        }
+
+        public int getErrors() {
+            return errors;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return the number of records executed per second
+         */
+        public double getRecordsPerSecond() {
+            return records / Math.max(nanos / 1e9, 1e-9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d records, %d lines, %d errors in %.3f s (%.1f records/s)",
+                                 records, lines, errors, nanos / 1e9, getRecordsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,591 @@
+package expressivo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Generates a JVM class that evaluates an expression, for CompiledExpression. The class implements
+ * ToDoubleFunction&lt;double[]&gt; with straight-line code: every variable is an array load, every constant is loaded
+ * from the constant pool, every Sum and Product is a dadd or dmul, and every Power is a call of Power.raise(). There
+ * are no branches, no allocations and no calls other than between the generated methods and to Power.raise().
+ *
+ * The code is split into several static methods of type ([D)D, so no method is too large for the JIT compiler or
+ * needs a deep operand stack: a subexpression gets its own method if inlining it would make a method larger than
+ * MAX_METHOD_SIZE or its stack deeper than MAX_STACK, and an expression that occurs more than once (interned
+ * expressions share equal subexpressions) gets its own method if it is larger than MAX_SHARED_INLINE_SIZE, so
+ * the generated code grows with the number of distinct subexpressions instead of the size of the expression tree.
+ *
+ * The methods are spread over as many classes as their constant pools need, so an expression of any size compiles:
+ * a method goes to the next class when the constant pool of the current one may not have room for its entries.
+ * The methods are generated callees first, so a call names the class its callee was put in. Every class of an
+ * expression is defined by the same class loader, so the package-private methods can call each other.
+ *
+ * This class is mutable and not threadsafe; every call of the static compile() uses its own instance.
+ */
+class BytecodeCompiler {
+
+    /** Maximal size in bytes of the code of a generated method, well below the limit of the JIT compiler (8000) */
+    private static final int MAX_METHOD_SIZE = 4000;
+    /** Maximal depth in slots of the operand stack of a generated method */
+    private static final int MAX_STACK = 64;
+    /** Maximal size in bytes of a subexpression that is inlined at every occurrence */
+    private static final int MAX_SHARED_INLINE_SIZE = 16;
+    /** Size in bytes of a call of a generated method: aload_0, invokestatic */
+    private static final int CALL_SIZE = 4;
+    /** Size in bytes of a call of Power.raise() after its arguments: invokestatic */
+    private static final int RAISE_SIZE = 3;
+    /** Limit of the number of entries of the constant pool and of the number of methods of a class file */
+    private static final int CLASS_FILE_LIMIT = 0xFFFF;
+    /**
+     * Upper bound of the constant pool slots one method adds: at most 5 per call of another method, which is the
+     * densest use of the pool (a double constant takes 2 slots for 3 bytes), plus the entries of the method itself,
+     * of Power.raise() and of the constructor and applyAsDouble() of the first class
+     */
+    private static final int METHOD_POOL_SLOTS = (MAX_METHOD_SIZE / CALL_SIZE + 1) * 5 + 32;
+
+    private static final String EVALUATOR_DESCRIPTOR = "([D)D";
+    private static final String RAISE_DESCRIPTOR = "(DI)D";
+    private static final AtomicLong classCount = new AtomicLong();
+
+    // JVM opcodes
+    private static final int ICONST_0 = 0x03;
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int DALOAD = 0x31;
+    private static final int DADD = 0x63;
+    private static final int DMUL = 0x6b;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int CHECKCAST = 0xc0;
+
+    /** The code of one (sub)expression */
+    private static class Shape {
+        /** size in bytes of the inlined code */
+        int size;
+        /** maximal depth in slots of the operand stack of the inlined code */
+        int stack;
+        /** index of the generated method evaluating the expression, or -1 if its code is inlined */
+        int method = -1;
+        /** true if the right operand of a Sum or Product is evaluated first, see shape() */
+        boolean rightFirst;
+    }
+
+    // rep
+    private final Map<String, Integer> indices;
+    private Map<Expression, Integer> occurrences;
+    private final Map<Expression, Shape> shapes = new IdentityHashMap<>();
+    private final List<Expression> methods = new ArrayList<>();
+    private final String className;
+    private String[] owners;
+
+    // Abstraction
+    //      The generator of the class named className, and the classes it calls, evaluating an expression, where the
+    //      value of variable v is the element indices.get(v) of the argument array. methods.get(i) is evaluated by
+    //      the static method "e" + i of the class named owners[i], once it is generated.
+    // Rep invariant
+    //      shapes.get(e).method == i iff methods.get(i) == e,
+    //      the size of every shape is at most MAX_METHOD_SIZE and its stack at most MAX_STACK + 2,
+    //      owners is null or has an element for every method
+    // Safety from rep exposure
+    //      all fields are private and never returned
+
+    private BytecodeCompiler(Map<String, Integer> indices) {
+        this.indices = indices;
+        this.className = "expressivo/GeneratedExpression" + classCount.incrementAndGet();
+    }
+
+    /**
+     * Generate and load the classes evaluating an expression.
+     *
+     * @param expression the expression to compile
+     * @param indices maps every variable of expression to the index of its value in the array passed to the evaluator
+     * @return a new evaluator computing the value of expression
+     * @throws IllegalArgumentException if indices misses a variable of expression
+     */
+    static ToDoubleFunction<double[]> compile(Expression expression, Map<String, Integer> indices) {
+        BytecodeCompiler compiler = new BytecodeCompiler(indices);
+        compiler.occurrences = ExpressionTraversal.countOccurrences(expression);
+        // decide the shapes bottom-up, so shape() finds the shapes of the operands and does not recurse
+        for (Expression node : ExpressionTraversal.postorder(expression)) {
+            compiler.shape(node);
+        }
+        Shape root = compiler.shape(expression);
+        compiler.makeMethod(expression, root);
+        List<ClassFile> classes = compiler.generateClasses(root.method);
+        // define all classes before the first call, which resolves the classes of its callees in this loader
+        GeneratedClassLoader loader = new GeneratedClassLoader(BytecodeCompiler.class.getClassLoader());
+        Class<?> generated = null;
+        for (ClassFile classFile : classes) {
+            Class<?> defined = loader.define(classFile.name.replace('/', '.'), classFile.toByteArray());
+            if (generated == null) {
+                generated = defined;
+            }
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            ToDoubleFunction<double[]> evaluator =
+                    (ToDoubleFunction<double[]>) generated.getConstructor().newInstance();
+            return evaluator;
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError("The generated class has a public constructor", e);
+        }
+    }
+
+    /**
+     * @return the shape of the code of expression, deciding which of its subexpressions get their own method
+     */
+    private Shape shape(Expression expression) {
+        Shape shape = shapes.get(expression);
+        if (shape != null) {
+            return shape;
+        }
+        shape = new Shape();
+        if (expression instanceof Constant) {
+            double value = ((Constant) expression).getValue();
+            shape.size = isSmallConstant(value) ? 1 : 3;
+            shape.stack = 2;
+        } else if (expression instanceof Variable) {
+            shape.size = 2 + pushIntSize(index((Variable) expression));
+            shape.stack = 2;
+        } else if (expression instanceof Sum || expression instanceof Product) {
+            Expression left = expression instanceof Sum ? ((Sum) expression).getLeft()
+                                                        : ((Product) expression).getLeft();
+            Expression right = expression instanceof Sum ? ((Sum) expression).getRight()
+                                                         : ((Product) expression).getRight();
+            Shape leftShape = shape(left);
+            Shape rightShape = shape(right);
+            if (size(leftShape) + size(rightShape) + 1 > MAX_METHOD_SIZE) {
+                if (size(leftShape) >= size(rightShape)) {
+                    makeMethod(left, leftShape);
+                } else {
+                    makeMethod(right, rightShape);
+                }
+            }
+            if (size(leftShape) + size(rightShape) + 1 > MAX_METHOD_SIZE) {
+                makeMethod(left, leftShape);
+                makeMethod(right, rightShape);
+            }
+            // dadd and dmul are commutative, so evaluate the operand that needs the deeper stack first: the first
+            // value then waits on the stack only while the shallower operand is evaluated, and a chain nested to
+            // either side needs a stack of constant depth instead of a new method every MAX_STACK / 2 levels
+            shape.rightFirst = stack(rightShape) > stack(leftShape);
+            Shape firstShape = shape.rightFirst ? rightShape : leftShape;
+            Expression second = shape.rightFirst ? left : right;
+            Shape secondShape = shape.rightFirst ? leftShape : rightShape;
+            if (2 + stack(secondShape) > MAX_STACK) {
+                makeMethod(second, secondShape);
+            }
+            shape.size = size(leftShape) + size(rightShape) + 1;
+            shape.stack = Math.max(stack(firstShape), 2 + stack(secondShape));
+        } else if (expression instanceof Power) {
+            Power power = (Power) expression;
+            Shape baseShape = shape(power.getBase());
+            int call = pushIntSize(power.getExponent()) + RAISE_SIZE;
+            if (size(baseShape) + call > MAX_METHOD_SIZE) {
+                makeMethod(power.getBase(), baseShape);
+            }
+            shape.size = size(baseShape) + call;
+            shape.stack = Math.max(stack(baseShape), 3);
+        } else {
+            throw new IllegalArgumentException("Cannot compile the expression " + expression);
+        }
+        shapes.put(expression, shape);
+        if (occurrences.get(expression) > 1 && shape.size > MAX_SHARED_INLINE_SIZE) {
+            makeMethod(expression, shape);
+        }
+        return shape;
+    }
+
+    private void makeMethod(Expression expression, Shape shape) {
+        if (shape.method < 0) {
+            shape.method = methods.size();
+            methods.add(expression);
+        }
+    }
+
+    /**
+     * @return the size of the code evaluating the expression of shape, where it is used
+     */
+    private static int size(Shape shape) {
+        return shape.method < 0 ? shape.size : CALL_SIZE;
+    }
+
+    /**
+     * @return the depth of the operand stack of the code evaluating the expression of shape, where it is used
+     */
+    private static int stack(Shape shape) {
+        return shape.method < 0 ? shape.stack : 2;
+    }
+
+    private int index(Variable variable) {
+        Integer index = indices.get(variable.getVariable());
+        if (index == null) {
+            throw new IllegalArgumentException("No value for the variable " + variable);
+        }
+        return index;
+    }
+
+    private static boolean isSmallConstant(double value) {
+        return Double.doubleToLongBits(value) == Double.doubleToLongBits(0.0) || value == 1.0;
+    }
+
+    private static int pushIntSize(int value) {
+        if (value <= 5) return 1;
+        if (value <= Byte.MAX_VALUE) return 2;
+        return 3; // sipush or ldc_w
+    }
+
+    /**
+     * @param root the index of the method evaluating the whole expression
+     * @return the generated classes, the first of which is named className and is the evaluator
+     */
+    private List<ClassFile> generateClasses(int root) {
+        List<ClassFile> classes = new ArrayList<>();
+        ClassFile current = new ClassFile(className);
+        classes.add(current);
+        owners = new String[methods.size()];
+        for (int i : generationOrder(root)) {
+            if (current.pool.size() > CLASS_FILE_LIMIT - METHOD_POOL_SLOTS) {
+                current = new ClassFile(className + "$" + classes.size());
+                classes.add(current);
+            }
+            Expression expression = methods.get(i);
+            Code code = new Code();
+            generate(expression, true, code, current.pool);
+            code.emit(DRETURN);
+            // static double e<i>(double[] values), package-private so the other classes can call it
+            current.methods.add(methodInfo(0x0008, "e" + i, EVALUATOR_DESCRIPTOR, shapes.get(expression).stack, 1,
+                                           code, current.pool));
+            owners[i] = current.name;
+        }
+
+        ClassFile evaluator = classes.get(0);
+        ConstantPool pool = evaluator.pool;
+        Code constructor = new Code();
+        constructor.emit(ALOAD_0);
+        constructor.emit(INVOKESPECIAL);
+        constructor.emitShort(pool.methodref("java/lang/Object", "<init>", "()V"));
+        constructor.emit(RETURN);
+        evaluator.methods.add(methodInfo(0x0001, "<init>", "()V", 1, 1, constructor, pool));
+
+        Code apply = new Code();
+        apply.emit(ALOAD_1);
+        apply.emit(CHECKCAST);
+        apply.emitShort(pool.classref("[D"));
+        apply.emit(INVOKESTATIC);
+        apply.emitShort(pool.methodref(owners[root], "e" + root, EVALUATOR_DESCRIPTOR));
+        apply.emit(DRETURN);
+        evaluator.methods.add(methodInfo(0x0001, "applyAsDouble", "(Ljava/lang/Object;)D", 2, 2, apply, pool));
+        evaluator.interfaceName = "java/util/function/ToDoubleFunction";
+        return classes;
+    }
+
+    /**
+     * @param root the index of the method evaluating the whole expression
+     * @return the indices of the methods root calls directly or indirectly, and root, every method after all methods
+     *         it calls
+     */
+    private List<Integer> generationOrder(int root) {
+        List<Integer> order = new ArrayList<>();
+        boolean[] visited = new boolean[methods.size()];
+        // a method i is pushed as ~i once the methods it calls are pushed above it
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            int method = stack.pop();
+            if (method < 0) {
+                order.add(~method);
+            } else if (!visited[method]) {
+                visited[method] = true;
+                stack.push(~method);
+                for (int callee : callees(method)) {
+                    if (!visited[callee]) {
+                        stack.push(callee);
+                    }
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * @return the indices of the methods the code of method calls, as generate() emits it
+     */
+    private List<Integer> callees(int method) {
+        List<Integer> callees = new ArrayList<>();
+        Deque<Expression> inlined = new ArrayDeque<>(ExpressionTraversal.operands(methods.get(method)));
+        while (!inlined.isEmpty()) {
+            Expression expression = inlined.pop();
+            int callee = shapes.get(expression).method;
+            if (callee >= 0) {
+                callees.add(callee);
+            } else {
+                inlined.addAll(ExpressionTraversal.operands(expression));
+            }
+        }
+        return callees;
+    }
+
+    /**
+     * Append the code evaluating expression to code.
+     * @param inline true to generate the code of expression itself, false to call its method if it has one
+     */
+    private void generate(Expression expression, boolean inline, Code code, ConstantPool pool) {
+        Shape shape = shapes.get(expression);
+        if (!inline && shape.method >= 0) {
+            code.emit(ALOAD_0);
+            code.emit(INVOKESTATIC);
+            code.emitShort(pool.methodref(owners[shape.method], "e" + shape.method, EVALUATOR_DESCRIPTOR));
+        } else if (expression instanceof Constant) {
+            double value = ((Constant) expression).getValue();
+            if (isSmallConstant(value)) {
+                code.emit(value == 0 ? DCONST_0 : DCONST_1);
+            } else {
+                code.emit(LDC2_W);
+                code.emitShort(pool.doubleConstant(value));
+            }
+        } else if (expression instanceof Variable) {
+            code.emit(ALOAD_0);
+            pushInt(index((Variable) expression), code, pool);
+            code.emit(DALOAD);
+        } else if (expression instanceof Sum) {
+            generateOperands(((Sum) expression).getLeft(), ((Sum) expression).getRight(), shape, code, pool);
+            code.emit(DADD);
+        } else if (expression instanceof Power) {
+            generate(((Power) expression).getBase(), false, code, pool);
+            pushInt(((Power) expression).getExponent(), code, pool);
+            code.emit(INVOKESTATIC);
+            code.emitShort(pool.methodref("expressivo/Power", "raise", RAISE_DESCRIPTOR));
+        } else {
+            generateOperands(((Product) expression).getLeft(), ((Product) expression).getRight(), shape, code, pool);
+            code.emit(DMUL);
+        }
+    }
+
+    /**
+     * Append the code evaluating the operands left and right of a Sum or Product of shape shape to code, in the order
+     * chosen by shape().
+     */
+    private void generateOperands(Expression left, Expression right, Shape shape, Code code, ConstantPool pool) {
+        generate(shape.rightFirst ? right : left, false, code, pool);
+        generate(shape.rightFirst ? left : right, false, code, pool);
+    }
+
+    private static void pushInt(int value, Code code, ConstantPool pool) {
+        if (value <= 5) {
+            code.emit(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            code.emit(BIPUSH);
+            code.emit(value);
+        } else if (value <= Short.MAX_VALUE) {
+            code.emit(SIPUSH);
+            code.emitShort(value);
+        } else {
+            code.emit(LDC_W);
+            code.emitShort(pool.integerConstant(value));
+        }
+    }
+
+    /**
+     * @return the method_info structure of a method with a Code attribute
+     */
+    private static byte[] methodInfo(int access, String name, String descriptor, int maxStack, int maxLocals, Code code,
+                                     ConstantPool pool) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(access);
+            out.writeShort(pool.utf8(name));
+            out.writeShort(pool.utf8(descriptor));
+            out.writeShort(1); // attributes
+            out.writeShort(pool.utf8("Code"));
+            out.writeInt(12 + code.size());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.size());
+            code.writeTo(out);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new AssertionError("A ByteArrayOutputStream does not throw", e);
+        }
+    }
+
+    /**
+     * A class file being generated: a final class extending Object, with no fields and the given methods.
+     */
+    private static class ClassFile {
+        final String name;
+        final ConstantPool pool = new ConstantPool();
+        final List<byte[]> methods = new ArrayList<>();
+        /** the interface the class implements, or null */
+        String interfaceName;
+
+        ClassFile(String name) {
+            this.name = name;
+        }
+
+        byte[] toByteArray() {
+            int thisClass = pool.classref(name);
+            int superClass = pool.classref("java/lang/Object");
+            int interfaceClass = interfaceName == null ? 0 : pool.classref(interfaceName);
+            assert pool.size() < CLASS_FILE_LIMIT && methods.size() < CLASS_FILE_LIMIT;
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);  // minor version
+                out.writeShort(52); // major version: Java 8, so no stack map frames are needed for straight-line code
+                pool.write(out);
+                out.writeShort(0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                if (interfaceName == null) {
+                    out.writeShort(0);
+                } else {
+                    out.writeShort(1);
+                    out.writeShort(interfaceClass);
+                }
+                out.writeShort(0); // fields
+                out.writeShort(methods.size());
+                for (byte[] method : methods) {
+                    out.write(method);
+                }
+                out.writeShort(0); // attributes
+                out.flush();
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new AssertionError("A ByteArrayOutputStream does not throw", e);
+            }
+        }
+    }
+
+    /**
+     * A growable array of bytecode.
+     */
+    private static class Code extends ByteArrayOutputStream {
+        void emit(int opcode) {
+            write(opcode);
+        }
+
+        void emitShort(int value) {
+            write(value >>> 8);
+            write(value);
+        }
+    }
+
+    /**
+     * The constant pool of a class file, without duplicate entries.
+     */
+    private static class ConstantPool {
+        private final Map<String, Integer> entries = new HashMap<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int size = 1; // entry 0 is not used
+
+        int utf8(String value) {
+            return entry("U" + value, 1, 1, data -> data.writeUTF(value));
+        }
+
+        int classref(String name) {
+            int nameIndex = utf8(name);
+            return entry("C" + name, 7, 1, data -> data.writeShort(nameIndex));
+        }
+
+        int methodref(String owner, String name, String descriptor) {
+            int classIndex = classref(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + " " + descriptor, 12, 1, data -> {
+                data.writeShort(nameIndex);
+                data.writeShort(descriptorIndex);
+            });
+            return entry("M" + owner + "." + name + descriptor, 10, 1, data -> {
+                data.writeShort(classIndex);
+                data.writeShort(nameAndType);
+            });
+        }
+
+        int doubleConstant(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            return entry("D" + bits, 6, 2, data -> data.writeLong(bits));
+        }
+
+        int integerConstant(int value) {
+            return entry("I" + value, 3, 1, data -> data.writeInt(value));
+        }
+
+        /** @return the number of slots of the pool, including the unused slot 0 */
+        int size() {
+            return size;
+        }
+
+        private interface Body {
+            void write(DataOutputStream data) throws IOException;
+        }
+
+        /**
+         * @param key identifies the entry among all entries
+         * @param tag the tag of the entry
+         * @param slots the number of slots of the entry, 2 for doubles and 1 for the other entries
+         * @param body writes the entry after its tag
+         * @return the index of the entry, which is added if there is none with the same key
+         */
+        private int entry(String key, int tag, int slots, Body body) {
+            Integer index = entries.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                out.writeByte(tag);
+                body.write(out);
+            } catch (IOException e) {
+                throw new AssertionError("A ByteArrayOutputStream does not throw", e);
+            }
+            index = size;
+            size += slots;
+            entries.put(key, index);
+            return index;
+        }
+
+        void write(DataOutputStream classFile) throws IOException {
+            out.flush();
+            classFile.writeShort(size);
+            bytes.writeTo(classFile);
+        }
+    }
+
+    /**
+     * Loads the classes generated for one expression. Every compiled expression has its own loader, so its classes
+     * are unloaded when the compiled expression is no longer used.
+     */
+    private static class GeneratedClassLoader extends ClassLoader {
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package expressivo;
+
+/**
+ * Immutable snapshot of the counters of a cache, e.g. the parse cache of ExpressionParser.
+ */
+public class CacheStatistics {
+
+    /** Capacity of a cache that is not bounded */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    // rep
+    private final long hits;
+    private final long misses;
+    private final int size;
+    private final int capacity;
+
+    // Abstraction
+    //      The state of a cache at one moment: how often a lookup was answered from the cache (hits), how often the
+    //      value had to be computed (misses), how many entries it held (size) and how many it may hold (capacity)
+    // Rep invariant
+    //      hits >= 0, misses >= 0, 0 <= size <= capacity
+    // Safety from rep exposure
+    //      all fields are private, final and primitive
+
+    /**
+     * @param hits number of lookups that were answered from the cache, requires hits >= 0
+     * @param misses number of lookups for which the value had to be computed, requires misses >= 0
+     * @param size number of entries in the cache, requires 0 <= size <= capacity
+     * @param capacity maximal number of entries the cache may hold, or UNBOUNDED
+     */
+    public CacheStatistics(long hits, long misses, int size, int capacity) {
+        this.hits = hits;
+        this.misses = misses;
+        this.size = size;
+        this.capacity = capacity;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert hits >= 0;
+        assert misses >= 0;
+        assert 0 <= size && size <= capacity;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the fraction of lookups answered from the cache, or 0 if there were no lookups at all
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+        if (lookups == 0) return 0;
+        return (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hits + " misses=" + misses + " size=" + size + "/" + capacity;
+    }
+}
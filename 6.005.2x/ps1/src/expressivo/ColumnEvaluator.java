@@ -0,0 +1,341 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates an expression over many rows of variable values given as columns, see Expression.evaluate(columns,
+ * output). The expression is translated into a program of column operations, one per distinct Sum, Product or
+ * Power, in postorder. The rows are processed in blocks of BLOCK_SIZE: every operation is a tight loop over a block
+ * of its operand columns, and the intermediate columns of a block are small enough to stay in the cache. Equal
+ * subexpressions (which interning shares) are evaluated only once per row. Large batches are split over the
+ * threads of the common fork-join pool.
+ * Immutable and threadsafe.
+ */
+class ColumnEvaluator {
+
+    /** Number of rows an operation processes at once */
+    static final int BLOCK_SIZE = 1024;
+    /** Minimal number of rows of a batch that is split over several threads */
+    static final int PARALLEL_THRESHOLD = 32 * BLOCK_SIZE;
+
+    /** Operand kinds */
+    private static final int INPUT = 0;
+    private static final int CONSTANT = 1;
+    private static final int SCRATCH = 2;
+    /** Right operand of a RAISE: the operand number is the exponent itself */
+    private static final int EXPONENT = 3;
+
+    /** Operation kinds */
+    private static final int ADD = 0;
+    private static final int MULTIPLY = 1;
+    private static final int RAISE = 2;
+
+    /** Target of the last operation: the output column */
+    private static final int OUTPUT = -1;
+
+    // rep
+    private final String[] variables;
+    private final double[] constants;
+    private final int[] operators;
+    private final int[] leftKinds;
+    private final int[] leftOperands;
+    private final int[] rightKinds;
+    private final int[] rightOperands;
+    private final int[] targets;
+    private final int scratchColumns;
+    private final int resultKind;
+    private final int result;
+
+    // Abstraction
+    //      The program computing an expression per row, where operation i computes targets[i] :=
+    //          operand(leftKinds[i], leftOperands[i]) operators[i] operand(rightKinds[i], rightOperands[i])
+    //      and operand(INPUT, j) is the column of variables[j], operand(CONSTANT, j) is constants[j] and
+    //      operand(SCRATCH, j) is scratch column j, and RAISE raises its left operand to the power
+    //      operand(EXPONENT, n) = n. The value of the expression is operand(resultKind, result),
+    //      or the output column if there are operations.
+    // Rep invariant
+    //      all operation arrays have the same length,
+    //      targets[i] is in [0, scratchColumns) or OUTPUT, and OUTPUT exactly for the last operation,
+    //      a scratch operand of operation i is the target of an earlier operation, which no operation in between
+    //      overwrites
+    // Safety from rep exposure
+    //      all fields are private final and never returned
+    // Thread safety
+    //      immutable, every evaluation uses its own scratch columns
+
+    /**
+     * @param expression the expression to evaluate
+     */
+    ColumnEvaluator(Expression expression) {
+        // the distinct subexpressions in postorder, and for each the position in order of the last one using it
+        List<Expression> order = ExpressionTraversal.postorder(expression);
+        Map<Expression, Integer> lastUse = new IdentityHashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            for (Expression operand : operands(order.get(i))) {
+                lastUse.put(operand, i);
+            }
+        }
+
+        int operations = 0;
+        for (Expression node : order) {
+            if (node instanceof Sum || node instanceof Product || node instanceof Power) operations++;
+        }
+        operators = new int[operations];
+        leftKinds = new int[operations];
+        leftOperands = new int[operations];
+        rightKinds = new int[operations];
+        rightOperands = new int[operations];
+        targets = new int[operations];
+
+        // assign the operands, reusing a scratch column once its value is no longer needed
+        List<String> variableList = new ArrayList<>();
+        List<Double> constantList = new ArrayList<>();
+        Map<Expression, int[]> locations = new IdentityHashMap<>();
+        Deque<Integer> freeColumns = new ArrayDeque<>();
+        int columns = 0;
+        int operation = 0;
+        for (int i = 0; i < order.size(); i++) {
+            Expression node = order.get(i);
+            if (node instanceof Variable) {
+                String name = ((Variable) node).getVariable();
+                int index = variableList.indexOf(name);
+                if (index < 0) {
+                    index = variableList.size();
+                    variableList.add(name);
+                }
+                locations.put(node, new int[] {INPUT, index});
+            } else if (node instanceof Constant) {
+                locations.put(node, new int[] {CONSTANT, constantList.size()});
+                constantList.add(((Constant) node).getValue());
+            } else {
+                List<Expression> operands = operands(node);
+                int[] left = locations.get(operands.get(0));
+                int[] right = node instanceof Power ? new int[] {EXPONENT, ((Power) node).getExponent()}
+                                                    : locations.get(operands.get(1));
+                operators[operation] = node instanceof Sum ? ADD : node instanceof Product ? MULTIPLY : RAISE;
+                leftKinds[operation] = left[0];
+                leftOperands[operation] = left[1];
+                rightKinds[operation] = right[0];
+                rightOperands[operation] = right[1];
+                // free the columns of operands used for the last time, so the target may reuse them
+                for (Expression operand : operands) {
+                    int[] location = locations.get(operand);
+                    if (location[0] == SCRATCH && lastUse.get(operand) == i && !freeColumns.contains(location[1])) {
+                        freeColumns.push(location[1]);
+                    }
+                }
+                int target;
+                if (operation == operations - 1) {
+                    target = OUTPUT;
+                } else if (!freeColumns.isEmpty()) {
+                    target = freeColumns.pop();
+                } else {
+                    target = columns++;
+                }
+                targets[operation] = target;
+                locations.put(node, new int[] {SCRATCH, target});
+                operation++;
+            }
+        }
+        variables = variableList.toArray(new String[0]);
+        constants = new double[constantList.size()];
+        for (int i = 0; i < constants.length; i++) {
+            constants[i] = constantList.get(i);
+        }
+        scratchColumns = columns;
+        int[] location = locations.get(expression);
+        resultKind = location[0];
+        result = location[1];
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert operators.length == targets.length;
+        assert targets.length == 0 || targets[targets.length - 1] == OUTPUT;
+    }
+
+    /**
+     * @return the left and right operand of a Sum or Product, the base of a Power, or no operands for a Constant or
+     *         Variable
+     */
+    private static List<Expression> operands(Expression expression) {
+        List<Expression> operands = new ArrayList<>(2);
+        if (expression instanceof Sum) {
+            operands.add(((Sum) expression).getLeft());
+            operands.add(((Sum) expression).getRight());
+        } else if (expression instanceof Product) {
+            operands.add(((Product) expression).getLeft());
+            operands.add(((Product) expression).getRight());
+        } else if (expression instanceof Power) {
+            operands.add(((Power) expression).getBase());
+        } else if (!(expression instanceof Constant || expression instanceof Variable)) {
+            throw new IllegalArgumentException("Cannot evaluate the expression " + expression);
+        }
+        return operands;
+    }
+
+    /**
+     * Evaluate the expression for every row.
+     *
+     * @param columns maps every variable of the expression to its column of values, where row r binds the variable
+     *                to column[r]
+     * @param output receives the value of the expression for row r in output[r], for every r < output.length
+     * @throws IllegalArgumentException if a variable has no column or its column has fewer rows than output
+     */
+    void evaluate(Map<String, double[]> columns, double[] output) {
+        double[][] inputs = new double[variables.length][];
+        for (int i = 0; i < variables.length; i++) {
+            inputs[i] = columns.get(variables[i]);
+            if (inputs[i] == null) {
+                throw new IllegalArgumentException("No values for the variable " + variables[i]);
+            }
+            if (inputs[i].length < output.length) {
+                throw new IllegalArgumentException("Only " + inputs[i].length + " values for the variable "
+                                                   + variables[i] + " but " + output.length + " rows");
+            }
+        }
+        if (output.length >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            ForkJoinPool.commonPool().invoke(new Rows(inputs, output, 0, output.length));
+        } else {
+            evaluate(inputs, output, 0, output.length);
+        }
+    }
+
+    /**
+     * Evaluates a range of rows, splitting it in halves while it is large enough to be worth another task.
+     */
+    private class Rows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[][] inputs;
+        private final double[] output;
+        private final int from;
+        private final int to;
+
+        Rows(double[][] inputs, double[] output, int from, int to) {
+            this.inputs = inputs;
+            this.output = output;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < PARALLEL_THRESHOLD) {
+                evaluate(inputs, output, from, to);
+                return;
+            }
+            // split on a block boundary
+            int middle = from + (to - from) / 2 / BLOCK_SIZE * BLOCK_SIZE;
+            invokeAll(new Rows(inputs, output, from, middle), new Rows(inputs, output, middle, to));
+        }
+    }
+
+    /**
+     * Evaluate the rows from (inclusive) to (exclusive), one block at a time.
+     */
+    private void evaluate(double[][] inputs, double[] output, int from, int to) {
+        if (operators.length == 0) {
+            // the expression is a constant or a variable
+            for (int row = from; row < to; row++) {
+                output[row] = resultKind == CONSTANT ? constants[result] : inputs[result][row];
+            }
+            return;
+        }
+        double[][] scratch = new double[scratchColumns][BLOCK_SIZE];
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, to - start);
+            for (int i = 0; i < operators.length; i++) {
+                double[] target = targets[i] == OUTPUT ? output : scratch[targets[i]];
+                int targetOffset = targets[i] == OUTPUT ? start : 0;
+                if (operators[i] == RAISE) {
+                    if (leftKinds[i] == CONSTANT) {
+                        fill(target, targetOffset, length, Power.raise(constants[leftOperands[i]], rightOperands[i]));
+                    } else {
+                        double[] base = leftKinds[i] == INPUT ? inputs[leftOperands[i]] : scratch[leftOperands[i]];
+                        int baseOffset = leftKinds[i] == INPUT ? start : 0;
+                        raise(base, baseOffset, rightOperands[i], target, targetOffset, length);
+                    }
+                } else if (leftKinds[i] == CONSTANT && rightKinds[i] == CONSTANT) {
+                    double value = apply(operators[i], constants[leftOperands[i]], constants[rightOperands[i]]);
+                    fill(target, targetOffset, length, value);
+                } else if (leftKinds[i] == CONSTANT || rightKinds[i] == CONSTANT) {
+                    // both operators are commutative, so the constant may be either operand
+                    boolean leftConstant = leftKinds[i] == CONSTANT;
+                    double value = constants[leftConstant ? leftOperands[i] : rightOperands[i]];
+                    int kind = leftConstant ? rightKinds[i] : leftKinds[i];
+                    int operand = leftConstant ? rightOperands[i] : leftOperands[i];
+                    double[] column = kind == INPUT ? inputs[operand] : scratch[operand];
+                    int offset = kind == INPUT ? start : 0;
+                    if (operators[i] == ADD) {
+                        addConstant(column, offset, value, target, targetOffset, length);
+                    } else {
+                        multiplyConstant(column, offset, value, target, targetOffset, length);
+                    }
+                } else {
+                    double[] left = leftKinds[i] == INPUT ? inputs[leftOperands[i]] : scratch[leftOperands[i]];
+                    int leftOffset = leftKinds[i] == INPUT ? start : 0;
+                    double[] right = rightKinds[i] == INPUT ? inputs[rightOperands[i]] : scratch[rightOperands[i]];
+                    int rightOffset = rightKinds[i] == INPUT ? start : 0;
+                    if (operators[i] == ADD) {
+                        add(left, leftOffset, right, rightOffset, target, targetOffset, length);
+                    } else {
+                        multiply(left, leftOffset, right, rightOffset, target, targetOffset, length);
+                    }
+                }
+            }
+        }
+    }
+
+    private static double apply(int operator, double left, double right) {
+        return operator == ADD ? left + right : left * right;
+    }
+
+    private static void fill(double[] target, int targetOffset, int length, double value) {
+        for (int i = 0; i < length; i++) {
+            target[targetOffset + i] = value;
+        }
+    }
+
+    private static void addConstant(double[] column, int offset, double value,
+                                    double[] target, int targetOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            target[targetOffset + i] = column[offset + i] + value;
+        }
+    }
+
+    private static void multiplyConstant(double[] column, int offset, double value,
+                                         double[] target, int targetOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            target[targetOffset + i] = column[offset + i] * value;
+        }
+    }
+
+    private static void raise(double[] base, int baseOffset, int exponent,
+                              double[] target, int targetOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            target[targetOffset + i] = Power.raise(base[baseOffset + i], exponent);
+        }
+    }
+
+    private static void add(double[] left, int leftOffset, double[] right, int rightOffset,
+                            double[] target, int targetOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            target[targetOffset + i] = left[leftOffset + i] + right[rightOffset + i];
+        }
+    }
+
+    private static void multiply(double[] left, int leftOffset, double[] right, int rightOffset,
+                                 double[] target, int targetOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            target[targetOffset + i] = left[leftOffset + i] * right[rightOffset + i];
+        }
+    }
+}
@@ -45,6 +45,59 @@ public class Commands {
         return simplifiedExpression.toString();
     }
     
+    /**
+     * Normalize an expression to its canonical polynomial form, see Polynomial.
+     * @param expression the expression to normalize
+     * @return the terms of the polynomial equal to expression with all like terms collected, in canonical order,
+     *         e.g. "x*x+2*x" for "((x+1)+1)*x". Equal polynomials give equal strings.
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static String normalize(String expression) {
+        return Polynomial.of(parse(expression)).toString();
+    }
+
+    /**
+     * Differentiate an expression with respect to a variable, and normalize the derivative.
+     * @param expression the expression to differentiate
+     * @param variable the variable to differentiate by, a case-sensitive nonempty string of letters.
+     * @return the canonical polynomial form of the derivative of expression, see normalize(). Unlike
+     *         differentiate(), repeating this on its own output keeps the expression small.
+     * @throws IllegalArgumentException if the expression or variable is invalid
+     */
+    public static String differentiateNormalized(String expression, String variable) {
+        if (!variable.matches("[a-zA-Z]+")) {
+            throw new IllegalArgumentException("Invalid variable: " + variable);
+        }
+        return Polynomial.of(parse(expression)).differentiate(variable).toString();
+    }
+
+    /**
+     * Differentiate an expression with respect to a variable, in let-bound form.
+     * @param expression the expression to differentiate, in let-bound form (see LetForm), e.g. the output of a
+     *                   previous call; a plain expression is the let-bound form without bindings
+     * @param variable the variable to differentiate by, a case-sensitive nonempty string of letters.
+     * @return the let-bound form of the derivative, equal to differentiate() but with every repeated subexpression
+     *         written only once, so repeated derivatives of nested products stay linear in size
+     * @throws IllegalArgumentException if the expression or variable is invalid
+     */
+    public static String differentiateShared(String expression, String variable) {
+        if (!variable.matches("[a-zA-Z]+")) {
+            throw new IllegalArgumentException("Invalid variable: " + variable);
+        }
+        return LetForm.format(LetForm.parse(expression).differentiate(variable).simplify());
+    }
+
+    /**
+     * Simplify an expression in let-bound form.
+     * @param expression the expression to simplify, in let-bound form (see LetForm)
+     * @param environment maps variables to values, as for simplify()
+     * @return the let-bound form of the expression simplify() returns
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static String simplifyShared(String expression, Map<String,Double> environment) {
+        return LetForm.format(LetForm.parse(expression).simplify(environment).simplify());
+    }
+
     /* Copyright (c) 2015-2017 MIT 6.005 course staff, all rights reserved.
      * Redistribution of original or derived work requires permission of course staff.
      */
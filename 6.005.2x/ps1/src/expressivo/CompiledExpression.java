@@ -0,0 +1,109 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * An expression compiled to a numeric evaluator, see Expression.compile(). The values of the variables are passed in
+ * a double[], in the order the expression was compiled with, and evaluate() returns the value of the expression.
+ * The evaluator is generated straight-line bytecode for the expression (see BytecodeCompiler), split over as many
+ * methods and classes as its size needs, so evaluating does not build any expression nodes, does not box and does
+ * not look up variables by name: it allocates nothing per call.
+ * Immutable and threadsafe.
+ */
+public class CompiledExpression implements ToDoubleFunction<double[]> {
+
+    // rep
+    private final Expression expression;
+    private final List<String> variables;
+    private final ToDoubleFunction<double[]> evaluator;
+
+    // Abstraction
+    //      The function mapping values, where values[i] is the value of variables.get(i), to the value of expression
+    // Rep invariant
+    //      variables contains no duplicates and every variable of expression,
+    //      evaluator computes the value of expression
+    // Safety from rep exposure
+    //      all fields are private final, expression is immutable, variables is an unmodifiable copy,
+    //      the evaluator is immutable and never returned
+    // Thread safety
+    //      immutable
+
+    private CompiledExpression(Expression expression, List<String> variables, ToDoubleFunction<double[]> evaluator) {
+        this.expression = expression;
+        this.variables = variables;
+        this.evaluator = evaluator;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert variables.size() == indices(variables).size();
+    }
+
+    /**
+     * Compile an expression.
+     *
+     * @param expression the expression to compile
+     * @param variableOrder the variables of the expression, in the order their values are passed to evaluate()
+     * @return an evaluator for expression
+     * @throws IllegalArgumentException if variableOrder contains a variable twice, or misses a variable of expression
+     */
+    static CompiledExpression compile(Expression expression, List<String> variableOrder) {
+        List<String> variables = Collections.unmodifiableList(new ArrayList<>(variableOrder));
+        Map<String, Integer> indices = indices(variables);
+        if (indices.size() != variables.size()) {
+            throw new IllegalArgumentException("A variable occurs twice in " + variables);
+        }
+        return new CompiledExpression(expression, variables, BytecodeCompiler.compile(expression, indices));
+    }
+
+    private static Map<String, Integer> indices(List<String> variables) {
+        Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < variables.size(); i++) {
+            indices.put(variables.get(i), i);
+        }
+        return indices;
+    }
+
+    /**
+     * @return the expression that was compiled
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return the variables in the order their values are passed to evaluate(), unmodifiable
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Evaluate the expression. Does not allocate.
+     *
+     * @param values values[i] is the value of the i-th variable of getVariables(),
+     *               requires values.length >= getVariables().size()
+     * @return the value of the expression
+     */
+    public double evaluate(double[] values) {
+        return evaluator.applyAsDouble(values);
+    }
+
+    /**
+     * Same as evaluate(values)
+     */
+    @Override
+    public double applyAsDouble(double[] values) {
+        return evaluate(values);
+    }
+
+    @Override
+    public String toString() {
+        return variables + " -> " + expression;
+    }
+}
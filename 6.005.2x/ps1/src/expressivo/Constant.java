@@ -2,6 +2,9 @@ package expressivo;
 
 import java.util.Map;
 
+import static expressivo.ExpressionInterner.constant;
+import static expressivo.ExpressionInterner.variable;
+
 /**
  * Immutable
  */
@@ -9,11 +12,13 @@ public class Constant implements Expression {
 
     // rep
     private final double value;
+    private final int hash;
+    private final boolean interned;
 
     // Abstraction
     //      Represents a positive real number
     // Rep inv
-    //      value >= 0
+    //      value >= 0, hash is the hash of value, interned iff this is the constant of ExpressionInterner with value
     // Safety from rep exposure
     //      value is private final  and immutable field
 
@@ -22,10 +27,21 @@ public class Constant implements Expression {
      * @param value is required to be non-negative inside range of double
      */
     public Constant(double value) {
+        this(value, false);
+    }
+
+    /**
+     * @param value is required to be non-negative inside range of double
+     * @param interned true iff this constant is created by ExpressionInterner
+     */
+    Constant(double value, boolean interned) {
         if (value > Double.MAX_VALUE) {
             throw new IllegalArgumentException("Value was too large");
         }
         this.value = value;
+        long valLongBits = Double.doubleToLongBits(value);
+        this.hash = 37 + (int)(valLongBits ^ (valLongBits >>> 32));
+        this.interned = interned;
         checkRep();
     }
 
@@ -38,18 +54,25 @@ public class Constant implements Expression {
         return (Double) value;
     }
 
+    /**
+     * @return true iff this constant was created by ExpressionInterner
+     */
+    boolean isInterned() {
+        return interned;
+    }
+
     /**
      * Take the derivative of a constant, which is always zero
      * @param x the variable with respect to which we take the derivative
      * @return the derivative of the expression, is always zero
      */
     public Expression differentiate(Variable x) {
-        return new Constant(0);
+        return constant(0);
     }
 
     @Override
     public Expression differentiate(String stringVariable) {
-        return differentiate(new Variable(stringVariable));
+        return differentiate(variable(stringVariable));
     }
 
     /**
@@ -99,14 +122,13 @@ public class Constant implements Expression {
 
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) return true;
         if (!(obj instanceof Constant)) return false;
         return ((Double) value).equals(((Constant) obj).getValue());
     }
 
     @Override
     public int hashCode() {
-        long valLongBits = Double.doubleToLongBits(value);
-        int hashValue =(int)(valLongBits ^ (valLongBits >>> 32));
-        return 37 + hashValue;
+        return hash;
     }
 }
@@ -0,0 +1,427 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Checks whether two expressions are mathematically equivalent, i.e. equal as polynomials, by evaluating both at
+ * random points instead of normalizing them (see Polynomial), which takes time linear in the number of distinct
+ * subexpressions, however large their canonical forms are.
+ *
+ * The expressions are polynomials over the field of integers modulo the prime P = 2^61 - 1, where a constant
+ * m * 2^e (every finite double is one) is the element m * 2^e mod P, and two expressions are equivalent iff their
+ * polynomials are equal. This is exact for the double values of the constants, unlike the canonical forms of
+ * Polynomial, whose coefficients are rounded: x*0.1 + x*0.2 has the canonical form 0.30000000000000004*x, but is not
+ * equivalent to it, and neither are the constants 0.1 + 0.2 and 0.30000000000000004. Since the field has only P
+ * elements, coefficients whose difference is 0 modulo P, e.g. 1 and 2^61, are taken for equal; formulas whose
+ * coefficients (after collecting like terms) are integers below P never meet such a pair.
+ *
+ * To check equivalence, the expressions are evaluated in the field at pseudorandom points, a variable being mapped
+ * to a pseudorandom element, so equivalent expressions always evaluate to the same element. By the Schwartz-Zippel
+ * lemma, two different polynomials of degree at most d take the same value at a random point with probability at
+ * most d / P, so k points with distinct values prove equivalence with confidence 1 - (d / P)^k; for expressions of
+ * degree below a million, one point gives a confidence of 1 - 10^-12. Constant expressions are evaluated once,
+ * which is exact. The polynomials are expanded in the field only if the degree is so high that random points can't
+ * reach the required confidence, or if certainty is asked for; the answer is the same at every confidence, except
+ * that a wrong true has the probability given by the confidence. Expressions with a constant that is not finite have
+ * no polynomial in the field, and are compared by their canonical forms.
+ *
+ * Two expressions with the same fingerprint() are equivalent with the same confidence, so a large cache of formulas
+ * can be deduplicated in linear time by grouping the formulas by fingerprint.
+ * This class is threadsafe.
+ */
+public class Equivalence {
+
+    /** The prime modulus, 2^61 - 1 */
+    static final long P = (1L << 61) - 1;
+
+    /** Confidence of equivalent(left, right) */
+    public static final double DEFAULT_CONFIDENCE = 1 - 1e-12;
+
+    /** The seed of the point at which fingerprints are evaluated, random per run */
+    private static final long FINGERPRINT_SEED = ThreadLocalRandom.current().nextLong();
+
+    private Equivalence() {
+        // only static methods
+    }
+
+    /**
+     * Same as equivalent(left, right, DEFAULT_CONFIDENCE).
+     */
+    public static boolean equivalent(Expression left, Expression right) {
+        return equivalent(left, right, DEFAULT_CONFIDENCE);
+    }
+
+    /**
+     * @param left any expression
+     * @param right any expression
+     * @param confidence the required probability that the answer is right, in (0, 1]; 1 expands the polynomials
+     * @return true if left and right are equal as polynomials, i.e. have equal values for all values of their
+     *         variables, and false if not; true is wrong with probability at most 1 - confidence, false is always
+     *         right
+     * @throws IllegalArgumentException if confidence is not in (0, 1]
+     */
+    public static boolean equivalent(Expression left, Expression right, double confidence) {
+        if (!(confidence > 0 && confidence <= 1)) {
+            throw new IllegalArgumentException("Confidence must be in (0, 1], not " + confidence);
+        }
+        if (left.equals(right)) {
+            return true;
+        }
+        // the difference of left and right has degree at most degree, so a point fails with probability degree / P
+        long degree = Math.max(degree(left), degree(right));
+        double failure = (double) degree / P;
+        int points = (int) Math.ceil(Math.log1p(-confidence) / Math.log(failure));
+        try {
+            if (degree == 0) {
+                // a constant polynomial has the same value at every point
+                return evaluate(left, 0) == evaluate(right, 0);
+            }
+            if (confidence < 1 && failure < 0.5 && points <= 64) {
+                for (int i = 0; i < points; i++) {
+                    long seed = ThreadLocalRandom.current().nextLong();
+                    if (evaluate(left, seed) != evaluate(right, seed)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return expand(left).equals(expand(right));
+        } catch (ArithmeticException notFinite) {
+            // a constant has no value in the field
+            return Polynomial.of(left).equals(Polynomial.of(right));
+        }
+    }
+
+    /**
+     * @param expression any expression
+     * @return a fingerprint of expression: equivalent expressions have equal fingerprints, and expressions with
+     *         equal fingerprints are equivalent with the confidence of one point of equivalent()
+     * @throws ArithmeticException if a constant of expression is not finite
+     */
+    public static long fingerprint(Expression expression) {
+        return evaluate(expression, FINGERPRINT_SEED);
+    }
+
+    /**
+     * @return an upper bound of the degree of expression as a polynomial, saturated at Long.MAX_VALUE
+     */
+    static long degree(Expression expression) {
+        return ExpressionTraversal.foldShared(expression, new ExpressionTraversal.Fold<Long>() {
+            @Override
+            public Long leaf(Expression node) {
+                return node instanceof Variable ? 1L : 0L;
+            }
+
+            @Override
+            public Long sum(Sum node, Long left, Long right) {
+                return Math.max(left, right);
+            }
+
+            @Override
+            public Long product(Product node, Long left, Long right) {
+                long degree = left + right;
+                return degree < 0 ? Long.MAX_VALUE : degree;
+            }
+
+            @Override
+            public Long power(Power node, Long base) {
+                long exponent = node.getExponent();
+                if (base == 0 || exponent == 0) {
+                    return 0L;
+                }
+                return base > Long.MAX_VALUE / exponent ? Long.MAX_VALUE : base * exponent;
+            }
+        });
+    }
+
+    /**
+     * @param expression any expression
+     * @param seed selects the point: the value of every variable
+     * @return the value of expression modulo P at the point selected by seed
+     * @throws ArithmeticException if a constant of expression is not finite
+     */
+    static long evaluate(Expression expression, long seed) {
+        return ExpressionTraversal.foldShared(expression, new ExpressionTraversal.Fold<Long>() {
+            @Override
+            public Long leaf(Expression node) {
+                if (node instanceof Variable) {
+                    return value(((Variable) node).getVariable(), seed);
+                } else if (node instanceof Constant) {
+                    return value(((Constant) node).getValue());
+                }
+                throw new IllegalArgumentException("Unknown variant of Expression: " + node);
+            }
+
+            @Override
+            public Long sum(Sum node, Long left, Long right) {
+                return add(left, right);
+            }
+
+            @Override
+            public Long product(Product node, Long left, Long right) {
+                return multiply(left, right);
+            }
+
+            @Override
+            public Long power(Power node, Long base) {
+                return Equivalence.power(base, node.getExponent());
+            }
+        }).longValue();
+    }
+
+    /**
+     * @param expression any expression
+     * @return the polynomial of expression over the field: maps every monomial to its coefficient in [1, P); the
+     *         terms with coefficient 0 are left out
+     * @throws ArithmeticException if a constant of expression is not finite, or an exponent is above
+     *                             Integer.MAX_VALUE
+     */
+    static Map<Monomial, Long> expand(Expression expression) {
+        return ExpressionTraversal.foldShared(expression, new ExpressionTraversal.Fold<Map<Monomial, Long>>() {
+            @Override
+            public Map<Monomial, Long> leaf(Expression node) {
+                if (node instanceof Variable) {
+                    return Collections.singletonMap(Monomial.of(((Variable) node).getVariable(), 1), 1L);
+                } else if (node instanceof Constant) {
+                    long value = value(((Constant) node).getValue());
+                    return value == 0 ? Collections.emptyMap() : Collections.singletonMap(Monomial.ONE, value);
+                }
+                throw new IllegalArgumentException("Unknown variant of Expression: " + node);
+            }
+
+            @Override
+            public Map<Monomial, Long> sum(Sum node, Map<Monomial, Long> left, Map<Monomial, Long> right) {
+                Map<Monomial, Long> sum = new HashMap<>(left);
+                for (Map.Entry<Monomial, Long> term : right.entrySet()) {
+                    addTerm(sum, term.getKey(), term.getValue());
+                }
+                return sum;
+            }
+
+            @Override
+            public Map<Monomial, Long> product(Product node, Map<Monomial, Long> left, Map<Monomial, Long> right) {
+                return times(left, right);
+            }
+
+            @Override
+            public Map<Monomial, Long> power(Power node, Map<Monomial, Long> base) {
+                // by repeated squaring, like power(long, int)
+                Map<Monomial, Long> result = Collections.singletonMap(Monomial.ONE, 1L);
+                Map<Monomial, Long> square = base;
+                for (int n = node.getExponent(); n > 0; n >>= 1) {
+                    if ((n & 1) != 0) {
+                        result = times(result, square);
+                    }
+                    if (n > 1) {
+                        square = times(square, square);
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * @return the product of the polynomials left and right over the field, as returned by expand()
+     * @throws ArithmeticException if an exponent of the product is above Integer.MAX_VALUE
+     */
+    private static Map<Monomial, Long> times(Map<Monomial, Long> left, Map<Monomial, Long> right) {
+        Map<Monomial, Long> product = new HashMap<>();
+        for (Map.Entry<Monomial, Long> l : left.entrySet()) {
+            for (Map.Entry<Monomial, Long> r : right.entrySet()) {
+                addTerm(product, l.getKey().times(r.getKey()), multiply(l.getValue(), r.getValue()));
+            }
+        }
+        return product;
+    }
+
+    /**
+     * Add coefficient * monomial to the polynomial terms, leaving out the monomial if its coefficient becomes 0.
+     */
+    private static void addTerm(Map<Monomial, Long> terms, Monomial monomial, long coefficient) {
+        long sum = add(terms.getOrDefault(monomial, 0L), coefficient);
+        if (sum == 0) {
+            terms.remove(monomial);
+        } else {
+            terms.put(monomial, sum);
+        }
+    }
+
+    /**
+     * A product of variables with positive exponents, a term of the polynomials of expand() without its coefficient.
+     * Immutable.
+     */
+    static final class Monomial {
+        /** The monomial without variables */
+        static final Monomial ONE = new Monomial(new String[0], new int[0]);
+
+        // rep
+        private final String[] variables;
+        private final int[] exponents;
+        private final int hash;
+
+        // Abstraction
+        //      The product of variables[i]^exponents[i] for all i
+        // Rep invariant
+        //      variables is sorted without duplicates, exponents has the same length and positive elements,
+        //      hash is the hash code of variables and exponents
+        // Safety from rep exposure
+        //      all fields are private final, the arrays are never returned
+
+        private Monomial(String[] variables, int[] exponents) {
+            this.variables = variables;
+            this.exponents = exponents;
+            this.hash = 31 * Arrays.hashCode(variables) + Arrays.hashCode(exponents);
+        }
+
+        /**
+         * @param variable a variable
+         * @param exponent a positive exponent
+         * @return variable^exponent
+         */
+        static Monomial of(String variable, int exponent) {
+            return new Monomial(new String[] {variable}, new int[] {exponent});
+        }
+
+        /**
+         * @return the product of this and that
+         * @throws ArithmeticException if an exponent of the product is above Integer.MAX_VALUE
+         */
+        Monomial times(Monomial that) {
+            // merge the sorted variables
+            String[] productVariables = new String[variables.length + that.variables.length];
+            int[] productExponents = new int[productVariables.length];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < variables.length || j < that.variables.length) {
+                int order = i == variables.length ? 1
+                          : j == that.variables.length ? -1
+                          : variables[i].compareTo(that.variables[j]);
+                if (order < 0) {
+                    productVariables[n] = variables[i];
+                    productExponents[n++] = exponents[i++];
+                } else if (order > 0) {
+                    productVariables[n] = that.variables[j];
+                    productExponents[n++] = that.exponents[j++];
+                } else {
+                    productVariables[n] = variables[i];
+                    productExponents[n++] = Math.addExact(exponents[i++], that.exponents[j++]);
+                }
+            }
+            return new Monomial(Arrays.copyOf(productVariables, n), Arrays.copyOf(productExponents, n));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Monomial)) return false;
+            Monomial that = (Monomial) obj;
+            return hash == that.hash && Arrays.equals(variables, that.variables)
+                   && Arrays.equals(exponents, that.exponents);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < variables.length; i++) {
+                text.append(i == 0 ? "" : "*").append(variables[i]);
+                if (exponents[i] > 1) {
+                    text.append('^').append(exponents[i]);
+                }
+            }
+            return variables.length == 0 ? "1" : text.toString();
+        }
+    }
+
+    /**
+     * @return the pseudorandom value of the variable name at the point selected by seed, in [0, P)
+     */
+    static long value(String name, long seed) {
+        // a polynomial hash of the name over the field, with a random base, then mixed with the seed
+        long base = mix(seed) % P;
+        long hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = add(multiply(hash, base), name.charAt(i));
+        }
+        return mix(hash ^ seed) % P;
+    }
+
+    /**
+     * @return the finite double value as an element of the field, in [0, P)
+     * @throws ArithmeticException if value is not finite
+     */
+    static long value(double value) {
+        if (!Double.isFinite(value)) {
+            throw new ArithmeticException("Not finite: " + value);
+        }
+        if (value == 0) {
+            return 0;
+        }
+        // value = mantissa * 2^exponent exactly, and 2^61 = 1 modulo P
+        int exponent = Math.getExponent(value) - 52;
+        long mantissa = (long) Math.scalb(Math.abs(value), -exponent);
+        if (Math.getExponent(value) < Double.MIN_EXPONENT) {
+            // subnormal
+            exponent = Double.MIN_EXPONENT - 52;
+            mantissa = (long) Math.scalb(Math.abs(value), -exponent);
+        }
+        long element = multiply(mantissa % P, 1L << Math.floorMod(exponent, 61));
+        return value < 0 ? (P - element) % P : element;
+    }
+
+    /**
+     * @return (a + b) mod P, for a and b in [0, P)
+     */
+    static long add(long a, long b) {
+        long sum = a + b;
+        return sum >= P ? sum - P : sum;
+    }
+
+    /**
+     * @return (a * b) mod P, for a and b in [0, P)
+     */
+    static long multiply(long a, long b) {
+        // a * b = high * 2^62 + middle * 2^31 + low, where 2^61 = 1 and thus 2^62 = 2 modulo P
+        long aHigh = a >>> 31;
+        long aLow = a & 0x7FFFFFFFL;
+        long bHigh = b >>> 31;
+        long bLow = b & 0x7FFFFFFFL;
+        long middle = aHigh * bLow + aLow * bHigh;
+        long product = 2 * aHigh * bHigh + (middle >>> 30) + ((middle & 0x3FFFFFFFL) << 31) + aLow * bLow;
+        product = (product & P) + (product >>> 61);
+        return product >= P ? product - P : product;
+    }
+
+    /**
+     * @return (base ^ exponent) mod P, for base in [0, P) and exponent >= 0, by repeated squaring
+     */
+    static long power(long base, int exponent) {
+        long result = 1;
+        long square = base;
+        for (int n = exponent; n > 0; n >>= 1) {
+            if ((n & 1) != 0) {
+                result = multiply(result, square);
+            }
+            square = multiply(square, square);
+        }
+        return result;
+    }
+
+    /**
+     * @return the SplitMix64 finalizer of x, a non-negative long
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return (x ^ (x >>> 31)) >>> 1;
+    }
+}
@@ -22,6 +22,9 @@
   *       # if it is a sum it must always be inside brackets
   *       # if it is a product it may or may not appear inside brackets
   * A _product_ is a sequence of one or more terms divided by the character '*' in between them
+  * A _power_ is a constant, a variable or a sum inside brackets, followed by the character '^' and an _integer_, the
+  *     exponent. It binds stronger than '*', so "2*x^3" is 2*(x^3); a power of a product or of a power must be written
+  *     with brackets around its base, e.g. "(x*y)^2"
   * A _constant_ is either an _integer_ (a sequence of digits) or a _decimal_ (either >= 1 digits followed by a decimal
   *     seperator followed by zero or more digits, or zero or more digits followed by a decimal seperator followed by
   *     one or more digits. The decimal seperator is standard '.'
@@ -51,8 +54,9 @@ root ::= sum;
 */
 
 	token ::= constant | variable;
-	sum ::= (token | product | '(' product ')') ('+' (token | product | '(' product ')'))*;
-	product ::= (token | '(' sum ')') ('*' (token | '(' sum ')'))*;
+	power ::= (token | '(' sum ')') '^' integer;
+	sum ::= (power | token | product | '(' product ')') ('+' (power | token | product | '(' product ')'))*;
+	product ::= (power | token | '(' sum ')') ('*' (power | token | '(' sum ')'))*;
 
 }
 constant ::=  integer | decimal;
@@ -2,13 +2,14 @@ package expressivo;
 
 import lib6005.parser.*;
 
-import java.io.File;
-import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * An immutable data type representing a polynomial expression of:
  * + and *
+ * ^ with a nonnegative integer exponent, which binds stronger than *     (i.e.: x^3 or (x+1)^2)
  * nonnegative integers and floating-point numbers            (i.e.: 3 or 3. or 3.0 or 0.3 or .3)
  * variables (case-sensitive nonempty strings of letters)
  * <p>
@@ -24,129 +25,46 @@ public interface Expression {
     //              + Variable(variable:String)
     //              + Sum(left:Expression, right:Expression)
     //              + Product(left:Expression, right:Expression)
+    //              + Power(base:Expression, exponent:int)
+    //
+    // Expressions built by the parser and by simplify() and differentiate() are interned by ExpressionInterner, so
+    // equal subexpressions are shared and comparing two interned expressions is a reference comparison.
 
     enum Grammar {
-        ROOT, SUM, PRODUCT, CONSTANT, VARIABLE, INTEGER, DECIMAL, WHITESPACE,TOKEN;
+        ROOT, SUM, PRODUCT, POWER, CONSTANT, VARIABLE, INTEGER, DECIMAL, WHITESPACE,TOKEN;
     }
 
     /**
      * Parse an expression.
      *
+     * The grammar is compiled only once and recently parsed inputs are cached, see ExpressionParser.
+     *
      * @param input expression to parse, as defined in the PS1 handout. Also numbers formatted as ".1" or "2." are
      *              allowed inputs.
      * @return expression AST for the input
      * @throws IllegalArgumentException if the expression is invalid
      */
     public static Expression parse(String input) {
-        try {
-            Parser<Grammar> parser = GrammarCompiler.compile(new File("./src/expressivo/Expression.g"), Grammar.ROOT);
-            ParseTree<Grammar> tree = parser.parse(input);
-            return buildAST(tree);
-        } catch (UnableToParseException e) {
-            e.printStackTrace();
-            throw new IllegalArgumentException("Cannot parse the expression: " + input);
-        } catch (IOException e) {
-            System.out.println("Cannot open the file Expression.g");
-            e.printStackTrace();
-            return null;
-        }
+        return ExpressionParser.parse(input);
     }
 
     /**
      * This function builds an abstract syntax tree from the concrete syntax tree
+     * Sums and products are grouped to the left, e.g. 3+4+5 becomes (3+4)+5, and every sum, product and power is
+     * simplified.
      * @param tree: the concrete syntax tree which needs to be parsed into an Expression (the AST)
      * @return the abstract syntax tree, i.e. the expression corresponding to the input tree
      */
     public static Expression buildAST(ParseTree<Grammar> tree) {
-        switch (tree.getName()) {
-            case ROOT:
-                /* The root has a single sum child, in addition to having potentially some whitespace. */
-                return buildAST(tree.childrenByName(Grammar.SUM).get(0));//.simplify();
-
-            case SUM:
-                /* A sum can have multiple children which need to be accumulated */
-                return accumulate(tree, Grammar.SUM).simplify();
-
-            case PRODUCT:
-                /* A product can have multiple children which need to be accumulated */
-                return accumulate(tree, Grammar.PRODUCT).simplify();
-
-            case TOKEN:
-                /* A token only contains one child, either a constant or a variable*/
-                if(tree.childrenByName(Grammar.VARIABLE).isEmpty()){
-                    return buildAST(tree.childrenByName(Grammar.CONSTANT).get(0));
-                }else{
-                    return buildAST(tree.childrenByName(Grammar.VARIABLE).get(0));
-                }
-
-            case VARIABLE:
-                /* A variable is a terminal containing a variable */
-                return new Variable(tree.getContents());
-
-            case CONSTANT:
-                /* Constant is a non-terminal with two children, namely a decimal or an integer */
-                if(tree.childrenByName(Grammar.DECIMAL).isEmpty()){
-                    return buildAST(tree.childrenByName(Grammar.INTEGER).get(0));
-                }else{
-                    return buildAST(tree.childrenByName(Grammar.DECIMAL).get(0));
-                }
-
-            case DECIMAL:
-                /*  A decimal is a terminal containing a constant. */
-                return new Constant(Double.parseDouble(tree.getContents()));
-
-            case INTEGER:
-                /* An integer is a terminal containing a constant. */
-                return new Constant(Double.parseDouble(tree.getContents()));
-
-            case WHITESPACE:
-                /* Since we are always avoiding calling buildAST with whitespace, the code should never make it here.*/
-                throw new RuntimeException("You should never reach here:" + tree);
-        }
-        /*
-         * The compiler should be smart enough to tell that this code is unreachable, but it isn't.
-         */
-        throw new RuntimeException("You should never reach here:" + tree);
-    }
-
-    /**
-     * Accumulate and group consecutive sums or product, i.e. this extracts the expression from the tree
-     * and adds brackets to this expression for certain terms (either sum or products) such that the expression
-     * only contains "primitive" terms, i.e. sums and product with only two expressions
-     * E.g. 3+4+5 becomes (3+4)+5, same for products (works for any constants and variables)
-     * @param tree The tree of the expression that need to be accumulated
-     * @param name the type of operation on which we need to accumulate, can only be Grammar.SUM or Grammar.PRODUCT
-     * @return An accumulated expression, i.e. and expression where we have exactly two terms per sum/product, longer
-     * sums or product will be grouped using brackets. In terms of the graph-tree, this splits each node with >2
-     * children into multiple nodes with each at most 2 children.
-     */
-    public static Expression accumulate(ParseTree<Grammar> tree, Grammar name) {
-        // check that the client follows the specs:
-        assert (name.equals(Grammar.SUM) || name.equals(Grammar.PRODUCT));
-        boolean first = true;
-        Expression result = null;
-        for(ParseTree<Grammar> child : tree.children()){
-            // We go through all children until we find a non-whitespace character
-            if (!child.getName().equals(Grammar.WHITESPACE)) {
-                if (first) {
-                    result = buildAST(child);
-                    first = false;
-                } else {
-                    if (name.equals(Grammar.SUM)) result = new Sum(result, buildAST(child));
-                    else if (name.equals(Grammar.PRODUCT)) result = new Product(result, buildAST(child));
-                    else System.out.println("error");
-                }
-            }
-        }
-        if (first) {
-            throw new RuntimeException("sum must have at least one non whitespace child:" + tree);
-        }
-        return result;
+        // built bottom-up with an explicit stack instead of recursion, so deeply nested trees do not overflow the
+        // thread stack, see ExpressionTraversal
+        return ExpressionTraversal.buildAST(tree);
     }
 
     /**
      * Take the derivative of an expression with respect to a variable x
      * @param stringVariable the variable with respect to which we take the derivative
+     * The result is memoized per node and variable, see Memoization.
      * @return the derivative of the expression
      */
     public Expression differentiate(String stringVariable);
@@ -156,7 +74,9 @@ public interface Expression {
      * the number 1 removes the * 1 or 1 * from the expression, and a sum with the number 0 removes the 0 +  or + 0.
      * Furthermore this orders the products such that all constants appear on the left of the variables.
      * It also tries to simplify the products and sums of constants to a single constant (but ((x+1)+1) != (x+2))
+     * Equal adjacent factors are merged into powers, e.g. x*x becomes x^2 and x^2*x becomes x^3
      * Furthermore it takes out common factors from sums
+     * The result is memoized per node, see Memoization, so simplifying the same (interned) expression again is cheap.
      * @return a simplified expression
      */
     public Expression simplify();
@@ -191,13 +111,119 @@ public interface Expression {
      */
     public Expression simplify(Map<String,Double> environment);
 
+    /**
+     * Simplify this expression to its canonical polynomial, see Polynomial. Unlike simplify(), this collects all like
+     * terms, e.g. ((x+1)+1)*x becomes x*x+2*x, and equal polynomials give equal expressions.
+     * @return the sum of the terms of the polynomial of this expression, in canonical order
+     */
+    public default Expression normalize() {
+        return Polynomial.of(this).toExpression();
+    }
+
+    /**
+     * Multiply out this expression: distribute every product over the sums it multiplies and collect like terms,
+     * e.g. (a+b)*(c+d) becomes a*c+a*d+b*c+b*d. The fully expanded form is the canonical polynomial, so this is
+     * normalize(); see Polynomial.times() for how large products are multiplied.
+     * @return normalize()
+     */
+    public default Expression expand() {
+        return normalize();
+    }
+
+    /**
+     * Simplify this expression to its canonical polynomial like normalize(), on the threads of a fork-join pool:
+     * wide sums and products are flattened and their operands are converted in parallel, see ParallelSimplifier.
+     * @param pool the threads to simplify on, e.g. ForkJoinPool.commonPool()
+     * @return normalize(), up to the rounding of the coefficients
+     */
+    public default Expression normalize(ForkJoinPool pool) {
+        return ParallelSimplifier.simplify(this, pool);
+    }
+
+    /**
+     * Take the order-th derivative of this expression with respect to a variable. Unlike repeated differentiate(),
+     * the derivatives are collected to their canonical polynomial after every step, so they stay small at high
+     * orders, and the intermediate derivatives are cached, see PartialDerivatives.
+     * @param variable the variable with respect to which we take the derivatives
+     * @param order the number of derivatives, non-negative; 0 gives normalize()
+     * @return the order-th derivative, in the form of normalize()
+     * @throws IllegalArgumentException if order is negative
+     */
+    public default Expression differentiate(String variable, int order) {
+        return PartialDerivatives.of(this).derivative(variable, order);
+    }
+
+    /**
+     * Take a mixed partial derivative of this expression, e.g. d^3/dx^2dy for the orders {x=2, y=1}. The
+     * intermediate derivatives are cached, see PartialDerivatives.
+     * @param orders maps every variable to the number of derivatives with respect to it, non-negative
+     * @return the mixed partial derivative, in the form of normalize()
+     * @throws IllegalArgumentException if an order is negative
+     */
+    public default Expression differentiate(Map<String, Integer> orders) {
+        return PartialDerivatives.of(this).derivative(orders);
+    }
+
+    /**
+     * Expand this expression in a Taylor series around a point, truncated after the terms of total degree order.
+     * Every variable v of point stands for its displacement v - point.get(v) in the expansion, since expressions
+     * have no subtraction; see PartialDerivatives.taylor().
+     * @param point maps variables to non-negative values; the other variables are kept symbolic
+     * @param order the maximal total degree of the terms in the variables of point, non-negative
+     * @return the truncated Taylor expansion, in the form of normalize()
+     * @throws IllegalArgumentException if order or a value of point is negative
+     */
+    public default Expression taylor(Map<String, Double> point, int order) {
+        return PartialDerivatives.of(this).taylor(point, order);
+    }
+
+    /**
+     * Compile this expression to a numeric evaluator, for evaluating it many times with different values of its
+     * variables. Evaluating does not allocate, unlike simplify(environment).
+     * @param variableOrder the variables of this expression, in the order their values are passed to
+     *                      CompiledExpression.evaluate(); may contain variables that do not occur in this expression
+     * @return an evaluator computing the value of this expression
+     * @throws IllegalArgumentException if variableOrder contains a variable twice, or misses a variable of this
+     *                                  expression
+     */
+    public default CompiledExpression compile(List<String> variableOrder) {
+        return CompiledExpression.compile(this, variableOrder);
+    }
+
+    /**
+     * Prepare the gradient of this expression: all its partial derivatives, computed in one reverse sweep instead of
+     * one differentiate() per variable. See Gradient for the numeric gradient at a point and the symbolic gradient.
+     * @param variableOrder the variables to differentiate by; must contain every variable of this expression and may
+     *                      contain others, whose partial derivative is 0
+     * @return the gradient of this expression with respect to the variables of variableOrder
+     * @throws IllegalArgumentException if variableOrder contains a variable twice, or misses a variable of this
+     *                                  expression
+     */
+    public default Gradient gradient(List<String> variableOrder) {
+        return new Gradient(this, variableOrder);
+    }
+
+    /**
+     * Evaluate this expression for many rows of values of its variables at once, given as one column per variable.
+     * The rows are evaluated column-at-a-time and large batches are split over several threads.
+     * @param columns maps every variable of this expression to its column of values: row r binds the variable to
+     *                column[r]. May contain variables that do not occur in this expression. The columns must not be
+     *                modified during the evaluation.
+     * @param output receives the value of this expression for row r in output[r], for every r < output.length
+     * @throws IllegalArgumentException if a variable of this expression has no column, or fewer values than output
+     */
+    public default void evaluate(Map<String, double[]> columns, double[] output) {
+        new ColumnEvaluator(this).evaluate(columns, output);
+    }
+
 
 
 
 
     /**
      * @return a parsable representation of this expression, such that
-     * for all e:Expression, e.equals(Expression.parse(e.toString())).
+     * for all e:Expression, e.equals(Expression.parse(e.toString())). It only uses + and *, like the grammar
+     * of the PS1 handout, so a power is written as a product, see ExpressionPrinter.
      */
     @Override
     public String toString();
@@ -0,0 +1,480 @@
+package expressivo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of expressions, which is read back without parsing text.
+ *
+ * An encoding consists of, in this order:
+ *      MAGIC           the 3 bytes 'E' 'X' 'P'
+ *      version         a varint, VERSION
+ *      dictionary      a varint n followed by n variable names, each a varint byte length and its UTF-8 bytes
+ *      node count      a varint, the number of nodes the program builds
+ *      nodes           a program of a stack machine, in postorder, that builds the expression on its stack
+ * A varint is an unsigned integer in groups of 7 bits, least significant group first, where the high bit of every
+ * byte but the last is set. Every instruction of the program starts with a varint tag = (argument << 3) | kind:
+ *      CONSTANT        pushes the constant whose value follows as the 8 bytes of its raw IEEE-754 bits, big-endian
+ *      VARIABLE        pushes the variable with the argument as index in the dictionary
+ *      SUM, PRODUCT    pops the right and then the left operand, and pushes their sum or product
+ *      POWER           pops the base, and pushes its power with the argument as exponent
+ *      REFERENCE       pushes again the node that was built argument + 1 nodes before the last one
+ * Every instruction but REFERENCE builds a new node. A subexpression that occurs more than once (by identity, as in
+ * interned expressions) is written once and referenced afterwards, so shared subtrees stay shared and a DAG is
+ * encoded in size linear in its number of distinct nodes. Variables are written at every occurrence instead, since
+ * their index in the dictionary is shorter than a reference. The program ends after the last node, the root.
+ *
+ * The encoder and decoder walk the expression with an explicit stack, so the depth of an expression is not limited
+ * by the thread stack. Decoded expressions are interned and exactly equal to the encoded ones: they are built as
+ * they are, without simplification.
+ *
+ * This class is threadsafe; it has no state, every call keeps its own.
+ */
+public class ExpressionCodec {
+
+    /** The first bytes of every encoding */
+    static final byte[] MAGIC = {'E', 'X', 'P'};
+    /** The version of the encoding written by this class, and the only one it reads */
+    static final int VERSION = 1;
+
+    /** The kinds of instructions, in the lowest 3 bits of a tag */
+    static final int CONSTANT = 0;
+    static final int VARIABLE = 1;
+    static final int SUM = 2;
+    static final int PRODUCT = 3;
+    static final int REFERENCE = 4;
+    static final int POWER = 5;
+    private static final int KIND_BITS = 3;
+    /** Size of the first chunk in which bytes of an untrusted length are read from a DataInput */
+    private static final int CHUNK_SIZE = 4096;
+
+    private ExpressionCodec() {
+    }
+
+    /** Destination of the bytes of an encoding */
+    private interface Output {
+        void writeByte(int b) throws IOException;
+
+        void writeLong(long value) throws IOException;
+
+        void write(byte[] bytes) throws IOException;
+    }
+
+    /** Source of the bytes of an encoding */
+    private interface Input {
+        byte readByte() throws IOException;
+
+        long readLong() throws IOException;
+
+        /**
+         * @return the next length bytes; allocates at most twice the bytes that are actually there, since length
+         *         is read from the encoding and not trusted
+         */
+        byte[] readBytes(int length) throws IOException;
+    }
+
+    /**
+     * Write the encoding of an expression.
+     *
+     * @param expression any expression, of the variants Constant, Variable, Sum, Product and Power
+     * @param out receives the encoding
+     * @throws IOException if out throws it
+     */
+    public static void encode(Expression expression, DataOutput out) throws IOException {
+        encode(expression, new Output() {
+            @Override
+            public void writeByte(int b) throws IOException {
+                out.writeByte(b);
+            }
+
+            @Override
+            public void writeLong(long value) throws IOException {
+                out.writeLong(value);
+            }
+
+            @Override
+            public void write(byte[] bytes) throws IOException {
+                out.write(bytes);
+            }
+        });
+    }
+
+    /**
+     * Write the encoding of an expression at the position of a buffer, and advance the position past it.
+     *
+     * @param expression any expression, of the variants Constant, Variable, Sum, Product and Power
+     * @param buffer receives the encoding; requires that it has room for it, its byte order does not matter
+     * @throws BufferOverflowException if buffer has no room for the encoding, in which case it holds a prefix of it
+     */
+    public static void encode(Expression expression, ByteBuffer buffer) {
+        try {
+            encode(expression, new Output() {
+                @Override
+                public void writeByte(int b) {
+                    buffer.put((byte) b);
+                }
+
+                @Override
+                public void writeLong(long value) {
+                    buffer.putLong(buffer.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value));
+                }
+
+                @Override
+                public void write(byte[] bytes) {
+                    buffer.put(bytes);
+                }
+            });
+        } catch (IOException e) {
+            throw new AssertionError("A ByteBuffer does not throw IOException", e);
+        }
+    }
+
+    /**
+     * @param expression any expression, of the variants Constant, Variable, Sum, Product and Power
+     * @return the encoding of expression
+     */
+    public static byte[] toBytes(Expression expression) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            encode(expression, new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new AssertionError("A ByteArrayOutputStream does not throw IOException", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read an encoding of an expression, and nothing after it.
+     *
+     * @param in the encoding of an expression, as written by encode()
+     * @return the (interned) expression of the encoding
+     * @throws IOException if in throws it, in particular an EOFException if the encoding ends early
+     * @throws IllegalArgumentException if in is not a valid encoding of this version
+     */
+    public static Expression decode(DataInput in) throws IOException {
+        return decode(new Input() {
+            @Override
+            public byte readByte() throws IOException {
+                return in.readByte();
+            }
+
+            @Override
+            public long readLong() throws IOException {
+                return in.readLong();
+            }
+
+            @Override
+            public byte[] readBytes(int length) throws IOException {
+                // the stream's length is unknown, so grow the array as the bytes arrive
+                byte[] bytes = new byte[Math.min(length, CHUNK_SIZE)];
+                in.readFully(bytes);
+                while (bytes.length < length) {
+                    int read = bytes.length;
+                    bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * read));
+                    in.readFully(bytes, read, bytes.length - read);
+                }
+                return bytes;
+            }
+        });
+    }
+
+    /**
+     * Read an encoding of an expression from the position of a buffer, and advance the position past it.
+     *
+     * @param buffer the encoding of an expression, as written by encode(); its byte order does not matter
+     * @return the (interned) expression of the encoding
+     * @throws IllegalArgumentException if buffer does not hold a valid encoding of this version from its position
+     */
+    public static Expression decode(ByteBuffer buffer) {
+        try {
+            return decode(new Input() {
+                @Override
+                public byte readByte() {
+                    return buffer.get();
+                }
+
+                @Override
+                public long readLong() {
+                    long value = buffer.getLong();
+                    return buffer.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value);
+                }
+
+                @Override
+                public byte[] readBytes(int length) {
+                    if (length > buffer.remaining()) {
+                        throw new BufferUnderflowException();
+                    }
+                    byte[] bytes = new byte[length];
+                    buffer.get(bytes);
+                    return bytes;
+                }
+            });
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("The encoding ends early", e);
+        } catch (IOException e) {
+            throw new AssertionError("A ByteBuffer does not throw IOException", e);
+        }
+    }
+
+    /**
+     * @param bytes exactly the encoding of an expression, as written by encode()
+     * @return the (interned) expression of the encoding
+     * @throws IllegalArgumentException if bytes is not a valid encoding of this version
+     */
+    public static Expression fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        Expression expression = decode(buffer);
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException(buffer.remaining() + " bytes after the encoding");
+        }
+        return expression;
+    }
+
+    // ---- encoding ----
+
+    private static void encode(Expression expression, Output out) throws IOException {
+        // the dictionary lists the variables in the order of their first occurrence
+        List<Expression> nodes = ExpressionTraversal.postorder(expression);
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (Expression node : nodes) {
+            if (node instanceof Variable) {
+                String name = ((Variable) node).getVariable();
+                if (!dictionary.containsKey(name)) {
+                    dictionary.put(name, names.size());
+                    names.add(name);
+                }
+            } else if (!(node instanceof Constant || node instanceof Sum || node instanceof Product
+                         || node instanceof Power)) {
+                throw new IllegalArgumentException("Cannot encode " + node.getClass().getSimpleName());
+            }
+        }
+
+        out.write(MAGIC);
+        writeVarint(out, VERSION);
+        writeVarint(out, names.size());
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+        // every distinct node is built once, but a variable once per occurrence
+        int count = expression instanceof Variable ? 1 : 0;
+        for (Expression node : nodes) {
+            if (!(node instanceof Variable)) {
+                count++;
+            }
+            for (Expression operand : operands(node)) {
+                if (operand instanceof Variable) {
+                    count++;
+                }
+            }
+        }
+        writeVarint(out, count);
+
+        // walk every occurrence in postorder, but write a reference instead of a node that was written already
+        Map<Expression, Integer> built = new IdentityHashMap<>();
+        Expression[] stack = new Expression[16];
+        boolean[] expanded = new boolean[16];
+        int depth = 0;
+        stack[depth++] = expression;
+        int size = 0;
+        while (depth > 0) {
+            Expression node = stack[--depth];
+            stack[depth] = null;
+            Integer index = built.get(node);
+            if (index != null) {
+                writeTag(out, REFERENCE, size - 1 - index);
+            } else if (expanded[depth] || !(node instanceof Sum || node instanceof Product || node instanceof Power)) {
+                write(out, node, dictionary);
+                if (!(node instanceof Variable)) {
+                    built.put(node, size);
+                }
+                size++;
+            } else {
+                if (depth + 3 > stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * stack.length);
+                    expanded = Arrays.copyOf(expanded, 2 * expanded.length);
+                }
+                stack[depth] = node;
+                expanded[depth++] = true;
+                if (node instanceof Power) {
+                    stack[depth] = ((Power) node).getBase();
+                    expanded[depth++] = false;
+                    continue;
+                }
+                stack[depth] = node instanceof Sum ? ((Sum) node).getRight() : ((Product) node).getRight();
+                expanded[depth++] = false;
+                stack[depth] = node instanceof Sum ? ((Sum) node).getLeft() : ((Product) node).getLeft();
+                expanded[depth++] = false;
+            }
+        }
+    }
+
+    /**
+     * @return the left and right operand of a Sum or Product, the base of a Power, or no operands for any other node
+     */
+    private static Expression[] operands(Expression node) {
+        if (node instanceof Sum) {
+            return new Expression[] {((Sum) node).getLeft(), ((Sum) node).getRight()};
+        } else if (node instanceof Product) {
+            return new Expression[] {((Product) node).getLeft(), ((Product) node).getRight()};
+        } else if (node instanceof Power) {
+            return new Expression[] {((Power) node).getBase()};
+        }
+        return new Expression[0];
+    }
+
+    /**
+     * Write the instruction that builds node from its operands, which are on top of the stack of the decoder.
+     */
+    private static void write(Output out, Expression node, Map<String, Integer> dictionary) throws IOException {
+        if (node instanceof Constant) {
+            writeTag(out, CONSTANT, 0);
+            out.writeLong(Double.doubleToRawLongBits(((Constant) node).getValue()));
+        } else if (node instanceof Variable) {
+            writeTag(out, VARIABLE, dictionary.get(((Variable) node).getVariable()));
+        } else if (node instanceof Power) {
+            writeTag(out, POWER, ((Power) node).getExponent());
+        } else {
+            writeTag(out, node instanceof Sum ? SUM : PRODUCT, 0);
+        }
+    }
+
+    private static void writeTag(Output out, int kind, long argument) throws IOException {
+        writeVarint(out, argument << KIND_BITS | kind);
+    }
+
+    private static void writeVarint(Output out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    // ---- decoding ----
+
+    private static Expression decode(Input in) throws IOException {
+        byte[] magic = in.readBytes(MAGIC.length);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IllegalArgumentException("Not an encoded expression");
+        }
+        long version = readVarint(in);
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported version " + version + ", expected " + VERSION);
+        }
+
+        // the counts are not trusted to allocate arrays of their size up front
+        int variables = readCount(in);
+        List<Variable> dictionary = new ArrayList<>(Math.min(variables, 1024));
+        for (int i = 0; i < variables; i++) {
+            byte[] bytes = in.readBytes(readCount(in));
+            String name = new String(bytes, StandardCharsets.UTF_8);
+            if (!name.matches("[a-zA-Z]+")) {
+                throw new IllegalArgumentException("Invalid variable name " + name);
+            }
+            dictionary.add(ExpressionInterner.variable(name));
+        }
+
+        int count = readCount(in);
+        if (count == 0) {
+            throw new IllegalArgumentException("The encoding has no nodes");
+        }
+        Expression[] built = new Expression[Math.min(count, 1 << 16)];
+        int size = 0;
+        Expression[] stack = new Expression[16];
+        int depth = 0;
+        while (size < count) {
+            long tag = readVarint(in);
+            long argument = tag >>> KIND_BITS;
+            int kind = (int) (tag & (1 << KIND_BITS) - 1);
+            Expression node;
+            if (kind == REFERENCE) {
+                if (argument >= size) {
+                    throw new IllegalArgumentException("Reference " + argument + " before the first node");
+                }
+                node = built[size - 1 - (int) argument];
+            } else {
+                if (kind == CONSTANT) {
+                    double value = Double.longBitsToDouble(in.readLong());
+                    if (!(value >= 0)) {
+                        throw new IllegalArgumentException("Invalid constant " + value);
+                    }
+                    node = ExpressionInterner.constant(value);
+                } else if (kind == VARIABLE) {
+                    if (argument >= dictionary.size()) {
+                        throw new IllegalArgumentException("Variable " + argument + " is not in the dictionary");
+                    }
+                    node = dictionary.get((int) argument);
+                } else if (kind == SUM || kind == PRODUCT) {
+                    if (depth < 2) {
+                        throw new IllegalArgumentException("Missing operands of node " + size);
+                    }
+                    Expression right = stack[--depth];
+                    Expression left = stack[--depth];
+                    node = kind == SUM ? ExpressionInterner.sum(left, right) : ExpressionInterner.product(left, right);
+                } else if (kind == POWER) {
+                    if (depth < 1) {
+                        throw new IllegalArgumentException("Missing base of node " + size);
+                    }
+                    if (argument > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("Invalid exponent " + argument);
+                    }
+                    node = ExpressionInterner.power(stack[--depth], (int) argument);
+                } else {
+                    throw new IllegalArgumentException("Unknown kind of node " + kind);
+                }
+                if (size == built.length) {
+                    built = Arrays.copyOf(built, 2 * size);
+                }
+                built[size++] = node;
+            }
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, 2 * depth);
+            }
+            stack[depth++] = node;
+        }
+        if (depth != 1) {
+            throw new IllegalArgumentException("The encoding leaves " + depth + " expressions instead of 1");
+        }
+        return stack[0];
+    }
+
+    /**
+     * @return a varint that is a count of items, which must fit in an array
+     */
+    private static int readCount(Input in) throws IOException {
+        long count = readVarint(in);
+        if (count > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Invalid count " + count);
+        }
+        return (int) count;
+    }
+
+    private static long readVarint(Input in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
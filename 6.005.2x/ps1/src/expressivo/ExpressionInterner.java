@@ -0,0 +1,277 @@
+package expressivo;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Hash-consing factory for expressions: every distinct expression built through this class exists only once, and
+ * equal subtrees are shared, such that a set of expressions forms a DAG instead of a set of trees.
+ * Since the children of an interned Sum, Product or Power are interned as well, two candidate nodes can be compared in
+ * constant time by comparing their children by reference. Two interned expressions are therefore equal if and only if
+ * they are the same object.
+ * The table only holds weak references, so an interned expression is forgotten as soon as nobody else refers to it.
+ * This class is threadsafe.
+ */
+public class ExpressionInterner {
+
+    /** Number of independently locked segments, a power of two */
+    private static final int SEGMENTS = 64;
+    /** Initial number of buckets per segment, a power of two */
+    private static final int INITIAL_BUCKETS = 64;
+
+    // Abstraction function
+    //      The set of all interned expressions that are still strongly reachable from outside this class, where the
+    //      expressions are distributed over the segments by their hash code.
+    //
+    // Rep invariant
+    //      no segment contains two (shallowly) equal expressions, every expression in a segment is interned and its
+    //      children are interned, an expression is in segment (spread(hash) & (SEGMENTS - 1))
+    //
+    // Safety from rep exposure
+    //      the segments are private and never returned, only the (immutable) interned expressions are
+    //
+    // Thread safety
+    //      each segment is only accessed while holding its lock; the interned expressions are immutable and are
+    //      published through that lock
+
+    private static final Segment[] segments = new Segment[SEGMENTS];
+
+    static {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @param value a non-negative number
+     * @return the interned constant with this value
+     */
+    public static Constant constant(double value) {
+        return (Constant) canonical(new Constant(value, true));
+    }
+
+    /**
+     * @param name a case-sensitive nonempty string of letters
+     * @return the interned variable with this name
+     */
+    public static Variable variable(String name) {
+        return (Variable) canonical(new Variable(name, true));
+    }
+
+    /**
+     * @param left the left-hand side of the sum
+     * @param right the right-hand side of the sum
+     * @return the interned sum of the interned left and right
+     */
+    public static Sum sum(Expression left, Expression right) {
+        return (Sum) canonical(new Sum(intern(left), intern(right), true));
+    }
+
+    /**
+     * @param left the left-hand side of the product
+     * @param right the right-hand side of the product
+     * @return the interned product of the interned left and right
+     */
+    public static Product product(Expression left, Expression right) {
+        return (Product) canonical(new Product(intern(left), intern(right), true));
+    }
+
+    /**
+     * @param base the base of the power
+     * @param exponent the exponent of the power, non-negative
+     * @return the interned power of the interned base
+     * @throws IllegalArgumentException if exponent is negative
+     */
+    public static Power power(Expression base, int exponent) {
+        return (Power) canonical(new Power(intern(base), exponent, true));
+    }
+
+    /**
+     * @param expression any expression
+     * @return the interned expression equal to expression, which is expression itself if it already was interned
+     */
+    public static Expression intern(Expression expression) {
+        if (isInterned(expression)) {
+            return expression;
+        }
+        // intern the operands bottom-up with an explicit stack, so deep expressions do not overflow the thread stack
+        return ExpressionTraversal.foldShared(expression, INTERN);
+    }
+
+    private static final ExpressionTraversal.Fold<Expression> INTERN = new ExpressionTraversal.Fold<Expression>() {
+        @Override
+        public Expression known(Expression node) {
+            return isInterned(node) ? node : null;
+        }
+
+        @Override
+        public Expression leaf(Expression node) {
+            if (node instanceof Constant) {
+                return constant(((Constant) node).getValue());
+            } else if (node instanceof Variable) {
+                return variable(((Variable) node).getVariable());
+            }
+            // an unknown implementation of Expression cannot be shared
+            return node;
+        }
+
+        @Override
+        public Expression sum(Sum node, Expression left, Expression right) {
+            return ExpressionInterner.sum(left, right);
+        }
+
+        @Override
+        public Expression product(Product node, Expression left, Expression right) {
+            return ExpressionInterner.product(left, right);
+        }
+
+        @Override
+        public Expression power(Power node, Expression base) {
+            return ExpressionInterner.power(base, node.getExponent());
+        }
+    };
+
+    /**
+     * @param expression any expression
+     * @return true if expression was created by this factory
+     */
+    public static boolean isInterned(Expression expression) {
+        if (expression instanceof Constant) return ((Constant) expression).isInterned();
+        if (expression instanceof Variable) return ((Variable) expression).isInterned();
+        if (expression instanceof Sum) return ((Sum) expression).isInterned();
+        if (expression instanceof Product) return ((Product) expression).isInterned();
+        if (expression instanceof Power) return ((Power) expression).isInterned();
+        return false;
+    }
+
+    /**
+     * @return the number of interned expressions that have not been garbage collected yet
+     */
+    public static int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.expungeStaleEntries();
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @param candidate an interned-flagged node whose children are interned, not yet visible to anyone else
+     * @return the node in the table equal to candidate, or candidate itself after adding it to the table
+     */
+    private static Expression canonical(Expression candidate) {
+        final int hash = candidate.hashCode();
+        Segment segment = segments[spread(hash) & (SEGMENTS - 1)];
+        synchronized (segment) {
+            return segment.findOrAdd(candidate, hash);
+        }
+    }
+
+    /**
+     * @return hash with its high bits mixed into the low bits, which select the segment and the bucket
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return true if a and b are nodes of the same kind with equal values, or with the very same children
+     */
+    private static boolean shallowEquals(Expression a, Expression b) {
+        if (a instanceof Constant && b instanceof Constant) {
+            return Double.doubleToLongBits(((Constant) a).getValue())
+                   == Double.doubleToLongBits(((Constant) b).getValue());
+        } else if (a instanceof Variable && b instanceof Variable) {
+            return ((Variable) a).getVariable().equals(((Variable) b).getVariable());
+        } else if (a instanceof Sum && b instanceof Sum) {
+            return ((Sum) a).getLeft() == ((Sum) b).getLeft() && ((Sum) a).getRight() == ((Sum) b).getRight();
+        } else if (a instanceof Product && b instanceof Product) {
+            return ((Product) a).getLeft() == ((Product) b).getLeft()
+                   && ((Product) a).getRight() == ((Product) b).getRight();
+        } else if (a instanceof Power && b instanceof Power) {
+            return ((Power) a).getBase() == ((Power) b).getBase()
+                   && ((Power) a).getExponent() == ((Power) b).getExponent();
+        }
+        return false;
+    }
+
+    /**
+     * An entry of a segment: a weak reference to an interned expression, chained per bucket.
+     */
+    private static class Entry extends WeakReference<Expression> {
+        private final int hash;
+        private Entry next;
+
+        Entry(Expression expression, int hash, Entry next, ReferenceQueue<Expression> queue) {
+            super(expression, queue);
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+
+    /**
+     * A hash table with weakly referenced entries and separate chaining, which is only accessed while holding its
+     * lock. Entries whose expression has been collected are removed lazily via the reference queue.
+     */
+    private static class Segment {
+        private final ReferenceQueue<Expression> queue = new ReferenceQueue<>();
+        private Entry[] buckets = new Entry[INITIAL_BUCKETS];
+        private int size = 0;
+
+        Expression findOrAdd(Expression candidate, int hash) {
+            expungeStaleEntries();
+            int index = indexFor(hash, buckets.length);
+            for (Entry entry = buckets[index]; entry != null; entry = entry.next) {
+                if (entry.hash == hash) {
+                    Expression existing = entry.get();
+                    if (existing != null && shallowEquals(existing, candidate)) {
+                        return existing;
+                    }
+                }
+            }
+            buckets[index] = new Entry(candidate, hash, buckets[index], queue);
+            if (++size > buckets.length) {
+                resize();
+            }
+            return candidate;
+        }
+
+        void expungeStaleEntries() {
+            for (Object stale; (stale = queue.poll()) != null; ) {
+                Entry entry = (Entry) stale;
+                int index = indexFor(entry.hash, buckets.length);
+                Entry previous = null;
+                for (Entry current = buckets[index]; current != null; previous = current, current = current.next) {
+                    if (current == entry) {
+                        if (previous == null) buckets[index] = current.next;
+                        else previous.next = current.next;
+                        size--;
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void resize() {
+            Entry[] old = buckets;
+            buckets = new Entry[old.length * 2];
+            for (Entry head : old) {
+                for (Entry entry = head; entry != null; ) {
+                    Entry next = entry.next;
+                    int index = indexFor(entry.hash, buckets.length);
+                    entry.next = buckets[index];
+                    buckets[index] = entry;
+                    entry = next;
+                }
+            }
+        }
+
+        private static int indexFor(int hash, int length) {
+            // the lowest bits select the segment, so the bucket is selected by the bits above them
+            return (spread(hash) >>> 6) & (length - 1);
+        }
+    }
+}
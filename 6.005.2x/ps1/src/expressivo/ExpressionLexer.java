@@ -0,0 +1,296 @@
+package expressivo;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * A hand-written lexer for the language of Expression.g. It walks over a CharSequence and only keeps the kind and
+ * the start and end offsets of the current token, so lexing does not allocate any objects. Whitespace is skipped.
+ * The input can also be streamed from a Reader, in which case only a window of it is kept: the characters from the
+ * start of the current token on, which the window grows to hold if a token is longer than WINDOW_SIZE. Offsets are
+ * always counted from the start of the whole input.
+ * This class is mutable and not threadsafe; use one lexer per input.
+ */
+class ExpressionLexer {
+
+    /** Token kinds */
+    static final int END = 0;
+    static final int NUMBER = 1;
+    static final int VARIABLE = 2;
+    static final int PLUS = 3;
+    static final int TIMES = 4;
+    static final int LEFT_PARENTHESIS = 5;
+    static final int RIGHT_PARENTHESIS = 6;
+    static final int CARET = 7;
+
+    /** Largest number of digits for which an integer or decimal is converted without Double.parseDouble */
+    private static final int MAX_FAST_DIGITS = 15;
+    /** Powers of ten that are exactly representable as doubles */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Number of characters read from a Reader at once */
+    static final int WINDOW_SIZE = 8192;
+
+    // rep
+    private final Reader reader;
+    private CharSequence input;
+    private int offset;
+    private int length;
+    private int kind;
+    private int start;
+    private int end;
+
+    // Abstraction
+    //      The whole input split into tokens, where the current token has kind `kind` and is the whole input
+    //      [start..end). input holds the characters [offset..length) of the whole input, which are all of them unless
+    //      they are streamed from reader.
+    // Rep invariant
+    //      0 <= offset <= start <= end <= length, length - offset == input.length(), kind is one of the token kinds
+    //      above, kind == END iff start equals the length of the whole input after skipping whitespace;
+    //      if reader == null then offset == 0 and length is the length of the whole input,
+    //      else input is a CharBuffer wrapping the window and positioned at its start
+    // Safety from rep exposure
+    //      the input is never modified nor returned, the window is never shared
+
+    /**
+     * Create a lexer positioned on the first token of the input.
+     * @param input the text to split into tokens
+     * @throws IllegalArgumentException if the first token is not a valid token
+     */
+    ExpressionLexer(CharSequence input) {
+        this.reader = null;
+        this.input = input;
+        this.offset = 0;
+        this.length = input.length();
+        this.end = 0;
+        next();
+    }
+
+    /**
+     * Create a lexer positioned on the first token of the input read from reader. The reader is read as far as the
+     * lexer gets, and is not closed.
+     * @param reader the text to split into tokens
+     * @throws IllegalArgumentException if the first token is not a valid token
+     * @throws UncheckedIOException if reading from the reader fails, now or on any later call of next()
+     */
+    ExpressionLexer(Reader reader) {
+        this.reader = reader;
+        this.input = CharBuffer.wrap(new char[WINDOW_SIZE], 0, 0);
+        this.offset = 0;
+        this.length = 0;
+        this.end = 0;
+        next();
+    }
+
+    /**
+     * @return the kind of the current token
+     */
+    int kind() {
+        return kind;
+    }
+
+    /**
+     * @return the offset of the first character of the current token
+     */
+    int start() {
+        return start;
+    }
+
+    /**
+     * @return the offset just after the last character of the current token
+     */
+    int end() {
+        return end;
+    }
+
+    /**
+     * @return the text of the current token
+     */
+    String text() {
+        return input.subSequence(start - offset, end - offset).toString();
+    }
+
+    /**
+     * Move to the next token.
+     * @return the kind of the new current token
+     * @throws IllegalArgumentException if the input contains a character that does not start a token
+     */
+    int next() {
+        int position = end;
+        while (available(position, position) && isWhitespace(charAt(position))) {
+            position++;
+        }
+        start = position;
+        if (!available(position, start)) {
+            end = position;
+            return kind = END;
+        }
+
+        char c = charAt(position);
+        switch (c) {
+            case '+':
+                end = position + 1;
+                return kind = PLUS;
+            case '*':
+                end = position + 1;
+                return kind = TIMES;
+            case '(':
+                end = position + 1;
+                return kind = LEFT_PARENTHESIS;
+            case ')':
+                end = position + 1;
+                return kind = RIGHT_PARENTHESIS;
+            case '^':
+                end = position + 1;
+                return kind = CARET;
+            default:
+                break;
+        }
+        if (isLetter(c)) {
+            do {
+                position++;
+            } while (available(position, start) && isLetter(charAt(position)));
+            end = position;
+            return kind = VARIABLE;
+        }
+        if (isDigit(c) || c == '.') {
+            // integer ::= [0-9]+;  decimal ::= ([0-9]* '.' [0-9]+) | ([0-9]+ '.' [0-9]*);
+            int digits = 0;
+            while (available(position, start) && isDigit(charAt(position))) {
+                position++;
+                digits++;
+            }
+            if (available(position, start) && charAt(position) == '.') {
+                position++;
+                while (available(position, start) && isDigit(charAt(position))) {
+                    position++;
+                    digits++;
+                }
+            }
+            if (digits > 0) {
+                end = position;
+                return kind = NUMBER;
+            }
+        }
+        throw new IllegalArgumentException("Unexpected character '" + c + "' at position " + position);
+    }
+
+    /**
+     * @return the value of the current token, requires kind() == NUMBER
+     */
+    double numberValue() {
+        assert kind == NUMBER;
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        for (int i = start; i < end; i++) {
+            char c = charAt(i);
+            if (c == '.') {
+                fraction = true;
+                continue;
+            }
+            if (mantissa == 0 && c == '0') {
+                // leading zeroes do not count towards the precision
+                if (fraction) fractionDigits++;
+                continue;
+            }
+            if (++digits > MAX_FAST_DIGITS) {
+                return Double.parseDouble(text());
+            }
+            mantissa = 10 * mantissa + (c - '0');
+            if (fraction) fractionDigits++;
+        }
+        if (fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(text());
+        }
+        // both the mantissa and the power of ten are exact doubles, so this single division is correctly rounded
+        return mantissa / POWERS_OF_TEN[fractionDigits];
+    }
+
+    /**
+     * @return the value of the current token as an exponent, requires kind() == NUMBER
+     * @throws IllegalArgumentException if the token is a decimal, or too large for an int
+     */
+    int integerValue() {
+        assert kind == NUMBER;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = charAt(i);
+            if (c == '.') {
+                throw new IllegalArgumentException("Exponent must be an integer, not " + text() + " at position "
+                                                   + start);
+            }
+            value = 10 * value + (c - '0');
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Exponent too large: " + text());
+            }
+        }
+        return (int) value;
+    }
+
+    /**
+     * @param position an offset in the whole input, requires offset <= position <= length
+     * @param keep the first offset of the input that is still needed, requires offset <= keep <= position
+     * @return true iff the whole input has a character at position, which may first have to be read from the reader;
+     *         characters before keep may be dropped from the window
+     */
+    private boolean available(int position, int keep) {
+        return position < length || fill(keep);
+    }
+
+    /**
+     * Read more of the input from the reader into the window, after moving the characters from keep on to the start
+     * of the window, growing it if they take more than half of it.
+     * @param keep the first offset of the input that is still needed, requires offset <= keep <= length
+     * @return true iff at least one more character was read, false at the end of the input or if there is no reader
+     */
+    private boolean fill(int keep) {
+        if (reader == null) {
+            return false;
+        }
+        CharBuffer window = (CharBuffer) input;
+        char[] chars = window.array();
+        int kept = length - keep;
+        if (2 * kept > chars.length) {
+            chars = Arrays.copyOf(chars, 2 * chars.length);
+        }
+        System.arraycopy(window.array(), keep - offset, chars, 0, kept);
+        try {
+            // at least half of the window is free, and read() only returns 0 when asked for 0 characters
+            int read = Math.max(reader.read(chars, kept, chars.length - kept), 0);
+            offset = keep;
+            length = keep + kept + read;
+            input = CharBuffer.wrap(chars, 0, kept + read);
+            return read > 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param position an offset in the whole input, requires offset <= position < length
+     * @return the character of the whole input at position
+     */
+    private char charAt(int position) {
+        return input.charAt(position - offset);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    private static boolean isLetter(char c) {
+        return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return '0' <= c && c <= '9';
+    }
+}
@@ -0,0 +1,361 @@
+package expressivo;
+
+import lib6005.parser.GrammarCompiler;
+import lib6005.parser.ParseTree;
+import lib6005.parser.Parser;
+import lib6005.parser.UnableToParseException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The parser subsystem behind Expression.parse(). There are two engines that accept the same language and build equal
+ * ASTs, see Engine. The engine is chosen with the system property expressivo.parser ("grammar" or "handwritten") or
+ * with setEngine().
+ * The grammar Expression.g is loaded from the classpath and compiled only once, the first time the grammar engine is
+ * used, and that single compiled parser is shared by all threads.
+ * Finished ASTs are kept in a bounded least-recently-used cache, so parsing the same input twice only costs a lookup.
+ * Large inputs can be parsed from a Reader or a file without holding them as a String, see parse(Reader) and
+ * parse(Path).
+ * This class is threadsafe.
+ */
+public class ExpressionParser {
+
+    /** Name of the grammar file, relative to the location of the Expression class on the classpath. */
+    static final String GRAMMAR_RESOURCE = "Expression.g";
+    /** System property that selects the engine used by Expression.parse() */
+    public static final String ENGINE_PROPERTY = "expressivo.parser";
+    /** Default maximal number of ASTs kept in the parse cache. */
+    public static final int DEFAULT_CACHE_CAPACITY = 4096;
+
+    /**
+     * The engines that can parse expressions.
+     */
+    public enum Engine {
+        /** Parse with the compiled grammar Expression.g into a concrete syntax tree, then build the AST from it */
+        GRAMMAR,
+        /** Parse with the hand-written lexer and precedence-climbing parser, which builds the AST directly */
+        HANDWRITTEN
+    }
+
+    // Abstraction function
+    //      The engine used for parsing, the parser of Expression.g, and a map from input strings to the ASTs they were
+    //      parsed to, holding at most cacheCapacity of the most recently used inputs. The counters record how often the
+    //      cache was hit or missed and how many nanoseconds compiling the grammar took.
+    //
+    // Rep invariant
+    //      cache.size() <= cacheCapacity, cacheCapacity >= 0, every value in cache equals the parse of its key
+    //
+    // Safety from rep exposure
+    //      all fields are private, the cache is never returned, and the Expressions in it are immutable
+    //
+    // Thread safety
+    //      The compiled parser is created exactly once by the class initialization of GrammarHolder, which the JVM
+    //      guarantees to be threadsafe, and is only used for parsing afterwards, which does not modify it.
+    //      Every access of the cache and its capacity is guarded by the lock of the cache. The counters are atomic.
+    //      The engine is volatile, and since both engines build equal ASTs the cache stays valid when it changes.
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong compilations = new AtomicLong();
+    private static final AtomicLong compileTimeNanos = new AtomicLong();
+
+    private static volatile Engine engine = engineFromProperty();
+
+    private static int cacheCapacity = DEFAULT_CACHE_CAPACITY;
+    private static final Map<String, Expression> cache = new LinkedHashMap<String, Expression>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+            return size() > cacheCapacity;
+        }
+    };
+
+    /**
+     * Holds the compiled grammar, which is compiled when this class is first used.
+     */
+    private static class GrammarHolder {
+        private static final Parser<Expression.Grammar> PARSER = compileGrammar();
+    }
+
+    /**
+     * Parse an expression, reusing the AST of an earlier parse of the same input if it is still in the cache.
+     *
+     * @param input expression to parse, as defined in Expression.parse()
+     * @return expression AST for the input
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static Expression parse(String input) {
+        synchronized (cache) {
+            Expression cached = cache.get(input);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+        misses.incrementAndGet();
+        // parse outside of the lock, such that threads parsing different inputs do not wait on each other
+        Expression expression = parseUncached(input);
+        synchronized (cache) {
+            cache.put(input, expression);
+        }
+        return expression;
+    }
+
+    /**
+     * Parse an expression with the current engine, without looking at or updating the cache.
+     *
+     * @param input expression to parse, as defined in Expression.parse()
+     * @return expression AST for the input
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static Expression parseUncached(String input) {
+        return parseUncached(input, engine);
+    }
+
+    /**
+     * Parse an expression with the given engine, without looking at or updating the cache.
+     *
+     * @param input expression to parse, as defined in Expression.parse()
+     * @param engine the engine to parse with
+     * @return expression AST for the input
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static Expression parseUncached(String input, Engine engine) {
+        switch (engine) {
+            case HANDWRITTEN:
+                return PrattParser.parse(input);
+            case GRAMMAR:
+                return parseWithGrammar(input);
+            default:
+                throw new AssertionError("Unknown engine: " + engine);
+        }
+    }
+
+    /**
+     * Parse an expression streamed from a reader, e.g. one that is too large to be held as a String. The reader is
+     * tokenized incrementally and the AST is built in the same pass, without a concrete syntax tree, so besides the
+     * AST only a small window of the input is held in memory. The hand-written engine is always used, and the cache
+     * is not used.
+     *
+     * @param reader expression to parse, as defined in Expression.parse(); it is read to its end but not closed
+     * @return expression AST for the input
+     * @throws IllegalArgumentException if the expression is invalid
+     * @throws IOException if reading from reader fails
+     */
+    public static Expression parse(Reader reader) throws IOException {
+        return PrattParser.parse(reader);
+    }
+
+    /**
+     * Parse an expression stored in a file, which is memory-mapped rather than read, so the contents are paged in by
+     * the operating system as the parser gets to them and are never copied onto the heap. The file must be in ASCII
+     * (or UTF-8, which is the same for the characters of an expression). The hand-written engine is always used, and
+     * the cache is not used.
+     *
+     * @param file the file holding the expression to parse, as defined in Expression.parse(), of at most
+     *             Integer.MAX_VALUE bytes
+     * @return expression AST for the contents of file
+     * @throws IllegalArgumentException if the expression is invalid, or the file is too large
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static Expression parse(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("File is too large to parse: " + file);
+            }
+            MappedByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return PrattParser.parse(new ExpressionLexer(new AsciiSequence(contents)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Cannot parse the expression in " + file + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * The characters of ASCII bytes in a buffer, which are read on demand. A byte outside of ASCII becomes a
+     * character outside of ASCII as well, which the lexer rejects.
+     */
+    private static class AsciiSequence implements CharSequence {
+        private final ByteBuffer bytes;
+
+        // Abstraction
+        //      the characters bytes[0..limit), where byte b stands for the character with code b & 0xff
+        // Rep invariant
+        //      bytes.position() == 0
+        // Safety from rep exposure
+        //      bytes is never modified nor returned, subSequence copies
+
+        /**
+         * @param bytes the bytes of the sequence, from its position to its limit; requires bytes.position() == 0
+         */
+        AsciiSequence(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes.get(index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            StringBuilder characters = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                characters.append(charAt(i));
+            }
+            return characters.toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+
+    /**
+     * @param input expression to parse
+     * @return expression AST for the input, built from the parse tree of the compiled grammar
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    private static Expression parseWithGrammar(String input) {
+        try {
+            ParseTree<Expression.Grammar> tree = GrammarHolder.PARSER.parse(input);
+            return Expression.buildAST(tree);
+        } catch (UnableToParseException e) {
+            throw new IllegalArgumentException("Cannot parse the expression: " + input);
+        }
+    }
+
+    /**
+     * Load the grammar from the classpath and compile it, recording the time this took.
+     * @return a parser for the grammar Expression.g
+     */
+    private static Parser<Expression.Grammar> compileGrammar() {
+        long start = System.nanoTime();
+        try {
+            String grammar = readGrammar();
+            Parser<Expression.Grammar> parser = GrammarCompiler.compile(grammar, Expression.Grammar.ROOT);
+            compilations.incrementAndGet();
+            return parser;
+        } catch (IOException | UnableToParseException e) {
+            throw new RuntimeException("Cannot load the grammar " + GRAMMAR_RESOURCE, e);
+        } finally {
+            compileTimeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the contents of the grammar file
+     * @throws IOException if the grammar is not on the classpath or cannot be read
+     */
+    private static String readGrammar() throws IOException {
+        try (InputStream in = Expression.class.getResourceAsStream(GRAMMAR_RESOURCE)) {
+            if (in == null) {
+                throw new IOException(GRAMMAR_RESOURCE + " is not on the classpath");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @return the engine used by parse() and parseUncached(String)
+     */
+    public static Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @param newEngine the engine to be used by parse() and parseUncached(String) from now on
+     */
+    public static void setEngine(Engine newEngine) {
+        if (newEngine == null) {
+            throw new IllegalArgumentException("Engine must not be null");
+        }
+        engine = newEngine;
+    }
+
+    /**
+     * @return the engine named by the system property ENGINE_PROPERTY, or GRAMMAR if the property is not set
+     * @throws IllegalArgumentException if the property does not name an engine
+     */
+    private static Engine engineFromProperty() {
+        String name = System.getProperty(ENGINE_PROPERTY, Engine.GRAMMAR.name());
+        return Engine.valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Change the maximal number of ASTs kept in the cache, evicting the least recently used ones if necessary.
+     * @param capacity the new capacity, requires capacity >= 0; 0 disables caching
+     */
+    public static void setCacheCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must be non-negative: " + capacity);
+        }
+        synchronized (cache) {
+            cacheCapacity = capacity;
+            while (cache.size() > capacity) {
+                cache.remove(cache.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * Remove all ASTs from the cache and reset the hit and miss counters.
+     */
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+            hits.set(0);
+            misses.set(0);
+        }
+    }
+
+    /**
+     * @return the current hit and miss counters, size and capacity of the parse cache
+     */
+    public static CacheStatistics getCacheStatistics() {
+        synchronized (cache) {
+            return new CacheStatistics(hits.get(), misses.get(), cache.size(), cacheCapacity);
+        }
+    }
+
+    /**
+     * @return how often the grammar was compiled, which is at most once per class loader
+     */
+    public static long getCompilations() {
+        return compilations.get();
+    }
+
+    /**
+     * @return the total time spent on loading and compiling the grammar, in nanoseconds
+     */
+    public static long getCompileTimeNanos() {
+        return compileTimeNanos.get();
+    }
+}
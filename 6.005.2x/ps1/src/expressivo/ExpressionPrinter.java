@@ -0,0 +1,365 @@
+package expressivo;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Writes the text of expressions, as defined by toString(): a Sum is written as (left+right), a Product as
+ * left*right, a Power as the product base*base*...*base of exponent factors (or 1 for the exponent 0), and a
+ * Constant or Variable (or another variant of Expression) with its own toString(). A base that is a Product or Power
+ * is parenthesized. So the text only uses + and *, like the grammar of the PS1 handout, and parses back to an equal
+ * expression, see Expression.toString(). On request a Power is written as base^exponent instead, which is shorter
+ * but only parses with Expression.parse(), not with parsers of the handout grammar.
+ *
+ * The expression is walked once from left to right with an explicit stack, so writing takes time linear in the
+ * length of the text, independent of the depth of the expression. There are two modes:
+ *      print(expression, out)          streams the text into any Appendable, e.g. a Writer, in chunks of CHUNK_SIZE
+ *      print(expression, buffer, i)    fills a preallocated buffer, of at least length(expression) characters
+ * toString(expression) computes the length first and fills a single buffer of exactly that length. Each of them takes
+ * an optional flag carets to write powers as base^exponent.
+ *
+ * This class is threadsafe; every call of the static methods uses its own instance.
+ */
+public class ExpressionPrinter {
+
+    /** Number of characters written to an Appendable at once */
+    static final int CHUNK_SIZE = 8192;
+
+    /** The operators and the closing parenthesis, which are pushed between the operands still to be written */
+    private static final Character PLUS = '+';
+    private static final Character TIMES = '*';
+    private static final Character CARET = '^';
+    private static final Character OPEN = '(';
+    private static final Character CLOSE = ')';
+
+    // rep
+    private final Appendable out;
+    private final char[] buffer;
+    private final boolean carets;
+    private int position;
+    private Object[] stack = new Object[16];
+    private int depth = 0;
+
+    // Abstraction
+    //      A printer that has written the characters buffer[start..position) (start is the offset it was created
+    //      with) which are not passed on yet, and everything before them to out; it still has to write the items
+    //      stack[0..depth) in reverse order, which are expressions, the characters between them and the factors of
+    //      powers still to be written; it writes powers as base^exponent iff carets. In the buffer mode out is null
+    //      and the buffer is never passed on.
+    // Rep invariant
+    //      0 <= position <= buffer.length, 0 <= depth <= stack.length
+    // Safety from rep exposure
+    //      all fields are private and the printer itself is never returned
+
+    private ExpressionPrinter(Appendable out, char[] buffer, int position, boolean carets) {
+        this.out = out;
+        this.buffer = buffer;
+        this.position = position;
+        this.carets = carets;
+    }
+
+    /**
+     * The factors of a power written as a product that are still to be written, pushed once for the whole product.
+     */
+    private static class Factors {
+        private final Power power;
+        private int remaining;
+
+        Factors(Power power) {
+            this.power = power;
+            this.remaining = power.getExponent();
+        }
+    }
+
+    /**
+     * Stream the text of an expression into out.
+     *
+     * @param expression any expression
+     * @param out receives the text of expression, in chunks of at most CHUNK_SIZE characters; a Writer receives them
+     *            with write(char[], int, int), so it needs no buffering of its own
+     * @throws IOException if out throws it
+     */
+    public static void print(Expression expression, Appendable out) throws IOException {
+        print(expression, out, false);
+    }
+
+    /**
+     * Stream the text of an expression into out.
+     *
+     * @param expression any expression
+     * @param out receives the text of expression, as for print(expression, out)
+     * @param carets true to write every power as base^exponent, false to write it as a product
+     * @throws IOException if out throws it
+     */
+    public static void print(Expression expression, Appendable out, boolean carets) throws IOException {
+        ExpressionPrinter printer = new ExpressionPrinter(out, new char[CHUNK_SIZE], 0, carets);
+        printer.write(expression);
+        printer.flush();
+    }
+
+    /**
+     * Write the text of an expression into a preallocated buffer.
+     *
+     * @param expression any expression
+     * @param buffer receives the text of expression, starting at offset; requires that buffer has room for at least
+     *               length(expression) characters from offset on
+     * @param offset the index in buffer of the first character of the text
+     * @return the index in buffer after the last character of the text
+     * @throws IndexOutOfBoundsException if buffer has no room for the text
+     */
+    public static int print(Expression expression, char[] buffer, int offset) {
+        return print(expression, buffer, offset, false);
+    }
+
+    /**
+     * Write the text of an expression into a preallocated buffer.
+     *
+     * @param expression any expression
+     * @param buffer receives the text of expression, starting at offset; requires that buffer has room for at least
+     *               length(expression, carets) characters from offset on
+     * @param offset the index in buffer of the first character of the text
+     * @param carets true to write every power as base^exponent, false to write it as a product
+     * @return the index in buffer after the last character of the text
+     * @throws IndexOutOfBoundsException if buffer has no room for the text
+     */
+    public static int print(Expression expression, char[] buffer, int offset, boolean carets) {
+        if (offset < 0 || offset > buffer.length) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " outside of the buffer");
+        }
+        ExpressionPrinter printer = new ExpressionPrinter(null, buffer, offset, carets);
+        try {
+            printer.write(expression);
+        } catch (IOException e) {
+            throw new AssertionError("The buffer mode does not write to an Appendable", e);
+        }
+        return printer.position;
+    }
+
+    /**
+     * @param expression any expression
+     * @return the number of characters of the text of expression
+     */
+    public static long length(Expression expression) {
+        return length(expression, false);
+    }
+
+    /**
+     * @param expression any expression
+     * @param carets true to count every power as base^exponent, false as a product
+     * @return the number of characters of the text of expression, or Long.MAX_VALUE if that overflows
+     */
+    public static long length(Expression expression, boolean carets) {
+        // the text consists of the texts of the leaves, 3 characters per Sum, 1 per Product, and the caret and the
+        // exponent per Power, plus 2 for the parentheses around a Product or Power base; a Power written as a
+        // product of n factors has n - 1 times, and its base counts n times as often as the Power itself
+        long length = 0;
+        Expression[] stack = new Expression[16];
+        long[] counts = new long[16];
+        int depth = 0;
+        stack[depth] = expression;
+        counts[depth++] = 1;
+        while (depth > 0) {
+            Expression node = stack[--depth];
+            long count = counts[depth];
+            stack[depth] = null;
+            if (depth + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+                counts = Arrays.copyOf(counts, stack.length);
+            }
+            if (node instanceof Sum) {
+                length = add(length, multiply(3, count));
+                stack[depth] = ((Sum) node).getRight();
+                counts[depth++] = count;
+                stack[depth] = ((Sum) node).getLeft();
+                counts[depth++] = count;
+            } else if (node instanceof Product) {
+                length = add(length, count);
+                stack[depth] = ((Product) node).getRight();
+                counts[depth++] = count;
+                stack[depth] = ((Product) node).getLeft();
+                counts[depth++] = count;
+            } else if (node instanceof Power) {
+                Power power = (Power) node;
+                int exponent = power.getExponent();
+                int parentheses = parenthesized(power) ? 2 : 0;
+                if (carets) {
+                    length = add(length, multiply(1 + Integer.toString(exponent).length() + parentheses, count));
+                    stack[depth] = power.getBase();
+                    counts[depth++] = count;
+                } else if (exponent == 0) {
+                    length = add(length, count);
+                } else {
+                    length = add(length, multiply(exponent - 1 + (long) parentheses * exponent, count));
+                    stack[depth] = power.getBase();
+                    counts[depth++] = multiply(exponent, count);
+                }
+            } else {
+                length = add(length, multiply(node.toString().length(), count));
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return a + b for non-negative a and b, or Long.MAX_VALUE if that overflows
+     */
+    private static long add(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    /**
+     * @return a * b for non-negative a and b, or Long.MAX_VALUE if that overflows
+     */
+    private static long multiply(long a, long b) {
+        return a != 0 && b > Long.MAX_VALUE / a ? Long.MAX_VALUE : a * b;
+    }
+
+    /**
+     * @param expression any expression
+     * @return the text of expression, written into a single buffer of its precomputed length
+     * @throws IllegalArgumentException if the text is too long for a String
+     */
+    public static String toString(Expression expression) {
+        return toString(expression, false);
+    }
+
+    /**
+     * @param expression any expression
+     * @param carets true to write every power as base^exponent, false to write it as a product
+     * @return the text of expression, written into a single buffer of its precomputed length
+     * @throws IllegalArgumentException if the text is too long for a String
+     */
+    public static String toString(Expression expression, boolean carets) {
+        long length = length(expression, carets);
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The text of the expression has " + length + " characters");
+        }
+        char[] buffer = new char[(int) length];
+        print(expression, buffer, 0, carets);
+        return new String(buffer);
+    }
+
+    /**
+     * Write the text of expression, from left to right.
+     */
+    private void write(Expression expression) throws IOException {
+        push(expression);
+        while (depth > 0) {
+            Object item = stack[--depth];
+            stack[depth] = null;
+            if (item instanceof Sum) {
+                Sum sum = (Sum) item;
+                write('(');
+                push(CLOSE);
+                push(sum.getRight());
+                push(PLUS);
+                push(sum.getLeft());
+            } else if (item instanceof Product) {
+                Product product = (Product) item;
+                push(product.getRight());
+                push(TIMES);
+                push(product.getLeft());
+            } else if (item instanceof Power) {
+                Power power = (Power) item;
+                if (carets) {
+                    push(Integer.toString(power.getExponent()));
+                    push(CARET);
+                    pushBase(power);
+                } else if (power.getExponent() == 0) {
+                    write('1');
+                } else {
+                    push(new Factors(power));
+                }
+            } else if (item instanceof Factors) {
+                // the next factor, and after it the remaining ones, if any
+                Factors factors = (Factors) item;
+                if (--factors.remaining > 0) {
+                    push(factors);
+                    push(TIMES);
+                }
+                pushBase(factors.power);
+            } else if (item instanceof Character) {
+                write((char) (Character) item);
+            } else {
+                write(item.toString());
+            }
+        }
+    }
+
+    /**
+     * Push the base of power, parenthesized if necessary.
+     */
+    private void pushBase(Power power) {
+        if (parenthesized(power)) {
+            push(CLOSE);
+            push(power.getBase());
+            push(OPEN);
+        } else {
+            push(power.getBase());
+        }
+    }
+
+    /**
+     * @return true iff the base of power is written in parentheses: with carets, the operator of the base binds weaker
+     *         than ^ or, for a Power, x^2^3 would not parse; as a product, parsing (x*y)*(x*y) gives back the power
+     *         of x*y, but x*y*x*y does not
+     */
+    private static boolean parenthesized(Power power) {
+        return power.getBase() instanceof Product || power.getBase() instanceof Power;
+    }
+
+    private void push(Object item) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * depth);
+        }
+        stack[depth++] = item;
+    }
+
+    private void write(char c) throws IOException {
+        if (position == buffer.length) {
+            flushFull();
+        }
+        buffer[position++] = c;
+    }
+
+    private void write(String text) throws IOException {
+        int start = 0;
+        while (start < text.length()) {
+            if (position == buffer.length) {
+                flushFull();
+            }
+            int end = Math.min(text.length(), start + buffer.length - position);
+            text.getChars(start, end, buffer, position);
+            position += end - start;
+            start = end;
+        }
+    }
+
+    /**
+     * Pass on the full buffer to out.
+     * @throws IndexOutOfBoundsException in the buffer mode, where the buffer is too small for the text
+     */
+    private void flushFull() throws IOException {
+        if (out == null) {
+            throw new IndexOutOfBoundsException("The buffer has no room for the text of the expression");
+        }
+        flush();
+    }
+
+    /**
+     * Pass on the characters in the buffer to out.
+     */
+    private void flush() throws IOException {
+        if (out instanceof Writer) {
+            ((Writer) out).write(buffer, 0, position);
+        } else if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(buffer, 0, position);
+        } else {
+            out.append(CharBuffer.wrap(buffer, 0, position));
+        }
+        position = 0;
+    }
+}
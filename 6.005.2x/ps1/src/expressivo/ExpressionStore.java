@@ -0,0 +1,645 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An expression stored in a few primitive arrays instead of a tree of objects, for models with millions of nodes.
+ * Node i has an opcode, two int operands and no object of its own: a constant refers to a pool of doubles, a variable
+ * to a table of variable names, a sum or product to the indices of its two operand nodes, and a power to the index of
+ * its base and its exponent. The nodes are in postorder (every operand comes before the nodes using it, the root is
+ * the last node), so evaluation and every other traversal is one loop over the arrays, without recursion or a stack.
+ * Equal subexpressions are stored once, like interning does for the object tree, and a node takes 9 bytes instead of
+ * an object of about 40 bytes plus its entry in the interner.
+ *
+ * Stores are converted from and to the Expression interface with of() and toExpression(), or built directly with a
+ * Builder, so a huge model never needs the object tree. differentiate() and simplify() apply the simplification
+ * rules of SimplificationRules for constants, 0, 1 and powers, but not the rules taking out common factors of sums;
+ * toExpression().simplify() applies those as well.
+ * Immutable and threadsafe.
+ */
+public class ExpressionStore {
+
+    /** Opcodes */
+    static final byte CONSTANT = 0;
+    static final byte VARIABLE = 1;
+    static final byte SUM = 2;
+    static final byte PRODUCT = 3;
+    static final byte POWER = 4;
+
+    // rep
+    private final byte[] opcodes;
+    private final int[] lefts;
+    private final int[] rights;
+    private final double[] constants;
+    private final String[] variables;
+
+    // Abstraction
+    //      The expression of the last node, where node i is described by opcodes[i]: a CONSTANT with value
+    //      constants[lefts[i]], a VARIABLE named variables[lefts[i]], a SUM or PRODUCT of the nodes lefts[i] and
+    //      rights[i], or a POWER of the node lefts[i] with exponent rights[i]
+    // Rep invariant
+    //      the node arrays have the same length > 0; lefts[i] < i and rights[i] < i for sums and products,
+    //      lefts[i] < i and rights[i] >= 0 for powers; every node but the last is an operand of a later node;
+    //      no two nodes have the same opcode and operands; every constant is non-negative and finite and the value
+    //      of exactly one node, every variable is a distinct name of letters and the name of exactly one node
+    // Safety from rep exposure
+    //      all fields are private final, the arrays are never returned nor shared with clients
+    // Thread safety
+    //      immutable
+
+    private ExpressionStore(byte[] opcodes, int[] lefts, int[] rights, double[] constants, String[] variables) {
+        this.opcodes = opcodes;
+        this.lefts = lefts;
+        this.rights = rights;
+        this.constants = constants;
+        this.variables = variables;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert opcodes.length > 0 && lefts.length == opcodes.length && rights.length == opcodes.length;
+        for (int i = 0; i < opcodes.length; i++) {
+            switch (opcodes[i]) {
+                case CONSTANT:
+                    assert lefts[i] < constants.length;
+                    break;
+                case VARIABLE:
+                    assert lefts[i] < variables.length;
+                    break;
+                case POWER:
+                    assert lefts[i] < i && rights[i] >= 0;
+                    break;
+                default:
+                    assert lefts[i] < i && rights[i] < i;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @param expression any expression
+     * @return the store of expression, with the same structure: toExpression() equals expression
+     */
+    public static ExpressionStore of(Expression expression) {
+        List<Expression> order = ExpressionTraversal.postorder(expression);
+        Map<Expression, Integer> ids = new IdentityHashMap<>();
+        Builder builder = new Builder();
+        for (Expression node : order) {
+            int id;
+            if (node instanceof Constant) {
+                id = builder.constant(((Constant) node).getValue());
+            } else if (node instanceof Variable) {
+                id = builder.variable(((Variable) node).getVariable());
+            } else if (node instanceof Sum) {
+                id = builder.sum(ids.get(((Sum) node).getLeft()), ids.get(((Sum) node).getRight()));
+            } else if (node instanceof Product) {
+                id = builder.product(ids.get(((Product) node).getLeft()), ids.get(((Product) node).getRight()));
+            } else if (node instanceof Power) {
+                id = builder.power(ids.get(((Power) node).getBase()), ((Power) node).getExponent());
+            } else {
+                throw new IllegalArgumentException("Cannot store the expression " + node);
+            }
+            ids.put(node, id);
+        }
+        return builder.build(ids.get(expression));
+    }
+
+    /**
+     * @return the (interned) expression of this store
+     */
+    public Expression toExpression() {
+        Expression[] nodes = new Expression[opcodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            switch (opcodes[i]) {
+                case CONSTANT:
+                    nodes[i] = ExpressionInterner.constant(constants[lefts[i]]);
+                    break;
+                case VARIABLE:
+                    nodes[i] = ExpressionInterner.variable(variables[lefts[i]]);
+                    break;
+                case SUM:
+                    nodes[i] = ExpressionInterner.sum(nodes[lefts[i]], nodes[rights[i]]);
+                    break;
+                case PRODUCT:
+                    nodes[i] = ExpressionInterner.product(nodes[lefts[i]], nodes[rights[i]]);
+                    break;
+                default:
+                    nodes[i] = ExpressionInterner.power(nodes[lefts[i]], rights[i]);
+                    break;
+            }
+        }
+        return nodes[nodes.length - 1];
+    }
+
+    /**
+     * @return the number of distinct subexpressions of this store, including itself
+     */
+    public int size() {
+        return opcodes.length;
+    }
+
+    /**
+     * @return the variables of this store, in the order of their first occurrence in postorder, unmodifiable
+     */
+    public List<String> getVariables() {
+        return Collections.unmodifiableList(Arrays.asList(variables));
+    }
+
+    /**
+     * Evaluate the expression of this store.
+     *
+     * @param values values[i] is the value of the i-th variable of getVariables(),
+     *               requires values.length >= getVariables().size()
+     * @return the value of the expression
+     */
+    public double evaluate(double[] values) {
+        double[] results = new double[opcodes.length];
+        for (int i = 0; i < results.length; i++) {
+            switch (opcodes[i]) {
+                case CONSTANT:
+                    results[i] = constants[lefts[i]];
+                    break;
+                case VARIABLE:
+                    results[i] = values[lefts[i]];
+                    break;
+                case SUM:
+                    results[i] = results[lefts[i]] + results[rights[i]];
+                    break;
+                case PRODUCT:
+                    results[i] = results[lefts[i]] * results[rights[i]];
+                    break;
+                default:
+                    results[i] = Power.raise(results[lefts[i]], rights[i]);
+                    break;
+            }
+        }
+        return results[results.length - 1];
+    }
+
+    /**
+     * Evaluate the expression of this store.
+     *
+     * @param environment maps every variable of getVariables() to its value
+     * @return the value of the expression
+     * @throws IllegalArgumentException if environment misses a variable of this store
+     */
+    public double evaluate(Map<String, Double> environment) {
+        double[] values = new double[variables.length];
+        for (int v = 0; v < variables.length; v++) {
+            Double value = environment.get(variables[v]);
+            if (value == null) {
+                throw new IllegalArgumentException("No value for the variable " + variables[v]);
+            }
+            values[v] = value;
+        }
+        return evaluate(values);
+    }
+
+    /**
+     * @param variable the variable to differentiate by, a nonempty string of letters
+     * @return the simplified derivative of this store with respect to variable, see simplify() for the rules
+     */
+    public ExpressionStore differentiate(String variable) {
+        Builder builder = new Builder(true);
+        int[] simplified = new int[opcodes.length];
+        int[] derivatives = new int[opcodes.length];
+        int zero = builder.constant(0);
+        for (int i = 0; i < opcodes.length; i++) {
+            simplified[i] = copy(i, builder, simplified, Collections.emptyMap());
+            switch (opcodes[i]) {
+                case CONSTANT:
+                    derivatives[i] = zero;
+                    break;
+                case VARIABLE:
+                    derivatives[i] = builder.constant(variables[lefts[i]].equals(variable) ? 1 : 0);
+                    break;
+                case SUM:
+                    derivatives[i] = builder.sum(derivatives[lefts[i]], derivatives[rights[i]]);
+                    break;
+                case PRODUCT:
+                    // the product rule
+                    derivatives[i] = builder.sum(builder.product(derivatives[lefts[i]], simplified[rights[i]]),
+                                                 builder.product(simplified[lefts[i]], derivatives[rights[i]]));
+                    break;
+                default:
+                    // the power rule combined with the chain rule, see Power.differentiate()
+                    int exponent = rights[i];
+                    derivatives[i] = exponent == 0 ? zero
+                        : builder.product(builder.product(builder.constant(exponent),
+                                                          builder.power(simplified[lefts[i]], exponent - 1)),
+                                          derivatives[lefts[i]]);
+                    break;
+            }
+        }
+        return builder.build(derivatives[opcodes.length - 1]);
+    }
+
+    /**
+     * Simplify the expression of this store bottom-up, like Expression.simplify(): constants are combined, sums with 0
+     * and products with 0 and 1 are removed, constant factors are moved to the left, equal adjacent factors are
+     * merged into powers, and powers with exponent 0 or 1, of constants and of powers are simplified. Unlike
+     * Expression.simplify(), common factors of sums are not taken out.
+     * @return the simplified store
+     */
+    public ExpressionStore simplify() {
+        return simplify(Collections.emptyMap());
+    }
+
+    /**
+     * Substitute values for variables and simplify, like Expression.simplify(environment).
+     * @param environment maps variables to their values, all non-negative and finite
+     * @return the simplified store in which every variable of environment is replaced by its value
+     * @throws IllegalArgumentException if a value of environment is negative or not finite
+     */
+    public ExpressionStore simplify(Map<String, Double> environment) {
+        Builder builder = new Builder(true);
+        int[] simplified = new int[opcodes.length];
+        for (int i = 0; i < opcodes.length; i++) {
+            simplified[i] = copy(i, builder, simplified, environment);
+        }
+        return builder.build(simplified[opcodes.length - 1]);
+    }
+
+    /**
+     * Add node i to a simplifying builder.
+     * @param simplified the nodes of builder for the operands of node i
+     * @param environment the values of the variables to substitute
+     * @return the node of builder for node i
+     */
+    private int copy(int i, Builder builder, int[] simplified, Map<String, Double> environment) {
+        switch (opcodes[i]) {
+            case CONSTANT:
+                return builder.constant(constants[lefts[i]]);
+            case VARIABLE:
+                Double value = environment.get(variables[lefts[i]]);
+                return value == null ? builder.variable(variables[lefts[i]]) : builder.constant(value);
+            case SUM:
+                return builder.sum(simplified[lefts[i]], simplified[rights[i]]);
+            case PRODUCT:
+                return builder.product(simplified[lefts[i]], simplified[rights[i]]);
+            default:
+                return builder.power(simplified[lefts[i]], rights[i]);
+        }
+    }
+
+    /**
+     * @return the text of the expression of this store, see Expression.toString()
+     */
+    @Override
+    public String toString() {
+        return toExpression().toString();
+    }
+
+    /**
+     * Builds an ExpressionStore node by node. Every method adding a node returns its id, by which later nodes refer
+     * to it; adding a node equal to an earlier one (same opcode and operands) returns the id of the earlier node, so
+     * equal subexpressions are stored once.
+     * Mutable and not threadsafe.
+     */
+    public static class Builder {
+        private final boolean simplifying;
+        private byte[] opcodes = new byte[16];
+        private int[] lefts = new int[16];
+        private int[] rights = new int[16];
+        private double[] constants = new double[4];
+        private int constantCount = 0;
+        private final List<String> variables = new ArrayList<>();
+        private final Map<String, Integer> variableIndices = new HashMap<>();
+        private int[] table = new int[64];
+        private int size = 0;
+
+        // Abstraction
+        //      the nodes 0 .. size - 1, described like the nodes of ExpressionStore, where constants has
+        //      constantCount values; if simplifying, every node added is simplified like ExpressionStore.simplify()
+        // Rep invariant
+        //      operands of node i are nodes before i; no two nodes have the same opcode and operands; table.length
+        //      is a power of two larger than 2 * size, and every node i is in the table at the first free slot
+        //      probing linearly from the hash of its opcode and operands (stored as i + 1, 0 meaning free)
+        // Safety from rep exposure
+        //      all fields are private, the arrays are copied by build()
+
+        /**
+         * Make a builder that adds the nodes exactly as they are given, without simplification.
+         */
+        public Builder() {
+            this(false);
+        }
+
+        private Builder(boolean simplifying) {
+            this.simplifying = simplifying;
+        }
+
+        /**
+         * @return the number of distinct nodes added so far
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param value a non-negative finite number
+         * @return the id of the constant node with value
+         * @throws IllegalArgumentException if value is negative or not finite
+         */
+        public int constant(double value) {
+            if (!(value >= 0 && value <= Double.MAX_VALUE)) {
+                throw new IllegalArgumentException("Invalid constant " + value);
+            }
+            long bits = Double.doubleToLongBits(value);
+            int node = find(CONSTANT, (int) (bits >>> 32), (int) bits);
+            if (node >= 0) {
+                return node;
+            }
+            if (constantCount == constants.length) {
+                constants = Arrays.copyOf(constants, 2 * constantCount);
+            }
+            constants[constantCount] = value;
+            return add(CONSTANT, constantCount++, 0, (int) (bits >>> 32), (int) bits);
+        }
+
+        /**
+         * @param name a nonempty string of letters
+         * @return the id of the variable node named name
+         * @throws IllegalArgumentException if name is not a nonempty string of letters
+         */
+        public int variable(String name) {
+            Integer index = variableIndices.get(name);
+            if (index == null) {
+                if (!name.matches("[a-zA-Z]+")) {
+                    throw new IllegalArgumentException("Invalid variable name " + name);
+                }
+                index = variables.size();
+                variables.add(name);
+                variableIndices.put(name, index);
+            }
+            int node = find(VARIABLE, index, 0);
+            return node >= 0 ? node : add(VARIABLE, index, 0, index, 0);
+        }
+
+        /**
+         * @param left the id of a node of this builder
+         * @param right the id of a node of this builder
+         * @return the id of the sum node of left and right
+         * @throws IllegalArgumentException if left or right is not a node of this builder
+         */
+        public int sum(int left, int right) {
+            checkNode(left);
+            checkNode(right);
+            if (simplifying) {
+                if (opcodes[left] == CONSTANT && opcodes[right] == CONSTANT) {
+                    return constant(value(right) + value(left));
+                } else if (isConstant(left, 0)) {
+                    return right;
+                } else if (isConstant(right, 0)) {
+                    return left;
+                } else if (left == right && opcodes[left] != PRODUCT) {
+                    return product(constant(2), left);
+                }
+            }
+            return node(SUM, left, right);
+        }
+
+        /**
+         * @param left the id of a node of this builder
+         * @param right the id of a node of this builder
+         * @return the id of the product node of left and right
+         * @throws IllegalArgumentException if left or right is not a node of this builder
+         */
+        public int product(int left, int right) {
+            checkNode(left);
+            checkNode(right);
+            if (simplifying) {
+                // the rules in the order of SimplificationRules
+                if (isConstant(left, 0) || isConstant(right, 0)) {
+                    return constant(0);
+                } else if (isConstant(left, 1)) {
+                    return right;
+                } else if (isConstant(right, 1)) {
+                    return left;
+                } else if (opcodes[left] == CONSTANT && opcodes[right] == CONSTANT) {
+                    return constant(value(right) * value(left));
+                } else if (opcodes[right] == CONSTANT) {
+                    return product(right, left);
+                }
+                int merged = merge(left, right);
+                if (merged >= 0) {
+                    return merged;
+                }
+                if (opcodes[left] == PRODUCT) {
+                    merged = merge(lefts[left], rights[left], right);
+                    if (merged >= 0) {
+                        return merged;
+                    }
+                }
+            }
+            return node(PRODUCT, left, right);
+        }
+
+        /**
+         * @param base the id of a node of this builder
+         * @param exponent a non-negative number
+         * @return the id of the power node of base with exponent
+         * @throws IllegalArgumentException if base is not a node of this builder or exponent is negative
+         */
+        public int power(int base, int exponent) {
+            checkNode(base);
+            if (exponent < 0) {
+                throw new IllegalArgumentException("Exponent must be non-negative, not " + exponent);
+            }
+            if (simplifying) {
+                // the rules of Power.simplifyPower()
+                if (exponent == 0) {
+                    return constant(1);
+                } else if (exponent == 1) {
+                    return base;
+                } else if (opcodes[base] == CONSTANT) {
+                    return constant(Power.raise(value(base), exponent));
+                } else if (opcodes[base] == POWER && (long) rights[base] * exponent <= Integer.MAX_VALUE) {
+                    return power(lefts[base], rights[base] * exponent);
+                }
+            }
+            return node(POWER, base, exponent);
+        }
+
+        /**
+         * @return the id of left * right with equal adjacent factors merged into a power, or -1 if they differ
+         */
+        private int merge(int left, int right) {
+            long exponent = 0;
+            int base = -1;
+            if (left == right) {
+                base = left;
+                exponent = 2;
+            } else if (opcodes[left] == POWER && lefts[left] == right) {
+                base = right;
+                exponent = rights[left] + 1L;
+            } else if (opcodes[right] == POWER && lefts[right] == left) {
+                base = left;
+                exponent = rights[right] + 1L;
+            } else if (opcodes[left] == POWER && opcodes[right] == POWER && lefts[left] == lefts[right]) {
+                base = lefts[left];
+                exponent = (long) rights[left] + rights[right];
+            }
+            return base < 0 || exponent > Integer.MAX_VALUE ? -1 : power(base, (int) exponent);
+        }
+
+        /**
+         * @return the id of factor * (left * right) with left and right merged into a power, or -1 if they differ
+         */
+        private int merge(int factor, int left, int right) {
+            int merged = merge(left, right);
+            return merged < 0 ? -1 : product(factor, merged);
+        }
+
+        /**
+         * @param root the id of a node of this builder
+         * @return the store of the expression of root, without the nodes that are not subexpressions of root; this
+         *         builder is not changed
+         * @throws IllegalArgumentException if root is not a node of this builder
+         */
+        public ExpressionStore build(int root) {
+            checkNode(root);
+            boolean[] live = new boolean[root + 1];
+            live[root] = true;
+            for (int i = root; i >= 0; i--) {
+                if (live[i] && opcodes[i] >= SUM) {
+                    live[lefts[i]] = true;
+                    if (opcodes[i] != POWER) {
+                        live[rights[i]] = true;
+                    }
+                }
+            }
+            int[] ids = new int[root + 1];
+            int count = 0;
+            for (int i = 0; i <= root; i++) {
+                if (live[i]) ids[i] = count++;
+            }
+            byte[] newOpcodes = new byte[count];
+            int[] newLefts = new int[count];
+            int[] newRights = new int[count];
+            double[] newConstants = new double[count];
+            int constantsUsed = 0;
+            int[] variableIds = new int[variables.size()];
+            Arrays.fill(variableIds, -1);
+            List<String> newVariables = new ArrayList<>();
+            for (int i = 0; i <= root; i++) {
+                if (!live[i]) continue;
+                int id = ids[i];
+                newOpcodes[id] = opcodes[i];
+                switch (opcodes[i]) {
+                    case CONSTANT:
+                        newConstants[constantsUsed] = constants[lefts[i]];
+                        newLefts[id] = constantsUsed++;
+                        break;
+                    case VARIABLE:
+                        if (variableIds[lefts[i]] < 0) {
+                            variableIds[lefts[i]] = newVariables.size();
+                            newVariables.add(variables.get(lefts[i]));
+                        }
+                        newLefts[id] = variableIds[lefts[i]];
+                        break;
+                    case POWER:
+                        newLefts[id] = ids[lefts[i]];
+                        newRights[id] = rights[i];
+                        break;
+                    default:
+                        newLefts[id] = ids[lefts[i]];
+                        newRights[id] = ids[rights[i]];
+                        break;
+                }
+            }
+            return new ExpressionStore(newOpcodes, newLefts, newRights, Arrays.copyOf(newConstants, constantsUsed),
+                                       newVariables.toArray(new String[0]));
+        }
+
+        private void checkNode(int node) {
+            if (node < 0 || node >= size) {
+                throw new IllegalArgumentException("No node " + node + " in a builder of " + size + " nodes");
+            }
+        }
+
+        private double value(int node) {
+            return constants[lefts[node]];
+        }
+
+        private boolean isConstant(int node, double value) {
+            return opcodes[node] == CONSTANT && value(node) == value;
+        }
+
+        /**
+         * @return the id of the node with opcode and operands, which is added if there is none yet
+         */
+        private int node(byte opcode, int left, int right) {
+            int node = find(opcode, left, right);
+            return node >= 0 ? node : add(opcode, left, right, left, right);
+        }
+
+        /**
+         * @param keyLeft the left operand, or the high bits of the value of a constant
+         * @param keyRight the right operand, or the low bits of the value of a constant
+         * @return the node with opcode and key, or -1 if there is none
+         */
+        private int find(byte opcode, int keyLeft, int keyRight) {
+            int mask = table.length - 1;
+            for (int slot = hash(opcode, keyLeft, keyRight) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                int node = table[slot] - 1;
+                if (opcodes[node] == opcode && keyLeft(node) == keyLeft && keyRight(node) == keyRight) {
+                    return node;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Add a node that find() did not find.
+         * @return the id of the new node
+         */
+        private int add(byte opcode, int left, int right, int keyLeft, int keyRight) {
+            if (size == opcodes.length) {
+                opcodes = Arrays.copyOf(opcodes, 2 * size);
+                lefts = Arrays.copyOf(lefts, 2 * size);
+                rights = Arrays.copyOf(rights, 2 * size);
+            }
+            opcodes[size] = opcode;
+            lefts[size] = left;
+            rights[size] = right;
+            insert(hash(opcode, keyLeft, keyRight), size);
+            size++;
+            if (2 * size >= table.length) {
+                table = new int[2 * table.length];
+                for (int node = 0; node < size; node++) {
+                    insert(hash(opcodes[node], keyLeft(node), keyRight(node)), node);
+                }
+            }
+            return size - 1;
+        }
+
+        private void insert(int hash, int node) {
+            int mask = table.length - 1;
+            int slot = hash & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = node + 1;
+        }
+
+        private int keyLeft(int node) {
+            return opcodes[node] == CONSTANT ? (int) (Double.doubleToLongBits(value(node)) >>> 32) : lefts[node];
+        }
+
+        private int keyRight(int node) {
+            return opcodes[node] == CONSTANT ? (int) Double.doubleToLongBits(value(node)) : rights[node];
+        }
+
+        private static int hash(byte opcode, int keyLeft, int keyRight) {
+            int hash = (31 * (31 * opcode + keyLeft) + keyRight) * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
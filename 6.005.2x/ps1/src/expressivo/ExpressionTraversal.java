@@ -0,0 +1,626 @@
+package expressivo;
+
+import lib6005.parser.ParseTree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Traversals of expressions driven by an explicit work-list instead of recursion, such that the depth of an
+ * expression is only limited by the heap and not by the thread stack: an expression of a million nested sums or
+ * products can be parsed, simplified, differentiated, printed, compared and compiled (see BytecodeCompiler) on a
+ * default thread stack.
+ *
+ * The core operations of the variants are implemented on these traversals:
+ *      fold()      computes a result bottom-up from the results of the operands: simplify(), differentiate()
+ *      equal()     compares two expressions structurally, pair of nodes by pair of nodes
+ *      buildAST()  builds the AST of a concrete syntax tree bottom-up
+ * toString() is written with an explicit stack of its own, see ExpressionPrinter, and the hand-written parser keeps
+ * its own stack of open chains, see PrattParser. hashCode() needs no traversal, since every node computes its hash
+ * from the hashes of its operands when it is created.
+ *
+ * This class is threadsafe; every traversal uses its own work-list.
+ */
+class ExpressionTraversal {
+
+    /**
+     * A computation over an expression in which the result of a Sum or Product is computed from the results of its
+     * operands, and the result of a Power from the result of its base. The operands are visited left before right,
+     * and a node is combined after its operands.
+     * @param <R> the type of the results, which are never null
+     */
+    interface Fold<R> {
+
+        /**
+         * @param node a node of the expression, before its operands are visited
+         * @return the result of node if it is known already, e.g. memoized, in which case its operands are not
+         *         visited, or null if it has to be computed
+         */
+        default R known(Expression node) {
+            return null;
+        }
+
+        /**
+         * @param node a Constant or a Variable, or a node of another variant of Expression
+         * @return the result of node
+         */
+        R leaf(Expression node);
+
+        /**
+         * @return the result of node, given the results of its left and right operand
+         */
+        R sum(Sum node, R left, R right);
+
+        /**
+         * @return the result of node, given the results of its left and right operand
+         */
+        R product(Product node, R left, R right);
+
+        /**
+         * @return the result of node, given the result of its base
+         */
+        R power(Power node, R base);
+    }
+
+    /**
+     * Compute a fold over every occurrence of every node of an expression. A node that occurs more than once is
+     * computed once per occurrence, unless fold knows its result the second time.
+     * @param root any expression
+     * @param fold the computation
+     * @return the result of root
+     */
+    static <R> R fold(Expression root, Fold<R> fold) {
+        return fold(root, fold, null, null);
+    }
+
+    /**
+     * Compute a fold over the distinct nodes of an expression: a node that occurs more than once (which interned
+     * expressions do, since they share equal subexpressions) is computed only once. Requires that the result of a
+     * node only depends on the node, and not on where it occurs.
+     * @param root any expression
+     * @param fold the computation
+     * @return the result of root
+     */
+    static <R> R foldShared(Expression root, Fold<R> fold) {
+        return fold(root, fold, new IdentityHashMap<>(), null);
+    }
+
+    /**
+     * Compute a fold over the distinct nodes of an expression like foldShared(), but remember the result of a node
+     * only while it occurs again later: foldShared() keeps the result of every node, e.g. the polynomial of every
+     * prefix of a long sum, which is quadratic in its length for large results.
+     * @param root any expression
+     * @param fold the computation
+     * @return the result of root
+     */
+    static <R> R foldReleasing(Expression root, Fold<R> fold) {
+        return fold(root, fold, new IdentityHashMap<>(), countOccurrences(root));
+    }
+
+    /**
+     * @param results the results of the nodes computed so far, or null if they are not remembered
+     * @param remaining the number of occurrences of every node that are still to be visited, if results are
+     *                  forgotten after the last one, or null if results are remembered until the end
+     */
+    private static <R> R fold(Expression root, Fold<R> fold, Map<Expression, R> results,
+                              Map<Expression, Integer> remaining) {
+        WorkList work = new WorkList();
+        List<R> values = new ArrayList<>();
+        work.push(root, false);
+        while (!work.isEmpty()) {
+            Expression node = work.topNode();
+            boolean expanded = work.topExpanded();
+            work.pop();
+            R result;
+            if (expanded) {
+                // the operands are done, their results are on top of values
+                R right = values.remove(values.size() - 1);
+                if (node instanceof Power) {
+                    result = fold.power((Power) node, right);
+                } else {
+                    R left = values.remove(values.size() - 1);
+                    result = node instanceof Sum ? fold.sum((Sum) node, left, right)
+                                                 : fold.product((Product) node, left, right);
+                }
+            } else {
+                result = results == null ? null : results.get(node);
+                if (result != null) {
+                    if (remaining != null) {
+                        release(node, results, remaining);
+                    }
+                    values.add(result);
+                    continue;
+                }
+                result = fold.known(node);
+                if (result == null) {
+                    if (node instanceof Sum) {
+                        work.push(node, true);
+                        work.push(((Sum) node).getRight(), false);
+                        work.push(((Sum) node).getLeft(), false);
+                        continue;
+                    } else if (node instanceof Product) {
+                        work.push(node, true);
+                        work.push(((Product) node).getRight(), false);
+                        work.push(((Product) node).getLeft(), false);
+                        continue;
+                    } else if (node instanceof Power) {
+                        work.push(node, true);
+                        work.push(((Power) node).getBase(), false);
+                        continue;
+                    }
+                    result = fold.leaf(node);
+                }
+            }
+            if (results != null) {
+                results.put(node, result);
+                if (remaining != null) {
+                    release(node, results, remaining);
+                }
+            }
+            values.add(result);
+        }
+        assert values.size() == 1;
+        return values.get(0);
+    }
+
+    /**
+     * Count one occurrence of node as visited, and forget its result if it was the last one.
+     */
+    private static <R> void release(Expression node, Map<Expression, R> results, Map<Expression, Integer> remaining) {
+        int left = remaining.get(node) - 1;
+        if (left == 0) {
+            results.remove(node);
+        } else {
+            remaining.put(node, left);
+        }
+    }
+
+    /**
+     * @param root any expression
+     * @return the distinct (by identity) nodes of root, each after its operands, left before right; root is last
+     */
+    static List<Expression> postorder(Expression root) {
+        List<Expression> order = new ArrayList<>();
+        foldShared(root, new Fold<Boolean>() {
+            @Override
+            public Boolean leaf(Expression node) {
+                order.add(node);
+                return true;
+            }
+
+            @Override
+            public Boolean sum(Sum node, Boolean left, Boolean right) {
+                order.add(node);
+                return true;
+            }
+
+            @Override
+            public Boolean product(Product node, Boolean left, Boolean right) {
+                order.add(node);
+                return true;
+            }
+
+            @Override
+            public Boolean power(Power node, Boolean base) {
+                order.add(node);
+                return true;
+            }
+        });
+        return order;
+    }
+
+    /**
+     * Count how often every subexpression of an expression occurs in it, counting occurrences below a repeated
+     * subexpression only once: a node occurs once for every operand of a distinct node it is, and root once.
+     * @param root any expression
+     * @return maps every distinct (by identity) node of root to its number of occurrences
+     */
+    static Map<Expression, Integer> countOccurrences(Expression root) {
+        Map<Expression, Integer> occurrences = new IdentityHashMap<>();
+        for (Expression node : postorder(root)) {
+            occurrences.put(node, node == root ? 1 : 0);
+            for (Expression operand : operands(node)) {
+                occurrences.put(operand, occurrences.get(operand) + 1);
+            }
+        }
+        return occurrences;
+    }
+
+    /**
+     * @return the left and right operand of a Sum or Product, the base of a Power, or no operands for any other node
+     */
+    static List<Expression> operands(Expression node) {
+        if (node instanceof Sum) {
+            List<Expression> operands = new ArrayList<>(2);
+            operands.add(((Sum) node).getLeft());
+            operands.add(((Sum) node).getRight());
+            return operands;
+        } else if (node instanceof Product) {
+            List<Expression> operands = new ArrayList<>(2);
+            operands.add(((Product) node).getLeft());
+            operands.add(((Product) node).getRight());
+            return operands;
+        } else if (node instanceof Power) {
+            return Collections.singletonList(((Power) node).getBase());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * A stack of the nodes that are still to be visited, each marked whether its operands were pushed already.
+     */
+    private static class WorkList {
+        private Expression[] nodes = new Expression[16];
+        private boolean[] expanded = new boolean[16];
+        private int size = 0;
+
+        void push(Expression node, boolean isExpanded) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * size);
+                expanded = Arrays.copyOf(expanded, 2 * size);
+            }
+            nodes[size] = node;
+            expanded[size] = isExpanded;
+            size++;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        Expression topNode() {
+            return nodes[size - 1];
+        }
+
+        boolean topExpanded() {
+            return expanded[size - 1];
+        }
+
+        void pop() {
+            nodes[--size] = null;
+        }
+    }
+
+    // ---- simplify() and differentiate() ----
+
+    private static final Fold<Expression> SIMPLIFY = new Fold<Expression>() {
+        @Override
+        public Expression known(Expression node) {
+            if (node instanceof Sum) return ((Sum) node).memoizedSimplify();
+            if (node instanceof Product) return ((Product) node).memoizedSimplify();
+            if (node instanceof Power) return ((Power) node).memoizedSimplify();
+            return null;
+        }
+
+        @Override
+        public Expression leaf(Expression node) {
+            return node.simplify();
+        }
+
+        @Override
+        public Expression sum(Sum node, Expression left, Expression right) {
+            return node.simplify(left, right);
+        }
+
+        @Override
+        public Expression product(Product node, Expression left, Expression right) {
+            return node.simplify(left, right);
+        }
+
+        @Override
+        public Expression power(Power node, Expression base) {
+            return node.simplify(base);
+        }
+    };
+
+    /**
+     * @param expression any expression
+     * @return expression simplified, see Expression.simplify(); the simplified form of every Sum, Product and Power
+     *         in it is memoized
+     */
+    static Expression simplify(Expression expression) {
+        return fold(expression, SIMPLIFY);
+    }
+
+    /**
+     * @param expression any expression
+     * @param environment maps variables to their non-negative values
+     * @return expression simplified in the environment, see Expression.simplify(Map)
+     */
+    static Expression simplify(Expression expression, Map<String, Double> environment) {
+        // nothing is memoized per environment, but a shared subexpression is simplified only once per call
+        return foldShared(expression, new Fold<Expression>() {
+            @Override
+            public Expression leaf(Expression node) {
+                return node.simplify(environment);
+            }
+
+            @Override
+            public Expression sum(Sum node, Expression left, Expression right) {
+                return Sum.simplifySum(left, right);
+            }
+
+            @Override
+            public Expression product(Product node, Expression left, Expression right) {
+                return Product.simplifyProduct(left, right);
+            }
+
+            @Override
+            public Expression power(Power node, Expression base) {
+                return Power.simplifyPower(base, node.getExponent());
+            }
+        });
+    }
+
+    /**
+     * @param expression any expression
+     * @param variable the variable to differentiate by
+     * @return the derivative of expression with respect to variable, see Expression.differentiate(); the derivative
+     *         of every Sum, Product and Power in it is memoized
+     */
+    static Expression differentiate(Expression expression, String variable) {
+        return fold(expression, new Fold<Expression>() {
+            @Override
+            public Expression known(Expression node) {
+                if (node instanceof Sum) return ((Sum) node).memoizedDerivative(variable);
+                if (node instanceof Product) return ((Product) node).memoizedDerivative(variable);
+                if (node instanceof Power) return ((Power) node).memoizedDerivative(variable);
+                return null;
+            }
+
+            @Override
+            public Expression leaf(Expression node) {
+                return node.differentiate(variable);
+            }
+
+            @Override
+            public Expression sum(Sum node, Expression left, Expression right) {
+                return node.differentiate(variable, left, right);
+            }
+
+            @Override
+            public Expression product(Product node, Expression left, Expression right) {
+                return node.differentiate(variable, left, right);
+            }
+
+            @Override
+            public Expression power(Power node, Expression base) {
+                return node.differentiate(variable, base);
+            }
+        });
+    }
+
+    // ---- equals() ----
+
+    /**
+     * @param a any expression
+     * @param b any expression
+     * @return true iff a and b are structurally equal, see Expression.equals()
+     */
+    static boolean equal(Expression a, Expression b) {
+        // the work-list holds the pairs of nodes still to be compared, each pair as two consecutive elements
+        Deque<Expression> work = new ArrayDeque<>();
+        work.push(a);
+        work.push(b);
+        while (!work.isEmpty()) {
+            Expression y = work.pop();
+            Expression x = work.pop();
+            if (x == y) {
+                continue;
+            }
+            if (x instanceof Sum) {
+                if (!(y instanceof Sum) || !mayBeEqual(x, y, ((Sum) x).isInterned(), ((Sum) y).isInterned())) {
+                    return false;
+                }
+                Sum left = (Sum) x;
+                Sum right = (Sum) y;
+                work.push(left.getRight());
+                work.push(right.getRight());
+                work.push(left.getLeft());
+                work.push(right.getLeft());
+            } else if (x instanceof Product) {
+                if (!(y instanceof Product)
+                    || !mayBeEqual(x, y, ((Product) x).isInterned(), ((Product) y).isInterned())) {
+                    return false;
+                }
+                Product left = (Product) x;
+                Product right = (Product) y;
+                work.push(left.getRight());
+                work.push(right.getRight());
+                work.push(left.getLeft());
+                work.push(right.getLeft());
+            } else if (x instanceof Power) {
+                if (!(y instanceof Power) || ((Power) x).getExponent() != ((Power) y).getExponent()
+                    || !mayBeEqual(x, y, ((Power) x).isInterned(), ((Power) y).isInterned())) {
+                    return false;
+                }
+                work.push(((Power) x).getBase());
+                work.push(((Power) y).getBase());
+            } else if (!x.equals(y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the distinct nodes x and y cannot be equal: two distinct interned nodes are never equal, and
+     *         nodes with different hashes neither
+     */
+    private static boolean mayBeEqual(Expression x, Expression y, boolean xInterned, boolean yInterned) {
+        return x.hashCode() == y.hashCode() && !(xInterned && yInterned);
+    }
+
+    // ---- buildAST() ----
+
+    /**
+     * Build the AST of a concrete syntax tree of the grammar Expression.g, see Expression.buildAST().
+     * @param tree the concrete syntax tree
+     * @return the AST of tree
+     */
+    static Expression buildAST(ParseTree<Expression.Grammar> tree) {
+        if (isTerminal(tree)) {
+            return terminal(tree);
+        }
+        // the work-list holds the nonterminals whose AST is being built, each with the children still to be built
+        Deque<Build> work = new ArrayDeque<>();
+        work.push(new Build(tree));
+        Expression built = null;
+        while (true) {
+            Build top = work.peek();
+            if (built != null) {
+                top.add(built);
+                built = null;
+            }
+            if (top.next < top.children.size()) {
+                ParseTree<Expression.Grammar> child = top.children.get(top.next++);
+                if (isTerminal(child)) {
+                    built = terminal(child);
+                } else {
+                    work.push(new Build(child));
+                }
+            } else {
+                work.pop();
+                built = top.finish();
+                if (work.isEmpty()) {
+                    return built;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param tree a POWER tree
+     * @return the exponent of the power
+     * @throws IllegalArgumentException if the exponent is too large for an int
+     */
+    private static int exponent(ParseTree<Expression.Grammar> tree) {
+        String digits = tree.childrenByName(Expression.Grammar.INTEGER).get(0).getContents();
+        try {
+            return Integer.parseInt(digits);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Exponent too large: " + digits);
+        }
+    }
+
+    private static boolean isTerminal(ParseTree<Expression.Grammar> tree) {
+        switch (tree.getName()) {
+            case VARIABLE:
+            case DECIMAL:
+            case INTEGER:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param tree a VARIABLE, DECIMAL or INTEGER tree
+     * @return the AST of the terminal
+     */
+    private static Expression terminal(ParseTree<Expression.Grammar> tree) {
+        if (tree.getName() == Expression.Grammar.VARIABLE) {
+            /* A variable is a terminal containing a variable */
+            return ExpressionInterner.variable(tree.getContents());
+        }
+        /* A decimal or integer is a terminal containing a constant */
+        return ExpressionInterner.constant(Double.parseDouble(tree.getContents()));
+    }
+
+    /**
+     * A nonterminal whose AST is being built: its children that are part of the AST, the number of them that were
+     * added already, and the AST of those so far.
+     */
+    private static class Build {
+        private final ParseTree<Expression.Grammar> tree;
+        private final List<ParseTree<Expression.Grammar>> children;
+        private int next = 0;
+        private Expression result = null;
+
+        Build(ParseTree<Expression.Grammar> tree) {
+            this.tree = tree;
+            switch (tree.getName()) {
+                case ROOT:
+                    /* The root has a single sum child, in addition to having potentially some whitespace. */
+                    children = Collections.singletonList(tree.childrenByName(Expression.Grammar.SUM).get(0));
+                    break;
+                case POWER:
+                    /* A power has one child for its base, a token or a sum, and an integer exponent, see add() */
+                    children = new ArrayList<>();
+                    for (ParseTree<Expression.Grammar> child : tree.children()) {
+                        if (child.getName() != Expression.Grammar.WHITESPACE
+                            && child.getName() != Expression.Grammar.INTEGER) {
+                            children.add(child);
+                        }
+                    }
+                    break;
+                case SUM:
+                case PRODUCT:
+                    /* A sum or product can have multiple children which need to be accumulated */
+                    children = new ArrayList<>();
+                    for (ParseTree<Expression.Grammar> child : tree.children()) {
+                        if (child.getName() != Expression.Grammar.WHITESPACE) {
+                            children.add(child);
+                        }
+                    }
+                    break;
+                case TOKEN:
+                    /* A token only contains one child, either a constant or a variable */
+                    children = Collections.singletonList(
+                            tree.childrenByName(Expression.Grammar.VARIABLE).isEmpty()
+                            ? tree.childrenByName(Expression.Grammar.CONSTANT).get(0)
+                            : tree.childrenByName(Expression.Grammar.VARIABLE).get(0));
+                    break;
+                case CONSTANT:
+                    /* Constant is a non-terminal with two children, namely a decimal or an integer */
+                    children = Collections.singletonList(
+                            tree.childrenByName(Expression.Grammar.DECIMAL).isEmpty()
+                            ? tree.childrenByName(Expression.Grammar.INTEGER).get(0)
+                            : tree.childrenByName(Expression.Grammar.DECIMAL).get(0));
+                    break;
+                default:
+                    /* Since we are always avoiding calling buildAST with whitespace, the code should never make it
+                     * here. */
+                    throw new RuntimeException("You should never reach here:" + tree);
+            }
+        }
+
+        /**
+         * @param child the AST of the next child
+         */
+        void add(Expression child) {
+            if (tree.getName() == Expression.Grammar.POWER) {
+                result = ExpressionInterner.power(child, exponent(tree));
+            } else if (result == null) {
+                result = child;
+            } else if (tree.getName() == Expression.Grammar.SUM) {
+                result = ExpressionInterner.sum(result, child);
+            } else {
+                result = ExpressionInterner.product(result, child);
+            }
+        }
+
+        /**
+         * @return the AST of the tree, after all its children were added
+         */
+        Expression finish() {
+            if (result == null) {
+                throw new RuntimeException("sum must have at least one non whitespace child:" + tree);
+            }
+            switch (tree.getName()) {
+                case SUM:
+                case PRODUCT:
+                    // sums and products are grouped to the left, e.g. 3+4+5 is (3+4)+5, and simplified
+                    return result.simplify();
+                default:
+                    return result;
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The gradient of an expression, computed by reverse-mode automatic differentiation: one forward sweep computes the
+ * value of every distinct subexpression, and one reverse sweep propagates the adjoint (the derivative of the whole
+ * expression with respect to a subexpression) from the root down to the variables. All partial derivatives are thus
+ * computed in a single pass that is linear in the size of the expression, instead of one differentiate() per variable.
+ *
+ * The numeric gradient at a point only uses primitive arrays. The symbolic gradient builds the adjoints as interned
+ * expressions, so the partial derivatives share the adjoints of their common subexpressions.
+ * Immutable and threadsafe.
+ */
+public class Gradient {
+
+    /** Node kinds */
+    private static final int CONSTANT = 0;
+    private static final int VARIABLE = 1;
+    private static final int SUM = 2;
+    private static final int PRODUCT = 3;
+    private static final int POWER = 4;
+
+    // rep
+    private final Expression expression;
+    private final List<String> variables;
+    private final Expression[] nodes;
+    private final int[] kinds;
+    private final int[] lefts;
+    private final int[] rights;
+    private final double[] constants;
+    private volatile Map<String, Expression> partialDerivatives;
+
+    // Abstraction
+    //      The gradient of expression with respect to variables, where nodes are the distinct subexpressions of
+    //      expression in postorder (so the root is the last node). Node i is described by kinds[i]: a CONSTANT with
+    //      value constants[i], a VARIABLE whose index in variables is lefts[i], or a SUM or PRODUCT of the nodes
+    //      lefts[i] and rights[i], or a POWER of the node lefts[i] with exponent rights[i]. partialDerivatives is the
+    //      symbolic gradient, or null if it was not needed yet.
+    // Rep invariant
+    //      all node arrays have the same length > 0; lefts[i] < i and rights[i] < i for sums and products,
+    //      lefts[i] < i and rights[i] >= 0 for powers,
+    //      0 <= lefts[i] < variables.size() for variables, variables has no duplicates
+    // Safety from rep exposure
+    //      all fields are private, variables and partialDerivatives are unmodifiable, the arrays are never returned
+    // Thread safety
+    //      the fields are final except partialDerivatives, which is volatile and only ever set to an equal
+    //      unmodifiable map, so a thread sees either null (and computes it) or a complete map
+
+    /**
+     * @param expression the expression to differentiate
+     * @param variableOrder the variables of the partial derivatives, in the order of the arrays of evaluate()
+     * @throws IllegalArgumentException if variableOrder contains a variable twice, or misses a variable of expression
+     */
+    Gradient(Expression expression, List<String> variableOrder) {
+        this.expression = expression;
+        this.variables = Collections.unmodifiableList(new ArrayList<>(variableOrder));
+        Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < variables.size(); i++) {
+            if (indices.put(variables.get(i), i) != null) {
+                throw new IllegalArgumentException("A variable occurs twice in " + variables);
+            }
+        }
+        List<Expression> order = ExpressionTraversal.postorder(expression);
+        Map<Expression, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            positions.put(order.get(i), i);
+        }
+        int size = order.size();
+        nodes = order.toArray(new Expression[size]);
+        kinds = new int[size];
+        lefts = new int[size];
+        rights = new int[size];
+        constants = new double[size];
+        for (int i = 0; i < size; i++) {
+            Expression node = nodes[i];
+            if (node instanceof Constant) {
+                kinds[i] = CONSTANT;
+                constants[i] = ((Constant) node).getValue();
+            } else if (node instanceof Variable) {
+                String name = ((Variable) node).getVariable();
+                Integer index = indices.get(name);
+                if (index == null) {
+                    throw new IllegalArgumentException("No value for the variable " + name);
+                }
+                kinds[i] = VARIABLE;
+                lefts[i] = index;
+            } else if (node instanceof Sum) {
+                kinds[i] = SUM;
+                lefts[i] = positions.get(((Sum) node).getLeft());
+                rights[i] = positions.get(((Sum) node).getRight());
+            } else if (node instanceof Product) {
+                kinds[i] = PRODUCT;
+                lefts[i] = positions.get(((Product) node).getLeft());
+                rights[i] = positions.get(((Product) node).getRight());
+            } else if (node instanceof Power) {
+                kinds[i] = POWER;
+                lefts[i] = positions.get(((Power) node).getBase());
+                rights[i] = ((Power) node).getExponent();
+            } else {
+                throw new IllegalArgumentException("Cannot differentiate the expression " + node);
+            }
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert nodes.length > 0;
+        for (int i = 0; i < nodes.length; i++) {
+            assert kinds[i] < SUM || (lefts[i] < i && (kinds[i] == POWER ? rights[i] >= 0 : rights[i] < i));
+        }
+    }
+
+    /**
+     * @return the expression of this gradient
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return the variables of the partial derivatives, in the order of the arrays of evaluate(), unmodifiable
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Compute the value and the gradient of the expression at a point.
+     *
+     * @param point point[i] is the value of the i-th variable of getVariables(),
+     *              requires point.length >= getVariables().size()
+     * @param gradient receives in gradient[i] the partial derivative with respect to the i-th variable of
+     *                 getVariables() at point, requires gradient.length >= getVariables().size()
+     * @return the value of the expression at point
+     */
+    public double evaluate(double[] point, double[] gradient) {
+        int size = nodes.length;
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            switch (kinds[i]) {
+                case CONSTANT:
+                    values[i] = constants[i];
+                    break;
+                case VARIABLE:
+                    values[i] = point[lefts[i]];
+                    break;
+                case SUM:
+                    values[i] = values[lefts[i]] + values[rights[i]];
+                    break;
+                case POWER:
+                    values[i] = Power.raise(values[lefts[i]], rights[i]);
+                    break;
+                default:
+                    values[i] = values[lefts[i]] * values[rights[i]];
+                    break;
+            }
+        }
+        double[] adjoints = new double[size];
+        adjoints[size - 1] = 1;
+        for (int v = 0; v < variables.size(); v++) {
+            gradient[v] = 0;
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            double adjoint = adjoints[i];
+            switch (kinds[i]) {
+                case VARIABLE:
+                    gradient[lefts[i]] += adjoint;
+                    break;
+                case SUM:
+                    adjoints[lefts[i]] += adjoint;
+                    adjoints[rights[i]] += adjoint;
+                    break;
+                case PRODUCT:
+                    adjoints[lefts[i]] += adjoint * values[rights[i]];
+                    adjoints[rights[i]] += adjoint * values[lefts[i]];
+                    break;
+                case POWER:
+                    if (rights[i] > 0) {
+                        adjoints[lefts[i]] += adjoint * rights[i] * Power.raise(values[lefts[i]], rights[i] - 1);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return values[size - 1];
+    }
+
+    /**
+     * Compute the gradient of the expression at a point.
+     *
+     * @param point point[i] is the value of the i-th variable of getVariables(),
+     *              requires point.length >= getVariables().size()
+     * @return the partial derivatives with respect to the variables of getVariables() at point, in that order
+     */
+    public double[] evaluate(double[] point) {
+        double[] gradient = new double[variables.size()];
+        evaluate(point, gradient);
+        return gradient;
+    }
+
+    /**
+     * Compute the symbolic gradient. The partial derivatives are simplified like differentiate() simplifies, and
+     * share the expressions of the adjoints of common subexpressions.
+     *
+     * @return maps every variable of getVariables() to the partial derivative of the expression with respect to it,
+     *         in the order of getVariables(); unmodifiable
+     */
+    public Map<String, Expression> getPartialDerivatives() {
+        Map<String, Expression> result = partialDerivatives;
+        if (result == null) {
+            result = computePartialDerivatives();
+            partialDerivatives = result;
+        }
+        return result;
+    }
+
+    private Map<String, Expression> computePartialDerivatives() {
+        int size = nodes.length;
+        Expression zero = ExpressionInterner.constant(0);
+        Expression[] adjoints = new Expression[size];
+        Expression[] partials = new Expression[variables.size()];
+        adjoints[size - 1] = ExpressionInterner.constant(1);
+        for (int i = size - 1; i >= 0; i--) {
+            Expression adjoint = adjoints[i];
+            if (adjoint == null || adjoint.equals(zero)) {
+                continue;
+            }
+            switch (kinds[i]) {
+                case VARIABLE:
+                    partials[lefts[i]] = add(partials[lefts[i]], adjoint);
+                    break;
+                case SUM:
+                    adjoints[lefts[i]] = add(adjoints[lefts[i]], adjoint);
+                    adjoints[rights[i]] = add(adjoints[rights[i]], adjoint);
+                    break;
+                case PRODUCT:
+                    Expression left = nodes[lefts[i]].simplify();
+                    Expression right = nodes[rights[i]].simplify();
+                    adjoints[lefts[i]] = add(adjoints[lefts[i]], Product.simplifyProduct(adjoint, right));
+                    adjoints[rights[i]] = add(adjoints[rights[i]], Product.simplifyProduct(left, adjoint));
+                    break;
+                case POWER:
+                    if (rights[i] > 0) {
+                        // the power rule: d(u^n)/du = n * u^(n-1)
+                        Expression factor = Product.simplifyProduct(
+                                ExpressionInterner.constant(rights[i]),
+                                Power.simplifyPower(nodes[lefts[i]].simplify(), rights[i] - 1));
+                        adjoints[lefts[i]] = add(adjoints[lefts[i]], Product.simplifyProduct(adjoint, factor));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        Map<String, Expression> result = new LinkedHashMap<>();
+        for (int v = 0; v < partials.length; v++) {
+            result.put(variables.get(v), partials[v] == null ? zero : partials[v]);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @param sum a simplified expression, or null for nothing
+     * @param term a simplified expression
+     * @return the simplified sum + term
+     */
+    private static Expression add(Expression sum, Expression term) {
+        return sum == null ? term : Sum.simplifySum(sum, term);
+    }
+
+    @Override
+    public String toString() {
+        return "gradient of " + expression + " with respect to " + variables;
+    }
+}
@@ -0,0 +1,269 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The let-bound form of an expression, in which every repeated subexpression is written only once:
+ * <pre>
+ *     t1 = (x+y); t2 = t1*t1; (t2+t2*x)
+ * </pre>
+ * is a list of bindings "name = expression" followed by the result, separated by ";". A binding name is the letter
+ * t followed by a number, so it never clashes with a variable, and may be used in the bindings after it and in the
+ * result. An expression without repeated subexpressions has no bindings, so its let-bound form equals its text of
+ * ExpressionPrinter with carets, i.e. toString() except that a power is written as base^exponent, which keeps it short.
+ *
+ * Derivatives of nested products repeat the factors of the product at every level, so their toString() grows
+ * exponentially with the nesting while the interned DAG, and the let-bound form, stay linear.
+ */
+public class LetForm {
+
+    private static final String BINDING_SEPARATOR = "; ";
+    private static final Pattern BINDING = Pattern.compile("\\s*(t[0-9]+)\\s*=(.*)", Pattern.DOTALL);
+    private static final Pattern NAME = Pattern.compile("(?<![A-Za-z0-9])t[0-9]+(?![A-Za-z0-9])");
+    private static final Pattern WORD = Pattern.compile("[A-Za-z]+");
+
+    /**
+     * @param expression any expression
+     * @return the let-bound form of expression, with a binding for every Sum, Product or Power that occurs more than
+     *         once,
+     *         numbered in the order in which they are first needed
+     */
+    public static String format(Expression expression) {
+        Map<Expression, Integer> occurrences = ExpressionTraversal.countOccurrences(expression);
+        Map<Expression, String> names = new IdentityHashMap<>();
+        StringBuilder bindings = new StringBuilder();
+        StringBuilder result = new StringBuilder();
+        append(expression, occurrences, names, bindings, result);
+        return bindings.append(result).toString();
+    }
+
+    /**
+     * Append expression to out, written like toString() writes it, except that repeated subexpressions are replaced
+     * by their binding name. The bindings of repeated subexpressions are appended to bindings when first needed.
+     */
+    private static void append(Expression expression, Map<Expression, Integer> occurrences,
+                               Map<Expression, String> names, StringBuilder bindings, StringBuilder out) {
+        // the work-list holds the nodes and the text still to be written, in reverse order, like
+        // ExpressionPrinter; the definition of a binding is written to a builder of its own, on top of outs
+        Deque<Object> work = new ArrayDeque<>();
+        Deque<StringBuilder> outs = new ArrayDeque<>();
+        outs.push(out);
+        work.push(new Definition(expression));
+        while (!work.isEmpty()) {
+            Object item = work.pop();
+            if (item instanceof String) {
+                outs.peek().append((String) item);
+            } else if (item instanceof Binding) {
+                // the definition of a repeated subexpression is complete
+                String definition = outs.pop().toString();
+                String name = "t" + (names.size() + 1);
+                names.put(((Binding) item).expression, name);
+                bindings.append(name).append(" = ").append(definition).append(BINDING_SEPARATOR);
+                outs.peek().append(name);
+            } else if (item instanceof Definition) {
+                // the result, or the right-hand side of its own binding
+                push(((Definition) item).expression, work, outs.peek());
+            } else {
+                Expression node = (Expression) item;
+                String name = names.get(node);
+                if (name != null) {
+                    outs.peek().append(name);
+                } else if (isComposite(node) && occurrences.get(node) > 1) {
+                    work.push(new Binding(node));
+                    work.push(new Definition(node));
+                    outs.push(new StringBuilder());
+                } else {
+                    push(node, work, outs.peek());
+                }
+            }
+        }
+    }
+
+    /**
+     * Write node to out like toString() writes it: a Constant or Variable right away, the operands and operators of
+     * a Sum, Product or Power by pushing them on work.
+     */
+    private static void push(Expression node, Deque<Object> work, StringBuilder out) {
+        if (node instanceof Sum) {
+            Sum sum = (Sum) node;
+            out.append('(');
+            work.push(")");
+            work.push(sum.getRight());
+            work.push("+");
+            work.push(sum.getLeft());
+        } else if (node instanceof Product) {
+            Product product = (Product) node;
+            work.push(product.getRight());
+            work.push("*");
+            work.push(product.getLeft());
+        } else if (node instanceof Power) {
+            Power power = (Power) node;
+            // like ExpressionPrinter, parenthesize a base that is a Product or Power, even if it has a name
+            boolean parenthesized = power.getBase() instanceof Product || power.getBase() instanceof Power;
+            work.push("^" + power.getExponent());
+            if (parenthesized) {
+                out.append('(');
+                work.push(")");
+            }
+            work.push(power.getBase());
+        } else {
+            out.append(node);
+        }
+    }
+
+    private static boolean isComposite(Expression expression) {
+        return expression instanceof Sum || expression instanceof Product || expression instanceof Power;
+    }
+
+    /** Work item: write the expression in full, as the result or as the right-hand side of its binding */
+    private static class Definition {
+        private final Expression expression;
+
+        Definition(Expression expression) {
+            this.expression = expression;
+        }
+    }
+
+    /** Work item: the definition of the expression is written, bind it to the next name */
+    private static class Binding {
+        private final Expression expression;
+
+        Binding(Expression expression) {
+            this.expression = expression;
+        }
+    }
+
+    /**
+     * Parse the let-bound form of an expression.
+     *
+     * @param input a let-bound form as described above; an expression as defined in Expression.parse() is the
+     *              let-bound form without bindings
+     * @return the expression of the result, in which every binding name is replaced by the expression it is bound
+     *         to; repeated subexpressions are shared, so the size of the expression is linear in the size of input
+     * @throws IllegalArgumentException if input is not a valid let-bound form, e.g. if a name is used before it is
+     *                                  bound or bound twice
+     */
+    public static Expression parse(String input) {
+        String[] parts = input.split(";", -1);
+        if (parts.length == 1) {
+            return Expression.parse(input);
+        }
+        String prefix = placeholderPrefix(input);
+        Map<String, Expression> bound = new HashMap<>();
+        for (int i = 0; i < parts.length - 1; i++) {
+            Matcher binding = BINDING.matcher(parts[i]);
+            if (!binding.matches()) {
+                throw new IllegalArgumentException("Not a binding: " + parts[i]);
+            }
+            String name = binding.group(1);
+            if (bound.containsKey(name)) {
+                throw new IllegalArgumentException("The name " + name + " is bound twice");
+            }
+            bound.put(name, parseWithNames(binding.group(2), prefix, bound));
+        }
+        return parseWithNames(parts[parts.length - 1], prefix, bound);
+    }
+
+    /**
+     * @return a prefix of letters that no word of input starts with
+     */
+    private static String placeholderPrefix(String input) {
+        Set<String> words = new HashSet<>();
+        Matcher word = WORD.matcher(input);
+        while (word.find()) {
+            words.add(word.group());
+        }
+        String prefix = "let";
+        boolean clash = true;
+        while (clash) {
+            clash = false;
+            for (String candidate : words) {
+                if (candidate.startsWith(prefix)) {
+                    clash = true;
+                    prefix += "x";
+                    break;
+                }
+            }
+        }
+        return prefix;
+    }
+
+    /**
+     * @param input an expression that may use the binding names of bound
+     * @param prefix the prefix of the placeholder variables, which no word of input starts with
+     * @param bound maps the binding names so far to their expressions
+     * @return the expression of input, with the bound expressions substituted for the names
+     */
+    private static Expression parseWithNames(String input, String prefix, Map<String, Expression> bound) {
+        // binding names contain digits, which are not allowed in variables; write them as placeholder variables
+        Map<String, Expression> placeholders = new HashMap<>();
+        StringBuffer replaced = new StringBuffer();
+        Matcher name = NAME.matcher(input);
+        while (name.find()) {
+            Expression expression = bound.get(name.group());
+            if (expression == null) {
+                throw new IllegalArgumentException("The name " + name.group() + " is used before it is bound");
+            }
+            String placeholder = prefix + lettersOf(name.group().substring(1));
+            placeholders.put(placeholder, expression);
+            name.appendReplacement(replaced, placeholder);
+        }
+        name.appendTail(replaced);
+        Expression expression = Expression.parse(replaced.toString());
+        if (placeholders.isEmpty()) {
+            return expression;
+        }
+        return substitute(expression, placeholders);
+    }
+
+    /**
+     * @param digits a non-empty string of digits
+     * @return the digits written as the letters a to j
+     */
+    private static String lettersOf(String digits) {
+        StringBuilder letters = new StringBuilder();
+        for (char digit : digits.toCharArray()) {
+            letters.append((char) ('a' + (digit - '0')));
+        }
+        return letters.toString();
+    }
+
+    /**
+     * @return expression with every variable of placeholders replaced by its expression
+     */
+    private static Expression substitute(Expression expression, Map<String, Expression> placeholders) {
+        return ExpressionTraversal.foldShared(expression, new ExpressionTraversal.Fold<Expression>() {
+            @Override
+            public Expression leaf(Expression node) {
+                if (node instanceof Variable) {
+                    Expression bound = placeholders.get(((Variable) node).getVariable());
+                    return bound == null ? node : bound;
+                }
+                return node;
+            }
+
+            @Override
+            public Expression sum(Sum node, Expression left, Expression right) {
+                return ExpressionInterner.sum(left, right);
+            }
+
+            @Override
+            public Expression product(Product node, Expression left, Expression right) {
+                return ExpressionInterner.product(left, right);
+            }
+
+            @Override
+            public Expression power(Power node, Expression base) {
+                return ExpressionInterner.power(base, node.getExponent());
+            }
+        });
+    }
+}
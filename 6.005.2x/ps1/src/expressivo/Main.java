@@ -20,13 +20,18 @@ public class Main {
     
     /**
      * Read expression and command inputs from the console and output results.
+     * Every expression and the result of every command is numbered, e.g. "$3 = 2*x", and can be referred to by its
+     * number in later commands (e.g. "!d/dx $3"), or made the current expression again by entering only "$3".
+     * "!solve x to 8 y=2" prints a value of x for which the current expression is 8 (or 0 without "to"), given the
+     * values of its other variables; it adds no result.
+     * Powers are written as products, like the grammar of the handout; "!carets on" writes them as base^exponent.
      * An empty input terminates the program.
      * @param args unused
      * @throws IOException if there is an error reading the input
      */
     public static void main(String[] args) throws IOException {
         final BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-        Optional<String> currentExpression = Optional.empty();
+        final Session session = new Session();
         
         while (true) {
             System.out.print("> ");
@@ -37,23 +42,9 @@ public class Main {
             }
             
             try {
-                final String output;
-                
-                if (input.startsWith(DIFFERENTIATE_PREFIX)) {
-                    final String variable = parseDifferentiate(input);
-                    output = Commands.differentiate(currentExpression.get(), variable);
-                    currentExpression = Optional.of(output);
-                } else if (input.startsWith(SIMPLIFY_PREFIX)) {
-                    final Map<String,Double> environment = parseSimplify(input);
-                    output = Commands.simplify(currentExpression.get(), environment);
-                    // ... but don't change currentExpression
-                } else {
-                    final Expression expression = Expression.parse(input);
-                    output = expression.toString();
-                    currentExpression = Optional.of(output);
-                }
-                
-                System.out.println(output);
+                final String output = session.execute(input);
+                final int number = session.lastResultNumber();
+                System.out.println(number > 0 ? REFERENCE_PREFIX + number + " = " + output : output);
             } catch (NoSuchElementException nse) {
                 // currentExpression was empty
                 System.out.println("must enter an expression before using this command");
@@ -63,28 +54,92 @@ public class Main {
         }
     }
  
-    private static final String DIFFERENTIATE_PREFIX = "!d/d";
+    static final String REFERENCE_PREFIX = "$";
+    private static final String REFERENCE = "\\" + REFERENCE_PREFIX + "([0-9]+)";
+    private static final Pattern TRAILING_REFERENCE = Pattern.compile(".* +" + REFERENCE + " *");
+    private static final Pattern ONLY_REFERENCE = Pattern.compile(" *" + REFERENCE + " *");
+
+    /**
+     * @return the number of the earlier result the input line refers to with a trailing "$n", if any
+     */
+    static Optional<Integer> parseReference(final String input) {
+        final Matcher referenceMatcher = TRAILING_REFERENCE.matcher(input);
+        if (!referenceMatcher.matches()) {
+            return Optional.empty();
+        }
+        return Optional.of(parseNumber(referenceMatcher.group(1)));
+    }
+
+    /**
+     * @return the number n if the input line is only a reference "$n" to an earlier result, or else empty
+     */
+    static Optional<Integer> parseOnlyReference(final String input) {
+        final Matcher referenceMatcher = ONLY_REFERENCE.matcher(input);
+        if (!referenceMatcher.matches()) {
+            return Optional.empty();
+        }
+        return Optional.of(parseNumber(referenceMatcher.group(1)));
+    }
+
+    private static int parseNumber(final String digits) {
+        try {
+            return Integer.parseInt(digits);
+        } catch (NumberFormatException nfe) {
+            throw new CommandSyntaxException("no result " + REFERENCE_PREFIX + digits);
+        }
+    }
+
+    static final String DIFFERENTIATE_PREFIX = "!d/d";
     private static final String VARIABLE = "[A-Za-z]+";
-    private static final String DIFFERENTIATE = DIFFERENTIATE_PREFIX + "(" + VARIABLE + ") *";
+    private static final String DIFFERENTIATE = DIFFERENTIATE_PREFIX + "(" + VARIABLE + ")( +" + REFERENCE + ")? *";
 
-    private static String parseDifferentiate(final String input) {
+    static String parseDifferentiate(final String input) {
         final Matcher commandMatcher = Pattern.compile(DIFFERENTIATE).matcher(input);
         if (!commandMatcher.matches()) {
-            throw new CommandSyntaxException("usage: !d/d must be followed by a variable name");
+            throw new CommandSyntaxException("usage: !d/d must be followed by a variable name, and optionally $n");
         }
 
         final String variable = commandMatcher.group(1);
         return variable;
     }
     
-    private static final String SIMPLIFY_PREFIX = "!simplify";
+    static final String SHARED_PREFIX = "!shared";
+    private static final String SHARED = SHARED_PREFIX + " +(on|off) *";
+
+    /**
+     * @return true if the command turns the let-bound output (see LetForm) on, false if it turns it off
+     */
+    static boolean parseShared(final String input) {
+        final Matcher commandMatcher = Pattern.compile(SHARED).matcher(input);
+        if (!commandMatcher.matches()) {
+            throw new CommandSyntaxException("usage: !shared on|off");
+        }
+        return commandMatcher.group(1).equals("on");
+    }
+
+    static final String CARETS_PREFIX = "!carets";
+    private static final String CARETS = CARETS_PREFIX + " +(on|off) *";
+
+    /**
+     * @return true if the command turns writing powers as base^exponent (see ExpressionPrinter) on, false if it turns
+     *         it off
+     */
+    static boolean parseCarets(final String input) {
+        final Matcher commandMatcher = Pattern.compile(CARETS).matcher(input);
+        if (!commandMatcher.matches()) {
+            throw new CommandSyntaxException("usage: !carets on|off");
+        }
+        return commandMatcher.group(1).equals("on");
+    }
+
+    static final String SIMPLIFY_PREFIX = "!simplify";
     private static final String ASSIGNMENT = "(" + VARIABLE + ") *= *([^ ]+)";
-    private static final String SIMPLIFY = SIMPLIFY_PREFIX + "( +" + ASSIGNMENT + ")* *";    
+    private static final String SIMPLIFY = SIMPLIFY_PREFIX + "( +" + ASSIGNMENT + ")*( +" + REFERENCE + ")? *";
 
-    private static Map<String,Double> parseSimplify(final String input) {
+    static Map<String,Double> parseSimplify(final String input) {
         final Matcher commandMatcher = Pattern.compile(SIMPLIFY).matcher(input);
         if (!commandMatcher.matches()) {
-            throw new CommandSyntaxException("usage: !simplify var1=val1 var2=val2 ...");
+            throw new CommandSyntaxException("usage: !simplify var1=val1 var2=val2 ... [$n]");
         }
         
         final Map<String,Double> environment = new HashMap<>();
@@ -100,6 +155,42 @@ public class Main {
         return environment;
     }
     
+    static final String SOLVE_PREFIX = "!solve";
+    private static final String NUMBER = "[-+]?[0-9.]+(?:[eE][-+]?[0-9]+)?";
+    private static final String SOLVE = SOLVE_PREFIX + " +(" + VARIABLE + ")( +to +(" + NUMBER + "))?"
+                                        + "( +" + ASSIGNMENT + ")*( +" + REFERENCE + ")? *";
+
+    /**
+     * A parsed !solve command: solve for variable where the expression equals target, given the values of the
+     * other variables in environment.
+     */
+    static class SolveCommand {
+        final String variable;
+        final double target;
+        final Map<String,Double> environment;
+
+        SolveCommand(String variable, double target, Map<String,Double> environment) {
+            this.variable = variable;
+            this.target = target;
+            this.environment = environment;
+        }
+    }
+
+    static SolveCommand parseSolve(final String input) {
+        final Matcher commandMatcher = Pattern.compile(SOLVE).matcher(input);
+        if (!commandMatcher.matches()) {
+            throw new CommandSyntaxException("usage: !solve var [to value] var1=val1 var2=val2 ... [$n]");
+        }
+        final double target = commandMatcher.group(3) == null ? 0 : Double.valueOf(commandMatcher.group(3));
+
+        final Map<String,Double> environment = new HashMap<>();
+        final Matcher argumentMatcher = Pattern.compile(ASSIGNMENT).matcher(input);
+        while (argumentMatcher.find()) {
+            environment.put(argumentMatcher.group(1), Double.valueOf(argumentMatcher.group(2)));
+        }
+        return new SolveCommand(commandMatcher.group(1), target, environment);
+    }
+
     public static class CommandSyntaxException extends RuntimeException {
         private static final long serialVersionUID = 1;
         public CommandSyntaxException(String message) {
@@ -0,0 +1,129 @@
+package expressivo;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the memoized results of simplify() and differentiate(). Every Sum, Product and Power remembers its
+ * simplified form and its derivative per variable, so those are computed at most once per node. Since parsed,
+ * simplified and differentiated expressions are interned (see ExpressionInterner), equal subexpressions are the same
+ * node, and the memoized results are shared by every expression containing them.
+ * This class is threadsafe.
+ */
+public class Memoization {
+
+    // Abstraction function
+    //      Counts how often simplify() and differentiate() of a Sum, Product or Power were answered from the memoized
+    //      result (hits) and how often the result had to be computed (misses), since the last reset.
+    //
+    // Rep invariant
+    //      all counters are non-negative
+    //
+    // Safety from rep exposure
+    //      the counters are private and only their values are returned
+    //
+    // Thread safety
+    //      the counters are LongAdders, which are threadsafe
+
+    private static final LongAdder simplifyHits = new LongAdder();
+    private static final LongAdder simplifyMisses = new LongAdder();
+    private static final LongAdder derivativeHits = new LongAdder();
+    private static final LongAdder derivativeMisses = new LongAdder();
+
+    static void simplifyHit() {
+        simplifyHits.increment();
+    }
+
+    static void simplifyMiss() {
+        simplifyMisses.increment();
+    }
+
+    static void derivativeHit() {
+        derivativeHits.increment();
+    }
+
+    static void derivativeMiss() {
+        derivativeMisses.increment();
+    }
+
+    /**
+     * @return the counters of the memoized results of simplify(); the size is the number of results that were
+     *         memoized, some of which may have been collected together with their node since
+     */
+    public static CacheStatistics getSimplifyStatistics() {
+        long misses = simplifyMisses.sum();
+        return new CacheStatistics(simplifyHits.sum(), misses, size(misses), CacheStatistics.UNBOUNDED);
+    }
+
+    /**
+     * @return the counters of the memoized results of differentiate(); the size is the number of results that were
+     *         memoized, some of which may have been collected together with their node since
+     */
+    public static CacheStatistics getDerivativeStatistics() {
+        long misses = derivativeMisses.sum();
+        return new CacheStatistics(derivativeHits.sum(), misses, size(misses), CacheStatistics.UNBOUNDED);
+    }
+
+    /**
+     * Reset all counters to zero. The memoized results themselves are kept.
+     */
+    public static void resetStatistics() {
+        simplifyHits.reset();
+        simplifyMisses.reset();
+        derivativeHits.reset();
+        derivativeMisses.reset();
+    }
+
+    /**
+     * @return the number of memoized results after the given number of misses, as every miss memoizes one result
+     */
+    private static int size(long misses) {
+        return (int) Math.min(misses, CacheStatistics.UNBOUNDED);
+    }
+
+    /**
+     * Immutable list of the memoized derivatives of one node, one entry per variable. A node is rarely differentiated
+     * with respect to more than a few variables, so a list is smaller and faster than a map.
+     */
+    static class Derivatives {
+        private final String variable;
+        private final Expression derivative;
+        private final Derivatives next;
+
+        // Abstraction
+        //      maps variable to derivative, and every other variable to what next maps it to
+        // Rep invariant
+        //      variable and derivative are non-null
+        // Safety from rep exposure
+        //      all fields are private final and immutable
+
+        private Derivatives(String variable, Expression derivative, Derivatives next) {
+            this.variable = variable;
+            this.derivative = derivative;
+            this.next = next;
+        }
+
+        /**
+         * @param derivatives the memoized derivatives of a node, or null if there are none
+         * @param variable a variable
+         * @return the memoized derivative with respect to variable, or null if there is none
+         */
+        static Expression find(Derivatives derivatives, String variable) {
+            for (Derivatives entry = derivatives; entry != null; entry = entry.next) {
+                if (entry.variable.equals(variable)) {
+                    return entry.derivative;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @param derivatives the memoized derivatives of a node, or null if there are none
+         * @param variable a variable which derivatives has no derivative for
+         * @param derivative the derivative with respect to variable
+         * @return derivatives extended with the derivative with respect to variable
+         */
+        static Derivatives with(Derivatives derivatives, String variable, Expression derivative) {
+            return new Derivatives(variable, derivative, derivatives);
+        }
+    }
+}
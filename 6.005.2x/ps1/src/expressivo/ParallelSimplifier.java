@@ -0,0 +1,152 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Simplifies wide expressions to their canonical polynomial (see Expression.normalize()) on several threads.
+ *
+ * A polynomial with thousands of terms is a long left-deep chain of Sums, which simplify() and normalize() walk on
+ * one thread. This flattens every chain of Sums into the list of its operands, and every chain of Products into the
+ * list of its factors, and converts the operands to polynomials as fork-join tasks: a list that is longer than
+ * THRESHOLD is split in halves, the halves are converted in parallel and their polynomials are added (or multiplied)
+ * together, so the like terms are merged by a parallel reduction. A list of at most THRESHOLD operands is converted
+ * on one thread, adding all its terms at once (see Polynomial.sumOf()).
+ * The coefficients are added in a different order than by normalize(), so they may differ in the last bits.
+ * This class is threadsafe.
+ */
+public class ParallelSimplifier {
+
+    /** Maximal number of operands of a sum or product that are converted by one task */
+    static final int THRESHOLD = 1024;
+    /** Nesting depth of sums and products from which on Polynomial.of() converts them, which does not recurse */
+    private static final int MAXIMAL_DEPTH = 64;
+
+    /**
+     * Simplify expression on the threads of the common fork-join pool.
+     * @param expression any expression
+     * @return expression.normalize(), up to the rounding of the coefficients
+     */
+    public static Expression simplify(Expression expression) {
+        return simplify(expression, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param expression any expression
+     * @param pool the threads to simplify on
+     * @return expression.normalize(), up to the rounding of the coefficients
+     */
+    public static Expression simplify(Expression expression, ForkJoinPool pool) {
+        return polynomial(expression, pool).toExpression();
+    }
+
+    /**
+     * @param expression any expression
+     * @param pool the threads to convert on
+     * @return Polynomial.of(expression), up to the rounding of the coefficients
+     */
+    public static Polynomial polynomial(Expression expression, ForkJoinPool pool) {
+        return pool.invoke(new Node(expression, 0));
+    }
+
+    /**
+     * @param node a Sum or Product
+     * @return the maximal subexpressions of node that are not of the class of node, from left to right; e.g. the
+     *         terms x, y*z and 1 of the sum (x+y*z)+1
+     */
+    private static List<Expression> operands(Expression node) {
+        Class<?> operation = node.getClass();
+        List<Expression> operands = new ArrayList<>();
+        Deque<Expression> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            Expression next = stack.pop();
+            if (next.getClass() != operation) {
+                operands.add(next);
+            } else if (next instanceof Sum) {
+                stack.push(((Sum) next).getRight());
+                stack.push(((Sum) next).getLeft());
+            } else {
+                stack.push(((Product) next).getRight());
+                stack.push(((Product) next).getLeft());
+            }
+        }
+        return operands;
+    }
+
+    /**
+     * Converts one expression to its polynomial.
+     */
+    private static class Node extends RecursiveTask<Polynomial> {
+        private static final long serialVersionUID = 1L;
+
+        private final Expression expression;
+        private final int depth;
+
+        Node(Expression expression, int depth) {
+            this.expression = expression;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Polynomial compute() {
+            if (expression instanceof Power && depth < MAXIMAL_DEPTH) {
+                Power power = (Power) expression;
+                return new Node(power.getBase(), depth + 1).compute().power(power.getExponent());
+            }
+            if (!(expression instanceof Sum || expression instanceof Product) || depth >= MAXIMAL_DEPTH) {
+                return Polynomial.of(expression);
+            }
+            List<Expression> operands = operands(expression);
+            return new Operands(operands, 0, operands.size(), expression instanceof Sum, depth).compute();
+        }
+    }
+
+    /**
+     * Converts a range of the operands of a sum or product to the polynomial of their sum or product.
+     */
+    private static class Operands extends RecursiveTask<Polynomial> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Expression> operands;
+        private final int from;
+        private final int to;
+        private final boolean sum;
+        private final int depth;
+
+        Operands(List<Expression> operands, int from, int to, boolean sum, int depth) {
+            this.operands = operands;
+            this.from = from;
+            this.to = to;
+            this.sum = sum;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Polynomial compute() {
+            if (to - from <= THRESHOLD) {
+                List<Polynomial> polynomials = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    polynomials.add(new Node(operands.get(i), depth + 1).compute());
+                }
+                if (sum) {
+                    return Polynomial.sumOf(polynomials);
+                }
+                Polynomial product = polynomials.get(0);
+                for (int i = 1; i < polynomials.size(); i++) {
+                    product = product.times(polynomials.get(i));
+                }
+                return product;
+            }
+            int middle = from + (to - from) / 2;
+            Operands left = new Operands(operands, from, middle, sum, depth);
+            left.fork();
+            Polynomial right = new Operands(operands, middle, to, sum, depth).compute();
+            return sum ? left.join().plus(right) : left.join().times(right);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * The higher-order and mixed partial derivatives of an expression, and its Taylor expansions.
+ *
+ * Repeatedly differentiating an expression tree makes it explode, since every derivative of a product is a sum of two
+ * products. The derivatives are therefore computed on the canonical Polynomial of the expression, which collects the
+ * like terms after every step, so the n-th derivative is never larger than the expression's polynomial. Every
+ * derivative that is computed is cached, and a higher derivative is computed from the highest cached derivative it
+ * extends: d^3/dx^2dy is the derivative by y of d^2/dx^2, which is the derivative by x of d/dx. Asking for the
+ * derivatives of increasing order, as the Taylor expansion does, thus differentiates only once per derivative.
+ *
+ * The derivatives of an expression are shared by all clients asking for them through of(), as long as the expression
+ * is reachable. Since parsed, simplified and differentiated expressions are interned (see ExpressionInterner), equal
+ * expressions share their derivatives.
+ * This class is threadsafe.
+ */
+public class PartialDerivatives {
+
+    /** The derivatives of the expressions that are still reachable; the values never refer to their key */
+    private static final Map<Expression, PartialDerivatives> INSTANCES =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    // rep
+    private final Map<SortedMap<String, Integer>, Polynomial> derivatives = new HashMap<>();
+
+    // Abstraction
+    //      the partial derivatives of the polynomial derivatives.get(empty map), where derivatives.get(orders) is
+    //      the derivative by every variable v in orders, orders.get(v) times
+    // Rep invariant
+    //      derivatives contains the empty map; all orders are positive; if derivatives contains orders, it contains
+    //      orders with the order of its last variable decreased by one (and removed if that makes it 0)
+    // Safety from rep exposure
+    //      all fields are private, the keys are copies, and only immutable polynomials and expressions are returned
+    // Thread safety
+    //      every access of derivatives is guarded by the lock of this; the polynomials are immutable
+
+    private PartialDerivatives(Expression expression) {
+        derivatives.put(new TreeMap<>(), Polynomial.of(expression));
+    }
+
+    /**
+     * @param expression any expression
+     * @return the derivatives of expression, shared with every other client asking for them
+     */
+    public static PartialDerivatives of(Expression expression) {
+        synchronized (INSTANCES) {
+            return INSTANCES.computeIfAbsent(expression, PartialDerivatives::new);
+        }
+    }
+
+    /**
+     * @param variable a variable
+     * @param order a non-negative number
+     * @return the order-th derivative by variable, with all like terms collected (see Expression.normalize())
+     * @throws IllegalArgumentException if order is negative
+     */
+    public Expression derivative(String variable, int order) {
+        return derivative(Collections.singletonMap(variable, order));
+    }
+
+    /**
+     * @param orders maps variables to non-negative numbers
+     * @return the mixed partial derivative by every variable v in orders, orders.get(v) times, with all like terms
+     *         collected (see Expression.normalize()); e.g. d^3/dx^2dy for the orders {x=2, y=1}
+     * @throws IllegalArgumentException if an order is negative
+     */
+    public Expression derivative(Map<String, Integer> orders) {
+        return polynomial(orders).toExpression();
+    }
+
+    /**
+     * @param orders maps variables to non-negative numbers
+     * @return the mixed partial derivative by every variable v in orders, orders.get(v) times
+     * @throws IllegalArgumentException if an order is negative
+     */
+    public Polynomial polynomial(Map<String, Integer> orders) {
+        SortedMap<String, Integer> key = new TreeMap<>();
+        for (Map.Entry<String, Integer> entry : orders.entrySet()) {
+            if (entry.getValue() < 0) {
+                throw new IllegalArgumentException("Negative order " + entry.getValue() + " for " + entry.getKey());
+            } else if (entry.getValue() > 0) {
+                key.put(entry.getKey(), entry.getValue());
+            }
+        }
+        synchronized (this) {
+            // walk back to the highest cached derivative, then differentiate forward from it
+            Deque<SortedMap<String, Integer>> missing = new ArrayDeque<>();
+            Polynomial polynomial = derivatives.get(key);
+            while (polynomial == null) {
+                missing.push(key);
+                key = parent(key);
+                polynomial = derivatives.get(key);
+            }
+            while (!missing.isEmpty()) {
+                key = missing.pop();
+                polynomial = polynomial.differentiate(key.lastKey());
+                derivatives.put(key, polynomial);
+            }
+            return polynomial;
+        }
+    }
+
+    /**
+     * @return orders, which is nonempty, with the order of its last variable decreased by one
+     */
+    private static SortedMap<String, Integer> parent(SortedMap<String, Integer> orders) {
+        SortedMap<String, Integer> parent = new TreeMap<>(orders);
+        String last = parent.lastKey();
+        int order = parent.get(last);
+        if (order == 1) {
+            parent.remove(last);
+        } else {
+            parent.put(last, order - 1);
+        }
+        return parent;
+    }
+
+    /**
+     * @return the number of derivatives that are cached, including the expression itself
+     */
+    public synchronized int size() {
+        return derivatives.size();
+    }
+
+    /**
+     * Compute the Taylor expansion around a point, truncated after the terms of total degree order:
+     * the sum over all orders a with a(v1) + ... + a(vk) <= order of
+     * (d^|a|/dv1^a(v1)...dvk^a(vk) f)(point) * v1^a(v1) * ... * vk^a(vk) / (a(v1)! * ... * a(vk)!),
+     * where v1, ..., vk are the variables of point.
+     * Since the expression language has no subtraction, every variable v of point stands for its displacement
+     * v - point.get(v) in the expansion: f(point + h) is approximated by the expansion with every v bound to h(v).
+     * Variables that are not in point are kept symbolic.
+     *
+     * @param point maps variables to non-negative values
+     * @param order the maximal total degree of the terms in the variables of point, non-negative
+     * @return the Taylor expansion, with all like terms collected (see Expression.normalize()); if order is at least
+     *         the degree of the expression, it is the expression shifted by point
+     * @throws IllegalArgumentException if order or a value of point is negative
+     */
+    public Expression taylor(Map<String, Double> point, int order) {
+        if (order < 0) {
+            throw new IllegalArgumentException("Negative order " + order);
+        }
+        for (Map.Entry<String, Double> entry : point.entrySet()) {
+            if (!(entry.getValue() >= 0)) {
+                throw new IllegalArgumentException("Invalid value " + entry.getValue() + " for " + entry.getKey());
+            }
+        }
+        List<String> variables = new ArrayList<>(new TreeMap<>(point).keySet());
+        Polynomial[] expansion = {Polynomial.constant(0)};
+        // enumerate the orders in increasing order per variable, so every derivative extends a cached one
+        expand(variables, 0, new TreeMap<>(), order, Polynomial.constant(1), point, expansion);
+        return expansion[0].toExpression();
+    }
+
+    /**
+     * Add the terms of the Taylor expansion for all orders that extend orders with orders of the variables from
+     * index on, up to a total of remaining more.
+     * @param monomial the product of v^orders.get(v) / orders.get(v)! over the variables of orders
+     */
+    private void expand(List<String> variables, int index, SortedMap<String, Integer> orders, int remaining,
+                        Polynomial monomial, Map<String, Double> point, Polynomial[] expansion) {
+        if (index == variables.size()) {
+            Polynomial coefficient = polynomial(orders).substitute(point);
+            expansion[0] = expansion[0].plus(coefficient.times(monomial));
+            return;
+        }
+        String variable = variables.get(index);
+        Polynomial power = monomial;
+        for (int k = 0; k <= remaining; k++) {
+            if (k > 0) {
+                orders.put(variable, k);
+                power = power.times(Polynomial.variable(variable)).times(Polynomial.constant(1.0 / k));
+            }
+            expand(variables, index + 1, orders, remaining - k, power, point, expansion);
+        }
+        orders.remove(variable);
+    }
+}
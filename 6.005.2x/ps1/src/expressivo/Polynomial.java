@@ -0,0 +1,1022 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static expressivo.ExpressionInterner.product;
+import static expressivo.ExpressionInterner.sum;
+
+/**
+ * A sparse multivariate polynomial with non-negative coefficients in a canonical form: every expression has exactly
+ * one Polynomial, e.g. x*(y+1)+x, ((x+1)+1)*x and x*y+2*x all have the polynomial x*y+2*x, up to the rounding of the
+ * coefficients. Simplifying an expression through its polynomial (see Expression.normalize()) therefore collects
+ * all like terms, and repeated derivatives stay small.
+ *
+ * A polynomial stores its variables as ids of the VariableDictionary, and its terms as a packed matrix of exponents,
+ * one row per term and one column per variable, next to an array of coefficients. Sums and products are accumulated
+ * in an open-addressing table keyed by the exponent rows, so no term allocates an object; large products pack every
+ * row into a single key, and dense ones are multiplied as arrays, see times().
+ * Immutable.
+ */
+public class Polynomial {
+
+    private static final Polynomial ZERO = new Polynomial(new int[0], new int[0], new double[0]);
+
+    /** Smallest number of pairs of terms for which times() packs the exponent rows into keys */
+    private static final int PACKING_THRESHOLD = 16;
+    /** times() multiplies factors as dense arrays if their terms fill at least 1/DENSITY of the range of their keys */
+    private static final int DENSITY = 4;
+    /** Largest number of coefficients of a product multiplied as dense arrays */
+    private static final int MAXIMAL_DENSE_LENGTH = 1 << 24;
+    /** Length up to which dense arrays are multiplied by the schoolbook method rather than Karatsuba's algorithm */
+    static final int KARATSUBA_THRESHOLD = 32;
+    /** 2^53, the smallest positive integer above which not all integers are doubles */
+    private static final double EXACT_INTEGER_LIMIT = 9007199254740992.0;
+
+    // rep
+    private final int[] variables;
+    private final int[] exponents;
+    private final double[] coefficients;
+    private final int hash;
+
+    // Abstraction
+    //      The sum over all terms t of coefficients[t] * product over all i of
+    //      VariableDictionary.name(variables[i]) ^ exponents[t * variables.length + i]
+    // Rep invariant
+    //      variables are sorted by name and have no duplicates, and every variable has a positive exponent in some
+    //      term; exponents.length == coefficients.length * variables.length and all exponents are >= 0;
+    //      coefficients are finite and positive; no two terms have the same exponent row;
+    //      the terms are sorted by compareTerms; hash is the hash of the arrays
+    // Safety from rep exposure
+    //      all fields are private final, the arrays are never returned nor shared with clients
+
+    private Polynomial(int[] variables, int[] exponents, double[] coefficients) {
+        this.variables = variables;
+        this.exponents = exponents;
+        this.coefficients = coefficients;
+        this.hash = 31 * (31 * Arrays.hashCode(variables) + Arrays.hashCode(exponents))
+                    + Arrays.hashCode(coefficients);
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert exponents.length == coefficients.length * variables.length;
+        for (int i = 1; i < variables.length; i++) {
+            assert compareVariables(variables[i - 1], variables[i]) < 0;
+        }
+        for (int t = 0; t < coefficients.length; t++) {
+            assert coefficients[t] > 0 && coefficients[t] < Double.POSITIVE_INFINITY;
+            assert t == 0 || compareTerms(exponents, variables.length, t - 1, t) < 0;
+        }
+    }
+
+    /**
+     * @param value a non-negative number
+     * @return the constant polynomial value
+     */
+    public static Polynomial constant(double value) {
+        if (value == 0) {
+            return ZERO;
+        }
+        return new Polynomial(new int[0], new int[0], new double[] {value});
+    }
+
+    /**
+     * @param name a variable
+     * @return the polynomial consisting of the variable name
+     */
+    public static Polynomial variable(String name) {
+        return new Polynomial(new int[] {VariableDictionary.id(name)}, new int[] {1}, new double[] {1});
+    }
+
+    /**
+     * @param expression any expression
+     * @return the polynomial equal to expression
+     */
+    public static Polynomial of(Expression expression) {
+        // interned expressions share equal subexpressions, convert each of them only once, but don't keep the
+        // polynomials of all prefixes of a long sum. The operands of a sum are only added once the sum is needed,
+        // all at once, since adding them one by one copies the growing sum for every operand.
+        return ExpressionTraversal.foldReleasing(expression, new ExpressionTraversal.Fold<Operands>() {
+            @Override
+            public Operands leaf(Expression node) {
+                if (node instanceof Constant) {
+                    return new Operands(constant(((Constant) node).getValue()), null);
+                } else if (node instanceof Variable) {
+                    return new Operands(variable(((Variable) node).getVariable()), null);
+                }
+                throw new IllegalArgumentException("Not a polynomial: " + node);
+            }
+
+            @Override
+            public Operands sum(Sum node, Operands left, Operands right) {
+                return new Operands(right.sum(), left);
+            }
+
+            @Override
+            public Operands product(Product node, Operands left, Operands right) {
+                return new Operands(left.sum().times(right.sum()), null);
+            }
+
+            @Override
+            public Operands power(Power node, Operands base) {
+                return new Operands(base.sum().power(node.getExponent()), null);
+            }
+        }).sum();
+    }
+
+    /**
+     * The operands of a chain of sums that are not added yet, as a persistent list from the last operand to the
+     * first, so chains that share a prefix share its operands. The sum is computed at most once.
+     */
+    private static class Operands {
+        private final Polynomial last;
+        private final Operands rest;
+        private Polynomial sum = null;
+
+        // Abstraction
+        //      the sum of the operands of rest followed by last, or just last if rest is null
+        // Rep invariant
+        //      sum is null or the sum
+        // Safety from rep exposure
+        //      all fields are private, and the polynomials are immutable
+
+        Operands(Polynomial last, Operands rest) {
+            this.last = last;
+            this.rest = rest;
+            if (rest == null) {
+                sum = last;
+            }
+        }
+
+        /**
+         * @return the sum of the operands
+         */
+        Polynomial sum() {
+            if (sum == null) {
+                // collect the operands back to the first one, or to a prefix whose sum is known
+                List<Polynomial> operands = new ArrayList<>();
+                Operands prefix = this;
+                for (; prefix.sum == null; prefix = prefix.rest) {
+                    operands.add(prefix.last);
+                }
+                operands.add(prefix.sum);
+                Collections.reverse(operands);
+                sum = sumOf(operands);
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * @return the number of terms of this polynomial, 0 for the zero polynomial
+     */
+    public int getTermCount() {
+        return coefficients.length;
+    }
+
+    /**
+     * @return the highest total degree of the terms of this polynomial, 0 for constant polynomials
+     */
+    public int getDegree() {
+        // the terms are sorted by descending degree
+        return coefficients.length == 0 ? 0 : degree(exponents, variables.length, 0);
+    }
+
+    /**
+     * @return true iff this polynomial has no variables
+     */
+    public boolean isConstant() {
+        return variables.length == 0;
+    }
+
+    /**
+     * @param that a polynomial
+     * @return the sum of this and that
+     */
+    public Polynomial plus(Polynomial that) {
+        if (coefficients.length == 0) return that;
+        if (that.coefficients.length == 0) return this;
+        int[] union = union(variables, that.variables);
+        Accumulator terms = new Accumulator(union.length, coefficients.length + that.coefficients.length);
+        int[] row = new int[union.length];
+        this.addTo(terms, union, row);
+        that.addTo(terms, union, row);
+        return terms.toPolynomial(union);
+    }
+
+    /**
+     * Add many polynomials at once. Unlike repeated plus(), which copies the growing sum for every term, this
+     * accumulates all terms in one table, in time linear in the total number of terms.
+     * @param polynomials any polynomials
+     * @return the sum of polynomials, the zero polynomial if there are none
+     */
+    public static Polynomial sumOf(List<Polynomial> polynomials) {
+        int[] union = new int[0];
+        int terms = 0;
+        for (Polynomial polynomial : polynomials) {
+            union = union(union, polynomial.variables);
+            terms += polynomial.coefficients.length;
+        }
+        if (terms == 0) {
+            return ZERO;
+        }
+        Accumulator accumulator = new Accumulator(union.length, terms);
+        int[] row = new int[union.length];
+        for (Polynomial polynomial : polynomials) {
+            polynomial.addTo(accumulator, union, row);
+        }
+        return accumulator.toPolynomial(union);
+    }
+
+    /**
+     * Multiply out this times that, adding the products of all pairs of terms.
+     *
+     * If the exponents of the product fit, every exponent row is packed into a single long key by Kronecker
+     * substitution (the row is read as the digits of a number, in a base per variable larger than any exponent of
+     * the product), so the key of the product of two terms is the sum of their keys. If the keys of both factors
+     * fill at least 1/DENSITY of their range, e.g. for univariate polynomials with most degrees present, the factors
+     * are multiplied as dense arrays of coefficients indexed by key, with Karatsuba's algorithm if that computes
+     * every coefficient exactly, see karatsuba(). Otherwise the products of the pairs are summed in a hash table of
+     * keys. Every way either computes every coefficient exactly, or adds the products of the pairs in the order of
+     * the terms of this, then of that, into an array or a table, so it gives exactly the same polynomial.
+     *
+     * @param that a polynomial
+     * @return the product of this and that
+     * @throws ArithmeticException if an exponent of the product is too large for an int
+     */
+    public Polynomial times(Polynomial that) {
+        if (coefficients.length == 0 || that.coefficients.length == 0) return ZERO;
+        int[] union = union(variables, that.variables);
+        int[] left = this.widen(union);
+        int[] right = that.widen(union);
+        int width = union.length;
+        long pairs = (long) coefficients.length * that.coefficients.length;
+        int expectedTerms = (int) Math.min(pairs, 4L * (coefficients.length + that.coefficients.length));
+        long[] places = places(left, right, width);
+        if (places == null || pairs < PACKING_THRESHOLD) {
+            // the keys would overflow, or packing the rows costs more than it saves: add up the exponent rows
+            Accumulator terms = new Accumulator(width, expectedTerms);
+            int[] row = new int[width];
+            for (int i = 0; i < coefficients.length; i++) {
+                for (int j = 0; j < that.coefficients.length; j++) {
+                    for (int v = 0; v < width; v++) {
+                        row[v] = left[i * width + v] + right[j * width + v];
+                    }
+                    terms.add(row, 0, coefficients[i] * that.coefficients[j]);
+                }
+            }
+            return terms.toPolynomial(union);
+        }
+        long[] leftKeys = pack(left, coefficients.length, width, places);
+        long[] rightKeys = pack(right, that.coefficients.length, width, places);
+        // the terms are sorted by descending degree, but the key of the first term need not be the largest
+        long leftLength = max(leftKeys) + 1;
+        long rightLength = max(rightKeys) + 1;
+        if (leftLength <= (long) DENSITY * coefficients.length
+            && rightLength <= (long) DENSITY * that.coefficients.length
+            && leftLength + rightLength - 1 <= MAXIMAL_DENSE_LENGTH) {
+            double[] leftDense = dense(leftKeys, coefficients, (int) leftLength);
+            double[] rightDense = dense(rightKeys, that.coefficients, (int) rightLength);
+            double[] product;
+            if (isExactlyMultipliable(leftDense, rightDense)) {
+                product = multiplyDense(leftDense, rightDense);
+            } else {
+                // rounded sums depend on their order, so add the pairs in the order of the terms, not of the keys
+                product = new double[(int) (leftLength + rightLength - 1)];
+                for (int i = 0; i < coefficients.length; i++) {
+                    for (int j = 0; j < that.coefficients.length; j++) {
+                        product[(int) (leftKeys[i] + rightKeys[j])] += coefficients[i] * that.coefficients[j];
+                    }
+                }
+            }
+            Accumulator terms = new Accumulator(width, expectedTerms);
+            int[] row = new int[width];
+            for (int key = 0; key < product.length; key++) {
+                if (product[key] != 0) {
+                    terms.add(unpack(key, places, row), 0, product[key]);
+                }
+            }
+            return terms.toPolynomial(union);
+        }
+        PackedAccumulator packed = new PackedAccumulator(expectedTerms);
+        for (int i = 0; i < coefficients.length; i++) {
+            for (int j = 0; j < that.coefficients.length; j++) {
+                packed.add(leftKeys[i] + rightKeys[j], coefficients[i] * that.coefficients[j]);
+            }
+        }
+        return packed.toPolynomial(union, places);
+    }
+
+    /**
+     * Choose the places of the variables in the keys of the exponent rows of a product: the largest exponent of a
+     * variable in the product is the sum of its largest exponents in the factors, so each variable gets a digit in
+     * a base one larger than that, and the first variable is the most significant.
+     * @param left the exponent rows of the terms of a factor, width columns each
+     * @param right the exponent rows of the terms of the other factor, width columns each
+     * @return for every variable the value of its digit in a key, or null if the largest key of the product does not
+     *         fit in a long
+     * @throws ArithmeticException if an exponent of the product is too large for an int
+     */
+    private static long[] places(int[] left, int[] right, int width) {
+        long[] places = new long[width];
+        long place = 1;
+        for (int v = width - 1; v >= 0; v--) {
+            int base = Math.addExact(Math.addExact(max(left, width, v), max(right, width, v)), 1);
+            places[v] = place;
+            if (place > Long.MAX_VALUE / base) {
+                return null;
+            }
+            place *= base;
+        }
+        return places;
+    }
+
+    /**
+     * @return the largest exponent in column v of the exponent rows
+     */
+    private static int max(int[] exponents, int width, int v) {
+        int max = 0;
+        for (int t = v; t < exponents.length; t += width) {
+            max = Math.max(max, exponents[t]);
+        }
+        return max;
+    }
+
+    private static long max(long[] keys) {
+        long max = 0;
+        for (long key : keys) {
+            max = Math.max(max, key);
+        }
+        return max;
+    }
+
+    /**
+     * @return the key of each of the exponent rows of terms terms, see places()
+     */
+    private static long[] pack(int[] exponents, int terms, int width, long[] places) {
+        long[] keys = new long[terms];
+        for (int t = 0; t < keys.length; t++) {
+            for (int v = 0; v < width; v++) {
+                keys[t] += exponents[t * width + v] * places[v];
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @param key the key of an exponent row, see places()
+     * @param row receives the exponent row, of length places.length
+     * @return row
+     */
+    private static int[] unpack(long key, long[] places, int[] row) {
+        for (int v = 0; v < places.length; v++) {
+            row[v] = (int) (key / places[v]);
+            key %= places[v];
+        }
+        return row;
+    }
+
+    /**
+     * @return the coefficients of the terms indexed by their keys, zero for the other keys below length
+     */
+    private static double[] dense(long[] keys, double[] coefficients, int length) {
+        double[] dense = new double[length];
+        for (int t = 0; t < keys.length; t++) {
+            dense[(int) keys[t]] = coefficients[t];
+        }
+        return dense;
+    }
+
+    /**
+     * @param left the non-negative coefficients of a polynomial in one variable, indexed by degree
+     * @param right the non-negative coefficients of another polynomial in one variable, indexed by degree
+     * @return the coefficients of their product, of length left.length + right.length - 1
+     */
+    static double[] multiplyDense(double[] left, double[] right) {
+        if (Math.min(left.length, right.length) <= KARATSUBA_THRESHOLD || !isExactlyMultipliable(left, right)) {
+            return multiplySchoolbook(left, 0, left.length, right, 0, right.length);
+        }
+        // cut the longer factor into blocks of the length of the shorter one, which Karatsuba's algorithm multiplies
+        double[] longer = left.length >= right.length ? left : right;
+        double[] shorter = longer == left ? right : left;
+        int n = shorter.length;
+        double[] product = new double[left.length + right.length - 1];
+        for (int from = 0; from < longer.length; from += n) {
+            double[] block = Arrays.copyOfRange(longer, from, from + n);
+            double[] blockProduct = karatsuba(block, 0, shorter, 0, n);
+            for (int k = 0; k < blockProduct.length && from + k < product.length; k++) {
+                product[from + k] += blockProduct[k];
+            }
+        }
+        return product;
+    }
+
+    /**
+     * Karatsuba's algorithm subtracts, so in general its rounding errors grow with the largest coefficients and may
+     * even leave products that should be zero nonzero. That does not happen if all coefficients are integers and
+     * every sum of products it forms is below 2^53, so that every double it computes is an exact integer.
+     * @return true iff left and right only have integer coefficients whose sums have a product below 2^53
+     */
+    private static boolean isExactlyMultipliable(double[] left, double[] right) {
+        return isIntegral(left) && isIntegral(right) && total(left) * total(right) < EXACT_INTEGER_LIMIT;
+    }
+
+    private static boolean isIntegral(double[] coefficients) {
+        for (double coefficient : coefficients) {
+            if (coefficient != Math.rint(coefficient)) return false;
+        }
+        return true;
+    }
+
+    private static double total(double[] coefficients) {
+        double sum = 0;
+        for (double coefficient : coefficients) {
+            sum += coefficient;
+        }
+        return sum;
+    }
+
+    /**
+     * Multiply two polynomials of equal length with Karatsuba's algorithm: with the halves x = x0 + x1*t and
+     * y = y0 + y1*t, x*y = x0*y0 + ((x0+x1)*(y0+y1) - x0*y0 - x1*y1)*t + x1*y1*t^2, three half products instead of
+     * four.
+     * @return the product of left[leftFrom .. leftFrom + n) and right[rightFrom .. rightFrom + n), of length 2n - 1
+     */
+    private static double[] karatsuba(double[] left, int leftFrom, double[] right, int rightFrom, int n) {
+        if (n <= KARATSUBA_THRESHOLD) {
+            return multiplySchoolbook(left, leftFrom, n, right, rightFrom, n);
+        }
+        int low = n / 2;
+        int high = n - low;
+        double[] lows = karatsuba(left, leftFrom, right, rightFrom, low);
+        double[] highs = karatsuba(left, leftFrom + low, right, rightFrom + low, high);
+        double[] leftSum = Arrays.copyOfRange(left, leftFrom + low, leftFrom + n);
+        double[] rightSum = Arrays.copyOfRange(right, rightFrom + low, rightFrom + n);
+        for (int i = 0; i < low; i++) {
+            leftSum[i] += left[leftFrom + i];
+            rightSum[i] += right[rightFrom + i];
+        }
+        double[] middles = karatsuba(leftSum, 0, rightSum, 0, high);
+        double[] product = new double[2 * n - 1];
+        for (int k = 0; k < lows.length; k++) {
+            product[k] += lows[k];
+            middles[k] -= lows[k];
+        }
+        for (int k = 0; k < highs.length; k++) {
+            product[2 * low + k] += highs[k];
+            middles[k] -= highs[k];
+        }
+        for (int k = 0; k < middles.length; k++) {
+            product[low + k] += middles[k];
+        }
+        return product;
+    }
+
+    /**
+     * @return the product of left[leftFrom .. leftFrom + leftLength) and right[rightFrom .. rightFrom + rightLength),
+     *         of length leftLength + rightLength - 1, adding the products of the pairs in the order of the pairs
+     */
+    private static double[] multiplySchoolbook(double[] left, int leftFrom, int leftLength,
+                                               double[] right, int rightFrom, int rightLength) {
+        double[] product = new double[leftLength + rightLength - 1];
+        for (int i = 0; i < leftLength; i++) {
+            double coefficient = left[leftFrom + i];
+            if (coefficient == 0) continue;
+            for (int j = 0; j < rightLength; j++) {
+                product[i + j] += coefficient * right[rightFrom + j];
+            }
+        }
+        return product;
+    }
+
+    /**
+     * @param exponent a non-negative number
+     * @return this polynomial raised to the power exponent, computed by repeated squaring
+     * @throws IllegalArgumentException if exponent is negative
+     * @throws ArithmeticException if an exponent of the result is too large for an int
+     */
+    public Polynomial power(int exponent) {
+        if (exponent < 0) {
+            throw new IllegalArgumentException("Exponent must be non-negative, not " + exponent);
+        }
+        if (coefficients.length == 1 && exponent > 0) {
+            // a single term, e.g. the x^k of every term of a long sum: multiply its exponents, and raise its
+            // coefficient by the same repeated squaring
+            double coefficient = Power.raise(coefficients[0], exponent);
+            if (coefficient == Double.POSITIVE_INFINITY) {
+                throw new IllegalArgumentException("A coefficient is too large");
+            }
+            if (coefficient == 0) {
+                return ZERO;
+            }
+            int[] powers = new int[exponents.length];
+            for (int v = 0; v < exponents.length; v++) {
+                powers[v] = Math.multiplyExact(exponents[v], exponent);
+            }
+            return new Polynomial(variables, powers, new double[] {coefficient});
+        }
+        Polynomial result = constant(1);
+        Polynomial square = this;
+        for (int n = exponent; n > 0; n >>= 1) {
+            if ((n & 1) != 0) {
+                result = result.times(square);
+            }
+            if (n > 1) {
+                square = square.times(square);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param name a variable
+     * @return the derivative of this polynomial with respect to name
+     */
+    public Polynomial differentiate(String name) {
+        int column = indexOf(VariableDictionary.id(name));
+        if (column < 0) {
+            return ZERO;
+        }
+        int width = variables.length;
+        Accumulator terms = new Accumulator(width, coefficients.length);
+        int[] row = new int[width];
+        for (int t = 0; t < coefficients.length; t++) {
+            int exponent = exponents[t * width + column];
+            if (exponent > 0) {
+                System.arraycopy(exponents, t * width, row, 0, width);
+                row[column] = exponent - 1;
+                terms.add(row, 0, coefficients[t] * exponent);
+            }
+        }
+        return terms.toPolynomial(variables);
+    }
+
+    /**
+     * @param environment maps variables to non-negative values
+     * @return this polynomial with every variable in environment substituted by its value
+     */
+    public Polynomial substitute(Map<String, Double> environment) {
+        int width = variables.length;
+        double[] values = new double[width];
+        boolean[] bound = new boolean[width];
+        boolean any = false;
+        for (int v = 0; v < width; v++) {
+            Double value = environment.get(VariableDictionary.name(variables[v]));
+            if (value != null) {
+                values[v] = value;
+                bound[v] = true;
+                any = true;
+            }
+        }
+        if (!any) {
+            return this;
+        }
+        Accumulator terms = new Accumulator(width, coefficients.length);
+        int[] row = new int[width];
+        for (int t = 0; t < coefficients.length; t++) {
+            double coefficient = coefficients[t];
+            for (int v = 0; v < width; v++) {
+                int exponent = exponents[t * width + v];
+                if (bound[v]) {
+                    for (int k = 0; k < exponent; k++) {
+                        coefficient *= values[v];
+                    }
+                    row[v] = 0;
+                } else {
+                    row[v] = exponent;
+                }
+            }
+            terms.add(row, 0, coefficient);
+        }
+        return terms.toPolynomial(variables);
+    }
+
+    /**
+     * @return an expression equal to this polynomial: the sum of its terms in canonical order, grouped to the left,
+     *         where every term is the product of its coefficient (unless it is 1) and its variables, each raised to
+     *         its exponent (unless it is 1)
+     */
+    public Expression toExpression() {
+        if (coefficients.length == 0) {
+            return ExpressionInterner.constant(0);
+        }
+        Expression result = null;
+        for (int t = 0; t < coefficients.length; t++) {
+            Expression term = term(t);
+            result = result == null ? term : sum(result, term);
+        }
+        return result;
+    }
+
+    private Expression term(int t) {
+        Expression term = coefficients[t] == 1 ? null : ExpressionInterner.constant(coefficients[t]);
+        for (int v = 0; v < variables.length; v++) {
+            int exponent = exponents[t * variables.length + v];
+            if (exponent == 0) {
+                continue;
+            }
+            Expression factor = ExpressionInterner.variable(VariableDictionary.name(variables[v]));
+            if (exponent > 1) {
+                factor = ExpressionInterner.power(factor, exponent);
+            }
+            term = term == null ? factor : product(term, factor);
+        }
+        return term == null ? ExpressionInterner.constant(1) : term;
+    }
+
+    /**
+     * Add the terms of this polynomial to terms, whose exponent rows have a column for every variable of union.
+     * @param row scratch space of length union.length
+     */
+    private void addTo(Accumulator terms, int[] union, int[] row) {
+        int[] columns = columns(union);
+        for (int t = 0; t < coefficients.length; t++) {
+            Arrays.fill(row, 0);
+            for (int v = 0; v < variables.length; v++) {
+                row[columns[v]] = exponents[t * variables.length + v];
+            }
+            terms.add(row, 0, coefficients[t]);
+        }
+    }
+
+    /**
+     * @param union a superset of the variables of this polynomial, sorted by name
+     * @return the exponents of this polynomial with a column for every variable of union
+     */
+    private int[] widen(int[] union) {
+        if (union.length == variables.length) {
+            return exponents;
+        }
+        int[] columns = columns(union);
+        int[] widened = new int[coefficients.length * union.length];
+        for (int t = 0; t < coefficients.length; t++) {
+            for (int v = 0; v < variables.length; v++) {
+                widened[t * union.length + columns[v]] = exponents[t * variables.length + v];
+            }
+        }
+        return widened;
+    }
+
+    /**
+     * @return for every variable of this polynomial its index in union
+     */
+    private int[] columns(int[] union) {
+        int[] columns = new int[variables.length];
+        int u = 0;
+        for (int v = 0; v < variables.length; v++) {
+            while (union[u] != variables[v]) u++;
+            columns[v] = u;
+        }
+        return columns;
+    }
+
+    private int indexOf(int variable) {
+        for (int v = 0; v < variables.length; v++) {
+            if (variables[v] == variable) return v;
+        }
+        return -1;
+    }
+
+    /**
+     * @param left variable ids sorted by name
+     * @param right variable ids sorted by name
+     * @return the union of left and right, sorted by name
+     */
+    private static int[] union(int[] left, int[] right) {
+        if (Arrays.equals(left, right)) return left;
+        int[] union = new int[left.length + right.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < left.length || j < right.length) {
+            int comparison = i == left.length ? 1 : j == right.length ? -1 : compareVariables(left[i], right[j]);
+            if (comparison <= 0) {
+                union[size++] = left[i++];
+                if (comparison == 0) j++;
+            } else {
+                union[size++] = right[j++];
+            }
+        }
+        return Arrays.copyOf(union, size);
+    }
+
+    private static int compareVariables(int left, int right) {
+        return left == right ? 0 : VariableDictionary.name(left).compareTo(VariableDictionary.name(right));
+    }
+
+    private static int degree(int[] exponents, int width, int term) {
+        int degree = 0;
+        for (int v = 0; v < width; v++) {
+            degree += exponents[term * width + v];
+        }
+        return degree;
+    }
+
+    /**
+     * The canonical order of terms: higher total degree first, then higher exponents of earlier variables first,
+     * e.g. x*x*y, x*y*y, x*x, x*y, y, 1 for the variables x and y.
+     * @return a negative number, zero or a positive number if term s comes before, equals or comes after term t
+     */
+    private static int compareTerms(int[] exponents, int width, int s, int t) {
+        int difference = degree(exponents, width, t) - degree(exponents, width, s);
+        if (difference != 0) return difference;
+        for (int v = 0; v < width; v++) {
+            difference = exponents[t * width + v] - exponents[s * width + v];
+            if (difference != 0) return difference;
+        }
+        return 0;
+    }
+
+    /**
+     * @return a parsable representation of this polynomial: its terms in canonical order, joined by +, e.g.
+     *         2*x*x*y+x+0.5 (without the parentheses toExpression().toString() puts around every sum)
+     */
+    @Override
+    public String toString() {
+        if (coefficients.length == 0) {
+            return "0";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int t = 0; t < coefficients.length; t++) {
+            if (t > 0) builder.append('+');
+            builder.append(term(t));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param obj any object
+     * @return true iff obj is a Polynomial with the same terms and exactly the same coefficients
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof Polynomial)) return false;
+        Polynomial that = (Polynomial) obj;
+        return hash == that.hash && Arrays.equals(variables, that.variables)
+               && Arrays.equals(exponents, that.exponents) && Arrays.equals(coefficients, that.coefficients);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Sums terms with equal exponent rows, in an open-addressing hash table of term indices.
+     * The terms are kept in the order they were first added, so the result does not depend on hash values.
+     */
+    private static class Accumulator {
+        private final int width;
+        private int[] exponents;
+        private double[] coefficients;
+        private int[] table;
+        private int size = 0;
+
+        // Abstraction
+        //      the sum of terms t < size with coefficient coefficients[t] and exponent row t of exponents
+        // Rep invariant
+        //      table.length is a power of two larger than 2 * size, every term t < size is in the table at the
+        //      first free slot probing linearly from the hash of its row (stored as t + 1, 0 meaning free),
+        //      or table is null if the terms were given as distinct and nothing is added;
+        //      the exponent rows of the terms are distinct
+        // Safety from rep exposure
+        //      all fields are private and the class is only used within Polynomial
+
+        /**
+         * Make an accumulator of terms whose exponent rows are already distinct, which only converts them with
+         * toPolynomial(); requires that add() is not called.
+         * @param exponents the exponent rows of the terms, width columns each; taken over, not copied
+         * @param coefficients the coefficients of the terms; taken over, not copied
+         */
+        Accumulator(int width, int[] exponents, double[] coefficients, int size) {
+            this.width = width;
+            this.exponents = exponents;
+            this.coefficients = coefficients;
+            this.table = null;
+            this.size = size;
+        }
+
+        Accumulator(int width, int expectedTerms) {
+            this.width = width;
+            int capacity = Math.max(4, Integer.highestOneBit(Math.max(1, expectedTerms)) * 4);
+            this.table = new int[capacity];
+            this.exponents = new int[Math.max(1, expectedTerms) * width];
+            this.coefficients = new double[Math.max(1, expectedTerms)];
+        }
+
+        /**
+         * Add coefficient times the monomial with the exponent row row[offset .. offset + width).
+         */
+        void add(int[] row, int offset, double coefficient) {
+            assert table != null;
+            int mask = table.length - 1;
+            int slot = hash(row, offset) & mask;
+            while (table[slot] != 0) {
+                int term = table[slot] - 1;
+                if (rowEquals(term, row, offset)) {
+                    coefficients[term] += coefficient;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size == coefficients.length) {
+                coefficients = Arrays.copyOf(coefficients, 2 * size);
+                exponents = Arrays.copyOf(exponents, 2 * size * width);
+            }
+            System.arraycopy(row, offset, exponents, size * width, width);
+            coefficients[size] = coefficient;
+            table[slot] = ++size;
+            if (2 * size >= table.length) {
+                rehash();
+            }
+        }
+
+        private int hash(int[] row, int offset) {
+            int hash = 0;
+            for (int v = 0; v < width; v++) {
+                hash = 31 * hash + row[offset + v];
+            }
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+
+        private boolean rowEquals(int term, int[] row, int offset) {
+            for (int v = 0; v < width; v++) {
+                if (exponents[term * width + v] != row[offset + v]) return false;
+            }
+            return true;
+        }
+
+        private void rehash() {
+            table = new int[2 * table.length];
+            int mask = table.length - 1;
+            for (int term = 0; term < size; term++) {
+                int slot = hash(exponents, term * width) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = term + 1;
+            }
+        }
+
+        /**
+         * @param variables the variables of the columns of the exponent rows, sorted by name
+         * @return the canonical polynomial of the accumulated terms, without zero coefficients and without variables
+         *         whose exponent is zero in every remaining term
+         */
+        Polynomial toPolynomial(int[] variables) {
+            int[] order = new int[size];
+            int terms = 0;
+            boolean[] used = new boolean[width];
+            for (int t = 0; t < size; t++) {
+                if (coefficients[t] == Double.POSITIVE_INFINITY) {
+                    throw new IllegalArgumentException("A coefficient is too large");
+                }
+                if (coefficients[t] != 0) {
+                    order[terms++] = t;
+                    for (int v = 0; v < width; v++) {
+                        used[v] |= exponents[t * width + v] != 0;
+                    }
+                }
+            }
+            if (terms == 0) {
+                return ZERO;
+            }
+            int newWidth = 0;
+            for (boolean isUsed : used) {
+                if (isUsed) newWidth++;
+            }
+            int[] newVariables = new int[newWidth];
+            for (int v = 0, w = 0; v < width; v++) {
+                if (used[v]) newVariables[w++] = variables[v];
+            }
+            order = sort(Arrays.copyOf(order, terms));
+            int[] newExponents = new int[terms * newWidth];
+            double[] newCoefficients = new double[terms];
+            for (int t = 0; t < terms; t++) {
+                newCoefficients[t] = coefficients[order[t]];
+                for (int v = 0, w = 0; v < width; v++) {
+                    if (used[v]) newExponents[t * newWidth + w++] = exponents[order[t] * width + v];
+                }
+            }
+            return new Polynomial(newVariables, newExponents, newCoefficients);
+        }
+
+        /**
+         * @return the terms sorted by compareTerms, with a merge sort on the primitive term indices
+         */
+        private int[] sort(int[] terms) {
+            int[] buffer = new int[terms.length];
+            for (int run = 1; run < terms.length; run *= 2) {
+                for (int from = 0; from < terms.length; from += 2 * run) {
+                    int middle = Math.min(from + run, terms.length);
+                    int to = Math.min(from + 2 * run, terms.length);
+                    int i = from;
+                    int j = middle;
+                    for (int k = from; k < to; k++) {
+                        if (j >= to || (i < middle && compareTerms(exponents, width, terms[i], terms[j]) <= 0)) {
+                            buffer[k] = terms[i++];
+                        } else {
+                            buffer[k] = terms[j++];
+                        }
+                    }
+                }
+                int[] swap = terms;
+                terms = buffer;
+                buffer = swap;
+            }
+            return terms;
+        }
+    }
+
+    /**
+     * Sums terms with equal keys of their exponent rows (see places()) like Accumulator, but compares and hashes a
+     * single long per term instead of its row.
+     */
+    private static class PackedAccumulator {
+        private long[] keys;
+        private double[] coefficients;
+        private int[] table;
+        private int size = 0;
+
+        // Abstraction
+        //      the sum of terms t < size with coefficient coefficients[t] and the exponent row with key keys[t]
+        // Rep invariant
+        //      table.length is a power of two larger than 2 * size, every term t < size is in the table at the
+        //      first free slot probing linearly from the hash of its key (stored as t + 1, 0 meaning free),
+        //      the keys of the terms are distinct
+        // Safety from rep exposure
+        //      all fields are private and the class is only used within Polynomial
+
+        PackedAccumulator(int expectedTerms) {
+            int capacity = Math.max(4, Integer.highestOneBit(Math.max(1, expectedTerms)) * 4);
+            this.table = new int[capacity];
+            this.keys = new long[Math.max(1, expectedTerms)];
+            this.coefficients = new double[Math.max(1, expectedTerms)];
+        }
+
+        /**
+         * Add coefficient times the monomial with the exponent row whose key is key.
+         */
+        void add(long key, double coefficient) {
+            int mask = table.length - 1;
+            int slot = hash(key) & mask;
+            while (table[slot] != 0) {
+                int term = table[slot] - 1;
+                if (keys[term] == key) {
+                    coefficients[term] += coefficient;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size == coefficients.length) {
+                coefficients = Arrays.copyOf(coefficients, 2 * size);
+                keys = Arrays.copyOf(keys, 2 * size);
+            }
+            keys[size] = key;
+            coefficients[size] = coefficient;
+            table[slot] = ++size;
+            if (2 * size >= table.length) {
+                rehash();
+            }
+        }
+
+        private static int hash(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+        private void rehash() {
+            table = new int[2 * table.length];
+            int mask = table.length - 1;
+            for (int term = 0; term < size; term++) {
+                int slot = hash(keys[term]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = term + 1;
+            }
+        }
+
+        /**
+         * @param variables the variables of the digits of the keys, sorted by name
+         * @param places the value of the digit of every variable, see places()
+         * @return the canonical polynomial of the accumulated terms, see Accumulator.toPolynomial()
+         */
+        Polynomial toPolynomial(int[] variables, long[] places) {
+            // the keys are distinct, so are the rows
+            int width = variables.length;
+            int[] exponents = new int[size * width];
+            int[] row = new int[width];
+            for (int t = 0; t < size; t++) {
+                System.arraycopy(unpack(keys[t], places, row), 0, exponents, t * width, width);
+            }
+            return new Accumulator(width, exponents, coefficients, size).toPolynomial(variables);
+        }
+    }
+}
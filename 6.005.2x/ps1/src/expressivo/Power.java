@@ -0,0 +1,263 @@
+package expressivo;
+
+import java.util.Map;
+
+import static expressivo.ExpressionInterner.constant;
+import static expressivo.ExpressionInterner.power;
+import static expressivo.ExpressionInterner.variable;
+
+public class Power implements Expression {
+
+    // Rep: A power is represented by its base expression and its non-negative integer exponent
+    private final Expression base;
+    private final int exponent;
+    private final int hash;
+    private final boolean interned;
+    // memoized results, see Memoization
+    private volatile Expression simplified;
+    private volatile Memoization.Derivatives derivatives;
+
+    // Abstraction
+    //      Represents base multiplied with itself exponent times, namely base ^ exponent, where x ^ 0 is 1
+    // Rep invariant
+    //      exponent >= 0; hash is the hash of base and exponent, which is computed once since both are immutable;
+    //      if interned then base is interned and this is the power of ExpressionInterner of base and exponent;
+    //      simplified is null or the result of simplifying this, derivatives only maps a variable to the derivative of
+    //      this with respect to that variable
+    // Safety from rep exposure
+    //      the fields are final and private, or volatile and private and only hold immutable expressions
+    // Thread safety
+    //      the memoized results are immutable and published through volatile fields; two threads may compute the same
+    //      result at the same time, but then both store equal results
+
+    /**
+     * Constructor for a power of an expression
+     * @param base the expression that is raised to the power
+     * @param exponent the number of times base is multiplied with itself, non-negative
+     * @throws IllegalArgumentException if exponent is negative
+     */
+    public Power(Expression base, int exponent) {
+        this(base, exponent, false);
+    }
+
+    /**
+     * @param base the expression that is raised to the power
+     * @param exponent the number of times base is multiplied with itself, non-negative
+     * @param interned true iff this power is created by ExpressionInterner, which requires base interned
+     * @throws IllegalArgumentException if exponent is negative
+     */
+    Power(Expression base, int exponent, boolean interned) {
+        if (exponent < 0) {
+            throw new IllegalArgumentException("Exponent must be non-negative, not " + exponent);
+        }
+        this.base = base;
+        this.exponent = exponent;
+        int result = 3;
+        result = 37 * result + base.hashCode();
+        this.hash = 37 * result + exponent;
+        this.interned = interned;
+    }
+
+    /**
+     * @return the base of this
+     */
+    public Expression getBase() {
+        return base;
+    }
+
+    /**
+     * @return the exponent of this, non-negative
+     */
+    public int getExponent() {
+        return exponent;
+    }
+
+    /**
+     * @return true iff this power was created by ExpressionInterner
+     */
+    boolean isInterned() {
+        return interned;
+    }
+
+    /**
+     * Take the derivative of a power, this implements the power rule combined with the chain rule, i.e.
+     * d(u^n)/dx = n * u^(n-1) * du/dx. The derivative of u^n thus has the size of u and du/dx, instead of the n
+     * terms the Leibniz rule gives for the product of n factors u.
+     * @param x the variable with respect to which we take the derivative
+     * @return the derivative of the expression
+     */
+    public Expression differentiate(Variable x) {
+        Expression derivative = Memoization.Derivatives.find(derivatives, x.getVariable());
+        if (derivative != null) {
+            Memoization.derivativeHit();
+            return derivative;
+        }
+        // the base is differentiated bottom-up with an explicit stack, see ExpressionTraversal
+        return ExpressionTraversal.differentiate(this, x.getVariable());
+    }
+
+    /**
+     * @param variable a variable
+     * @return the memoized derivative of this with respect to variable, or null if it was not computed yet;
+     *         counts a hit or a miss
+     */
+    Expression memoizedDerivative(String variable) {
+        Expression derivative = Memoization.Derivatives.find(derivatives, variable);
+        if (derivative != null) {
+            Memoization.derivativeHit();
+        } else {
+            Memoization.derivativeMiss();
+        }
+        return derivative;
+    }
+
+    /**
+     * Compute and memoize the derivative of this from the derivative of its base.
+     * @param variable the variable to differentiate by
+     * @param baseDerivative the derivative of the base with respect to variable
+     * @return the derivative of this with respect to variable
+     */
+    Expression differentiate(String variable, Expression baseDerivative) {
+        // the derivative of the base and the simplified base are simplified already, so only the rules for the new
+        // nodes are applied
+        Expression derivative = exponent == 0 ? constant(0)
+            : Product.simplifyProduct(Product.simplifyProduct(constant(exponent),
+                                                              simplifyPower(base.simplify(), exponent - 1)),
+                                      baseDerivative);
+        derivatives = Memoization.Derivatives.with(derivatives, variable, derivative);
+        return derivative;
+    }
+
+    @Override
+    public Expression differentiate(String stringVariable) {
+        return differentiate(variable(stringVariable));
+    }
+
+    /**
+     * Given a power this method simplifies it, i.e. the powers 0 and 1 are replaced by 1 and the base, a power of a
+     * constant is computed, and a power of a power is replaced by one power with the product of the exponents
+     * @return a simplified expression
+     */
+    @Override
+    public Expression simplify() {
+        Expression memo = simplified;
+        if (memo != null) {
+            Memoization.simplifyHit();
+            return memo;
+        }
+        // the base is simplified bottom-up with an explicit stack, see ExpressionTraversal
+        return ExpressionTraversal.simplify(this);
+    }
+
+    /**
+     * @return the memoized simplified form of this, or null if it was not computed yet; counts a hit or a miss
+     */
+    Expression memoizedSimplify() {
+        Expression memo = simplified;
+        if (memo != null) {
+            Memoization.simplifyHit();
+        } else {
+            Memoization.simplifyMiss();
+        }
+        return memo;
+    }
+
+    /**
+     * Compute and memoize the simplified form of this from the simplified form of its base.
+     * @param base the base simplified
+     * @return this simplified
+     */
+    Expression simplify(Expression base) {
+        Expression memo = simplifyPower(base, exponent);
+        simplified = memo;
+        return memo;
+    }
+
+    /**
+     * Simplify the power of an expression that is simplified already, so only the rules for this power itself are
+     * applied and base is not simplified again. See simplify() for the rules.
+     * @param base a simplified expression
+     * @param exponent a non-negative number
+     * @return a simplified expression equal to base ^ exponent
+     */
+    static Expression simplifyPower(Expression base, int exponent) {
+        if (exponent == 0) {
+            return constant(1);
+        } else if (exponent == 1) {
+            return base;
+        } else if (base instanceof Constant) {
+            return constant(raise(((Constant) base).getValue(), exponent));
+        } else if (base instanceof Power) {
+            Power power = (Power) base;
+            long product = (long) power.getExponent() * exponent;
+            if (product <= Integer.MAX_VALUE) {
+                return simplifyPower(power.getBase(), (int) product);
+            }
+        }
+        return power(base, exponent);
+    }
+
+    /**
+     * The value of a power, computed by repeated squaring; every numeric evaluator of expressions uses this, so they
+     * all compute the same value for the same power. It is public since the classes generated by BytecodeCompiler
+     * are loaded by their own class loader, so they are not in the runtime package of this class.
+     * @param base any number
+     * @param exponent a non-negative number
+     * @return base ^ exponent
+     */
+    public static double raise(double base, int exponent) {
+        double result = 1;
+        double square = base;
+        for (int n = exponent; n > 0; n >>= 1) {
+            if ((n & 1) != 0) {
+                result *= square;
+            }
+            square *= square;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isConstant() {
+        return false;
+    }
+
+    @Override
+    public boolean isVariable() {
+        return false;
+    }
+
+    @Override
+    public boolean isProduct() {
+        return false;
+    }
+
+    /**
+     * Evaluate the base of the power in the points specified by the environment and then simplify the expression
+     * @param environment contains variables as keys and constants as values, all the variables are substituted for
+     *                    the corresponding constants. All keys are required to be non-negative
+     * @return a simplified power of the base evaluated according to the environment
+     */
+    @Override
+    public Expression simplify(Map<String, Double> environment) {
+        return ExpressionTraversal.simplify(this, environment);
+    }
+
+    @Override
+    public String toString() {
+        return ExpressionPrinter.toString(this);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof Power)) return false;
+        // compares the bases pair by pair with an explicit stack, see ExpressionTraversal
+        return ExpressionTraversal.equal(this, (Power) obj);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
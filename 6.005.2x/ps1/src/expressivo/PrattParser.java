@@ -0,0 +1,237 @@
+package expressivo;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A hand-written precedence-climbing parser for the language of Expression.g. It reads tokens from an
+ * ExpressionLexer and builds the (interned) Sum, Product, Power, Constant and Variable nodes directly, without building
+ * a concrete syntax tree first. The resulting AST equals the one Expression.buildAST() builds from the parse tree of
+ * the grammar: sums and products are grouped to the left and every sum, product and power is simplified. The nesting
+ * of the input is only limited by the heap, since the open chains of operands are kept on an explicit stack.
+ * The input is read in a single pass, so it can also be streamed from a Reader, see parse(Reader).
+ * This class is mutable and not threadsafe; use one parser per input, or the static parse() method.
+ */
+class PrattParser {
+
+    /** Binding strength of the binary operators, a higher precedence binds stronger */
+    private static final int NO_PRECEDENCE = 0;
+    private static final int SUM_PRECEDENCE = 1;
+    private static final int PRODUCT_PRECEDENCE = 2;
+    private static final int HIGHEST_PRECEDENCE = PRODUCT_PRECEDENCE;
+
+    // rep
+    private final ExpressionLexer lexer;
+
+    // Abstraction
+    //      A parser for the input of lexer that has consumed the tokens before the current token of lexer
+    // Rep invariant
+    //      true
+    // Safety from rep exposure
+    //      all fields are private final and never returned
+
+    private PrattParser(ExpressionLexer lexer) {
+        this.lexer = lexer;
+    }
+
+    /**
+     * Parse an expression.
+     *
+     * @param input expression to parse, as defined in Expression.parse()
+     * @return expression AST for the input
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    static Expression parse(CharSequence input) {
+        try {
+            return parse(new ExpressionLexer(input));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cannot parse the expression: " + input, e);
+        }
+    }
+
+    /**
+     * Parse an expression read from reader, which is read to its end but not closed. Only a window of the input and
+     * the AST are held in memory, so the input may be much larger than its AST, e.g. a sum with many equal terms.
+     *
+     * @param reader the expression to parse, as defined in Expression.parse()
+     * @return expression AST for the input
+     * @throws IllegalArgumentException if the expression is invalid
+     * @throws IOException if reading from reader fails
+     */
+    static Expression parse(Reader reader) throws IOException {
+        try {
+            return parse(new ExpressionLexer(reader));
+        } catch (IllegalArgumentException e) {
+            // the input is not kept, so the message of the cause, with the position of the error, has to do
+            throw new IllegalArgumentException("Cannot parse the expression: " + e.getMessage(), e);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Parse the whole input of a lexer, without wrapping errors in a message that repeats the input, e.g. for inputs
+     * that are too large to repeat.
+     *
+     * @param lexer a lexer positioned on the first token of an expression as defined in Expression.parse()
+     * @return expression AST for the rest of the input of lexer
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    static Expression parse(ExpressionLexer lexer) {
+        PrattParser parser = new PrattParser(lexer);
+        Expression expression = parser.parseSum();
+        parser.expect(ExpressionLexer.END);
+        return expression;
+    }
+
+    /**
+     * Parse a sum. The chains of operands that are still open, e.g. a+b+c for SUM_PRECEDENCE, are kept on an explicit
+     * stack instead of recursing into each operand, so deeply nested parentheses do not overflow the thread stack.
+     * An operand of a chain is a chain at the next higher precedence, or a primary at the highest precedence.
+     * @return the operands of every chain grouped to the left and simplified, like Expression.buildAST() does
+     */
+    private Expression parseSum() {
+        Deque<Chain> chains = new ArrayDeque<>();
+        chains.push(new Chain(SUM_PRECEDENCE, false));
+        while (true) {
+            // open the chains of the next operand down to the highest precedence
+            while (chains.peek().precedence < HIGHEST_PRECEDENCE) {
+                chains.push(new Chain(chains.peek().precedence + 1, false));
+            }
+            if (lexer.kind() == ExpressionLexer.LEFT_PARENTHESIS) {
+                lexer.next();
+                chains.push(new Chain(SUM_PRECEDENCE, true));
+                continue;
+            }
+            Expression operand = parseExponent(parsePrimary());
+            // add the operand to its chain; a chain that does not continue is finished, and is an operand itself
+            while (true) {
+                Chain chain = chains.peek();
+                chain.add(operand);
+                if (precedenceOf(lexer.kind()) == chain.precedence) {
+                    lexer.next();
+                    break;
+                }
+                chains.pop();
+                // like buildAST(), also simplify a single operand: simplify() is not idempotent, e.g. (x+x+x) is x*3
+                // after simplifying once and 3*x after simplifying again. Simplifying an operand again is memoized,
+                // so it is cheap.
+                operand = chain.result.simplify();
+                if (chain.parenthesized) {
+                    expect(ExpressionLexer.RIGHT_PARENTHESIS);
+                    operand = parseExponent(operand);
+                }
+                if (chains.isEmpty()) {
+                    return operand;
+                }
+            }
+        }
+    }
+
+    /**
+     * A chain of operands joined by the operator of one precedence, which is still being parsed.
+     */
+    private static class Chain {
+        private final int precedence;
+        private final boolean parenthesized;
+        private Expression result = null;
+
+        /**
+         * @param precedence the precedence of the operator joining the chain
+         * @param parenthesized true iff the chain is enclosed in parentheses
+         */
+        Chain(int precedence, boolean parenthesized) {
+            this.precedence = precedence;
+            this.parenthesized = parenthesized;
+        }
+
+        /**
+         * @param operand the next operand of the chain, grouped to the left with the operands before it
+         */
+        void add(Expression operand) {
+            if (result == null) {
+                result = operand;
+            } else {
+                result = precedence == SUM_PRECEDENCE ? ExpressionInterner.sum(result, operand)
+                                                      : ExpressionInterner.product(result, operand);
+            }
+        }
+    }
+
+    /**
+     * Parse a constant or a variable.
+     * @return the AST of the primary
+     */
+    private Expression parsePrimary() {
+        final Expression primary;
+        switch (lexer.kind()) {
+            case ExpressionLexer.NUMBER:
+                primary = ExpressionInterner.constant(lexer.numberValue());
+                break;
+            case ExpressionLexer.VARIABLE:
+                primary = ExpressionInterner.variable(lexer.text());
+                break;
+            default:
+                throw unexpectedToken();
+        }
+        lexer.next();
+        return primary;
+    }
+
+    /**
+     * Parse the exponent that may follow a primary or a parenthesized sum, which binds stronger than any binary
+     * operator.
+     * @param base the AST of the primary or parenthesized sum
+     * @return the power of base if an exponent "^n" follows, or else base
+     */
+    private Expression parseExponent(Expression base) {
+        if (lexer.kind() != ExpressionLexer.CARET) {
+            return base;
+        }
+        lexer.next();
+        if (lexer.kind() != ExpressionLexer.NUMBER) {
+            throw unexpectedToken();
+        }
+        int exponent = lexer.integerValue();
+        lexer.next();
+        return ExpressionInterner.power(base, exponent);
+    }
+
+    /**
+     * Consume the current token, which has to be of the given kind.
+     * @param kind the kind of token that is expected
+     */
+    private void expect(int kind) {
+        if (lexer.kind() != kind) {
+            throw unexpectedToken();
+        }
+        if (kind != ExpressionLexer.END) {
+            lexer.next();
+        }
+    }
+
+    private IllegalArgumentException unexpectedToken() {
+        if (lexer.kind() == ExpressionLexer.END) {
+            return new IllegalArgumentException("Unexpected end of input");
+        }
+        return new IllegalArgumentException("Unexpected '" + lexer.text() + "' at position " + lexer.start());
+    }
+
+    /**
+     * @param kind a token kind
+     * @return the precedence of the token if it is a binary operator, or NO_PRECEDENCE if it is not
+     */
+    private static int precedenceOf(int kind) {
+        switch (kind) {
+            case ExpressionLexer.PLUS:
+                return SUM_PRECEDENCE;
+            case ExpressionLexer.TIMES:
+                return PRODUCT_PRECEDENCE;
+            default:
+                return NO_PRECEDENCE;
+        }
+    }
+}
@@ -2,18 +2,32 @@ package expressivo;
 
 import java.util.Map;
 
+import static expressivo.ExpressionInterner.variable;
+
 public class Product implements Expression {
 
     // Rep: A product is represented by its lhs and rhs expressions
     private final Expression left;
     private final Expression right;
+    private final int hash;
+    private final boolean interned;
+    // memoized results, see Memoization
+    private volatile Expression simplified;
+    private volatile Memoization.Derivatives derivatives;
 
     // Abstraction
     //      Represents the product of two expressions, namely left * right
     // Rep invariant
-    //      none, since this is an non-terminal
+    //      hash is the hash of left and right, which is computed once since both are immutable;
+    //      if interned then left and right are interned and this is the product of ExpressionInterner of left and
+    //      right;
+    //      simplified is null or the result of simplifying this, derivatives only maps a variable to the derivative of
+    //      this with respect to that variable
     // Safety from rep exposure
     //      the fields are final and private
+    // Thread safety
+    //      the memoized results are immutable and published through volatile fields; two threads may compute the same
+    //      result at the same time, but then both store equal results
 
     /**
      * Constructor for the product of two expressions
@@ -21,8 +35,21 @@ public class Product implements Expression {
      * @param right the right-hand side of the product
      */
     public Product(Expression left, Expression right) {
+        this(left, right, false);
+    }
+
+    /**
+     * @param left the left-hand side of the product
+     * @param right the right-hand side of the product
+     * @param interned true iff this product is created by ExpressionInterner, which requires left and right interned
+     */
+    Product(Expression left, Expression right, boolean interned) {
         this.left = left;
         this.right = right;
+        int result = 2;
+        result = 37 * result + left.hashCode();
+        this.hash = 37 * result + right.hashCode();
+        this.interned = interned;
     }
 
     /**
@@ -39,54 +66,116 @@ public class Product implements Expression {
         return right;
     }
 
+    /**
+     * @return true iff this product was created by ExpressionInterner
+     */
+    boolean isInterned() {
+        return interned;
+    }
+
     /**
      * Take the derivative of a product, this implements the Leibniz rule, i.e. d(u*v)/dx = du/dx * v + u * dv/dx
      * @param x the variable with respect to which we take the derivative
      * @return the derivative of the expression
      */
     public Expression differentiate(Variable x) {
-        return (new Sum(new Product(left.differentiate(x.getVariable()), right),
-                        new Product(left, right.differentiate(x.getVariable())))).simplify();
+        Expression derivative = Memoization.Derivatives.find(derivatives, x.getVariable());
+        if (derivative != null) {
+            Memoization.derivativeHit();
+            return derivative;
+        }
+        // the operands are differentiated bottom-up with an explicit stack, see ExpressionTraversal
+        return ExpressionTraversal.differentiate(this, x.getVariable());
+    }
+
+    /**
+     * @param variable a variable
+     * @return the memoized derivative of this with respect to variable, or null if it was not computed yet;
+     *         counts a hit or a miss
+     */
+    Expression memoizedDerivative(String variable) {
+        Expression derivative = Memoization.Derivatives.find(derivatives, variable);
+        if (derivative != null) {
+            Memoization.derivativeHit();
+        } else {
+            Memoization.derivativeMiss();
+        }
+        return derivative;
+    }
+
+    /**
+     * Compute and memoize the derivative of this from the derivatives of its operands.
+     * @param variable the variable to differentiate by
+     * @param leftDerivative the derivative of the left operand with respect to variable
+     * @param rightDerivative the derivative of the right operand with respect to variable
+     * @return the derivative of this with respect to variable
+     */
+    Expression differentiate(String variable, Expression leftDerivative, Expression rightDerivative) {
+        // derivatives and simplified factors are simplified already, so only the rules for the new nodes are applied
+        Expression derivative = Sum.simplifySum(simplifyProduct(leftDerivative, right.simplify()),
+                                                simplifyProduct(left.simplify(), rightDerivative));
+        derivatives = Memoization.Derivatives.with(derivatives, variable, derivative);
+        return derivative;
     }
 
     @Override
     public Expression differentiate(String stringVariable) {
-        return differentiate(new Variable(stringVariable));
+        return differentiate(variable(stringVariable));
     }
 
     /**
      * Given a product of two expressions this method simplifies it, i.e. products with the number 0 are put to zero
      * and a product with the number 1 removes the * 1 or 1 * from the expression
      * Furthermore this orders the product such that all constants appear on the left of the variables.
-     * It also simplifies the product of constants to a single constant
+     * It also simplifies the product of constants to a single constant, and merges equal adjacent factors into a
+     * power, e.g. x*x becomes x^2 and x^2*x becomes x^3
      * @return a simplified expression
      */
     @Override
     public Expression simplify() {
-        final Expression zero = new Constant(0.0);
-        final Expression one = new Constant(1.0);
-        Expression left = this.left.simplify();
-        Expression right = this.right.simplify();
-
-        // 0 * x = x * 0 = 0
-        if (left.equals(zero) || right.equals(zero)) return new Constant(0.0);
-
-        Expression simplified;
-        // 1 * x = x
-        if (left.equals(one)) simplified = right;
-        // x * 1 = 1
-        else if (right.equals(one)) simplified = left;
-        // the product of two constants is a single constant
-        else if (right.isConstant() && left.isConstant()) {
-            return new Constant(((Constant) right).getValue() * ((Constant) left).getValue());
+        Expression memo = simplified;
+        if (memo != null) {
+            Memoization.simplifyHit();
+            return memo;
+        }
+        // the operands are simplified bottom-up with an explicit stack, see ExpressionTraversal
+        return ExpressionTraversal.simplify(this);
+    }
+
+    /**
+     * @return the memoized simplified form of this, or null if it was not computed yet; counts a hit or a miss
+     */
+    Expression memoizedSimplify() {
+        Expression memo = simplified;
+        if (memo != null) {
+            Memoization.simplifyHit();
+        } else {
+            Memoization.simplifyMiss();
         }
-        // order a product of an expression and number such that the number is on the left of the expression
-        // by the previous else if we know that the left term is not a constant (else this would give infinite loop)
-        else if (right.isConstant()) simplified = (new Product(right, left)).simplify();
-        // if none of the above cases apply return the product in which both left and right are simplified
-        else return new Product(left, right);
+        return memo;
+    }
 
-        return simplified.simplify();
+    /**
+     * Compute and memoize the simplified form of this from the simplified forms of its operands.
+     * @param left the left operand simplified
+     * @param right the right operand simplified
+     * @return this simplified
+     */
+    Expression simplify(Expression left, Expression right) {
+        Expression memo = simplifyProduct(left, right);
+        simplified = memo;
+        return memo;
+    }
+
+    /**
+     * Simplify the product of two expressions that are simplified already, so only the rules for this product itself
+     * are applied and left and right are not simplified again. See simplify() and SimplificationRules for the rules.
+     * @param left a simplified expression
+     * @param right a simplified expression
+     * @return a simplified expression equal to left * right
+     */
+    static Expression simplifyProduct(Expression left, Expression right) {
+        return SimplificationRules.engine().rewriteProduct(left, right);
     }
 
     @Override
@@ -116,26 +205,24 @@ public class Product implements Expression {
      */
     @Override
     public Expression simplify(Map<String, Double> environment) {
-        Expression left = this.left.simplify(environment);
-        Expression right = this.right.simplify(environment);
-        return (new Product(left, right)).simplify();
+        return ExpressionTraversal.simplify(this, environment);
     }
 
     @Override
     public String toString() {
-        return left.toString() + "*" + right.toString();
+        return ExpressionPrinter.toString(this);
     }
 
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) return true;
         if (!(obj instanceof Product)) return false;
-        return (left.equals(((Product) obj).getLeft()) && right.equals(((Product) obj).getRight()));
+        // compares the operands pair by pair with an explicit stack, see ExpressionTraversal
+        return ExpressionTraversal.equal(this, (Product) obj);
     }
 
     @Override
     public int hashCode() {
-        int result = 1;
-        result = 37 * result + left.hashCode();
-        return 37 * result + right.hashCode();
+        return hash;
     }
 }
@@ -0,0 +1,182 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites a sum or product of two simplified expressions with an ordered list of rules, see RewriteRule, until no
+ * rule applies any more (a fixed point) or a budget of steps is used up. The first rule in the list whose pattern
+ * matches fires, so the order of the rules is their priority.
+ *
+ * The rules are indexed by a flat table keyed by (operator, left kind, right kind): the operator of the node and the
+ * kinds of its two operands (constant, variable, sum, product, power) select, in constant time, the few rules whose
+ * patterns can match at all, so adding a rule for products of sums does not slow down the sums of variables. Only
+ * those candidates are matched.
+ * This class is threadsafe.
+ */
+public class RewriteEngine {
+
+    /** Expression kinds, the operand kinds of the keys of the index */
+    static final int CONSTANT = 0;
+    static final int VARIABLE = 1;
+    static final int SUM = 2;
+    static final int PRODUCT = 3;
+    static final int POWER = 4;
+    static final int OTHER = 5;
+    private static final int KINDS = 6;
+
+    /** Default maximal number of steps of one rewrite */
+    public static final int DEFAULT_STEP_BUDGET = 1 << 20;
+
+    // rep
+    private final List<RewriteRule> rules;
+    private final RewriteRule[][] index;
+    private final int stepBudget;
+
+    // Abstraction
+    //      the engine rewriting with rules, in order, for at most stepBudget steps per rewrite; index[key(sum, l, r)]
+    //      are the rules, in order, whose patterns may match a sum (or product if !sum) of operands of kinds l and r
+    // Rep invariant
+    //      stepBudget > 0; index[k] contains exactly the rules whose root operator and operand patterns accept the
+    //      operator and kinds of k, in the order of rules
+    // Safety from rep exposure
+    //      all fields are private, rules is unmodifiable, index is never returned
+    // Thread safety
+    //      the fields are never modified after construction, and the rules are threadsafe
+
+    /**
+     * @param rules the rules, in order of priority
+     * @param stepBudget the maximal number of rules fired in one rewrite, positive
+     */
+    RewriteEngine(List<RewriteRule> rules, int stepBudget) {
+        if (stepBudget <= 0) {
+            throw new IllegalArgumentException("Step budget must be positive, not " + stepBudget);
+        }
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        this.stepBudget = stepBudget;
+        this.index = new RewriteRule[2 * KINDS * KINDS][];
+        for (int operator = 0; operator < 2; operator++) {
+            for (int left = 0; left < KINDS; left++) {
+                for (int right = 0; right < KINDS; right++) {
+                    List<RewriteRule> candidates = new ArrayList<>();
+                    for (RewriteRule rule : rules) {
+                        if (rule.rewritesSums() == (operator == 0) && rule.operand(true).accepts(left)
+                            && rule.operand(false).accepts(right)) {
+                            candidates.add(rule);
+                        }
+                    }
+                    index[key(operator == 0, left, right)] = candidates.toArray(new RewriteRule[0]);
+                }
+            }
+        }
+    }
+
+    private static int key(boolean sum, int left, int right) {
+        return ((sum ? 0 : KINDS) + left) * KINDS + right;
+    }
+
+    /**
+     * @return the kind of expression, as used in the keys of the index
+     */
+    static int kind(Expression expression) {
+        if (expression instanceof Constant) return CONSTANT;
+        if (expression instanceof Variable) return VARIABLE;
+        if (expression instanceof Sum) return SUM;
+        if (expression instanceof Product) return PRODUCT;
+        if (expression instanceof Power) return POWER;
+        return OTHER;
+    }
+
+    /**
+     * @return the rules that are tried on the sum (or product if !sum) of left and right, in order
+     */
+    List<RewriteRule> candidates(boolean sum, Expression left, Expression right) {
+        return Collections.unmodifiableList(Arrays.asList(index[key(sum, kind(left), kind(right))]));
+    }
+
+    /**
+     * @param left a simplified expression
+     * @param right a simplified expression
+     * @return the rewrite of left + right
+     */
+    Expression rewriteSum(Expression left, Expression right) {
+        return rewrite(true, left, right);
+    }
+
+    /**
+     * @param left a simplified expression
+     * @param right a simplified expression
+     * @return the rewrite of left * right
+     */
+    Expression rewriteProduct(Expression left, Expression right) {
+        return rewrite(false, left, right);
+    }
+
+    private Expression rewrite(boolean sum, Expression left, Expression right) {
+        // the factors taken out by the rules, multiplied back in at the end
+        Deque<Expression> factors = null;
+        RewriteRule.Match match = new RewriteRule.Match();
+        Expression result = null;
+        for (int steps = 0; result == null; steps++) {
+            RewriteRule.Step step = null;
+            if (steps < stepBudget) {
+                for (RewriteRule rule : index[key(sum, kind(left), kind(right))]) {
+                    step = rule.apply(left, right, match);
+                    match.clear();
+                    if (step != null) break;
+                }
+            }
+            if (step == null) {
+                // a fixed point, or out of steps
+                result = sum ? ExpressionInterner.sum(left, right) : ExpressionInterner.product(left, right);
+            } else if (step.result() != null) {
+                result = step.result();
+            } else {
+                if (step.factor() != null) {
+                    if (factors == null) factors = new ArrayDeque<>();
+                    factors.push(step.factor());
+                }
+                sum = step.isSum();
+                left = step.left();
+                right = step.right();
+            }
+        }
+        while (factors != null && !factors.isEmpty()) {
+            result = ExpressionInterner.product(factors.pop(), result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the rules of this engine, in order of priority
+     */
+    public List<RewriteRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * @return the number of times every rule fired since the last reset, by rule name, in order of priority
+     */
+    public Map<String, Long> getFires() {
+        Map<String, Long> fires = new LinkedHashMap<>();
+        for (RewriteRule rule : rules) {
+            fires.put(rule.getName(), rule.getFires());
+        }
+        return fires;
+    }
+
+    /**
+     * Reset the counters of all rules to zero.
+     */
+    public void resetFires() {
+        for (RewriteRule rule : rules) {
+            rule.resetFires();
+        }
+    }
+}
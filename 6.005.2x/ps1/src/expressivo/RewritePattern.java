@@ -0,0 +1,217 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pattern of a rewrite rule, see RewriteRule. Patterns are written like expressions:
+ * <pre>
+ *   PATTERN ::= PRODUCT ("+" PRODUCT)*
+ *   PRODUCT ::= POWER ("*" POWER)*
+ *   POWER   ::= PRIMARY ("^" ("#" NAME | NUMBER))?
+ *   PRIMARY ::= "?" NAME | "#" NAME | NUMBER | "(" PATTERN ")"
+ * </pre>
+ * where ?x matches any expression, #c matches any constant, a number matches a constant with exactly that value, and
+ * sums and products are grouped to the left like the parser does. In p ^ #n, the name n binds the exponent of the
+ * matched Power as a constant, and in p ^ 2 the exponent must be exactly 2. A name that occurs more than once only
+ * matches equal expressions, e.g. ?x * ?a + ?x * ?b matches the sum of two products with equal left factors.
+ * Immutable.
+ */
+class RewritePattern {
+
+    /** Pattern kinds */
+    static final int ANY = 0;
+    static final int ANY_CONSTANT = 1;
+    static final int LITERAL = 2;
+    static final int SUM = 3;
+    static final int PRODUCT = 4;
+    static final int POWER = 5;
+
+    // rep
+    private final int kind;
+    private final String name;
+    private final double value;
+    private final RewritePattern left;
+    private final RewritePattern right;
+
+    // Abstraction
+    //      a pattern of the given kind: ANY or ANY_CONSTANT binding name, LITERAL matching the constant value, the
+    //      SUM or PRODUCT of the patterns left and right, or the POWER of the pattern left with the exponent bound to
+    //      name, or equal to value if name is null
+    // Rep invariant
+    //      name is non-null if kind is ANY or ANY_CONSTANT, and null if kind is LITERAL, SUM or PRODUCT;
+    //      left is non-null iff kind is SUM, PRODUCT or POWER, right is non-null iff kind is SUM or PRODUCT
+    // Safety from rep exposure
+    //      all fields are private final and immutable
+
+    private RewritePattern(int kind, String name, double value, RewritePattern left, RewritePattern right) {
+        this.kind = kind;
+        this.name = name;
+        this.value = value;
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * @param pattern a pattern as described above
+     * @return the parsed pattern
+     * @throws IllegalArgumentException if pattern is invalid
+     */
+    static RewritePattern parse(String pattern) {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < pattern.length(); ) {
+            char c = pattern.charAt(i);
+            int start = i++;
+            if (c == '?' || c == '#' || Character.isDigit(c) || c == '.') {
+                while (i < pattern.length()
+                       && (Character.isLetterOrDigit(pattern.charAt(i)) || pattern.charAt(i) == '.')) {
+                    i++;
+                }
+                tokens.add(pattern.substring(start, i));
+            } else if (c == '+' || c == '*' || c == '^' || c == '(' || c == ')') {
+                tokens.add(String.valueOf(c));
+            } else if (!Character.isWhitespace(c)) {
+                throw new IllegalArgumentException("Invalid character '" + c + "' in pattern " + pattern);
+            }
+        }
+        int[] position = {0};
+        RewritePattern parsed = parseSum(tokens, position, pattern);
+        if (position[0] != tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + tokens.get(position[0]) + "' in pattern " + pattern);
+        }
+        return parsed;
+    }
+
+    private static RewritePattern parseSum(List<String> tokens, int[] position, String pattern) {
+        RewritePattern sum = parseProduct(tokens, position, pattern);
+        while (position[0] < tokens.size() && tokens.get(position[0]).equals("+")) {
+            position[0]++;
+            sum = new RewritePattern(SUM, null, 0, sum, parseProduct(tokens, position, pattern));
+        }
+        return sum;
+    }
+
+    private static RewritePattern parseProduct(List<String> tokens, int[] position, String pattern) {
+        RewritePattern product = parsePower(tokens, position, pattern);
+        while (position[0] < tokens.size() && tokens.get(position[0]).equals("*")) {
+            position[0]++;
+            product = new RewritePattern(PRODUCT, null, 0, product, parsePower(tokens, position, pattern));
+        }
+        return product;
+    }
+
+    private static RewritePattern parsePower(List<String> tokens, int[] position, String pattern) {
+        RewritePattern base = parsePrimary(tokens, position, pattern);
+        if (position[0] == tokens.size() || !tokens.get(position[0]).equals("^")) {
+            return base;
+        }
+        position[0]++;
+        RewritePattern exponent = parsePrimary(tokens, position, pattern);
+        if (exponent.kind == ANY_CONSTANT) {
+            return new RewritePattern(POWER, exponent.name, 0, base, null);
+        } else if (exponent.kind == LITERAL) {
+            return new RewritePattern(POWER, null, exponent.value, base, null);
+        }
+        throw new IllegalArgumentException("The exponent must be a constant in pattern " + pattern);
+    }
+
+    private static RewritePattern parsePrimary(List<String> tokens, int[] position, String pattern) {
+        if (position[0] == tokens.size()) {
+            throw new IllegalArgumentException("Unexpected end of pattern " + pattern);
+        }
+        String token = tokens.get(position[0]++);
+        if (token.equals("(")) {
+            RewritePattern inner = parseSum(tokens, position, pattern);
+            if (position[0] == tokens.size() || !tokens.get(position[0]++).equals(")")) {
+                throw new IllegalArgumentException("Missing ) in pattern " + pattern);
+            }
+            return inner;
+        } else if ((token.startsWith("?") || token.startsWith("#")) && token.length() > 1
+                   && token.substring(1).chars().allMatch(Character::isLetter)) {
+            return new RewritePattern(token.startsWith("?") ? ANY : ANY_CONSTANT, token.substring(1), 0, null, null);
+        }
+        try {
+            return new RewritePattern(LITERAL, null, Double.parseDouble(token), null, null);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unexpected '" + token + "' in pattern " + pattern);
+        }
+    }
+
+    /**
+     * @return the kind of this pattern
+     */
+    int kind() {
+        return kind;
+    }
+
+    /**
+     * @return the left operand pattern of this SUM or PRODUCT pattern, or the base pattern of this POWER pattern
+     */
+    RewritePattern left() {
+        return left;
+    }
+
+    /**
+     * @return the right operand pattern of this SUM or PRODUCT pattern, null for a POWER pattern
+     */
+    RewritePattern right() {
+        return right;
+    }
+
+    /**
+     * @param expressionKind the kind of an expression, see RewriteEngine.kind()
+     * @return false if this pattern can't match an expression of that kind
+     */
+    boolean accepts(int expressionKind) {
+        switch (kind) {
+            case ANY: return true;
+            case ANY_CONSTANT: case LITERAL: return expressionKind == RewriteEngine.CONSTANT;
+            case SUM: return expressionKind == RewriteEngine.SUM;
+            case POWER: return expressionKind == RewriteEngine.POWER;
+            default: return expressionKind == RewriteEngine.PRODUCT;
+        }
+    }
+
+    /**
+     * Match this pattern against expression, extending match with the bindings of its names.
+     * @return true iff this pattern matches expression consistently with the bindings of match; match may contain
+     *         more bindings afterwards if it does not
+     */
+    boolean match(Expression expression, RewriteRule.Match match) {
+        switch (kind) {
+            case ANY:
+                return match.bind(name, expression);
+            case ANY_CONSTANT:
+                return expression instanceof Constant && match.bind(name, expression);
+            case LITERAL:
+                return expression instanceof Constant
+                       && Double.compare(((Constant) expression).getValue(), value) == 0;
+            case SUM:
+                return expression instanceof Sum && left.match(((Sum) expression).getLeft(), match)
+                       && right.match(((Sum) expression).getRight(), match);
+            case POWER:
+                if (!(expression instanceof Power)) {
+                    return false;
+                }
+                Power power = (Power) expression;
+                boolean exponentMatches = name == null ? power.getExponent() == value
+                        : match.bind(name, ExpressionInterner.constant(power.getExponent()));
+                return exponentMatches && left.match(power.getBase(), match);
+            default:
+                return expression instanceof Product && left.match(((Product) expression).getLeft(), match)
+                       && right.match(((Product) expression).getRight(), match);
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case ANY: return "?" + name;
+            case ANY_CONSTANT: return "#" + name;
+            case LITERAL: return new Constant(value).toString();
+            case SUM: return "(" + left + " + " + right + ")";
+            case POWER: return "(" + left + " ^ " + (name == null ? new Constant(value).toString() : "#" + name) + ")";
+            default: return "(" + left + " * " + right + ")";
+        }
+    }
+}
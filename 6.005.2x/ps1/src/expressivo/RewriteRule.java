@@ -0,0 +1,255 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A rewrite rule of a RewriteEngine: a pattern of a sum or product, see RewritePattern, and an action that computes
+ * what a matching node is rewritten to from the bindings of the pattern, e.g.
+ * <pre>
+ *   new RewriteRule("zero-plus", "0 + ?x", match -> Step.done(match.get("x")))
+ * </pre>
+ * Every rule counts how often it fired, for profiling the simplification.
+ * This class is threadsafe.
+ */
+public class RewriteRule {
+
+    /**
+     * Computes the rewrite of a node that matched the pattern of a rule.
+     */
+    interface Action {
+        /**
+         * @param match the bindings of the names of the pattern
+         * @return the rewrite of the matched node, or null if the rule does not apply after all, e.g. because a
+         *         condition on the bindings that the pattern can't express does not hold
+         */
+        Step apply(Match match);
+    }
+
+    /**
+     * What a node is rewritten to: either a final expression, or the sum or product of two simplified expressions,
+     * which is rewritten again, possibly under a factor that is multiplied back in at the end. Continuing with a new
+     * node instead of calling the engine recursively keeps the stack depth constant, however long a chain of rewrites
+     * is, e.g. taking out a common factor again and again in x*(x*(x*a)) + x*(x*(x*b)).
+     */
+    static class Step {
+        private final Expression result;
+        private final boolean sum;
+        private final Expression left;
+        private final Expression right;
+        private final Expression factor;
+
+        // Abstraction
+        //      result if it is non-null, and else factor * (left + right) if sum, or factor * (left * right) if not,
+        //      where the sum or product is rewritten again and a null factor is 1
+        // Rep invariant
+        //      result is non-null iff left and right are null
+        // Safety from rep exposure
+        //      all fields are private final and immutable
+
+        private Step(Expression result, boolean sum, Expression left, Expression right, Expression factor) {
+            this.result = result;
+            this.sum = sum;
+            this.left = left;
+            this.right = right;
+            this.factor = factor;
+        }
+
+        /**
+         * @return the step rewriting to result, which is not rewritten any further
+         */
+        static Step done(Expression result) {
+            return new Step(result, false, null, null, null);
+        }
+
+        /**
+         * @return the step rewriting to the sum of the simplified expressions left and right, which is rewritten again
+         */
+        static Step sum(Expression left, Expression right) {
+            return new Step(null, true, left, right, null);
+        }
+
+        /**
+         * @return the step rewriting to the product of the simplified expressions left and right, which is rewritten
+         *         again
+         */
+        static Step product(Expression left, Expression right) {
+            return new Step(null, false, left, right, null);
+        }
+
+        /**
+         * @return the step rewriting to factor * (left + right), where the sum of the simplified expressions left and
+         *         right is rewritten again, but the product with factor is not
+         */
+        static Step factorOut(Expression factor, Expression left, Expression right) {
+            return new Step(null, true, left, right, factor);
+        }
+
+        Expression result() {
+            return result;
+        }
+
+        boolean isSum() {
+            return sum;
+        }
+
+        Expression left() {
+            return left;
+        }
+
+        Expression right() {
+            return right;
+        }
+
+        Expression factor() {
+            return factor;
+        }
+    }
+
+    /**
+     * The bindings of the names of a pattern to subexpressions. Patterns have few names, so the bindings are kept in
+     * small arrays, and a Match is reused for all rules tried on a node.
+     */
+    static class Match {
+        private String[] names = new String[4];
+        private Expression[] values = new Expression[4];
+        private int size = 0;
+
+        // Abstraction
+        //      binds names[i] to values[i] for all i < size
+        // Rep invariant
+        //      the names are distinct
+        // Safety from rep exposure
+        //      the arrays are private and never returned
+
+        /**
+         * Bind name to expression, unless it is bound already.
+         * @return true iff name was unbound, or bound to an expression equal to expression
+         */
+        boolean bind(String name, Expression expression) {
+            for (int i = 0; i < size; i++) {
+                if (names[i].equals(name)) {
+                    return values[i].equals(expression);
+                }
+            }
+            if (size == names.length) {
+                names = Arrays.copyOf(names, 2 * size);
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            names[size] = name;
+            values[size] = expression;
+            size++;
+            return true;
+        }
+
+        /**
+         * @param name a name of the matched pattern
+         * @return the expression name is bound to
+         * @throws IllegalArgumentException if name is not bound
+         */
+        Expression get(String name) {
+            for (int i = 0; i < size; i++) {
+                if (names[i].equals(name)) {
+                    return values[i];
+                }
+            }
+            throw new IllegalArgumentException("Unbound name " + name);
+        }
+
+        /**
+         * @param name a name of a constant (#name) of the matched pattern
+         * @return the value of the constant name is bound to
+         */
+        double value(String name) {
+            return ((Constant) get(name)).getValue();
+        }
+
+        void clear() {
+            Arrays.fill(values, 0, size, null);
+            size = 0;
+        }
+    }
+
+    // rep
+    private final String name;
+    private final RewritePattern pattern;
+    private final Action action;
+    private final LongAdder fires = new LongAdder();
+
+    // Abstraction
+    //      the rule called name, which rewrites nodes matching pattern according to action, and fired fires times
+    // Rep invariant
+    //      pattern is a SUM or PRODUCT pattern
+    // Safety from rep exposure
+    //      all fields are private final; the pattern and action are immutable
+    // Thread safety
+    //      fires is a LongAdder, the other fields are immutable
+
+    /**
+     * @param name the name of the rule, for its statistics
+     * @param pattern the pattern of the sums or products the rule rewrites, see RewritePattern
+     * @param action computes what a matching node is rewritten to
+     * @throws IllegalArgumentException if pattern is invalid, or is not a sum or product
+     */
+    RewriteRule(String name, String pattern, Action action) {
+        this.name = name;
+        this.pattern = RewritePattern.parse(pattern);
+        this.action = action;
+        if (this.pattern.kind() != RewritePattern.SUM && this.pattern.kind() != RewritePattern.PRODUCT) {
+            throw new IllegalArgumentException("Not a pattern of a sum or product: " + pattern);
+        }
+    }
+
+    /**
+     * @return the name of this rule
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of times this rule fired since the last reset
+     */
+    public long getFires() {
+        return fires.sum();
+    }
+
+    void resetFires() {
+        fires.reset();
+    }
+
+    /**
+     * @return true iff this rule rewrites sums, false if it rewrites products
+     */
+    boolean rewritesSums() {
+        return pattern.kind() == RewritePattern.SUM;
+    }
+
+    /**
+     * @return the pattern of the left (or right) operand of the nodes this rule rewrites
+     */
+    RewritePattern operand(boolean left) {
+        return left ? pattern.left() : pattern.right();
+    }
+
+    /**
+     * Try this rule on the sum or product of left and right.
+     * @param match empty bindings, which are filled in
+     * @return the rewrite if the rule applies, or null if it does not
+     */
+    Step apply(Expression left, Expression right, Match match) {
+        if (!pattern.left().match(left, match) || !pattern.right().match(right, match)) {
+            return null;
+        }
+        Step step = action.apply(match);
+        if (step != null) {
+            fires.increment();
+        }
+        return step;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + pattern;
+    }
+}
@@ -0,0 +1,174 @@
+package expressivo;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * The state of a console session: the current expression, a numbered history of the results of earlier lines,
+ * whether output is in let-bound form (see LetForm), and whether it writes powers as base^exponent.
+ * Every input line is an expression, which becomes the current expression, a reference "$n" to the n-th result,
+ * which becomes the current expression again, or a command on the current expression or on a referenced result,
+ * see Main for the commands.
+ *
+ * The session keeps the ASTs, so a command never parses the text it printed before, and it remembers the derivative
+ * of every (expression, variable) pair it computed: differentiating the same expression again, e.g. "!d/dx $3" after
+ * an earlier "!d/dx" of the same result, only costs a lookup and printing. Every result is printed once, and its
+ * text is kept for when it is referenced again.
+ * This class is not threadsafe; every session is confined to one thread at a time.
+ */
+class Session {
+
+    /**
+     * A result in the history: an expression and its text in the output form it was last printed in.
+     */
+    private static class Result {
+        private final Expression expression;
+        private String text;
+        private boolean sharedText;
+        private boolean caretsText;
+
+        Result(Expression expression) {
+            this.expression = expression;
+        }
+
+        String text(boolean shared, boolean carets) {
+            // the let-bound form always writes powers with carets
+            if (text == null || sharedText != shared || (!shared && caretsText != carets)) {
+                text = shared ? LetForm.format(expression) : ExpressionPrinter.toString(expression, carets);
+                sharedText = shared;
+                caretsText = carets;
+            }
+            return text;
+        }
+    }
+
+    // rep
+    private final List<Result> history = new ArrayList<>();
+    private Optional<Result> current = Optional.empty();
+    private final Map<Expression, Map<String, Expression>> derivatives = new HashMap<>();
+    private boolean shared = false;
+    private boolean carets = false;
+    private int lastResultNumber = 0;
+
+    // Abstraction
+    //      a session whose n-th result is history.get(n - 1), whose current expression is current, if any, whose
+    //      output is written in let-bound form iff shared, with powers written as base^exponent iff carets, and
+    //      which computed the derivatives derivatives.get(e).get(v) of expressions e with respect to variables v;
+    //      the last executed line added the result lastResultNumber, or none if it is 0
+    // Rep invariant
+    //      current is empty or one of the results in history, 0 <= lastResultNumber <= history.size(),
+    //      derivatives.get(e).get(v) is the simplified derivative of e with respect to v
+    // Safety from rep exposure
+    //      all fields are private; only immutable expressions and strings are returned
+
+    /**
+     * Execute one input line.
+     * @param input an expression, a reference "$n" or a command, nonempty
+     * @return the output of input
+     * @throws NoSuchElementException if input is a command on the current expression, but there is none
+     * @throws RuntimeException if input is invalid, in particular IllegalArgumentException if it is an invalid
+     *         expression and Main.CommandSyntaxException if it is an invalid command or refers to a result that
+     *         does not exist; the session is unchanged
+     */
+    String execute(String input) {
+        lastResultNumber = 0;
+        if (input.startsWith(Main.SHARED_PREFIX)) {
+            shared = Main.parseShared(input);
+            return "let-bound output " + (shared ? "on" : "off");
+        } else if (input.startsWith(Main.CARETS_PREFIX)) {
+            carets = Main.parseCarets(input);
+            return "caret output " + (carets ? "on" : "off");
+        } else if (input.startsWith(Main.DIFFERENTIATE_PREFIX)) {
+            final String variable = Main.parseDifferentiate(input);
+            final Expression expression = target(input).expression;
+            Map<String, Expression> byVariable = derivatives.computeIfAbsent(expression, e -> new HashMap<>());
+            Expression derivative = byVariable.get(variable);
+            if (derivative == null) {
+                derivative = expression.differentiate(variable).simplify();
+                byVariable.put(variable, derivative);
+            }
+            current = Optional.of(add(derivative));
+            return current.get().text(shared, carets);
+        } else if (input.startsWith(Main.SIMPLIFY_PREFIX)) {
+            final Map<String,Double> environment = Main.parseSimplify(input);
+            final Expression expression = target(input).expression;
+            // ... but don't change the current expression
+            return add(expression.simplify(environment).simplify()).text(shared, carets);
+        } else if (input.startsWith(Main.SOLVE_PREFIX)) {
+            final Main.SolveCommand command = Main.parseSolve(input);
+            final Expression expression = target(input).expression;
+            // ... which doesn't change the current expression or add a result either
+            final List<String> parameters = new ArrayList<>(command.environment.keySet());
+            parameters.remove(command.variable);
+            final double[] values = new double[parameters.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = command.environment.get(parameters.get(i));
+            }
+            final Solver solver;
+            try {
+                solver = new Solver(expression, Collections.singletonList(command.variable), parameters);
+            } catch (IllegalArgumentException iae) {
+                // the solver says which variable has no value, or what else it could not compile
+                throw new Main.CommandSyntaxException(iae.getMessage());
+            }
+            final double root = solver.root(command.target, 1, values);
+            // printed like a constant, which may be negative here, to the digits within Solver.TOLERANCE
+            final double shown = new BigDecimal(root).round(new MathContext(12)).doubleValue();
+            return command.variable + " = " + (shown < 0 ? "-" : "") + new Constant(Math.abs(shown));
+        }
+        final Optional<Integer> reference = Main.parseOnlyReference(input);
+        if (reference.isPresent()) {
+            current = Optional.of(result(reference.get()));
+        } else {
+            final Expression expression = shared ? LetForm.parse(input) : Expression.parse(input);
+            current = Optional.of(add(expression));
+        }
+        return current.get().text(shared, carets);
+    }
+
+    /**
+     * @return the number of the result the last call of execute() added to the history, or 0 if it added none
+     */
+    int lastResultNumber() {
+        return lastResultNumber;
+    }
+
+    /**
+     * @param number the number of a result, at least 1
+     * @return the expression of the result with this number
+     * @throws Main.CommandSyntaxException if there is no result with this number
+     */
+    Expression expression(int number) {
+        return result(number).expression;
+    }
+
+    /**
+     * @return the result a command refers to with a trailing "$n", or else the current expression
+     * @throws NoSuchElementException if the command does not refer to a result, and there is no current expression
+     */
+    private Result target(String input) {
+        final Optional<Integer> reference = Main.parseReference(input);
+        return reference.isPresent() ? result(reference.get()) : current.get();
+    }
+
+    private Result result(int number) {
+        if (number < 1 || number > history.size()) {
+            throw new Main.CommandSyntaxException("no result " + Main.REFERENCE_PREFIX + number);
+        }
+        return history.get(number - 1);
+    }
+
+    private Result add(Expression expression) {
+        Result result = new Result(expression);
+        history.add(result);
+        lastResultNumber = history.size();
+        return result;
+    }
+}
@@ -0,0 +1,98 @@
+package expressivo;
+
+import java.util.Arrays;
+
+import static expressivo.ExpressionInterner.constant;
+
+/**
+ * The rules of simplify() for sums and products, applied by a RewriteEngine to every Sum and Product whose operands
+ * are simplified already, see Sum.simplifySum() and Product.simplifyProduct().
+ * Sums: the sum of two constants is a single constant, 0 + x = x + 0 = x, common factors are taken out, e.g.
+ * x * a + b * x = x * (a + b) and x * a + x = x * (a + 1), and x + x = 2 * x.
+ * Products: 0 * x = x * 0 = 0, 1 * x = x * 1 = x, the product of two constants is a single constant, a constant
+ * factor is moved to the left, and equal adjacent factors are merged into a power, e.g. x * x = x^2,
+ * x^2 * x = x * x^2 = x^3, x^2 * x^3 = x^5 and (a * x) * x = a * x^2.
+ * The rules are tried in the order they are declared, so e.g. x * a + x * b takes out x before x + x applies.
+ */
+public class SimplificationRules {
+
+    /** Sums of which one operand is a product are only rewritten by the rules taking out a common factor */
+    private static final RewriteRule[] SUM_RULES = {
+        new RewriteRule("sum-constants", "#a + #b", match ->
+                RewriteRule.Step.done(constant(match.value("b") + match.value("a")))),
+        new RewriteRule("zero-plus", "0 + ?x", match -> RewriteRule.Step.done(match.get("x"))),
+        new RewriteRule("plus-zero", "?x + 0", match -> RewriteRule.Step.done(match.get("x"))),
+        new RewriteRule("factor-left-left", "?x * ?a + ?x * ?b", match ->
+                RewriteRule.Step.factorOut(match.get("x"), match.get("a"), match.get("b"))),
+        new RewriteRule("factor-left-right", "?x * ?a + ?b * ?x", match ->
+                RewriteRule.Step.factorOut(match.get("x"), match.get("a"), match.get("b"))),
+        new RewriteRule("factor-right-left", "?a * ?x + ?x * ?b", match ->
+                RewriteRule.Step.factorOut(match.get("x"), match.get("a"), match.get("b"))),
+        new RewriteRule("factor-right-right", "?a * ?x + ?b * ?x", match ->
+                RewriteRule.Step.factorOut(match.get("x"), match.get("a"), match.get("b"))),
+        new RewriteRule("factor-left-term", "?x * ?a + ?x", match -> match.get("x").isProduct() ? null
+                : RewriteRule.Step.factorOut(match.get("x"), match.get("a"), constant(1))),
+        new RewriteRule("factor-right-term", "?a * ?x + ?x", match -> match.get("x").isProduct() ? null
+                : RewriteRule.Step.factorOut(match.get("x"), match.get("a"), constant(1))),
+        new RewriteRule("term-factor-left", "?x + ?x * ?a", match -> match.get("x").isProduct() ? null
+                : RewriteRule.Step.factorOut(match.get("x"), match.get("a"), constant(1))),
+        new RewriteRule("term-factor-right", "?x + ?a * ?x", match -> match.get("x").isProduct() ? null
+                : RewriteRule.Step.factorOut(match.get("x"), match.get("a"), constant(1))),
+        new RewriteRule("double", "?x + ?x", match -> match.get("x").isProduct() ? null
+                : RewriteRule.Step.product(constant(2), match.get("x"))),
+    };
+
+    private static final RewriteRule[] PRODUCT_RULES = {
+        new RewriteRule("zero-times", "0 * ?x", match -> RewriteRule.Step.done(constant(0))),
+        new RewriteRule("times-zero", "?x * 0", match -> RewriteRule.Step.done(constant(0))),
+        new RewriteRule("one-times", "1 * ?x", match -> RewriteRule.Step.done(match.get("x"))),
+        new RewriteRule("times-one", "?x * 1", match -> RewriteRule.Step.done(match.get("x"))),
+        new RewriteRule("product-constants", "#a * #b", match ->
+                RewriteRule.Step.done(constant(match.value("b") * match.value("a")))),
+        new RewriteRule("constant-left", "?x * #c", match ->
+                RewriteRule.Step.product(match.get("c"), match.get("x"))),
+        new RewriteRule("square", "?x * ?x", match -> power(null, match.get("x"), 2)),
+        new RewriteRule("power-times", "?x ^ #n * ?x", match ->
+                power(null, match.get("x"), match.value("n") + 1)),
+        new RewriteRule("times-power", "?x * ?x ^ #n", match ->
+                power(null, match.get("x"), match.value("n") + 1)),
+        new RewriteRule("power-power", "?x ^ #m * ?x ^ #n", match ->
+                power(null, match.get("x"), match.value("m") + match.value("n"))),
+        new RewriteRule("factor-square", "?a * ?x * ?x", match -> power(match.get("a"), match.get("x"), 2)),
+        new RewriteRule("factor-power-times", "?a * ?x ^ #n * ?x", match ->
+                power(match.get("a"), match.get("x"), match.value("n") + 1)),
+        new RewriteRule("factor-times-power", "?a * ?x * ?x ^ #n", match ->
+                power(match.get("a"), match.get("x"), match.value("n") + 1)),
+        new RewriteRule("factor-power-power", "?a * ?x ^ #m * ?x ^ #n", match ->
+                power(match.get("a"), match.get("x"), match.value("m") + match.value("n"))),
+    };
+
+    private static final RewriteEngine ENGINE;
+
+    static {
+        RewriteRule[] rules = Arrays.copyOf(SUM_RULES, SUM_RULES.length + PRODUCT_RULES.length);
+        System.arraycopy(PRODUCT_RULES, 0, rules, SUM_RULES.length, PRODUCT_RULES.length);
+        ENGINE = new RewriteEngine(Arrays.asList(rules), RewriteEngine.DEFAULT_STEP_BUDGET);
+    }
+
+    /**
+     * @param factor a simplified expression, or null for none
+     * @param base a simplified expression
+     * @param exponent a positive integer
+     * @return the step rewriting to factor * base^exponent, or null if exponent is too large for a Power
+     */
+    private static RewriteRule.Step power(Expression factor, Expression base, double exponent) {
+        if (exponent > Integer.MAX_VALUE) {
+            return null;
+        }
+        Expression power = Power.simplifyPower(base, (int) exponent);
+        return factor == null ? RewriteRule.Step.done(power) : RewriteRule.Step.product(factor, power);
+    }
+
+    /**
+     * @return the engine simplifying sums and products, with the counters of its rules
+     */
+    public static RewriteEngine engine() {
+        return ENGINE;
+    }
+}
@@ -0,0 +1,353 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Finds roots and minima of an expression numerically. The expression and its gradient are derived symbolically
+ * with differentiate(), which is memoized and never expands the expression into its polynomial, and compiled (see
+ * CompiledExpression) once, when the solver is made; the Hessian is derived and compiled the same way when minimum()
+ * needs it first, since root() never does. Every iteration afterwards only evaluates compiled code on arrays of
+ * doubles, so solving many times, e.g. once per set of parameter values of a calibration, does not build any
+ * expressions.
+ *
+ * Roots are found by Newton's method, which falls back to bisection of a bracket around the starting point if a
+ * Newton step fails (a zero derivative, an overflow) or Newton's method does not converge. Minima are found by
+ * Newton's method on the gradient, which falls back to steepest descent where the Hessian is not positive definite;
+ * both halve their step until it decreases the expression.
+ *
+ * The variables are split into unknowns, which are solved for, and parameters, which are given a value in every call.
+ * Immutable and threadsafe.
+ */
+public class Solver {
+
+    /** Relative tolerance: iterations stop when a step is smaller than TOLERANCE * (1 + |x|) in every unknown */
+    public static final double TOLERANCE = 1e-12;
+    private static final int MAX_ITERATIONS = 200;
+    private static final int MAX_HALVINGS = 64;
+    private static final double SUFFICIENT_DECREASE = 1e-4;
+
+    // rep
+    private final Expression expression;
+    private final List<String> unknowns;
+    private final List<String> parameters;
+    private final CompiledExpression function;
+    private final CompiledExpression[] gradient;
+    private volatile CompiledExpression[] hessian;
+
+    // Abstraction
+    //      the solver for the unknowns of expression, given values of parameters; function, gradient[i] and
+    //      hessian[i * n + j] evaluate expression, its derivative by unknown i and its derivative by unknowns i and j,
+    //      where n = unknowns.size(), for the values of the unknowns followed by the values of the parameters;
+    //      hessian is null if it was not needed yet
+    // Rep invariant
+    //      unknowns is nonempty, unknowns and parameters are disjoint and contain every variable of expression,
+    //      gradient.length == n,
+    //      hessian is null or hessian.length == n * n and hessian[i * n + j] == hessian[j * n + i]
+    // Safety from rep exposure
+    //      all fields are private; the lists are unmodifiable, the arrays are never returned
+    // Thread safety
+    //      the fields are final except hessian, which is volatile and only ever set to a complete array of equal
+    //      compiled expressions, so a thread sees either null (and computes it) or a complete array; the compiled
+    //      expressions are threadsafe, and every call evaluates them on arrays of its own
+
+    /**
+     * Make a solver, deriving and compiling the expression and its first derivatives.
+     *
+     * @param expression an expression
+     * @param unknowns the variables to solve for, nonempty
+     * @param parameters the other variables of expression, in the order their values are passed to the solver
+     * @throws IllegalArgumentException if unknowns is empty, a variable occurs twice in unknowns and parameters,
+     *                                  or a variable of expression occurs in neither
+     */
+    public Solver(Expression expression, List<String> unknowns, List<String> parameters) {
+        if (unknowns.isEmpty()) {
+            throw new IllegalArgumentException("No variable to solve for");
+        }
+        this.expression = expression;
+        this.unknowns = Collections.unmodifiableList(new ArrayList<>(unknowns));
+        this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+        List<String> variableOrder = new ArrayList<>(unknowns);
+        variableOrder.addAll(parameters);
+        if (new HashSet<>(variableOrder).size() != variableOrder.size()) {
+            throw new IllegalArgumentException("A variable occurs twice in " + unknowns + " and " + parameters);
+        }
+
+        this.function = expression.compile(variableOrder);
+        this.gradient = new CompiledExpression[unknowns.size()];
+        for (int i = 0; i < gradient.length; i++) {
+            gradient[i] = expression.differentiate(unknowns.get(i)).compile(variableOrder);
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert !unknowns.isEmpty();
+        assert gradient.length == unknowns.size();
+        assert hessian == null || hessian.length == unknowns.size() * unknowns.size();
+    }
+
+    /**
+     * @return the compiled second derivatives, hessian[i * n + j] by unknowns i and j, derived and compiled when
+     *         they are needed first
+     */
+    private CompiledExpression[] hessian() {
+        CompiledExpression[] result = hessian;
+        if (result == null) {
+            int n = unknowns.size();
+            List<String> variableOrder = new ArrayList<>(unknowns);
+            variableOrder.addAll(parameters);
+            result = new CompiledExpression[n * n];
+            for (int i = 0; i < n; i++) {
+                Expression derivative = expression.differentiate(unknowns.get(i));
+                for (int j = i; j < n; j++) {
+                    result[i * n + j] = derivative.differentiate(unknowns.get(j)).compile(variableOrder);
+                    result[j * n + i] = result[i * n + j];
+                }
+            }
+            hessian = result;
+        }
+        return result;
+    }
+
+    /**
+     * Find a value of the only unknown for which the expression equals target, starting from guess.
+     *
+     * @param target the value the expression should have
+     * @param guess the starting point; of several roots, the one found is usually the one nearest to guess
+     * @param parameterValues the values of the parameters, in the order of getParameters()
+     * @return a root x, where the expression equals target within rounding, or changes sign around it
+     * @throws IllegalArgumentException if this solver has more than one unknown, or parameterValues has the wrong
+     *                                  length
+     * @throws ArithmeticException if no root is found, e.g. because there is none
+     */
+    public double root(double target, double guess, double... parameterValues) {
+        if (unknowns.size() != 1) {
+            throw new IllegalArgumentException("A root is found for one unknown, not " + unknowns);
+        }
+        double[] values = values(parameterValues);
+        double x = guess;
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            values[0] = x;
+            double residual = function.evaluate(values) - target;
+            if (residual == 0) {
+                return x;
+            }
+            double step = residual / gradient[0].evaluate(values);
+            if (!Double.isFinite(step) || !Double.isFinite(x - step)) {
+                break;
+            }
+            x -= step;
+            if (Math.abs(step) <= TOLERANCE * (1 + Math.abs(x))) {
+                return x;
+            }
+        }
+        return bisect(target, guess, values);
+    }
+
+    /**
+     * Bisect a bracket of a root of function - target, found by widening an interval around guess.
+     * @param values the values of the parameters from index 1 on, values[0] is overwritten
+     */
+    private double bisect(double target, double guess, double[] values) {
+        values[0] = guess;
+        double middle = function.evaluate(values) - target;
+        double low = guess;
+        double high = guess;
+        boolean bracketed = false;
+        for (double width = 1 + Math.abs(guess); !bracketed && Double.isFinite(width); width *= 2) {
+            for (int side = -1; side <= 1 && !bracketed; side += 2) {
+                double x = guess + side * width;
+                values[0] = x;
+                double residual = function.evaluate(values) - target;
+                if (Double.isNaN(residual)) continue;
+                if (Math.signum(residual) != Math.signum(middle)) {
+                    low = side < 0 ? x : guess;
+                    high = side < 0 ? guess : x;
+                    bracketed = true;
+                }
+            }
+        }
+        if (!bracketed) {
+            throw new ArithmeticException("No root of " + expression + " = " + target + " found near " + guess);
+        }
+        values[0] = low;
+        double lowSign = Math.signum(function.evaluate(values) - target);
+        while (true) {
+            double mid = low + (high - low) / 2;
+            if (mid <= low || mid >= high || high - low <= TOLERANCE * (1 + Math.abs(mid))) {
+                return mid;
+            }
+            values[0] = mid;
+            double sign = Math.signum(function.evaluate(values) - target);
+            if (sign == 0) {
+                return mid;
+            } else if (sign == lowSign) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+    }
+
+    /**
+     * Find a local minimum of the expression in the unknowns, starting from guess.
+     *
+     * @param guess the values of the unknowns to start from, in the order of getUnknowns()
+     * @param parameterValues the values of the parameters, in the order of getParameters()
+     * @return the values of the unknowns at a local minimum, or at a point where no step decreases the expression
+     *         any more, in the order of getUnknowns()
+     * @throws IllegalArgumentException if guess or parameterValues has the wrong length
+     * @throws ArithmeticException if no minimum is found, e.g. because the expression is unbounded below
+     */
+    public double[] minimum(double[] guess, double... parameterValues) {
+        int n = unknowns.size();
+        if (guess.length != n) {
+            throw new IllegalArgumentException("Expected " + n + " values of " + unknowns + ", not " + guess.length);
+        }
+        double[] values = values(parameterValues);
+        CompiledExpression[] hessian = hessian();
+        double[] trial = values.clone();
+        double[] slope = new double[n];
+        double[] matrix = new double[n * n];
+        double[] direction = new double[n];
+        System.arraycopy(guess, 0, values, 0, n);
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            double value = function.evaluate(values);
+            if (!Double.isFinite(value)) break;
+            boolean stationary = true;
+            for (int i = 0; i < n; i++) {
+                slope[i] = gradient[i].evaluate(values);
+                stationary &= slope[i] == 0;
+            }
+            if (stationary) {
+                return Arrays.copyOf(values, n);
+            }
+            for (int k = 0; k < n * n; k++) {
+                matrix[k] = hessian[k].evaluate(values);
+            }
+            // the Newton direction solves H d = -g; use -g if that is not a descent direction
+            double descent = solve(matrix, slope, direction);
+            if (!(descent < 0)) {
+                descent = 0;
+                for (int i = 0; i < n; i++) {
+                    direction[i] = -slope[i];
+                    descent -= slope[i] * slope[i];
+                }
+            }
+            // halve the step until it decreases the expression enough
+            boolean decreased = false;
+            boolean small = true;
+            double t = 1;
+            for (int halving = 0; !decreased && halving < MAX_HALVINGS; halving++, t /= 2) {
+                small = true;
+                for (int i = 0; i < n; i++) {
+                    trial[i] = values[i] + t * direction[i];
+                    small &= Math.abs(t * direction[i]) <= TOLERANCE * (1 + Math.abs(trial[i]));
+                }
+                double next = function.evaluate(trial);
+                decreased = next <= value + SUFFICIENT_DECREASE * t * descent;
+                if (!decreased && small) break;
+            }
+            if (!decreased || small) {
+                // no step decreases the expression, or the steps became too small to matter
+                return Arrays.copyOf(decreased ? trial : values, n);
+            }
+            System.arraycopy(trial, 0, values, 0, n);
+        }
+        throw new ArithmeticException("No minimum of " + expression + " found from " + Arrays.toString(guess));
+    }
+
+    /**
+     * Solve matrix * direction = -slope by Gaussian elimination with partial pivoting.
+     * @param matrix an n-by-n matrix in row-major order, overwritten
+     * @param slope a vector of length n, not modified
+     * @param direction receives the solution
+     * @return slope . direction, or NaN if matrix is singular
+     */
+    private static double solve(double[] matrix, double[] slope, double[] direction) {
+        int n = slope.length;
+        for (int i = 0; i < n; i++) {
+            direction[i] = -slope[i];
+        }
+        for (int column = 0; column < n; column++) {
+            int pivot = column;
+            for (int row = column + 1; row < n; row++) {
+                if (Math.abs(matrix[row * n + column]) > Math.abs(matrix[pivot * n + column])) pivot = row;
+            }
+            if (matrix[pivot * n + column] == 0) {
+                return Double.NaN;
+            }
+            if (pivot != column) {
+                for (int k = 0; k < n; k++) {
+                    double swap = matrix[pivot * n + k];
+                    matrix[pivot * n + k] = matrix[column * n + k];
+                    matrix[column * n + k] = swap;
+                }
+                double swap = direction[pivot];
+                direction[pivot] = direction[column];
+                direction[column] = swap;
+            }
+            for (int row = column + 1; row < n; row++) {
+                double factor = matrix[row * n + column] / matrix[column * n + column];
+                for (int k = column; k < n; k++) {
+                    matrix[row * n + k] -= factor * matrix[column * n + k];
+                }
+                direction[row] -= factor * direction[column];
+            }
+        }
+        double descent = 0;
+        for (int row = n - 1; row >= 0; row--) {
+            double sum = direction[row];
+            for (int k = row + 1; k < n; k++) {
+                sum -= matrix[row * n + k] * direction[k];
+            }
+            direction[row] = sum / matrix[row * n + row];
+            descent += slope[row] * direction[row];
+        }
+        return descent;
+    }
+
+    /**
+     * @return an array for the values of the unknowns, zero, followed by parameterValues
+     */
+    private double[] values(double[] parameterValues) {
+        if (parameterValues.length != parameters.size()) {
+            throw new IllegalArgumentException("Expected " + parameters.size() + " values of " + parameters
+                                               + ", not " + parameterValues.length);
+        }
+        double[] values = new double[unknowns.size() + parameters.size()];
+        System.arraycopy(parameterValues, 0, values, unknowns.size(), parameterValues.length);
+        return values;
+    }
+
+    /**
+     * @return the expression this solver solves
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return the variables solved for, unmodifiable
+     */
+    public List<String> getUnknowns() {
+        return unknowns;
+    }
+
+    /**
+     * @return the variables whose values are given, in the order they are passed to the solver, unmodifiable
+     */
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public String toString() {
+        return "solve " + expression + " for " + unknowns + " given " + parameters;
+    }
+}
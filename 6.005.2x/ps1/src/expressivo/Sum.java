@@ -2,18 +2,31 @@ package expressivo;
 
 import java.util.Map;
 
+import static expressivo.ExpressionInterner.variable;
+
 public class Sum implements Expression {
 
     // Rep: A sum is represented by its lhs and rhs expressions
     private final Expression left;
     private final Expression right;
+    private final int hash;
+    private final boolean interned;
+    // memoized results, see Memoization
+    private volatile Expression simplified;
+    private volatile Memoization.Derivatives derivatives;
 
     // Abstraction
     //      This represents the sum of two expressions, namely left + right
     // Rep invariant
-    //      none, since this is an non-terminal
+    //      hash is the hash of left and right, which is computed once since both are immutable;
+    //      if interned then left and right are interned and this is the sum of ExpressionInterner of left and right;
+    //      simplified is null or the result of simplifying this, derivatives only maps a variable to the derivative of
+    //      this with respect to that variable
     // Safety from rep exposure
     //      The fields are all final, private
+    // Thread safety
+    //      the memoized results are immutable and published through volatile fields; two threads may compute the same
+    //      result at the same time, but then both store equal results
 
     /**
      * Constructor for the sum of two expressions
@@ -21,8 +34,21 @@ public class Sum implements Expression {
      * @param right the right-hand side of the sum
      */
     public Sum(Expression left, Expression right) {
+        this(left, right, false);
+    }
+
+    /**
+     * @param left the left-hand side of the sum
+     * @param right the right-hand side of the sum
+     * @param interned true iff this sum is created by ExpressionInterner, which requires left and right interned
+     */
+    Sum(Expression left, Expression right, boolean interned) {
         this.left = left;
         this.right = right;
+        int result = 1;
+        result = 37 * result + left.hashCode();
+        this.hash = 37 * result + right.hashCode();
+        this.interned = interned;
     }
 
     /**
@@ -39,18 +65,60 @@ public class Sum implements Expression {
         return right;
     }
 
+    /**
+     * @return true iff this sum was created by ExpressionInterner
+     */
+    boolean isInterned() {
+        return interned;
+    }
+
     /**
      * The derivative of a sum of two expression is the sum of their derivatives
      * @param x the variable with respect to which we take the derivative
      * @return the derivative of the expression
      */
     public Expression differentiate(Variable x) {
-        return (new Sum(left.differentiate(x.getVariable()), right.differentiate(x.getVariable()))).simplify();
+        Expression derivative = Memoization.Derivatives.find(derivatives, x.getVariable());
+        if (derivative != null) {
+            Memoization.derivativeHit();
+            return derivative;
+        }
+        // the operands are differentiated bottom-up with an explicit stack, see ExpressionTraversal
+        return ExpressionTraversal.differentiate(this, x.getVariable());
+    }
+
+    /**
+     * @param variable a variable
+     * @return the memoized derivative of this with respect to variable, or null if it was not computed yet;
+     *         counts a hit or a miss
+     */
+    Expression memoizedDerivative(String variable) {
+        Expression derivative = Memoization.Derivatives.find(derivatives, variable);
+        if (derivative != null) {
+            Memoization.derivativeHit();
+        } else {
+            Memoization.derivativeMiss();
+        }
+        return derivative;
+    }
+
+    /**
+     * Compute and memoize the derivative of this from the derivatives of its operands.
+     * @param variable the variable to differentiate by
+     * @param leftDerivative the derivative of the left operand with respect to variable
+     * @param rightDerivative the derivative of the right operand with respect to variable
+     * @return the derivative of this with respect to variable
+     */
+    Expression differentiate(String variable, Expression leftDerivative, Expression rightDerivative) {
+        // derivatives are simplified already, so only the rules for their sum have to be applied
+        Expression derivative = simplifySum(leftDerivative, rightDerivative);
+        derivatives = Memoization.Derivatives.with(derivatives, variable, derivative);
+        return derivative;
     }
 
     @Override
     public Expression differentiate(String stringVariable) {
-        return differentiate(new Variable(stringVariable));
+        return differentiate(variable(stringVariable));
     }
 
     /**
@@ -61,85 +129,49 @@ public class Sum implements Expression {
      */
     @Override
     public Expression simplify() {
-        final Expression zero = new Constant(0);
-        Expression left = this.left.simplify();
-        Expression right = this.right.simplify();
-
-        // sum of two constants is a single constant
-        if (right.isConstant() && left.isConstant()) {
-            return new Constant(((Constant) right).getValue() + ((Constant) left).getValue());
-        }
-        // 0 + x = x
-        else if (left.equals(zero)) return right;
-        // x + 0 = x
-        else if (right.equals(zero)) return left;
-
-        // take out common factors
-        Expression reduced = new Sum(left,right);
-        if (left.isProduct() && right.isProduct()) {
-            Product leftProduct = (Product) left;
-            Product rightProduct = (Product) right;
-            // x * a + x * b = x * (a + b)
-            if (leftProduct.getLeft().equals(rightProduct.getLeft())){
-                reduced = new Product(leftProduct.getLeft(), (new Sum(leftProduct.getRight(),
-                                                                      rightProduct.getRight())).simplify());
-            }
-            // x * a + b * x = x * (a + b)
-            else if (leftProduct.getLeft().equals(rightProduct.getRight())){
-                reduced = new Product(leftProduct.getLeft(), (new Sum(leftProduct.getRight(),
-                                                                      rightProduct.getLeft())).simplify());
-            }
-            // a * x + x * b = x * (a + b)
-            else if (leftProduct.getRight().equals(rightProduct.getLeft())){
-                reduced = new Product(leftProduct.getRight(), (new Sum(leftProduct.getLeft(),
-                                                                       rightProduct.getRight())).simplify());
-            }
-            // a * x + b * x = x * (a + b)
-            else if (leftProduct.getRight().equals(rightProduct.getRight())){
-                reduced = new Product(leftProduct.getRight(), (new Sum(leftProduct.getLeft(),
-                                                                       rightProduct.getLeft())).simplify());
-            }
-            return reduced;
+        Expression memo = simplified;
+        if (memo != null) {
+            Memoization.simplifyHit();
+            return memo;
         }
-        else if (left.isProduct()) {
-            Product leftProduct = (Product) left;
-            // x * a + x = x * (a + 1)
-            if (leftProduct.getLeft().equals(right)) {
-                reduced = new Product(leftProduct.getLeft(),(new Sum(leftProduct.getRight(),
-                                                                     new Constant(1))).simplify());
-            }
-            // a * x + x = x * (a + 1)
-            else if (leftProduct.getRight().equals(right)) {
-                reduced = new Product(leftProduct.getRight(),(new Sum(leftProduct.getLeft(),
-                                                                      new Constant(1))).simplify());
-            }
-            return reduced;
-        }
-        else if (right.isProduct()) {
-            Product rightProduct = (Product) right;
-            // x + x * a = x * (a + 1)
-            if (rightProduct.getLeft().equals(left)) {
-                reduced = new Product(rightProduct.getLeft(),(new Sum(rightProduct.getRight(),
-                                                                      new Constant(1))).simplify());
-            }
-            // x + a * x = x * (a + 1)
-            else if (rightProduct.getRight().equals(left)) {
-                reduced = new Product(rightProduct.getRight(),(new Sum(rightProduct.getLeft(),
-                                                                       new Constant(1))).simplify());
-            }
-            return reduced;
-        }
-        // x + x = 2 * x
-        else if (right.equals(left)) {
-            reduced = new Product(new Constant(2), left);
-            return reduced.simplify();
+        // the operands are simplified bottom-up with an explicit stack, see ExpressionTraversal
+        return ExpressionTraversal.simplify(this);
+    }
+
+    /**
+     * @return the memoized simplified form of this, or null if it was not computed yet; counts a hit or a miss
+     */
+    Expression memoizedSimplify() {
+        Expression memo = simplified;
+        if (memo != null) {
+            Memoization.simplifyHit();
+        } else {
+            Memoization.simplifyMiss();
         }
-        // if none of the above cases apply return the sum in which both left and right are simplified
-        return new Sum(left,right);
+        return memo;
+    }
+
+    /**
+     * Compute and memoize the simplified form of this from the simplified forms of its operands.
+     * @param left the left operand simplified
+     * @param right the right operand simplified
+     * @return this simplified
+     */
+    Expression simplify(Expression left, Expression right) {
+        Expression memo = simplifySum(left, right);
+        simplified = memo;
+        return memo;
+    }
 
-        // x+x*x+x gave stack overflow, x+y+x, x+y
-        // x*(x+x*(y+x)*x+(y*x+z)*x+x) gave stack overflow,  x+x*(y+x)*x,  x+x*y*x
-        // x*x*x*X*X*X*X*XxX*X*Xx*X*x*XX*X*XX*x, and then !d/dx gave stack overflow
+    /**
+     * Simplify the sum of two expressions that are simplified already, so only the rules for this sum itself are
+     * applied and left and right are not simplified again. See simplify() and SimplificationRules for the rules.
+     * @param left a simplified expression
+     * @param right a simplified expression
+     * @return a simplified expression equal to left + right
+     */
+    static Expression simplifySum(Expression left, Expression right) {
+        return SimplificationRules.engine().rewriteSum(left, right);
     }
 
     @Override
@@ -168,26 +200,24 @@ public class Sum implements Expression {
      */
     @Override
     public Expression simplify(Map<String, Double> environment) {
-        Expression left = this.left.simplify(environment);
-        Expression right = this.right.simplify(environment);
-        return (new Sum(left, right)).simplify();
+        return ExpressionTraversal.simplify(this, environment);
     }
 
     @Override
     public String toString() {
-        return "(" + left.toString() + "+" + right.toString() + ")";
+        return ExpressionPrinter.toString(this);
     }
 
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) return true;
         if (!(obj instanceof Sum)) return false;
-        return (left.equals(((Sum) obj).getLeft()) && right.equals(((Sum) obj).getRight()));
+        // compares the operands pair by pair with an explicit stack, see ExpressionTraversal
+        return ExpressionTraversal.equal(this, (Sum) obj);
     }
 
     @Override
     public int hashCode() {
-        int result = 1;
-        result = 37 * result + left.hashCode();
-        return 37 * result + right.hashCode();
+        return hash;
     }
 }
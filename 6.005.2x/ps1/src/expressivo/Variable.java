@@ -4,15 +4,21 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static expressivo.ExpressionInterner.constant;
+import static expressivo.ExpressionInterner.variable;
+
 public class Variable implements Expression {
 
     // rep
     private final String variable; // case-sensitive
+    private final int hash;
+    private final boolean interned;
 
     // Abstraction:
     //      a string that represents an algebraic variable
     // Rep invariant:
-    //      the variable is always a non-empty sequence of letters
+    //      the variable is always a non-empty sequence of letters, hash is the hash of the variable,
+    //      interned iff this is the variable of ExpressionInterner with this name
     // Safety from rep exposure
     //      the field is final and immutable
 
@@ -21,7 +27,17 @@ public class Variable implements Expression {
      * @param variable the name of the variable
      */
     public Variable(String variable) {
+        this(variable, false);
+    }
+
+    /**
+     * @param variable the name of the variable
+     * @param interned true iff this variable is created by ExpressionInterner
+     */
+    Variable(String variable, boolean interned) {
         this.variable = variable;
+        this.hash = 37 + variable.hashCode();
+        this.interned = interned;
         checkRep();
     }
 
@@ -33,19 +49,26 @@ public class Variable implements Expression {
         return variable;
     }
 
+    /**
+     * @return true iff this variable was created by ExpressionInterner
+     */
+    boolean isInterned() {
+        return interned;
+    }
+
     /**
      * The derivative of a variable wrt x is 1 when the variable equals x, and 0 otherwise
      * @param x the variable with respect to which we take the derivative
      * @return the derivative of the expression
      */
     public Expression differentiate(Variable x) {
-        if (this.equals(x)) return new Constant(1);
-        else return new Constant(0);
+        if (this.equals(x)) return constant(1);
+        else return constant(0);
     }
 
     @Override
     public Expression differentiate(String stringVariable) {
-        return differentiate(new Variable(stringVariable));
+        return differentiate(variable(stringVariable));
     }
 
     /**
@@ -82,7 +105,7 @@ public class Variable implements Expression {
     public Expression simplify(Map<String, Double> environment) {
         if (environment.containsKey(variable)) {
             assert environment.get(variable) > 0;
-            return new Constant(environment.get(variable));
+            return constant(environment.get(variable));
         } else return this;
     }
 
@@ -93,12 +116,15 @@ public class Variable implements Expression {
 
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) return true;
         if (!(obj instanceof Variable)) return false;
-        return variable.equals(((Variable) obj).getVariable());
+        Variable that = (Variable) obj;
+        if (interned && that.interned) return false;
+        return variable.equals(that.getVariable());
     }
 
     @Override
     public int hashCode() {
-        return 37 + variable.hashCode();
+        return hash;
     }
 }
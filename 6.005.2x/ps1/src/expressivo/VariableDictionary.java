@@ -0,0 +1,75 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dictionary of variable names: every distinct name gets a small non-negative id, in the order the names are first
+ * seen, and keeps it for the lifetime of the program. Ids let compact representations such as Polynomial refer to
+ * variables by an int, and compare them by an int comparison.
+ * The dictionary only grows: since a Polynomial holds bare ids, there is no telling when a name is no longer used, so
+ * unlike the nodes of ExpressionInterner the names are never collected. A long-lived program, such as
+ * ExpressivoServer, keeps every variable name it was ever given.
+ * This class is threadsafe.
+ */
+class VariableDictionary {
+
+    // Abstraction function
+    //      maps names[i] to id i, for every 0 <= i < size
+    //
+    // Rep invariant
+    //      ids.get(names[i]) == i for all 0 <= i < size, ids has exactly size entries, names has no duplicates
+    //
+    // Safety from rep exposure
+    //      the fields are private and never returned, only the (immutable) names and primitive ids are
+    //
+    // Thread safety
+    //      ids is a concurrent map; names and size are only changed while holding the lock of the class, a
+    //      name is put in names before its id is published in ids, and names is volatile so readers see the array
+    //      the id was published with (or a newer copy)
+
+    private static final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[16];
+    private static int size = 0;
+
+    /**
+     * @param name a variable name
+     * @return the id of name, assigning a new one if the name was not seen before
+     */
+    static int id(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (VariableDictionary.class) {
+            id = ids.get(name);
+            if (id == null) {
+                String[] current = names;
+                if (size == current.length) {
+                    current = Arrays.copyOf(current, 2 * size);
+                }
+                current[size] = name;
+                names = current;
+                id = size++;
+                ids.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * @param id an id returned by id()
+     * @return the name with this id
+     */
+    static String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return the number of names in the dictionary
+     */
+    static synchronized int size() {
+        return size;
+    }
+}
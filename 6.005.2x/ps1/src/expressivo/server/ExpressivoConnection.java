@@ -0,0 +1,166 @@
+package expressivo.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Connection between an expressivo server and one client (usage: "new Thread(new ExpressivoConnection(...)).start();").
+ * The requests of the client are answered according to the ExpressivoProtocol, in the order they were sent. They may
+ * be pipelined: the client does not need to wait for a response before sending the next request. Up to
+ * PIPELINE_DEPTH requests of a connection are computed concurrently on the worker pool of the server, while this
+ * connection reads the next requests and writes the responses of the earlier ones.
+ */
+public class ExpressivoConnection implements Runnable {
+
+    /** Maximal number of requests of one connection that are read but not answered yet */
+    public static final int PIPELINE_DEPTH = 64;
+
+    /** Marks the end of the requests in the queue of pending responses */
+    private static final Pending END = new Pending(0, null);
+
+    private final Socket socket;
+    private final ExpressivoProtocol protocol;
+    private final ExecutorService workers;
+    private final LatencyRecorder latencies;
+
+    // Abstraction function
+    //      The connection with the client at the other end of socket, whose requests are answered by protocol on the
+    //      threads of workers; the latency of every request, from reading it to writing its response, is recorded
+    //      in latencies.
+    //
+    // Rep invariant
+    //      none besides the fields not being null
+    //
+    // Safety from rep exposure
+    //      all fields are private and never returned
+    //
+    // Thread safety
+    //      run() is called by one thread, which reads the requests, and starts one more thread that writes the
+    //      responses; they only share the blocking queue of pending responses, and the threadsafe protocol, worker
+    //      pool and recorder
+
+    /**
+     * @param socket the connection to the client
+     * @param protocol answers the requests
+     * @param workers computes the answers
+     * @param latencies receives the latency of every request
+     */
+    public ExpressivoConnection(Socket socket, ExpressivoProtocol protocol, ExecutorService workers,
+                                LatencyRecorder latencies) {
+        this.socket = socket;
+        this.protocol = protocol;
+        this.workers = workers;
+        this.latencies = latencies;
+    }
+
+    /**
+     * A request that is read, and its response that is computed or still being computed.
+     */
+    private static class Pending {
+        private final long start;
+        private final Future<String> response;
+
+        Pending(long start, Future<String> response) {
+            this.start = start;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Handle the connection until the client says bye or disconnects, then close the socket.
+     */
+    @Override
+    public void run() {
+        BlockingQueue<Pending> pending = new ArrayBlockingQueue<>(PIPELINE_DEPTH + 1);
+        try (
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                                                             StandardCharsets.UTF_8));
+                Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+                                                                       StandardCharsets.UTF_8))
+        ) {
+            Thread writer = new Thread(() -> writeResponses(pending, out), "expressivo-writer");
+            writer.start();
+            try {
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    long start = System.nanoTime();
+                    String request = line;
+                    pending.put(new Pending(start, workers.submit(() -> protocol.handleRequest(request))));
+                    if (request.trim().equals("bye")) {
+                        break;
+                    }
+                }
+            } catch (RejectedExecutionException e) {
+                // the server is closing
+            } finally {
+                pending.put(END);
+                writer.join();
+            }
+        } catch (IOException e) {
+            // the client disconnected; don't terminate serve()
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // do nothing
+            }
+        }
+    }
+
+    /**
+     * Write the responses of the pending requests in order, until END. The output is flushed whenever no response
+     * is pending, so pipelined responses are sent together.
+     */
+    private void writeResponses(BlockingQueue<Pending> pending, Writer out) {
+        try {
+            for (Pending next = pending.take(); next != END; next = pending.take()) {
+                String response;
+                try {
+                    response = next.response.get();
+                } catch (ExecutionException e) {
+                    // e.g. an AssertionError when the server runs with assertions enabled
+                    response = "error " + e.getCause();
+                } catch (CancellationException e) {
+                    // the server closed before computing it
+                    response = "error " + e;
+                }
+                out.write(response);
+                out.write("\n");
+                latencies.record(System.nanoTime() - next.start);
+                if (pending.isEmpty()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // the client disconnected; drain the queue so the reader is not blocked
+            drain(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void drain(BlockingQueue<Pending> pending) {
+        try {
+            for (Pending next = pending.take(); next != END; next = pending.take()) {
+                next.response.cancel(false);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package expressivo.server;
+
+import expressivo.Commands;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Protocol for an expressivo server: every request is one line, and is answered by one line.
+ * <pre>
+ *   REQUEST ::= DIFFERENTIATE | SIMPLIFY | "stats" | "help" | "bye"
+ *   DIFFERENTIATE ::= "d/d" VARIABLE " " EXPRESSION
+ *   SIMPLIFY ::= "simplify" (" " VARIABLE "=" NUMBER)* " " EXPRESSION
+ *   RESPONSE ::= "ok " TEXT | "error " TEXT
+ * </pre>
+ * DIFFERENTIATE is answered with Commands.differentiate(EXPRESSION, VARIABLE), SIMPLIFY with Commands.simplify() of
+ * EXPRESSION in the environment of the assignments, "stats" with the number of requests, cache hits and the latency
+ * percentiles of the server, "help" with this grammar, and "bye" with "ok bye" after which the server disconnects.
+ * Invalid requests, including invalid expressions, are answered with an error.
+ *
+ * The results of DIFFERENTIATE and SIMPLIFY are kept in a bounded least-recently-used cache shared by all
+ * connections, so a request that was answered before only costs a lookup.
+ * This class is threadsafe.
+ */
+public class ExpressivoProtocol {
+
+    /** Default maximal number of results kept in the cache */
+    public static final int DEFAULT_CACHE_CAPACITY = 10000;
+
+    private static final String HELP_MESSAGE = "requests: d/dVARIABLE EXPRESSION | simplify VARIABLE=NUMBER ... "
+                                               + "EXPRESSION | stats | help | bye";
+    private static final String VARIABLE = "[A-Za-z]+";
+    private static final Pattern DIFFERENTIATE = Pattern.compile("d/d(" + VARIABLE + ") +(.+)");
+    private static final Pattern SIMPLIFY = Pattern.compile("simplify((?: +" + VARIABLE + "=[^ =]+)*) +([^=]+)");
+    private static final Pattern ASSIGNMENT = Pattern.compile("(" + VARIABLE + ")=([^ =]+)");
+
+    // rep
+    private final Map<String, String> cache;
+    private final LatencyRecorder latencies;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+
+    // Abstraction function
+    //      A protocol that answered requests requests, of which hits from the cache, which maps requests to their
+    //      responses; latencies are the latencies of the server it reports in "stats".
+    //
+    // Rep invariant
+    //      every value in cache is the "ok" response of its key, hits <= requests
+    //
+    // Safety from rep exposure
+    //      all fields are private, the cache is never returned; latencies is shared with the server on purpose
+    //
+    // Thread safety
+    //      every access of the cache is guarded by its lock; Commands is threadsafe, the counters are atomic, and
+    //      the recorder is threadsafe
+
+    /**
+     * Make a protocol with a cache of at most cacheCapacity results.
+     * @param cacheCapacity the maximal number of results kept in the cache, non-negative
+     * @param latencies the latencies of the server, reported in the response to "stats"
+     */
+    public ExpressivoProtocol(int cacheCapacity, LatencyRecorder latencies) {
+        if (cacheCapacity < 0) {
+            throw new IllegalArgumentException("Negative cache capacity " + cacheCapacity);
+        }
+        this.cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheCapacity;
+            }
+        };
+        this.latencies = latencies;
+    }
+
+    /**
+     * Handler for client input, computing the response to a request.
+     *
+     * @param request one line from a client
+     * @return the response to request, "ok bye" if the client should be disconnected
+     */
+    public String handleRequest(String request) {
+        requests.incrementAndGet();
+        String trimmed = request.trim();
+        if (trimmed.equals("bye")) {
+            return "ok bye";
+        } else if (trimmed.equals("help")) {
+            return "ok " + HELP_MESSAGE;
+        } else if (trimmed.equals("stats")) {
+            return "ok requests=" + requests.get() + " hits=" + hits.get() + " " + latencies;
+        }
+
+        synchronized (cache) {
+            String cached = cache.get(trimmed);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+        // compute outside of the lock, such that requests for different results do not wait on each other
+        String response;
+        try {
+            response = "ok " + compute(trimmed);
+        } catch (RuntimeException e) {
+            return "error " + e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        synchronized (cache) {
+            cache.put(trimmed, response);
+        }
+        return response;
+    }
+
+    /**
+     * @return the result of a DIFFERENTIATE or SIMPLIFY request
+     * @throws IllegalArgumentException if request is not a valid DIFFERENTIATE or SIMPLIFY request
+     */
+    private static String compute(String request) {
+        Matcher differentiate = DIFFERENTIATE.matcher(request);
+        if (differentiate.matches()) {
+            return Commands.differentiate(differentiate.group(2), differentiate.group(1));
+        }
+        Matcher simplify = SIMPLIFY.matcher(request);
+        if (simplify.matches()) {
+            Map<String, Double> environment = new HashMap<>();
+            Matcher assignment = ASSIGNMENT.matcher(simplify.group(1));
+            while (assignment.find()) {
+                double value = Double.parseDouble(assignment.group(2));
+                if (!(value >= 0) || Double.isInfinite(value)) {
+                    throw new IllegalArgumentException("Invalid value " + assignment.group(2));
+                }
+                environment.put(assignment.group(1), value);
+            }
+            return Commands.simplify(simplify.group(2), environment);
+        }
+        throw new IllegalArgumentException("Invalid request '" + request + "', " + HELP_MESSAGE);
+    }
+
+    /**
+     * @return the number of requests handled so far
+     */
+    public long requests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests answered from the cache so far
+     */
+    public long hits() {
+        return hits.get();
+    }
+}
@@ -0,0 +1,228 @@
+package expressivo.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Expressivo server. This listens on the loopback interface for connections, which are handled by
+ * ExpressivoConnection in accordance to the ExpressivoProtocol: it answers Commands.differentiate() and
+ * Commands.simplify() requests on a pool of worker threads shared by all connections, with a result cache shared by
+ * all connections. A long-lived server pays the start-up of the JVM, the JIT warm-up and the loading of the grammar
+ * only once, instead of once per script that starts Main.
+ * The names of the variables are interned for the lifetime of the server (see VariableDictionary), so every variable
+ * name any client sends keeps taking memory until the server exits; serve only clients with a bounded vocabulary.
+ */
+public class ExpressivoServer {
+
+    /** Default server port. */
+    public static final int DEFAULT_PORT = 4445;
+    /** Maximum port number as defined by ServerSocket. */
+    private static final int MAXIMUM_PORT = 65535;
+
+    /** Socket for receiving incoming connections. */
+    private final ServerSocket serverSocket;
+    /** Computes the responses of all connections */
+    private final ExecutorService workers;
+    /** Sockets of the connections that are still open */
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    /** Latencies of the requests of all connections */
+    private final LatencyRecorder latencies = new LatencyRecorder();
+    private final ExpressivoProtocol protocol;
+
+    // Abstraction function
+    //      An expressivo server listening on the port of serverSocket of the loopback interface, which answers the
+    //      requests of its clients with protocol on the threads of workers, and records their latencies; the
+    //      clients still connected are those at the other end of connections.
+    //
+    // Rep invariant
+    //      serverSocket is bound to the loopback address
+    //
+    // Safety from rep exposure
+    //      all fields are private; only the recorder and protocol are returned, which are threadsafe and meant to be
+    //      observed
+    //
+    // Thread safety
+    //      serve() is called by one thread; the socket, worker pool, connection set, recorder and protocol are
+    //      threadsafe, and every connection runs on a thread of its own, see ExpressivoConnection. serve() adds a
+    //      socket before it checks whether the server is closed, and close() closes the server before it looks at
+    //      the sockets, so every socket is either seen by close() or closed by serve()
+
+    /**
+     * Make an ExpressivoServer that listens for connections on port of the loopback interface.
+     *
+     * @param port port number, requires 0 <= port <= 65535; 0 picks a free port, see getPort()
+     * @param threads the number of worker threads, at least 1
+     * @param cacheCapacity the maximal number of results kept in the cache, non-negative
+     * @throws IOException if an error occurs opening the server socket
+     */
+    public ExpressivoServer(int port, int threads, int cacheCapacity) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least 1 worker thread, not " + threads);
+        }
+        this.protocol = new ExpressivoProtocol(cacheCapacity, latencies);
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        ThreadFactory daemons = runnable -> {
+            Thread thread = new Thread(runnable, "expressivo-worker");
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.workers = Executors.newFixedThreadPool(threads, daemons);
+    }
+
+    /**
+     * @return the port this server listens on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the latencies of the requests answered so far, from reading a request to writing its response
+     */
+    public LatencyRecorder getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @return the protocol answering the requests, with the counts of requests and cache hits
+     */
+    public ExpressivoProtocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Run the server, listening for client connections and handling them.
+     * Returns only when the server is closed, or an exception is thrown.
+     *
+     * @throws IOException if the main server socket is broken
+     *                     (IOExceptions from individual clients do *not* terminate serve())
+     */
+    public void serve() throws IOException {
+        while (true) {
+            // block until a client connects
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+
+            connections.add(socket);
+            if (serverSocket.isClosed()) {
+                // close() may not have seen this socket
+                socket.close();
+                return;
+            }
+
+            // handle the client
+            ExpressivoConnection handler = new ExpressivoConnection(socket, protocol, workers, latencies);
+            Thread connection = new Thread(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    connections.remove(socket);
+                }
+            }, "expressivo-connection");
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+    /**
+     * Stop listening for connections and stop the worker pool; connections that are still open are answered with
+     * the responses of the requests that were computed already, and an error for the others, and then closed.
+     *
+     * @throws IOException if an error occurs closing the server socket
+     */
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Runnable queued : workers.shutdownNow()) {
+            // never run, so a connection waiting for its response would wait forever
+            ((Future<?>) queued).cancel(false);
+        }
+        for (Socket socket : connections) {
+            try {
+                // the connection reads the end of its requests, answers those it read and closes the socket
+                socket.shutdownInput();
+            } catch (IOException e) {
+                // the connection closed the socket already
+            }
+        }
+    }
+
+    /**
+     * Start an ExpressivoServer using the given arguments.
+     *
+     * <br> Usage:
+     *      ExpressivoServer [--port PORT] [--threads THREADS] [--cache CAPACITY]
+     *
+     * <br> PORT is an optional integer in the range 0 to 65535 inclusive, by default 4445, specifying the port of
+     *      the loopback interface the server should be listening on for incoming connections.
+     * <br> THREADS is the number of worker threads, by default the number of processors.
+     * <br> CAPACITY is the maximal number of results the cache keeps, by default 10000.
+     * <br> The latency percentiles are printed when the server shuts down.
+     *
+     * @param args arguments as described
+     */
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int cacheCapacity = ExpressivoProtocol.DEFAULT_CACHE_CAPACITY;
+
+        Queue<String> arguments = new LinkedList<>(Arrays.asList(args));
+        try {
+            while ( ! arguments.isEmpty()) {
+                String flag = arguments.remove();
+                try {
+                    if (flag.equals("--port")) {
+                        port = Integer.parseInt(arguments.remove());
+                        if (port < 0 || port > MAXIMUM_PORT) {
+                            throw new IllegalArgumentException("port " + port + " out of range");
+                        }
+                    } else if (flag.equals("--threads")) {
+                        threads = Integer.parseInt(arguments.remove());
+                    } else if (flag.equals("--cache")) {
+                        cacheCapacity = Integer.parseInt(arguments.remove());
+                    } else {
+                        throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
+                    }
+                } catch (NoSuchElementException nsee) {
+                    throw new IllegalArgumentException("missing argument for " + flag);
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException("unable to parse number for " + flag);
+                }
+            }
+        } catch (IllegalArgumentException iae) {
+            System.err.println(iae.getMessage());
+            System.err.println("usage: ExpressivoServer [--port PORT] [--threads THREADS] [--cache CAPACITY]");
+            return;
+        }
+
+        try {
+            ExpressivoServer server = new ExpressivoServer(port, threads, cacheCapacity);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.println(
+                    "requests=" + server.getProtocol().requests() + " hits=" + server.getProtocol().hits() + " "
+                    + server.getLatencies())));
+            System.err.println("listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                               + server.getPort());
+            server.serve();
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package expressivo.server;
+
+import java.util.Arrays;
+
+/**
+ * Records the latencies of requests, and reports percentiles over the most recent ones.
+ * This class is threadsafe.
+ */
+public class LatencyRecorder {
+
+    /** Default number of most recent latencies the percentiles are computed over */
+    public static final int DEFAULT_WINDOW = 1 << 16;
+
+    // rep
+    private final long[] samples;
+    private long count = 0;
+    private long max = 0;
+
+    // Abstraction function
+    //      The latencies of the count requests recorded so far, of which the most recent min(count, samples.length)
+    //      are samples[0..min(count, samples.length)), in the order they were recorded modulo samples.length; max is
+    //      the largest latency ever recorded.
+    //
+    // Rep invariant
+    //      samples.length > 0, count >= 0, every sample and max >= 0
+    //
+    // Safety from rep exposure
+    //      all fields are private, only copies of the samples and primitive values are returned
+    //
+    // Thread safety
+    //      every access of the rep is guarded by the lock of this
+
+    /**
+     * Make a recorder over the DEFAULT_WINDOW most recent latencies.
+     */
+    public LatencyRecorder() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window the number of most recent latencies the percentiles are computed over, at least 1
+     */
+    public LatencyRecorder(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("The window needs at least 1 latency, not " + window);
+        }
+        samples = new long[window];
+    }
+
+    /**
+     * @param nanos the latency of a request in nanoseconds, non-negative
+     */
+    public synchronized void record(long nanos) {
+        samples[(int) (count % samples.length)] = nanos;
+        count++;
+        max = Math.max(max, nanos);
+    }
+
+    /**
+     * @return the number of latencies recorded so far
+     */
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * @param percentiles each in the range [0, 100]
+     * @return the latency in nanoseconds below or at which the given percentage of the recent latencies are, for
+     *         each percentile (by the nearest-rank method), or 0 for each if nothing was recorded yet
+     */
+    public long[] percentiles(double... percentiles) {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+        }
+        Arrays.sort(sorted);
+        long[] result = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            if (!(percentiles[i] >= 0 && percentiles[i] <= 100)) {
+                throw new IllegalArgumentException("Invalid percentile " + percentiles[i]);
+            }
+            if (sorted.length > 0) {
+                int rank = (int) Math.ceil(percentiles[i] / 100 * sorted.length);
+                result[i] = sorted[Math.max(rank, 1) - 1];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of recorded latencies, their median, 90th, 99th and 99.9th percentile and the maximum, e.g.
+     *         "count=1000 p50=35us p90=80us p99=210us p999=1500us max=2400us"
+     */
+    @Override
+    public String toString() {
+        long[] p = percentiles(50, 90, 99, 99.9);
+        long count;
+        long max;
+        synchronized (this) {
+            count = this.count;
+            max = this.max;
+        }
+        return String.format("count=%d p50=%dus p90=%dus p99=%dus p999=%dus max=%dus",
+                             count, p[0] / 1000, p[1] / 1000, p[2] / 1000, p[3] / 1000, max / 1000);
+    }
+}
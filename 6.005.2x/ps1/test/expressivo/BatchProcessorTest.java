@@ -0,0 +1,99 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for BatchProcessor.
+ */
+public class BatchProcessorTest {
+
+    // Testing strategy
+    //   - records: none, one, many (more than the window), with 0, 1 and several commands, each kind of command
+    //   - lines: blank lines between and inside records, commands before the first expression
+    //   - errors: invalid expression, invalid command, command without expression; the record continues after them
+    //   - threads: 1, several; the output is in input order and the same for any number of threads; less than 1
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    /**
+     * @return the output lines of processing input with threads, and check the summary
+     */
+    private static List<String> process(String input, int threads, int records, int errors) throws IOException {
+        StringWriter out = new StringWriter();
+        BatchProcessor.Summary summary = BatchProcessor.process(new BufferedReader(new StringReader(input)), out,
+                                                                threads);
+        assertEquals(records, summary.getRecords());
+        assertEquals(errors, summary.getErrors());
+        String output = out.toString();
+        if (output.isEmpty()) {
+            assertEquals(0, summary.getLines());
+            return Arrays.asList();
+        }
+        List<String> lines = Arrays.asList(output.split(System.lineSeparator()));
+        assertEquals(lines.size(), summary.getLines());
+        return lines;
+    }
+
+    @Test
+    public void testEmptyInput() throws IOException {
+        assertEquals(Arrays.asList(), process("", 2, 0, 0));
+        assertEquals(Arrays.asList(), process("\n  \n", 2, 0, 0));
+    }
+
+    @Test
+    public void testRecords() throws IOException {
+        String input = "x*y\n!d/dx\n!simplify y=2\n\nx+x\n!shared on\n!d/dx\n3*4\n";
+        assertEquals(Arrays.asList("x*y", "y", "2", "2*x", "let-bound output on", "2", "12"),
+                     process(input, 2, 3, 0));
+    }
+
+    @Test
+    public void testErrorsDoNotStopTheRecord() throws IOException {
+        String input = "!d/dx\nx+\n!d/dx\nx*x\n!d/d1\n!simplify x=2\n";
+        List<String> output = process(input, 3, 3, 4);
+        assertEquals(6, output.size());
+        assertEquals("line 1: must enter an expression before using this command", output.get(0));
+        assertTrue(output.get(1), output.get(1).startsWith("line 2: java.lang.IllegalArgumentException"));
+        assertEquals("line 3: must enter an expression before using this command", output.get(2));
+        assertEquals("x*x", output.get(3));
+        assertTrue(output.get(4), output.get(4).startsWith("line 5: expressivo.Main$CommandSyntaxException"));
+        assertEquals("4", output.get(5));
+    }
+
+    @Test
+    public void testOrderIndependentOfThreads() throws IOException {
+        StringBuilder input = new StringBuilder();
+        int records = 50 * BatchProcessor.WINDOW_PER_THREAD;
+        for (int i = 1; i <= records; i++) {
+            // records of varying cost, so later records may finish before earlier ones
+            StringBuilder expression = new StringBuilder("x");
+            for (int j = 0; j < i % 17; j++) {
+                expression.append("*(x+").append(i).append(')');
+            }
+            input.append(expression).append("\n!d/dx\n!simplify x=").append(1 + i % 3).append('\n');
+        }
+        List<String> sequential = process(input.toString(), 1, records, 0);
+        assertEquals(3 * records, sequential.size());
+        assertEquals(sequential, process(input.toString(), 4, records, 0));
+        assertEquals(Commands.simplify(Commands.differentiate("x*(x+1)", "x"), Collections.singletonMap("x", 2.0)),
+                     sequential.get(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoThreads() throws IOException {
+        BatchProcessor.process(new BufferedReader(new StringReader("x")), new StringWriter(), 0);
+    }
+}
@@ -0,0 +1,124 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Expression.evaluate(columns, output) and ColumnEvaluator.
+ */
+public class ColumnEvaluatorTest {
+
+    // Testing strategy
+    //   - expression: constant, variable, sum and product of variables and constants, of two constants,
+    //                 with shared subexpressions, many intermediate results
+    //   - rows: 0, 1, not a multiple of the block size, enough to be split over several threads
+    //   - columns: exactly the variables, extra variables, longer than output
+    //   - invalid columns: missing variable, too few values
+    //   - compare with CompiledExpression on random expressions
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testConstantAndVariable() {
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[] {1, 2, 3});
+        double[] output = new double[3];
+        Expression.parse("2.5").evaluate(columns, output);
+        assertArrayEquals(new double[] {2.5, 2.5, 2.5}, output, 0);
+        Expression.parse("x").evaluate(columns, output);
+        assertArrayEquals(new double[] {1, 2, 3}, output, 0);
+    }
+
+    @Test
+    public void testSumAndProduct() {
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[] {1, 2, 3, 4});
+        columns.put("y", new double[] {5, 6, 7, 8, 9});
+        columns.put("unused", new double[0]);
+        double[] output = new double[4];
+        Expression.parse("x*y+3*x+y*2+1").evaluate(columns, output);
+        assertArrayEquals(new double[] {5 + 3 + 10 + 1, 12 + 6 + 12 + 1, 21 + 9 + 14 + 1, 32 + 12 + 16 + 1},
+                          output, 0);
+    }
+
+    @Test
+    public void testConstantOperands() {
+        Map<String, double[]> columns = new HashMap<>();
+        double[] output = new double[2];
+        new Product(new Constant(3), new Sum(new Constant(1), new Constant(2))).evaluate(columns, output);
+        assertArrayEquals(new double[] {9, 9}, output, 0);
+    }
+
+    @Test
+    public void testNoRows() {
+        double[] output = new double[0];
+        Expression.parse("x*x").evaluate(Collections.singletonMap("x", new double[0]), output);
+        assertEquals(0, output.length);
+    }
+
+    @Test
+    public void testSharedSubexpressions() {
+        Expression expression = Expression.parse("(x+y)*(x+y)*(x+y)+(x*y+1)*(x*y+1)");
+        double[] x = {1, 2, 0.5};
+        double[] y = {3, 0, 1.5};
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", x);
+        columns.put("y", y);
+        double[] output = new double[3];
+        expression.evaluate(columns, output);
+        for (int row = 0; row < 3; row++) {
+            double sum = x[row] + y[row];
+            double product = x[row] * y[row] + 1;
+            assertEquals(sum * sum * sum + product * product, output[row], 1e-12);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingColumn() {
+        Expression.parse("x*y").evaluate(Collections.singletonMap("x", new double[1]), new double[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShortColumn() {
+        Expression.parse("x+1").evaluate(Collections.singletonMap("x", new double[2]), new double[3]);
+    }
+
+    @Test
+    public void testAgreesWithCompiledExpression() {
+        Random random = new Random(6);
+        int[] rowCounts = {1, ColumnEvaluator.BLOCK_SIZE + 7, 2 * ColumnEvaluator.PARALLEL_THRESHOLD + 123};
+        for (int i = 0; i < 60; i++) {
+            Expression expression = Expression.parse(PrattParserTest.randomExpression(random, 4));
+            CompiledExpression compiled = expression.compile(Arrays.asList("x", "y", "Foo"));
+            int rows = rowCounts[i % rowCounts.length];
+            Map<String, double[]> columns = new HashMap<>();
+            for (String variable : compiled.getVariables()) {
+                double[] column = new double[rows];
+                for (int row = 0; row < rows; row++) {
+                    column[row] = random.nextInt(20) * 0.25;
+                }
+                columns.put(variable, column);
+            }
+            double[] output = new double[rows];
+            expression.evaluate(columns, output);
+            double[] values = new double[3];
+            for (int row = 0; row < rows; row++) {
+                for (int j = 0; j < 3; j++) {
+                    values[j] = columns.get(compiled.getVariables().get(j))[row];
+                }
+                // both evaluate the same operations in the same order, so the results are identical
+                assertEquals(expression + " row " + row, compiled.evaluate(values), output[row], 0);
+            }
+        }
+    }
+}
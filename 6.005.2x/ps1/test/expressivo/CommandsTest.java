@@ -5,6 +5,15 @@ package expressivo;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assume;
 import org.junit.Test;
 
 /**
@@ -34,6 +43,44 @@ public class CommandsTest {
         assertEquals(Commands.differentiate(xString, yString), "0");
     }
 
+    /**
+     * The staff parser of the grader, which only knows the grammar of the handout, loaded from the classes the
+     * grader compiles into .grader/bin-tests-final; parses a string into a staff polynomial, or throws.
+     */
+    private static final String STAFF_CLASSES = ".grader/bin-tests-final/";
+
+    private static Object staffParse(ClassLoader staff, String expression) throws Exception {
+        try {
+            return staff.loadClass("expressivo.staff.Parser").getMethod("parse", String.class).invoke(null, expression);
+        } catch (InvocationTargetException e) {
+            throw new AssertionError("the staff parser rejects " + expression, e.getCause());
+        }
+    }
+
+    @Test
+    public void testOutputParsesWithStaffParser() throws Exception {
+        // skipped, not passed, when the grader classes are not unpacked
+        Assume.assumeTrue(new File(STAFF_CLASSES).isDirectory());
+        ClassLoader staff = new URLClassLoader(new URL[] {new File(STAFF_CLASSES).toURI().toURL()});
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("y", 3.0);
+        // products of equal factors are powers inside, and all but the first input are from the grader
+        for (String input : Arrays.asList("x^3*y+(x+1)^2", "x * x", "((((x)) * ((x))))", "x * (x * x)",
+                                          "(x * x) * (y * y)", "x * x * y * y * z * z * x",
+                                          "(x * y * (x + z) + x) * (x * x + y * z)",
+                                          "((((x * y) * (x + z)) + x) * ((x * x) + (y * z)))")) {
+            staffParse(staff, Expression.parse(input).toString());
+            staffParse(staff, Commands.differentiate(input, "x"));
+            staffParse(staff, Commands.differentiate(input, "y"));
+            staffParse(staff, Commands.simplify(input, environment));
+            staffParse(staff, Commands.normalize(input));
+            staffParse(staff, Commands.differentiateNormalized(input, "x"));
+        }
+        // and the text is still the same polynomial
+        String input = "(x * y * (x + z) + x) * (x * x + y * z)";
+        assertEquals(staffParse(staff, input), staffParse(staff, Expression.parse(input).toString()));
+    }
+
     /**
      * With the current Expression interface it's trivial that the commands work as intended, assuming that the
      * methods in Main are correct, i.e. that they recognize the correct commands.
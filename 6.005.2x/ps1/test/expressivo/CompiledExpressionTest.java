@@ -0,0 +1,176 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Expression.compile() and CompiledExpression.
+ */
+public class CompiledExpressionTest {
+
+    // Testing strategy
+    //   - expression: constant, variable, sum, product, nested, with shared subexpressions, not interned
+    //   - size: small, larger than a single generated method, larger than a single generated class,
+    //           deeply nested to the left or right,
+    //           exponentially larger as a tree than as a graph of shared subexpressions
+    //   - variable order: same as in the expression, different, with unused variables, empty
+    //   - invalid variable order: missing variable, duplicate variable
+    //   - evaluate the same compiled expression with several values
+    //   - compare with simplify(environment) on random expressions
+
+    private static final double DELTA = 1e-9;
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testConstant() {
+        CompiledExpression compiled = Expression.parse("2.5").compile(Collections.<String>emptyList());
+        assertEquals(2.5, compiled.evaluate(new double[0]), 0);
+        assertEquals(Collections.emptyList(), compiled.getVariables());
+    }
+
+    @Test
+    public void testVariable() {
+        CompiledExpression compiled = Expression.parse("x").compile(Arrays.asList("y", "x"));
+        assertEquals(4, compiled.evaluate(new double[] {3, 4}), 0);
+        assertEquals(7, compiled.applyAsDouble(new double[] {3, 7}), 0);
+    }
+
+    @Test
+    public void testSumAndProduct() {
+        CompiledExpression compiled = Expression.parse("x*y+3*x+y*2+1").compile(Arrays.asList("x", "y"));
+        assertEquals(2 * 5 + 3 * 2 + 5 * 2 + 1, compiled.evaluate(new double[] {2, 5}), 0);
+        assertEquals(1, compiled.evaluate(new double[] {0, 0}), 0);
+        assertEquals(0.5 * 4 + 1.5 + 8 + 1, compiled.evaluate(new double[] {0.5, 4}), DELTA);
+    }
+
+    @Test
+    public void testSharedSubexpressions() {
+        Expression expression = Expression.parse("(x+y)*(x+y)*(x+y)");
+        CompiledExpression compiled = expression.compile(Arrays.asList("x", "y"));
+        assertEquals(125, compiled.evaluate(new double[] {2, 3}), 0);
+        assertSame(expression, compiled.getExpression());
+    }
+
+    @Test
+    public void testNotInterned() {
+        Expression expression = new Product(new Sum(new Variable("a"), new Constant(1)), new Variable("b"));
+        CompiledExpression compiled = expression.compile(Arrays.asList("a", "b", "c"));
+        assertEquals(12, compiled.evaluate(new double[] {2, 4, 100}), 0);
+    }
+
+    @Test
+    public void testVariablesAreCopied() {
+        List<String> order = new ArrayList<>(Arrays.asList("x", "y"));
+        CompiledExpression compiled = Expression.parse("x+y*y").compile(order);
+        order.set(0, "y");
+        assertEquals(Arrays.asList("x", "y"), compiled.getVariables());
+        assertEquals(10, compiled.evaluate(new double[] {1, 3}), 0);
+    }
+
+    @Test
+    public void testLargeExpression() {
+        StringBuilder builder = new StringBuilder();
+        double expected = 0;
+        for (int i = 0; i < 3000; i++) {
+            builder.append(i == 0 ? "" : "+").append(i).append("*x*y");
+            expected += i * 2.0 * 3.0;
+        }
+        CompiledExpression compiled = Expression.parse(builder.toString()).compile(Arrays.asList("x", "y"));
+        assertEquals(expected, compiled.evaluate(new double[] {2, 3}), 0);
+    }
+
+    @Test
+    public void testLargerThanOneClass() {
+        // a left-deep sum of 40000 terms c*x with distinct constants, which need more than one constant pool
+        Expression x = new Variable("x");
+        Expression expression = new Product(new Constant(0.5), x);
+        double expected = 0.5 * 2;
+        for (int i = 1; i < 40000; i++) {
+            double coefficient = i + 0.5;
+            expression = new Sum(expression, new Product(new Constant(coefficient), x));
+            expected = expected + coefficient * 2;
+        }
+        CompiledExpression compiled = expression.compile(Collections.singletonList("x"));
+        assertEquals(expected, compiled.evaluate(new double[] {2}), 0);
+        assertEquals(0, compiled.evaluate(new double[] {0}), 0);
+    }
+
+    @Test
+    public void testDeeplyNestedToTheRight() {
+        Expression expression = new Variable("x");
+        for (int i = 0; i < 500; i++) {
+            expression = new Sum(new Constant(1), new Product(new Variable("y"), expression));
+        }
+        // with y = 1 every level adds 1
+        CompiledExpression compiled = expression.compile(Arrays.asList("x", "y"));
+        assertEquals(502, compiled.evaluate(new double[] {2, 1}), 0);
+
+        // y*(y*(...*(y*x))), deep enough to overflow the stack if every few levels called another method
+        expression = new Variable("x");
+        for (int i = 0; i < 200000; i++) {
+            expression = new Product(new Variable("y"), expression);
+        }
+        compiled = expression.compile(Arrays.asList("x", "y"));
+        assertEquals(3, compiled.evaluate(new double[] {3, 1}), 0);
+        assertEquals(0, compiled.evaluate(new double[] {0, 2}), 0);
+    }
+
+    @Test
+    public void testExponentialTree() {
+        // a graph of 61 nodes, which as a tree has more than 2^30 leaves
+        Expression expression = ExpressionInterner.variable("x");
+        for (int i = 0; i < 30; i++) {
+            expression = ExpressionInterner.product(ExpressionInterner.sum(expression, ExpressionInterner.constant(0)),
+                                                    ExpressionInterner.sum(expression, ExpressionInterner.constant(0)));
+        }
+        CompiledExpression compiled = expression.compile(Collections.singletonList("x"));
+        // x = 1 makes every level (1+0)*(1+0) = 1
+        assertEquals(1, compiled.evaluate(new double[] {1}), 0);
+        assertEquals(0, compiled.evaluate(new double[] {0}), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVariable() {
+        Expression.parse("x*y").compile(Collections.singletonList("x"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateVariable() {
+        Expression.parse("x").compile(Arrays.asList("x", "x"));
+    }
+
+    @Test
+    public void testAgreesWithSimplify() {
+        Random random = new Random(5);
+        List<String> order = Arrays.asList("x", "y", "Foo");
+        for (int i = 0; i < 300; i++) {
+            Expression expression = Expression.parse(PrattParserTest.randomExpression(random, 4));
+            CompiledExpression compiled = expression.compile(order);
+            for (int j = 0; j < 5; j++) {
+                double[] values = {1 + random.nextInt(9), 1 + random.nextInt(9), 1 + random.nextInt(9)};
+                Map<String, Double> environment = new HashMap<>();
+                for (int k = 0; k < order.size(); k++) {
+                    environment.put(order.get(k), values[k]);
+                }
+                Expression simplified = expression.simplify(environment).simplify();
+                assertTrue(expression.toString(), simplified.isConstant());
+                // simplify() may regroup terms, which changes the rounding a little
+                double expected = ((Constant) simplified).getValue();
+                assertEquals(expression.toString(), expected, compiled.evaluate(values), DELTA * Math.max(1, expected));
+            }
+        }
+    }
+}
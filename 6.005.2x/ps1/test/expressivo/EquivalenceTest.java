@@ -0,0 +1,210 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static expressivo.ExpressionInterner.constant;
+import static expressivo.ExpressionInterner.product;
+import static expressivo.ExpressionInterner.sum;
+import static expressivo.ExpressionInterner.variable;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Equivalence.
+ */
+public class EquivalenceTest {
+
+    // Testing strategy
+    //   - equivalent: structurally equal, commuted, distributed, expanded products, derivatives computed in different
+    //     ways; not equivalent by a constant, by a term, by a variable, by variables with equal hash codes
+    //   - constants: integers, fractions, exact sums of fractions vs rounded coefficients, both constant
+    //   - confidence: default, low, 1 (expansion in the field), invalid (0, negative, above 1, NaN);
+    //     the same answer at every confidence, also for coefficients that are not dyadic fractions
+    //   - degree: constant, sums and products, high degree (expansion in the field)
+    //   - fingerprint: equal for equivalent expressions, different for different ones, agrees with equivalent()
+    //   - expand: terms collected, powers, constants
+    //   - field arithmetic against BigInteger, including values near P
+    //   - deep expressions don't overflow the stack
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    private static boolean equivalent(String left, String right) {
+        return Equivalence.equivalent(Expression.parse(left), Expression.parse(right));
+    }
+
+    @Test
+    public void testEquivalent() {
+        assertTrue(equivalent("x*y", "x*y"));
+        assertTrue(equivalent("x*y + z", "z + y*x"));
+        assertTrue(equivalent("x*(y + z)", "x*y + z*x"));
+        assertTrue(equivalent("(x + 1)*(x + 1)", "x*x + 2*x + 1"));
+        assertTrue(equivalent("(x + y)*(x + y)*(x + y)", "x*x*x + 3*x*x*y + 3*x*y*y + y*y*y"));
+    }
+
+    @Test
+    public void testNotEquivalent() {
+        assertFalse(equivalent("(x + 1)*(x + 1)", "x*x + 2*x + 2"));
+        assertFalse(equivalent("(x + 1)*(x + 1)", "x*x + 1"));
+        assertFalse(equivalent("x*y", "x*z"));
+        // "Aa" and "BB" have the same hash code
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertFalse(equivalent("Aa + 1", "BB + 1"));
+    }
+
+    @Test
+    public void testDerivatives() {
+        Expression expression = Expression.parse("(x + y)*(x + 2)*(y + 3)*x");
+        Expression derivative = expression.differentiate("x");
+        assertTrue(Equivalence.equivalent(derivative, derivative.normalize()));
+        assertTrue(Equivalence.equivalent(derivative, expression.normalize().differentiate("x")));
+        assertFalse(Equivalence.equivalent(derivative, expression.differentiate("y")));
+    }
+
+    @Test
+    public void testConstants() {
+        assertTrue(equivalent("0.5*x + 0.25*x", "0.75*x"));
+        assertFalse(equivalent("0.5*x", "0.25*x"));
+        assertTrue(equivalent("2", "1 + 1"));
+        assertFalse(equivalent("2", "3"));
+        // the field is exact, the canonical form is rounded
+        Expression unrounded = sum(product(variable("x"), constant(0.1)), product(variable("x"), constant(0.2)));
+        Expression rounded = product(constant(0.1 + 0.2), variable("x"));
+        assertFalse(Equivalence.equivalent(unrounded, rounded));
+        assertFalse(Equivalence.equivalent(unrounded, rounded, 1));
+        assertFalse(Equivalence.equivalent(unrounded, unrounded.normalize(), 0.5));
+        assertFalse(Equivalence.equivalent(unrounded, unrounded.normalize(), 1));
+        // both constant
+        Expression constantSum = sum(constant(0.1), constant(0.2));
+        assertFalse(Equivalence.equivalent(constantSum, constant(0.1 + 0.2)));
+        assertFalse(Equivalence.equivalent(constantSum, constant(0.1 + 0.2), 1));
+        assertNotEquals(Equivalence.fingerprint(constantSum), Equivalence.fingerprint(constant(0.1 + 0.2)));
+        assertTrue(Equivalence.equivalent(constantSum, sum(constant(0.2), constant(0.1))));
+        assertTrue(Equivalence.equivalent(constantSum, sum(constant(0.2), constant(0.1)), 1));
+    }
+
+    @Test
+    public void testSameAnswerAtEveryConfidence() {
+        Expression x = variable("x");
+        Expression y = variable("y");
+        // (x + 0.1)*(y + 0.3) with the product of the constants not rounded, and rounded
+        Expression factored = product(sum(x, constant(0.1)), sum(y, constant(0.3)));
+        Expression exact = sum(sum(sum(product(x, y), product(constant(0.3), x)), product(constant(0.1), y)),
+                               product(constant(0.1), constant(0.3)));
+        Expression rounded = sum(sum(sum(product(x, y), product(constant(0.3), x)), product(constant(0.1), y)),
+                                 constant(0.1 * 0.3));
+        for (double confidence : new double[] {0.5, Equivalence.DEFAULT_CONFIDENCE, 1}) {
+            assertTrue(Equivalence.equivalent(factored, exact, confidence));
+            assertFalse(Equivalence.equivalent(factored, rounded, confidence));
+        }
+        assertEquals(Equivalence.fingerprint(factored), Equivalence.fingerprint(exact));
+        assertNotEquals(Equivalence.fingerprint(factored), Equivalence.fingerprint(rounded));
+    }
+
+    @Test
+    public void testExpand() {
+        Map<Equivalence.Monomial, Long> expected = new HashMap<>();
+        expected.put(Equivalence.Monomial.of("x", 2), 1L);
+        expected.put(Equivalence.Monomial.of("x", 1), 2L);
+        expected.put(Equivalence.Monomial.ONE, 1L);
+        assertEquals(expected, Equivalence.expand(Expression.parse("(x + 1)*(x + 1)")));
+        assertEquals(expected, Equivalence.expand(Expression.parse("x*x + x + 1 + x")));
+        assertEquals(Collections.singletonMap(Equivalence.Monomial.of("x", 12), 1L),
+                     Equivalence.expand(new Power(new Power(variable("x"), 3), 4)));
+        assertEquals(Collections.singletonMap(Equivalence.Monomial.ONE, Equivalence.value(0.1)),
+                     Equivalence.expand(constant(0.1)));
+        Equivalence.Monomial xy = Equivalence.Monomial.of("y", 1).times(Equivalence.Monomial.of("x", 1));
+        assertEquals(Equivalence.Monomial.of("x", 1).times(Equivalence.Monomial.of("y", 1)), xy);
+        assertEquals("x*y^3", xy.times(Equivalence.Monomial.of("y", 2)).toString());
+        assertEquals("1", Equivalence.Monomial.ONE.toString());
+    }
+
+    @Test
+    public void testConfidence() {
+        assertTrue(Equivalence.equivalent(Expression.parse("x*(y + 1)"), Expression.parse("x*y + x"), 0.5));
+        assertTrue(Equivalence.equivalent(Expression.parse("x*(y + 1)"), Expression.parse("x*y + x"), 1));
+        assertFalse(Equivalence.equivalent(Expression.parse("x*(y + 1)"), Expression.parse("x*y + y"), 1));
+    }
+
+    @Test
+    public void testInvalidConfidence() {
+        for (double confidence : new double[] {0, -0.5, 1.5, Double.NaN}) {
+            try {
+                Equivalence.equivalent(Expression.parse("x"), Expression.parse("y"), confidence);
+                fail("expected IllegalArgumentException for " + confidence);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testDegree() {
+        assertEquals(0, Equivalence.degree(Expression.parse("3")));
+        assertEquals(3, Equivalence.degree(Expression.parse("x*y*z + x + 1")));
+        // x^(2^62) by squaring overflows the degree, which saturates
+        Expression power = variable("x");
+        for (int i = 0; i < 64; i++) {
+            power = product(power, power);
+        }
+        assertEquals(Long.MAX_VALUE, Equivalence.degree(power));
+    }
+
+    @Test
+    public void testFingerprint() {
+        assertEquals(Equivalence.fingerprint(Expression.parse("(x + 1)*(y + 2)")),
+                     Equivalence.fingerprint(Expression.parse("x*y + 2*x + y + 2")));
+        assertNotEquals(Equivalence.fingerprint(Expression.parse("x")), Equivalence.fingerprint(Expression.parse("y")));
+        assertNotEquals(Equivalence.fingerprint(Expression.parse("x*x")),
+                        Equivalence.fingerprint(Expression.parse("2*x")));
+    }
+
+    @Test
+    public void testFieldArithmetic() {
+        BigInteger p = BigInteger.valueOf(Equivalence.P);
+        Random random = new Random(20);
+        long[] special = {0, 1, 2, Equivalence.P - 1, Equivalence.P - 2, 1L << 60, (1L << 31) - 1, 1L << 31};
+        for (int i = 0; i < 10000; i++) {
+            long a = i < special.length * special.length ? special[i % special.length]
+                                                         : Math.floorMod(random.nextLong(), Equivalence.P);
+            long b = i < special.length * special.length ? special[i / special.length]
+                                                         : Math.floorMod(random.nextLong(), Equivalence.P);
+            BigInteger bigA = BigInteger.valueOf(a);
+            BigInteger bigB = BigInteger.valueOf(b);
+            assertEquals(bigA.multiply(bigB).mod(p).longValue(), Equivalence.multiply(a, b));
+            assertEquals(bigA.add(bigB).mod(p).longValue(), Equivalence.add(a, b));
+        }
+    }
+
+    @Test
+    public void testConstantValues() {
+        assertEquals(0, Equivalence.value(0.0));
+        assertEquals(3, Equivalence.value(3.0));
+        // 0.5 is the inverse of 2
+        assertEquals(1, Equivalence.multiply(Equivalence.value(0.5), 2));
+        // the subnormal 2^-1074 is 2^24, since -1074 = 24 modulo 61
+        assertEquals(1L << 24, Equivalence.value(Double.MIN_VALUE));
+        assertEquals(Equivalence.P - 3, Equivalence.value(-3.0));
+        // 2^61 = 1 modulo P
+        assertEquals(1, Equivalence.value(0x1p61));
+    }
+
+    @Test
+    public void testDeep() {
+        Expression left = variable("x");
+        Expression right = variable("x");
+        for (int i = 0; i < 100000; i++) {
+            left = sum(left, constant(1));
+            right = sum(constant(1), right);
+        }
+        assertTrue(Equivalence.equivalent(left, right));
+        assertFalse(Equivalence.equivalent(left, sum(right, constant(1))));
+    }
+}
@@ -0,0 +1,268 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ExpressionCodec.
+ */
+public class ExpressionCodecTest {
+
+    // Testing strategy
+    //   - expression: a constant (integer, fraction, large, 0 and -0 are distinct bits), a variable, sums, products,
+    //                 shared subexpressions, non-interned expressions, random expressions, derivatives, deep chains
+    //   - output and input: DataOutput/DataInput, ByteBuffer of either byte order at a nonzero position, byte[];
+    //                       several encodings after each other
+    //   - size: one byte per node of a tree besides constants and the dictionary; a reference per repeated
+    //           occurrence of a sum or product, a repeated variable is written again
+    //   - invalid input: wrong magic, other version, truncated, trailing bytes, invalid reference, missing operands,
+    //                    too many expressions left, unknown kind, variable outside the dictionary, negative constant,
+    //                    buffer too small for the encoding
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    /**
+     * Assert that expression decodes to an equal interned expression with the same text, from every input.
+     */
+    private static void assertRoundTrip(Expression expression) throws IOException {
+        byte[] bytes = ExpressionCodec.toBytes(expression);
+        Expression decoded = ExpressionCodec.fromBytes(bytes);
+        assertEquals(expression, decoded);
+        assertEquals(expression.toString(), decoded.toString());
+        assertTrue(ExpressionInterner.isInterned(decoded));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        assertEquals(expression, ExpressionCodec.decode(in));
+        assertEquals(-1, in.read());
+
+        for (ByteOrder order : Arrays.asList(ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN)) {
+            ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 5).order(order);
+            buffer.position(2);
+            ExpressionCodec.encode(expression, buffer);
+            assertEquals(bytes.length + 2, buffer.position());
+            assertArrayEquals(bytes, Arrays.copyOfRange(buffer.array(), 2, bytes.length + 2));
+            buffer.flip().position(2);
+            assertEquals(expression, ExpressionCodec.decode(buffer));
+            assertFalse(buffer.hasRemaining());
+        }
+    }
+
+    /**
+     * @return the bytes of the header of an encoding of the given version with the given dictionary and node count
+     */
+    private static ByteArrayOutputStream header(int version, int nodes, String... names) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(ExpressionCodec.MAGIC, 0, ExpressionCodec.MAGIC.length);
+        bytes.write(version);
+        bytes.write(names.length);
+        for (String name : names) {
+            bytes.write(name.length());
+            bytes.write(name.getBytes(), 0, name.length());
+        }
+        bytes.write(nodes);
+        return bytes;
+    }
+
+    private static int tag(int kind, int argument) {
+        return argument << 3 | kind;
+    }
+
+    @Test
+    public void testLeaves() throws IOException {
+        assertRoundTrip(Expression.parse("3"));
+        assertRoundTrip(Expression.parse("0.1"));
+        assertRoundTrip(ExpressionInterner.constant(1e300));
+        assertRoundTrip(ExpressionInterner.constant(0));
+        assertRoundTrip(Expression.parse("Foo"));
+
+        // the raw bits distinguish 0 from -0
+        Constant negativeZero = ExpressionInterner.constant(-0.0);
+        assertEquals(Double.doubleToRawLongBits(-0.0),
+                     Double.doubleToRawLongBits(((Constant) ExpressionCodec.fromBytes(
+                             ExpressionCodec.toBytes(negativeZero))).getValue()));
+    }
+
+    @Test
+    public void testSumsAndProducts() throws IOException {
+        assertRoundTrip(Expression.parse("x+y"));
+        assertRoundTrip(Expression.parse("(x+2.5)*y*(z+x)"));
+        assertRoundTrip(new Product(new Variable("x"), new Product(new Variable("y"), new Variable("z"))));
+        assertRoundTrip(ExpressionInterner.sum(Expression.parse("x*y"), Expression.parse("x*y")));
+    }
+
+    @Test
+    public void testRandomExpressionsAndDerivatives() throws IOException {
+        Random random = new Random(12);
+        for (int i = 0; i < 200; i++) {
+            Expression expression = Expression.parse(PrattParserTest.randomExpression(random, 5));
+            assertRoundTrip(expression);
+            assertRoundTrip(expression.differentiate("x"));
+        }
+    }
+
+    @Test
+    public void testSize() {
+        // header 3 + 1 + dictionary 1 + 2 * 2 + node count 1, then one byte per node
+        assertArrayEquals(new byte[] {'E', 'X', 'P', 1, 2, 1, 'x', 1, 'y', 5,
+                                      (byte) tag(ExpressionCodec.VARIABLE, 0), (byte) tag(ExpressionCodec.VARIABLE, 1),
+                                      (byte) tag(ExpressionCodec.PRODUCT, 0), (byte) tag(ExpressionCodec.VARIABLE, 0),
+                                      (byte) tag(ExpressionCodec.SUM, 0)},
+                          ExpressionCodec.toBytes(ExpressionInterner.sum(Expression.parse("x*y"),
+                                                                         ExpressionInterner.variable("x"))));
+
+        // (x*y+1)*(x*y+1) is written as x*y+1 and a reference to it
+        byte[] shared = ExpressionCodec.toBytes(ExpressionInterner.product(Expression.parse("x*y+1"),
+                                                                           Expression.parse("x*y+1")));
+        byte[] single = ExpressionCodec.toBytes(Expression.parse("x*y+1"));
+        assertEquals(single.length + 2, shared.length);
+        assertEquals(tag(ExpressionCodec.REFERENCE, 0), shared[shared.length - 2]);
+    }
+
+    @Test
+    public void testSeveralEncodingsInOneStream() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        ExpressionCodec.encode(Expression.parse("x*y"), out);
+        out.writeInt(42);
+        ExpressionCodec.encode(Expression.parse("z+1"), out);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(Expression.parse("x*y"), ExpressionCodec.decode(in));
+        assertEquals(42, in.readInt());
+        assertEquals(Expression.parse("z+1"), ExpressionCodec.decode(in));
+    }
+
+    @Test
+    public void testDeepChains() {
+        int depth = 1000000;
+        Expression left = ExpressionInterner.variable("x");
+        Expression right = ExpressionInterner.variable("x");
+        for (int i = 1; i < depth; i++) {
+            left = ExpressionInterner.product(left, ExpressionInterner.variable("y"));
+            right = ExpressionInterner.sum(ExpressionInterner.variable("y"), right);
+        }
+        byte[] bytes = ExpressionCodec.toBytes(left);
+        assertTrue(bytes.length < 2 * depth + 20);
+        assertSame(left, ExpressionCodec.fromBytes(bytes));
+        assertSame(right, ExpressionCodec.fromBytes(ExpressionCodec.toBytes(right)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongMagic() {
+        ExpressionCodec.fromBytes(new byte[] {'E', 'X', 'Q', 1, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOtherVersion() {
+        ExpressionCodec.fromBytes(header(2, 1, "x").toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedBuffer() {
+        byte[] bytes = ExpressionCodec.toBytes(Expression.parse("x*y+2"));
+        ExpressionCodec.fromBytes(Arrays.copyOf(bytes, bytes.length - 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHugeNameLengthBuffer() {
+        // one variable whose name is said to have 2^31 - 16 bytes, which are not there
+        ExpressionCodec.fromBytes(new byte[] {'E', 'X', 'P', 1, 1, (byte) 0xF0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                                              7});
+    }
+
+    @Test(expected = EOFException.class)
+    public void testHugeNameLengthStream() throws IOException {
+        byte[] bytes = {'E', 'X', 'P', 1, 1, (byte) 0xF0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 7, 'x'};
+        ExpressionCodec.decode(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void testLongName() throws IOException {
+        // longer than the first chunk read from a stream
+        char[] name = new char[10000];
+        Arrays.fill(name, 'x');
+        Expression variable = ExpressionInterner.variable(new String(name));
+        byte[] bytes = ExpressionCodec.toBytes(variable);
+        assertSame(variable, ExpressionCodec.decode(new DataInputStream(new ByteArrayInputStream(bytes))));
+        assertSame(variable, ExpressionCodec.fromBytes(bytes));
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedStream() throws IOException {
+        byte[] bytes = ExpressionCodec.toBytes(Expression.parse("x*y+2"));
+        ExpressionCodec.decode(new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTrailingBytes() {
+        byte[] bytes = ExpressionCodec.toBytes(Expression.parse("x"));
+        ExpressionCodec.fromBytes(Arrays.copyOf(bytes, bytes.length + 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidReference() {
+        ByteArrayOutputStream bytes = header(1, 2, "x");
+        bytes.write(tag(ExpressionCodec.VARIABLE, 0));
+        bytes.write(tag(ExpressionCodec.REFERENCE, 1));
+        bytes.write(tag(ExpressionCodec.SUM, 0));
+        ExpressionCodec.fromBytes(bytes.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingOperand() {
+        ByteArrayOutputStream bytes = header(1, 2, "x");
+        bytes.write(tag(ExpressionCodec.VARIABLE, 0));
+        bytes.write(tag(ExpressionCodec.PRODUCT, 0));
+        ExpressionCodec.fromBytes(bytes.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyExpressionsLeft() {
+        ByteArrayOutputStream bytes = header(1, 2, "x", "y");
+        bytes.write(tag(ExpressionCodec.VARIABLE, 0));
+        bytes.write(tag(ExpressionCodec.VARIABLE, 1));
+        ExpressionCodec.fromBytes(bytes.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownKind() {
+        ByteArrayOutputStream bytes = header(1, 1);
+        bytes.write(tag(7, 0));
+        ExpressionCodec.fromBytes(bytes.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariableOutsideDictionary() {
+        ByteArrayOutputStream bytes = header(1, 1, "x");
+        bytes.write(tag(ExpressionCodec.VARIABLE, 1));
+        ExpressionCodec.fromBytes(bytes.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeConstant() {
+        ByteBuffer buffer = ByteBuffer.wrap(header(1, 1).toByteArray());
+        ByteBuffer bytes = ByteBuffer.allocate(buffer.remaining() + 9);
+        bytes.put(buffer).put((byte) tag(ExpressionCodec.CONSTANT, 0)).putDouble(-1);
+        ExpressionCodec.fromBytes(bytes.array());
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void testBufferTooSmall() {
+        ExpressionCodec.encode(Expression.parse("x*y+2"), ByteBuffer.allocate(10));
+    }
+}
@@ -0,0 +1,88 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the hash-consing factory ExpressionInterner.
+ */
+public class ExpressionInternerTest {
+
+    // Testing strategy
+    //   - each kind of node: Constant, Variable, Sum, Product
+    //   - interning equal expressions gives the same object, interning different ones different objects
+    //   - interned vs non-interned expressions: still structurally equal with the same hash
+    //   - parsed, simplified and differentiated expressions are interned and share equal subtrees
+    //   - interned expressions that are no longer referenced are collected
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testEqualNodesAreShared() {
+        assertSame(ExpressionInterner.constant(2.5), ExpressionInterner.constant(2.5));
+        assertSame(ExpressionInterner.variable("x"), ExpressionInterner.variable("x"));
+        Expression sum = ExpressionInterner.sum(ExpressionInterner.variable("x"), ExpressionInterner.constant(1));
+        assertSame(sum, ExpressionInterner.sum(new Variable("x"), new Constant(1)));
+        Expression product = ExpressionInterner.product(sum, sum);
+        assertSame(product, ExpressionInterner.intern(new Product(new Sum(new Variable("x"), new Constant(1)),
+                                                                  new Sum(new Variable("x"), new Constant(1)))));
+        assertSame(((Product) product).getLeft(), ((Product) product).getRight());
+    }
+
+    @Test
+    public void testDifferentNodesAreNotShared() {
+        Expression x = ExpressionInterner.variable("x");
+        Expression y = ExpressionInterner.variable("y");
+        assertNotSame(x, ExpressionInterner.variable("X"));
+        assertNotSame(ExpressionInterner.sum(x, y), ExpressionInterner.sum(y, x));
+        assertNotSame(ExpressionInterner.sum(x, y), ExpressionInterner.product(x, y));
+        assertFalse(ExpressionInterner.sum(x, y).equals(ExpressionInterner.product(x, y)));
+        assertNotSame(ExpressionInterner.constant(0.0), ExpressionInterner.constant(1.0));
+    }
+
+    @Test
+    public void testInternedEqualsNotInterned() {
+        Expression interned = ExpressionInterner.product(ExpressionInterner.constant(3),
+                ExpressionInterner.sum(ExpressionInterner.variable("x"), ExpressionInterner.variable("y")));
+        Expression plain = new Product(new Constant(3), new Sum(new Variable("x"), new Variable("y")));
+        assertTrue(ExpressionInterner.isInterned(interned));
+        assertFalse(ExpressionInterner.isInterned(plain));
+        assertEquals(interned, plain);
+        assertEquals(plain, interned);
+        assertEquals(interned.hashCode(), plain.hashCode());
+        assertSame(interned, ExpressionInterner.intern(plain));
+    }
+
+    @Test
+    public void testParseSimplifyAndDifferentiateAreInterned() {
+        Expression parsed = Expression.parse("x*y+3*(x*y)");
+        assertTrue(ExpressionInterner.isInterned(parsed));
+        assertTrue(ExpressionInterner.isInterned(parsed.simplify()));
+        assertTrue(ExpressionInterner.isInterned(parsed.differentiate("x")));
+        assertSame(Expression.parse("x*y"), ExpressionInterner.intern(Expression.parse("(x*y)")));
+    }
+
+    @Test
+    public void testUnreferencedNodesAreCollected() throws InterruptedException {
+        List<Expression> expressions = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            expressions.add(ExpressionInterner.sum(ExpressionInterner.variable("unreferenced"),
+                                                   ExpressionInterner.constant(1000000 + i)));
+        }
+        int sizeWithReferences = ExpressionInterner.size();
+        assertTrue(sizeWithReferences >= 2001);
+        expressions.clear();
+        for (int attempt = 0; attempt < 20 && ExpressionInterner.size() > sizeWithReferences - 2000; attempt++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(ExpressionInterner.size() <= sizeWithReferences - 2000);
+    }
+}
@@ -0,0 +1,216 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the parse cache and the shared compiled grammar of ExpressionParser, and for parsing from readers and
+ * files.
+ */
+public class ExpressionParserTest {
+
+    // Testing strategy
+    //   - parse the same input once or several times (cache miss, then hits)
+    //   - invalid input is never cached
+    //   - cache capacity 0, 1 and >1, eviction of the least recently used input
+    //   - the grammar is compiled at most once, also when many threads parse at the same time
+    //   - parse(Reader) and parse(Path): valid and invalid input agree with parsing the string, a reader that returns
+    //     one character per read, tokens longer than the window and across window boundaries, input much longer
+    //     than the window, empty input, failing reader, missing file
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testRepeatedParseHitsCache() {
+        ExpressionParser.clearCache();
+        Expression first = ExpressionParser.parse("x*y+2");
+        Expression second = ExpressionParser.parse("x*y+2");
+        assertSame(first, second);
+        assertEquals(first, ExpressionParser.parseUncached("x*y+2"));
+
+        CacheStatistics statistics = ExpressionParser.getCacheStatistics();
+        assertEquals(1, statistics.getHits());
+        assertEquals(1, statistics.getMisses());
+        assertEquals(1, statistics.getSize());
+    }
+
+    @Test
+    public void testInvalidInputIsNotCached() {
+        ExpressionParser.clearCache();
+        for (int i = 0; i < 2; i++) {
+            try {
+                ExpressionParser.parse("3*");
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertEquals(0, ExpressionParser.getCacheStatistics().getSize());
+        assertEquals(2, ExpressionParser.getCacheStatistics().getMisses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        ExpressionParser.clearCache();
+        ExpressionParser.setCacheCapacity(2);
+        try {
+            Expression x = ExpressionParser.parse("x");
+            ExpressionParser.parse("y");
+            ExpressionParser.parse("x");  // x is now more recently used than y
+            ExpressionParser.parse("z");  // evicts y
+            assertEquals(2, ExpressionParser.getCacheStatistics().getSize());
+            assertSame(x, ExpressionParser.parse("x"));
+
+            long misses = ExpressionParser.getCacheStatistics().getMisses();
+            ExpressionParser.parse("y");
+            assertEquals(misses + 1, ExpressionParser.getCacheStatistics().getMisses());
+
+            ExpressionParser.setCacheCapacity(0);
+            assertEquals(0, ExpressionParser.getCacheStatistics().getSize());
+            assertEquals(Expression.parse("x"), x);
+            assertEquals(0, ExpressionParser.getCacheStatistics().getSize());
+        } finally {
+            ExpressionParser.setCacheCapacity(ExpressionParser.DEFAULT_CACHE_CAPACITY);
+        }
+    }
+
+    @Test
+    public void testGrammarCompiledOnceAcrossThreads() throws Exception {
+        ExpressionParser.clearCache();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Expression>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final String input = "x*" + (i % 20) + "+y";
+                results.add(pool.submit(() -> ExpressionParser.parse(input)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(ExpressionParser.parseUncached("x*" + (i % 20) + "+y"), results.get(i).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1, ExpressionParser.getCompilations());
+        assertTrue(ExpressionParser.getCompileTimeNanos() > 0);
+        CacheStatistics statistics = ExpressionParser.getCacheStatistics();
+        assertEquals(200, statistics.getHits() + statistics.getMisses());
+    }
+
+    @Test
+    public void testParseReaderAgreesWithString() throws IOException {
+        for (String input : Arrays.asList("x", "  2.5 ", "x*y+2", "(x+1)^3*y", "\tx\r\n*\ty", ".5*x+2.")) {
+            Expression expected = ExpressionParser.parseUncached(input);
+            assertEquals(expected, ExpressionParser.parse(new StringReader(input)));
+            assertEquals(expected, ExpressionParser.parse(new TrickleReader(input)));
+        }
+        for (String input : Arrays.asList("", " ", "(3", "3*", "x y", "x^1.5", "\u00e9")) {
+            try {
+                ExpressionParser.parse(new TrickleReader(input));
+                fail("expected IllegalArgumentException for " + input);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testParseReaderLongInput() throws IOException {
+        // a variable name longer than the window, and a sum with terms across many window boundaries
+        String name = String.join("", Collections.nCopies(3 * ExpressionLexer.WINDOW_SIZE, "v"));
+        assertEquals(new Variable(name), ExpressionParser.parse(new StringReader(" " + name + " ")));
+        StringBuilder input = new StringBuilder("x");
+        for (int i = 1; i < 10 * ExpressionLexer.WINDOW_SIZE; i++) {
+            input.append(i % 2 == 0 ? " + x" : " + 1.25*y");
+        }
+        Expression expected = PrattParser.parse(input);
+        assertEquals(expected, ExpressionParser.parse(new StringReader(input.toString())));
+        assertEquals(expected, ExpressionParser.parse(new TrickleReader(input.toString())));
+        // the position of an error is counted from the start of the input, not of the window
+        input.append(" + ?");
+        try {
+            ExpressionParser.parse(new StringReader(input.toString()));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("position " + (input.length() - 1)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testParseFailingReader() throws IOException {
+        ExpressionParser.parse(new Reader() {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                throw new IOException("failing reader");
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    @Test
+    public void testParseFile() throws IOException {
+        Path file = Files.createTempFile("expression", ".txt");
+        try {
+            Files.write(file, "(x+1)^2*y + 3*x\n".getBytes(StandardCharsets.US_ASCII));
+            assertEquals(ExpressionParser.parseUncached("(x+1)^2*y + 3*x"), ExpressionParser.parse(file));
+            Files.write(file, "x + \u00e9".getBytes(StandardCharsets.UTF_8));
+            try {
+                ExpressionParser.parse(file);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(file.toString()));
+            }
+            Files.write(file, new byte[0]);
+            try {
+                ExpressionParser.parse(file);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testParseMissingFile() throws IOException {
+        Path directory = Files.createTempDirectory("expressions");
+        Files.delete(directory);
+        ExpressionParser.parse(directory.resolve("missing.txt"));
+    }
+
+    /**
+     * A reader that returns at most one character per read, so every character is at a window boundary.
+     */
+    private static class TrickleReader extends FilterReader {
+        TrickleReader(String input) {
+            super(new StringReader(input));
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, 1));
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ExpressionPrinter.
+ */
+public class ExpressionPrinterTest {
+
+    // Testing strategy
+    //   - expression: a constant (integer, decimal), a variable, sums, products, nested both ways, shared
+    //                 subexpressions, non-interned expressions, random expressions; powers with exponent 0, 1 and
+    //                 more, whose base is a leaf, a sum, a product or a power, written as products and with carets
+    //   - output: String (toString), Writer, StringBuilder, another Appendable, a buffer at offset 0 and later,
+    //             a buffer that is too small
+    //   - length of the text: shorter than, equal to and longer than CHUNK_SIZE, a variable longer than CHUNK_SIZE,
+    //     too long for a String
+    //   - the text is the one of the recursive definition and parses back
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    /**
+     * @return the text of expression by the recursive definition of toString(), or with powers written as
+     *         base^exponent if carets
+     */
+    private static String recursiveText(Expression expression, boolean carets) {
+        if (expression instanceof Sum) {
+            Sum sum = (Sum) expression;
+            return "(" + recursiveText(sum.getLeft(), carets) + "+" + recursiveText(sum.getRight(), carets) + ")";
+        } else if (expression instanceof Product) {
+            Product product = (Product) expression;
+            return recursiveText(product.getLeft(), carets) + "*" + recursiveText(product.getRight(), carets);
+        } else if (expression instanceof Power) {
+            Power power = (Power) expression;
+            String base = recursiveText(power.getBase(), carets);
+            boolean parenthesized = power.getBase() instanceof Product || power.getBase() instanceof Power;
+            String factor = parenthesized ? "(" + base + ")" : base;
+            if (carets) {
+                return factor + "^" + power.getExponent();
+            }
+            return power.getExponent() == 0 ? "1" : String.join("*", Collections.nCopies(power.getExponent(), factor));
+        }
+        return expression.toString();
+    }
+
+    private static String recursiveText(Expression expression) {
+        return recursiveText(expression, false);
+    }
+
+    /**
+     * Assert that every mode writes the text of the recursive definition.
+     */
+    private static void assertPrints(String expected, Expression expression) throws IOException {
+        assertEquals(expected, expression.toString());
+        assertEquals(expected, ExpressionPrinter.toString(expression));
+        assertEquals(expected.length(), ExpressionPrinter.length(expression));
+
+        StringWriter writer = new StringWriter();
+        ExpressionPrinter.print(expression, writer);
+        assertEquals(expected, writer.toString());
+
+        StringBuilder builder = new StringBuilder("> ");
+        ExpressionPrinter.print(expression, builder);
+        assertEquals("> " + expected, builder.toString());
+
+        StringBuffer appendable = new StringBuffer();
+        ExpressionPrinter.print(expression, appendable);
+        assertEquals(expected, appendable.toString());
+
+        char[] buffer = new char[expected.length() + 3];
+        assertEquals(expected.length() + 2, ExpressionPrinter.print(expression, buffer, 2));
+        assertEquals(expected, new String(buffer, 2, expected.length()));
+    }
+
+    /**
+     * Assert that every mode writes the text of the recursive definition, and that it parses back.
+     */
+    private static void assertPrintsRecursiveText(Expression expression) throws IOException {
+        String text = recursiveText(expression);
+        assertPrints(text, expression);
+        assertEquals(text, ExpressionPrinter.toString(Expression.parse(text)));
+    }
+
+    @Test
+    public void testLeaves() throws IOException {
+        assertPrints("3", Expression.parse("3"));
+        assertPrints("0.5", Expression.parse(".5"));
+        assertPrints("Foo", Expression.parse("Foo"));
+        assertPrints("x", new Variable("x"));
+    }
+
+    @Test
+    public void testSumsAndProducts() throws IOException {
+        assertPrints("(x+y)", Expression.parse("x+y"));
+        assertPrints("x*y*z", Expression.parse("x*y*z"));
+        assertPrints("((x+y)*z+2.5*x)", Expression.parse("(x+y)*z+2.5*x"));
+        assertPrintsRecursiveText(Expression.parse("(x+y)*z+2.5*x"));
+        assertPrintsRecursiveText(Expression.parse("((a+b)+(c+d))*(e+f*g)"));
+        assertPrints("x*(y+z)*(y+z)", ExpressionInterner.product(Expression.parse("x*(y+z)"), Expression.parse("y+z")));
+        assertPrints("x*y*z", new Product(new Variable("x"), new Product(new Variable("y"), new Variable("z"))));
+    }
+
+    /**
+     * Assert that every mode writes the text with carets of the recursive definition.
+     */
+    private static void assertPrintsCarets(String expected, Expression expression) throws IOException {
+        assertEquals(expected, ExpressionPrinter.toString(expression, true));
+        assertEquals(expected.length(), ExpressionPrinter.length(expression, true));
+
+        StringBuilder builder = new StringBuilder("> ");
+        ExpressionPrinter.print(expression, builder, true);
+        assertEquals("> " + expected, builder.toString());
+
+        char[] buffer = new char[expected.length() + 3];
+        assertEquals(expected.length() + 2, ExpressionPrinter.print(expression, buffer, 2, true));
+        assertEquals(expected, new String(buffer, 2, expected.length()));
+    }
+
+    @Test
+    public void testRandomExpressions() throws IOException {
+        Random random = new Random(11);
+        for (int i = 0; i < 200; i++) {
+            Expression expression = Expression.parse(PrattParserTest.randomExpression(random, 5));
+            assertPrints(recursiveText(expression), expression);
+            assertPrintsCarets(recursiveText(expression, true), expression);
+            assertNotNull(Expression.parse(expression.toString()));
+            assertNotNull(Expression.parse(ExpressionPrinter.toString(expression, true)));
+        }
+    }
+
+    @Test
+    public void testPowers() throws IOException {
+        Expression x = new Variable("x");
+        Expression product = Expression.parse("x*y");
+        assertPrints("x*x*x", new Power(x, 3));
+        assertPrints("x", new Power(x, 1));
+        assertPrints("1", new Power(x, 0));
+        assertPrints("(x+1)*(x+1)", new Power(Expression.parse("x+1"), 2));
+        assertPrints("(x*y)*(x*y)", new Power(product, 2));
+        assertPrints("(x*x)*(x*x)", new Power(new Power(x, 2), 2));
+        assertPrints("2*x*x*y", new Product(new Product(new Constant(2), new Power(x, 2)), new Variable("y")));
+        assertPrintsCarets("x^3", new Power(x, 3));
+        assertPrintsCarets("x^0", new Power(x, 0));
+        assertPrintsCarets("(x*y)^2", new Power(product, 2));
+        assertPrintsCarets("(x^2)^3", new Power(new Power(x, 2), 3));
+        for (Expression power : Arrays.asList(new Power(product, 2), new Power(Expression.parse("x+1"), 3),
+                                              new Power(x, 4), new Power(product, 3))) {
+            assertPrintsRecursiveText(power);
+            assertEquals(power.simplify(), Expression.parse(power.toString()));
+        }
+
+        // a product of 3 * CHUNK_SIZE factors
+        Expression longPower = new Power(x, 3 * ExpressionPrinter.CHUNK_SIZE);
+        assertPrints(recursiveText(longPower), longPower);
+        // ((x^2147483647)^2147483647)^2147483647 as a product has more characters than a long can count
+        Expression huge = new Power(new Power(new Power(x, Integer.MAX_VALUE), Integer.MAX_VALUE), Integer.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, ExpressionPrinter.length(huge));
+        assertEquals("((x^2147483647)^2147483647)^2147483647", ExpressionPrinter.toString(huge, true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooLongForString() {
+        new Power(new Variable("x"), Integer.MAX_VALUE).toString();
+    }
+
+    @Test
+    public void testLongerThanChunk() throws IOException {
+        // (((x+y*z)+y*z)+...), built without simplification
+        Expression expression = new Variable("x");
+        StringBuilder open = new StringBuilder();
+        StringBuilder rest = new StringBuilder();
+        for (int i = 0; i < ExpressionPrinter.CHUNK_SIZE; i++) {
+            expression = new Sum(expression, new Product(new Variable("y"), new Variable("z")));
+            open.append('(');
+            rest.append("+y*z)");
+        }
+        assertTrue(ExpressionPrinter.length(expression) > 3 * ExpressionPrinter.CHUNK_SIZE);
+        assertPrints(open + "x" + rest, expression);
+
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 3 * ExpressionPrinter.CHUNK_SIZE + 5; i++) {
+            name.append(i % 2 == 0 ? 'a' : 'B');
+        }
+        Expression longVariable = Expression.parse("x*" + name + "+1");
+        assertPrints("(x*" + name + "+1)", longVariable);
+    }
+
+    @Test
+    public void testWriterReceivesChunks() throws IOException {
+        StringBuilder input = new StringBuilder("x");
+        for (int i = 0; i < ExpressionPrinter.CHUNK_SIZE; i++) {
+            // adjacent factors differ, so parsing does not merge them into a power
+            input.append(i % 2 == 0 ? "*y" : "*z");
+        }
+        Expression expression = Expression.parse(input.toString());
+        int[] writes = {0};
+        StringBuilder received = new StringBuilder();
+        Writer counting = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+                assertTrue(length <= ExpressionPrinter.CHUNK_SIZE);
+                writes[0]++;
+                received.append(buffer, offset, length);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ExpressionPrinter.print(expression, counting);
+        assertEquals(expression.toString(), received.toString());
+        assertEquals(3, writes[0]);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testBufferTooSmall() {
+        ExpressionPrinter.print(Expression.parse("x+y"), new char[10], 6);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOffsetOutsideBuffer() {
+        ExpressionPrinter.print(Expression.parse("x"), new char[10], 11);
+    }
+}
@@ -0,0 +1,183 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static expressivo.ExpressionInterner.constant;
+import static expressivo.ExpressionInterner.power;
+import static expressivo.ExpressionInterner.product;
+import static expressivo.ExpressionInterner.sum;
+import static expressivo.ExpressionInterner.variable;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ExpressionStore.
+ */
+public class ExpressionStoreTest {
+
+    // Testing strategy
+    //   - of/toExpression: every variant, shared subexpressions stored once, equal subexpressions of a tree that is
+    //     not interned stored once, round trip of random expressions
+    //   - evaluate: by array and by environment, missing variable
+    //   - differentiate and simplify: agree with Expression on samples and random expressions, simplify(environment)
+    //   - Builder: equal nodes get the same id, unreachable nodes and variables are dropped by build(), invalid ids,
+    //     constants, variable names and exponents
+    //   - a deep chain built with the Builder is evaluated, differentiated and simplified without recursion
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    private static final Variable X = variable("x");
+    private static final Variable Y = variable("y");
+
+    @Test
+    public void testRoundTrip() {
+        for (String input : Arrays.asList("1", "x", "x+y", "x*y+2.5", "(x+1)^3*y", "x*(y+z)*w+x*y")) {
+            Expression expression = Expression.parse(input);
+            assertEquals(expression, ExpressionStore.of(expression).toExpression());
+            assertEquals(expression.toString(), ExpressionStore.of(expression).toString());
+        }
+        Random random = new Random(22);
+        for (int i = 0; i < 200; i++) {
+            Expression expression = Expression.parse(PrattParserTest.randomExpression(random, 4));
+            assertSame(expression, ExpressionStore.of(expression).toExpression());
+        }
+    }
+
+    @Test
+    public void testSharing() {
+        Expression square = product(sum(X, Y), sum(X, Y));
+        ExpressionStore store = ExpressionStore.of(square);
+        assertEquals(4, store.size());
+        assertEquals(Arrays.asList("x", "y"), store.getVariables());
+        // equal subexpressions that are different objects are stored once as well
+        Expression tree = new Sum(new Product(new Variable("x"), new Constant(2)),
+                                  new Product(new Variable("x"), new Constant(2)));
+        assertEquals(4, ExpressionStore.of(tree).size());
+        assertEquals(tree, ExpressionStore.of(tree).toExpression());
+    }
+
+    @Test
+    public void testEvaluate() {
+        ExpressionStore store = ExpressionStore.of(Expression.parse("(x+1)^3*y+2*x"));
+        assertEquals(Arrays.asList("x", "y"), store.getVariables());
+        assertEquals(27 * 5 + 4, store.evaluate(new double[] {2, 5}), 0);
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        environment.put("y", 5.0);
+        environment.put("z", 7.0);
+        assertEquals(27 * 5 + 4, store.evaluate(environment), 0);
+        assertEquals(3, ExpressionStore.of(constant(3)).evaluate(new double[0]), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEvaluateMissingVariable() {
+        ExpressionStore.of(Expression.parse("x+y")).evaluate(Collections.singletonMap("x", 1.0));
+    }
+
+    @Test
+    public void testDifferentiate() {
+        for (String input : Arrays.asList("x", "3", "x*y", "x*x*y+3*x", "(x+1)^3", "(x*y)^2*x", "y+2", "x^0+y^1")) {
+            Expression expression = Expression.parse(input);
+            for (String variable : Arrays.asList("x", "y")) {
+                assertEquals(input, expression.differentiate(variable),
+                             ExpressionStore.of(expression).differentiate(variable).toExpression());
+            }
+        }
+        Random random = new Random(23);
+        for (int i = 0; i < 200; i++) {
+            Expression expression = Expression.parse(PrattParserTest.randomExpression(random, 4));
+            Expression derivative = ExpressionStore.of(expression).differentiate("x").toExpression();
+            assertTrue(expression.toString(), Equivalence.equivalent(expression.differentiate("x"), derivative));
+        }
+    }
+
+    @Test
+    public void testSimplify() {
+        // built without simplification
+        Expression[] samples = {
+            product(X, X), product(product(X, X), X), product(X, constant(3)),
+            sum(constant(0), product(constant(1), X)), product(product(constant(2), X), X), power(power(X, 2), 3),
+            power(constant(2), 10), sum(X, X),
+            product(power(X, 2), power(X, 3)), product(sum(constant(2), constant(3)), Y),
+        };
+        for (Expression sample : samples) {
+            assertEquals(sample.toString(), sample.simplify(), ExpressionStore.of(sample).simplify().toExpression());
+        }
+        // common factors are only taken out by Expression.simplify()
+        Expression factors = sum(product(X, Y), product(X, constant(2)));
+        assertEquals(sum(product(X, Y), product(constant(2), X)),
+                     ExpressionStore.of(factors).simplify().toExpression());
+        assertTrue(Equivalence.equivalent(factors.simplify(), ExpressionStore.of(factors).simplify().toExpression()));
+
+        ExpressionStore store = ExpressionStore.of(Expression.parse("(x+1)^2*y+x"));
+        assertEquals("(9*y+2)", store.simplify(Collections.singletonMap("x", 2.0)).toString());
+        assertEquals(Collections.singletonList("y"), store.simplify(Collections.singletonMap("x", 2.0)).getVariables());
+    }
+
+    @Test
+    public void testBuilder() {
+        ExpressionStore.Builder builder = new ExpressionStore.Builder();
+        int x = builder.variable("x");
+        int y = builder.variable("y");
+        int one = builder.constant(1);
+        assertEquals(x, builder.variable("x"));
+        assertEquals(one, builder.constant(1.0));
+        int sum = builder.sum(x, one);
+        assertEquals(sum, builder.sum(x, one));
+        assertNotEquals(sum, builder.sum(one, x));
+        int unused = builder.product(y, y);
+        int power = builder.power(sum, 2);
+        assertEquals(7, builder.size());
+
+        ExpressionStore store = builder.build(power);
+        assertEquals(4, store.size());
+        assertEquals(Collections.singletonList("x"), store.getVariables());
+        assertEquals(power(sum(X, constant(1)), 2), store.toExpression());
+        assertEquals(product(Y, Y), builder.build(unused).toExpression());
+    }
+
+    @Test
+    public void testBuilderInvalidInput() {
+        ExpressionStore.Builder builder = new ExpressionStore.Builder();
+        int x = builder.variable("x");
+        for (Runnable invalid : Arrays.<Runnable>asList(
+                () -> builder.sum(x, 1), () -> builder.product(-1, x), () -> builder.power(x, -1),
+                () -> builder.power(2, 2), () -> builder.constant(-1), () -> builder.constant(Double.NaN),
+                () -> builder.constant(Double.POSITIVE_INFINITY), () -> builder.variable("x1"),
+                () -> builder.variable(""), () -> builder.build(3))) {
+            try {
+                invalid.run();
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testDeepChain() {
+        int depth = 1000000;
+        ExpressionStore.Builder builder = new ExpressionStore.Builder();
+        int x = builder.variable("x");
+        int y = builder.variable("y");
+        int chain = x;
+        for (int i = 1; i < depth; i++) {
+            chain = builder.sum(builder.product(chain, y), x);
+        }
+        ExpressionStore store = builder.build(chain);
+        assertEquals(2 * depth, store.size());
+        // x * (y^(n-1) + ... + y + 1) at y = 1
+        assertEquals(depth * 2.0, store.evaluate(new double[] {2, 1}), 0);
+        ExpressionStore derivative = store.differentiate("x");
+        assertEquals(depth, derivative.evaluate(Collections.singletonMap("y", 1.0)), 0);
+        assertEquals(1, store.simplify(Collections.singletonMap("y", 0.0)).size());
+    }
+}
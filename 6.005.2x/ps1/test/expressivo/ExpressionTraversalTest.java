@@ -0,0 +1,231 @@
+package expressivo;
+
+import expressivo.ExpressionParser.Engine;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ExpressionTraversal, and stress tests of the operations implemented on it with expressions far deeper
+ * than the thread stack allows for recursion.
+ */
+public class ExpressionTraversalTest {
+
+    // Testing strategy
+    //   - fold: a leaf, a tree, a DAG whose shared node is computed once per occurrence, known() results that stop
+    //           the traversal; foldShared and foldReleasing compute a shared node only once
+    //   - postorder, countOccurrences: a leaf, a tree, a DAG with a node shared by one and by several parents
+    //   - equal: interned and non-interned expressions, different variants, same variant and different
+    //                   operands
+    //   - chains of 10^6 terms, left-deep (x*y*y*...) and right-deep (y*(y*(...*(y*x)))), of products and sums:
+    //     parse, differentiate, simplify, simplify(environment), toString, equals, hashCode, intern, compile
+    //     on a default thread stack (the tests run with -Xss1m)
+
+    private static final int DEPTH = 1000000;
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    /** Counts the nodes of every occurrence, returns the number of nodes of a subexpression */
+    private static class Size implements ExpressionTraversal.Fold<Integer> {
+        int combined = 0;
+
+        @Override
+        public Integer leaf(Expression node) {
+            return 1;
+        }
+
+        @Override
+        public Integer sum(Sum node, Integer left, Integer right) {
+            combined++;
+            return left + right + 1;
+        }
+
+        @Override
+        public Integer product(Product node, Integer left, Integer right) {
+            combined++;
+            return left + right + 1;
+        }
+
+        @Override
+        public Integer power(Power node, Integer base) {
+            combined++;
+            return base + 1;
+        }
+    }
+
+    @Test
+    public void testFold() {
+        assertEquals(1, (int) ExpressionTraversal.fold(Expression.parse("x"), new Size()));
+        assertEquals(5, (int) ExpressionTraversal.fold(Expression.parse("x*y+2"), new Size()));
+
+        // (x+y)*(x+y) shares x+y, which is a tree of 7 nodes but a DAG of 4
+        Expression shared = ExpressionInterner.product(Expression.parse("x+y"), Expression.parse("x+y"));
+        Size tree = new Size();
+        assertEquals(7, (int) ExpressionTraversal.fold(shared, tree));
+        assertEquals(3, tree.combined);
+        Size dag = new Size();
+        assertEquals(7, (int) ExpressionTraversal.foldShared(shared, dag));
+        assertEquals(2, dag.combined);
+    }
+
+    @Test
+    public void testFoldReleasing() {
+        // ((x+y)*(x+y))*((x+y)*(x+y)) shares x+y at two levels
+        Expression square = ExpressionInterner.product(Expression.parse("x+y"), Expression.parse("x+y"));
+        Expression fourth = ExpressionInterner.product(square, square);
+        Size releasing = new Size();
+        assertEquals(15, (int) ExpressionTraversal.foldReleasing(fourth, releasing));
+        assertEquals(3, releasing.combined);
+        assertEquals(1, (int) ExpressionTraversal.foldReleasing(Expression.parse("x"), new Size()));
+    }
+
+    @Test
+    public void testFoldKnownStopsTraversal() {
+        Expression expression = Expression.parse("(x+y)*z");
+        Size known = new Size() {
+            @Override
+            public Integer known(Expression node) {
+                return node instanceof Sum ? 100 : null;
+            }
+        };
+        assertEquals(102, (int) ExpressionTraversal.fold(expression, known));
+        assertEquals(1, known.combined);
+    }
+
+    @Test
+    public void testPostorderAndOccurrences() {
+        Expression x = ExpressionInterner.variable("x");
+        Expression sum = ExpressionInterner.sum(x, ExpressionInterner.constant(1));
+        Expression expression = ExpressionInterner.product(sum, ExpressionInterner.product(sum, x));
+        List<Expression> order = ExpressionTraversal.postorder(expression);
+        assertEquals(5, order.size());
+        assertSame(x, order.get(0));
+        assertSame(sum, order.get(2));
+        assertSame(expression, order.get(4));
+
+        Map<Expression, Integer> occurrences = ExpressionTraversal.countOccurrences(expression);
+        assertEquals(1, (int) occurrences.get(expression));
+        assertEquals(2, (int) occurrences.get(sum));
+        assertEquals(2, (int) occurrences.get(x));
+        assertEquals(Collections.singletonList(x), ExpressionTraversal.postorder(x));
+    }
+
+    @Test
+    public void testEqual() {
+        Expression interned = Expression.parse("(x+2.5)*y+z");
+        Expression copy = new Sum(new Product(new Sum(new Variable("x"), new Constant(2.5)), new Variable("y")),
+                                  new Variable("z"));
+        assertEquals("((x+2.5)*y+z)", interned.toString());
+        assertEquals(interned.toString(), copy.toString());
+        assertTrue(ExpressionTraversal.equal(interned, copy));
+        assertTrue(ExpressionTraversal.equal(copy, interned));
+        assertFalse(ExpressionTraversal.equal(interned, Expression.parse("(x+2.5)*y+x")));
+        assertFalse(ExpressionTraversal.equal(copy, new Sum(new Variable("z"), new Variable("z"))));
+        assertFalse(ExpressionTraversal.equal(new Sum(new Variable("x"), new Variable("y")),
+                                              new Product(new Variable("x"), new Variable("y"))));
+    }
+
+    /**
+     * @return the left-deep chain first op rest op rest op ... of count terms
+     */
+    private static String leftDeep(String first, String op, String rest, int count) {
+        StringBuilder builder = new StringBuilder(first);
+        for (int i = 1; i < count; i++) {
+            builder.append(op).append(rest);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the right-deep chain rest op (rest op (... (rest op last))) of count terms
+     */
+    private static String rightDeep(String rest, String op, String last, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 1; i < count; i++) {
+            builder.append(rest).append(op).append('(');
+        }
+        builder.append(last);
+        for (int i = 1; i < count; i++) {
+            builder.append(')');
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testDeepLeftProduct() {
+        // a flat chain has a flat concrete syntax tree, so this also builds the deep AST with buildAST(); adjacent
+        // factors differ, so simplify() does not merge them into powers
+        Expression expression = ExpressionParser.parseUncached(leftDeep("x", "*", "y*z", DEPTH / 2), Engine.GRAMMAR);
+        assertEquals(ExpressionParser.parseUncached(leftDeep("x", "*", "y*z", DEPTH / 2), Engine.HANDWRITTEN),
+                     expression);
+
+        Expression derivative = expression.differentiate("x");
+        assertEquals(leftDeep("y*z", "*", "y*z", DEPTH / 2 - 1), derivative.toString());
+        assertEquals(ExpressionInterner.constant(0), derivative.differentiate("x"));
+        assertSame(expression, expression.simplify());
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("y", 1.0);
+        environment.put("z", 1.0);
+        assertEquals(ExpressionInterner.variable("x"), expression.simplify(environment));
+
+        // the same chain, not interned, is compared node by node
+        Expression copy = new Variable("x");
+        for (int i = 1; i < DEPTH / 2; i++) {
+            copy = new Product(new Product(copy, new Variable("y")), new Variable("z"));
+        }
+        assertEquals(expression, copy);
+        assertEquals(copy, expression);
+        assertEquals(expression.hashCode(), copy.hashCode());
+        assertNotEquals(expression, new Product(copy, new Variable("y")));
+        assertSame(expression, ExpressionInterner.intern(copy));
+
+        // a chain of equal factors is merged into a single power
+        Expression power = ExpressionParser.parseUncached(leftDeep("x", "*", "x", DEPTH), Engine.HANDWRITTEN);
+        assertEquals(ExpressionInterner.power(ExpressionInterner.variable("x"), DEPTH), power);
+    }
+
+    @Test
+    public void testDeepRightProduct() {
+        // the recursive parser of the grammar would overflow on the nested parentheses, so use the hand-written one
+        Expression expression = ExpressionParser.parseUncached(rightDeep("y", "*", "x", DEPTH), Engine.HANDWRITTEN);
+
+        Expression derivative = expression.differentiate("x");
+        assertEquals("y^" + (DEPTH - 1), ExpressionPrinter.toString(derivative, true));
+        assertEquals(ExpressionInterner.constant(0), derivative.differentiate("x"));
+
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 3.0);
+        environment.put("y", 1.0);
+        assertEquals(ExpressionInterner.constant(3), expression.simplify(environment));
+        assertEquals(3, expression.compile(Arrays.asList("x", "y")).evaluate(new double[] {3, 1}), 0);
+
+        Expression copy = new Product(new Variable("y"), new Variable("x"));
+        for (int i = 2; i < DEPTH; i++) {
+            copy = new Product(new Variable("y"), copy);
+        }
+        assertEquals(expression, copy);
+        assertEquals(expression.toString(), copy.toString());
+        assertEquals(expression.hashCode(), copy.hashCode());
+    }
+
+    @Test
+    public void testDeepSums() {
+        Expression left = ExpressionParser.parseUncached(leftDeep("x", "+", "y", DEPTH), Engine.HANDWRITTEN);
+        assertEquals(ExpressionInterner.constant(1), left.differentiate("x"));
+        assertEquals(ExpressionInterner.constant(0), left.differentiate("z"));
+        assertEquals(1 + 2.0 * (DEPTH - 1), left.compile(Arrays.asList("x", "y")).evaluate(new double[] {1, 2}), 0);
+
+        Expression right = ExpressionParser.parseUncached(rightDeep("y", "+", "x", DEPTH), Engine.HANDWRITTEN);
+        assertEquals(ExpressionInterner.constant(1), right.differentiate("x"));
+        assertEquals(rightDeep("y", "+", "x", DEPTH).length(), right.toString().length());
+    }
+}
@@ -0,0 +1,127 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Expression.gradient() and Gradient.
+ */
+public class GradientTest {
+
+    // Testing strategy
+    //   - expression: constant, variable, sum, product, with shared subexpressions, not interned
+    //   - variables: of the expression, extra variables (partial derivative 0)
+    //   - invalid variables: missing variable, duplicate variable
+    //   - numeric gradient: value and partial derivatives, against differentiate() on random expressions
+    //   - symbolic gradient: against differentiate(), shares subexpressions, computed once
+
+    private static final double DELTA = 1e-9;
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testConstant() {
+        Gradient gradient = Expression.parse("3").gradient(Collections.singletonList("x"));
+        double[] partials = {5};
+        assertEquals(3, gradient.evaluate(new double[] {2}, partials), 0);
+        assertArrayEquals(new double[] {0}, partials, 0);
+        assertEquals(Expression.parse("0"), gradient.getPartialDerivatives().get("x"));
+    }
+
+    @Test
+    public void testSumAndProduct() {
+        Gradient gradient = Expression.parse("x*y+3*x+y*y").gradient(Arrays.asList("x", "y", "z"));
+        double[] partials = new double[3];
+        assertEquals(2 * 5 + 6 + 25, gradient.evaluate(new double[] {2, 5, 7}, partials), 0);
+        assertArrayEquals(new double[] {5 + 3, 2 + 10, 0}, partials, 0);
+        assertArrayEquals(partials, gradient.evaluate(new double[] {2, 5, 7}), 0);
+        Map<String, Expression> symbolic = gradient.getPartialDerivatives();
+        assertEquals(Arrays.asList("x", "y", "z"), new ArrayList<>(symbolic.keySet()));
+        assertEquals(Expression.parse("0"), symbolic.get("z"));
+        assertSame(symbolic, gradient.getPartialDerivatives());
+    }
+
+    @Test
+    public void testSharedSubexpressions() {
+        // d/dx of (x+y)*(x+y) is 2*(x+y) at every point
+        Gradient gradient = Expression.parse("(x+y)*(x+y)").gradient(Arrays.asList("x", "y"));
+        assertArrayEquals(new double[] {10, 10}, gradient.evaluate(new double[] {2, 3}), 0);
+    }
+
+    @Test
+    public void testNotInterned() {
+        Expression expression = new Product(new Variable("a"), new Sum(new Variable("a"), new Constant(1)));
+        Gradient gradient = expression.gradient(Collections.singletonList("a"));
+        assertArrayEquals(new double[] {2 * 3 + 1}, gradient.evaluate(new double[] {3}), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVariable() {
+        Expression.parse("x*y").gradient(Collections.singletonList("x"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateVariable() {
+        Expression.parse("x").gradient(Arrays.asList("x", "x"));
+    }
+
+    @Test
+    public void testAgreesWithDifferentiate() {
+        Random random = new Random(9);
+        List<String> variables = Arrays.asList("x", "y", "Foo");
+        for (int i = 0; i < 200; i++) {
+            Expression expression = Expression.parse(PrattParserTest.randomExpression(random, 4));
+            Gradient gradient = expression.gradient(variables);
+            double[] point = {0.5 * (1 + random.nextInt(8)), 0.5 * (1 + random.nextInt(8)), 1 + random.nextInt(4)};
+            double[] partials = new double[3];
+            double value = gradient.evaluate(point, partials);
+            assertEquals(expression.compile(variables).evaluate(point), value, DELTA * Math.max(1, Math.abs(value)));
+            Map<String, Expression> symbolic = gradient.getPartialDerivatives();
+            for (int v = 0; v < variables.size(); v++) {
+                double expected = expression.differentiate(variables.get(v)).compile(variables).evaluate(point);
+                double tolerance = DELTA * Math.max(1, expected);
+                assertEquals(expression + " d/d" + variables.get(v), expected, partials[v], tolerance);
+                double fromSymbolic = symbolic.get(variables.get(v)).compile(variables).evaluate(point);
+                assertEquals(expression + " d/d" + variables.get(v), expected, fromSymbolic, tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void testManyVariables() {
+        // the sum of x_i * x_(i+1) over 40 variables, whose partial derivatives are x_(i-1) + x_(i+1)
+        List<String> variables = new ArrayList<>();
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            variables.add(name(i));
+            if (i > 1) builder.append('+');
+            if (i > 0) builder.append(name(i - 1)).append('*').append(name(i));
+        }
+        Gradient gradient = Expression.parse(builder.toString()).gradient(variables);
+        double[] point = new double[40];
+        for (int i = 0; i < 40; i++) point[i] = i;
+        double[] partials = gradient.evaluate(point);
+        for (int i = 0; i < 40; i++) {
+            double expected = (i > 0 ? i - 1 : 0) + (i < 39 ? i + 1 : 0);
+            assertEquals(expected, partials[i], 0);
+        }
+    }
+
+    /**
+     * @return a variable name of letters only for the number i
+     */
+    private static String name(int i) {
+        return "v" + (char) ('a' + i / 26) + (char) ('a' + i % 26);
+    }
+}
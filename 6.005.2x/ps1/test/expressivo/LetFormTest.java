@@ -0,0 +1,129 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for LetForm and the let-bound commands of Commands.
+ */
+public class LetFormTest {
+
+    // Testing strategy
+    //   - format: no repeated subexpressions, a repeated sum, a repeated product, nested repeated subexpressions,
+    //             repeated constants and variables (never bound)
+    //   - parse: no bindings, bindings used once, several times and in later bindings, whitespace,
+    //            variables that start like the placeholders
+    //   - invalid input: name used before it is bound, bound twice, malformed binding, invalid expression
+    //   - parse(format(e)) has the value of e
+    //   - repeated derivatives of nested products: the let-bound form stays linear in size
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testNoRepeatedSubexpressions() {
+        Expression expression = Expression.parse("x*y+x+y*2");
+        assertEquals(expression.toString(), LetForm.format(expression));
+        assertEquals("x", LetForm.format(Expression.parse("x")));
+        assertEquals(expression, LetForm.parse(expression.toString()));
+    }
+
+    @Test
+    public void testRepeatedSubexpressions() {
+        // parsing merges equal adjacent factors into powers, so the products are built without simplification
+        Expression sum = Expression.parse("x+y");
+        assertEquals("t1 = (x+y); t1*t1", LetForm.format(ExpressionInterner.product(sum, sum)));
+        Expression inner = Expression.parse("x*y+1");
+        assertEquals("t1 = x*y; t2 = (t1+1); t2*t2*t1",
+                     LetForm.format(ExpressionInterner.product(ExpressionInterner.product(inner, inner),
+                                                               Expression.parse("x*y"))));
+        assertEquals("t1 = (x+y); t1^2*t1", LetForm.format(ExpressionInterner.product(Expression.parse("(x+y)^2"),
+                                                                                        sum)));
+        // repeated variables and constants are not worth a binding
+        Expression x = ExpressionInterner.variable("x");
+        assertEquals("x*x*2", LetForm.format(ExpressionInterner.product(ExpressionInterner.product(x, x),
+                                                                         ExpressionInterner.constant(2))));
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(Expression.parse("(x+y)*(x+y)"), LetForm.parse("t1 = (x+y); t1*t1"));
+        assertEquals(Expression.parse("(x+1)*(x+1)+x"), LetForm.parse("t1=x+1;t2 = t1*t1 ;  t2+x"));
+        assertEquals(Expression.parse("(leta+letb)*(leta+letb)"), LetForm.parse("t1 = leta+letb; t1*t1"));
+        assertEquals(Expression.parse("t*t"), LetForm.parse("t12 = t; t12*t12"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnboundName() {
+        LetForm.parse("t1 = t2*x; t1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBoundTwice() {
+        LetForm.parse("t1 = x; t1 = y; t1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedBinding() {
+        LetForm.parse("x*y; x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidExpression() {
+        LetForm.parse("t1 = x+; t1");
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(10);
+        for (int i = 0; i < 200; i++) {
+            Expression expression = Expression.parse(PrattParserTest.randomExpression(random, 4)).differentiate("x");
+            if (expression.toString().contains("E")) {
+                continue; // constants in scientific notation do not parse back
+            }
+            Expression parsed = LetForm.parse(LetForm.format(expression));
+            double[] point = {1 + random.nextInt(5), 1 + random.nextInt(5), 1 + random.nextInt(5)};
+            List<String> variables = Arrays.asList("x", "y", "Foo");
+            double expected = expression.compile(variables).evaluate(point);
+            assertEquals(expression.toString(), expected, parsed.compile(variables).evaluate(point),
+                         1e-9 * Math.max(1, expected));
+        }
+    }
+
+    @Test
+    public void testRepeatedDerivativesStayLinear() {
+        int[] lengths = new int[2];
+        for (int n = 8, k = 0; n <= 16; n *= 2, k++) {
+            StringBuilder builder = new StringBuilder("x");
+            for (int i = 1; i < n; i++) {
+                builder.append("*(x+").append(i).append(')');
+            }
+            String plain = builder.toString();
+            String shared = plain;
+            for (int i = 0; i < 3; i++) {
+                plain = Commands.differentiate(plain, "x");
+                shared = Commands.differentiateShared(shared, "x");
+            }
+            assertEquals(Expression.parse(plain).simplify(Collections.singletonMap("x", 1.5)),
+                         LetForm.parse(shared).simplify(Collections.singletonMap("x", 1.5)));
+            assertTrue(shared.length() < plain.length());
+            lengths[k] = shared.length();
+        }
+        // twice the factors give about twice (not 2^3 times) the output
+        assertTrue(lengths[0] + " " + lengths[1], lengths[1] < 4 * lengths[0]);
+    }
+
+    @Test
+    public void testSimplifyShared() {
+        assertEquals("(x+1)^2", Commands.simplifyShared("t1 = x+1; t1*t1", Collections.singletonMap("y", 2.0)));
+        assertEquals("9", Commands.simplifyShared("t1 = x+1; t1*t1", Collections.singletonMap("x", 2.0)));
+    }
+}
@@ -0,0 +1,93 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the memoized results of simplify() and differentiate().
+ */
+public class MemoizationTest {
+
+    // Testing strategy
+    //   - simplify() or differentiate() of the same node once or several times (miss, then hits)
+    //   - differentiate with respect to one or several variables
+    //   - subexpressions shared within one expression, and between different expressions
+    //   - repeated derivatives of long products: the work grows linearly with the length
+    //   - memoized results equal the results computed from scratch
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testSimplifyIsMemoized() {
+        Expression expression = new Sum(new Product(new Constant(2), new Variable("x")), new Constant(0));
+        Memoization.resetStatistics();
+        Expression first = expression.simplify();
+        long misses = Memoization.getSimplifyStatistics().getMisses();
+        assertTrue(misses > 0);
+        assertSame(first, expression.simplify());
+        assertEquals(misses, Memoization.getSimplifyStatistics().getMisses());
+        assertEquals(1, Memoization.getSimplifyStatistics().getHits());
+    }
+
+    @Test
+    public void testDerivativeIsMemoizedPerVariable() {
+        Expression expression = Expression.parse("x*y*z+x*x");
+        Memoization.resetStatistics();
+        Expression dx = expression.differentiate("x");
+        Expression dy = expression.differentiate("y");
+        long misses = Memoization.getDerivativeStatistics().getMisses();
+        long hits = Memoization.getDerivativeStatistics().getHits();
+        assertSame(dx, expression.differentiate("x"));
+        assertSame(dy, expression.differentiate("y"));
+        assertEquals(misses, Memoization.getDerivativeStatistics().getMisses());
+        assertEquals(hits + 2, Memoization.getDerivativeStatistics().getHits());
+        assertNotEquals(dx, dy);
+    }
+
+    @Test
+    public void testSharedSubexpressionsAreSimplifiedOnce() {
+        Expression shared = Expression.parse("(x*y+x)*(x*y+x)");
+        Memoization.resetStatistics();
+        shared.differentiate("x");
+        // the left and the right factor are the same node, so the right one is answered from the memo
+        assertTrue(Memoization.getDerivativeStatistics().getHits() >= 1);
+        assertTrue(Memoization.getSimplifyStatistics().getHits() >= 1);
+    }
+
+    @Test
+    public void testRepeatedDerivativesAreLinear() {
+        for (int length : new int[] {50, 100}) {
+            StringBuilder builder = new StringBuilder("x");
+            for (int i = 1; i < length; i++) {
+                builder.append("*x");
+            }
+            Memoization.resetStatistics();
+            Expression expression = Expression.parse(builder.toString());
+            for (int i = 0; i < 3; i++) {
+                expression = expression.differentiate("x");
+            }
+            long work = Memoization.getSimplifyStatistics().getMisses()
+                        + Memoization.getDerivativeStatistics().getMisses();
+            assertTrue("work " + work + " for length " + length, work < 12 * length);
+        }
+    }
+
+    @Test
+    public void testMemoizedResultsAreCorrect() {
+        Expression expression = Expression.parse("2.5*x*x*x*y+5*x");
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 5.5);
+        environment.put("y", 2.1);
+        Expression expected = Expression.parse("7.5*x*x*y+5").simplify(environment);
+        assertEquals(expected, expression.differentiate("x").simplify(environment));
+        assertEquals(expected, expression.differentiate("x").simplify(environment));
+        assertEquals(expected, expression.differentiate("x").simplify().simplify(environment));
+    }
+}
@@ -0,0 +1,110 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static expressivo.ExpressionInterner.constant;
+import static expressivo.ExpressionInterner.product;
+import static expressivo.ExpressionInterner.sum;
+import static expressivo.ExpressionInterner.variable;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ParallelSimplifier and Expression.normalize(pool).
+ */
+public class ParallelSimplifierTest {
+
+    // Testing strategy
+    //   - expression: constant, variable, narrow sum and product, sum and product wider than the threshold,
+    //                 product of wide sums, nested deeper than the maximal depth
+    //   - like terms: none, many, cancelling to few terms
+    //   - pool: one thread, several threads, the common pool
+    //   - result: same as normalize()
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    private static final String[] VARIABLES = {"x", "y", "z"};
+
+    /**
+     * @return a left-deep sum of terms random terms, with integer coefficients and few distinct monomials
+     */
+    private static Expression wideSum(Random random, int terms) {
+        Expression sum = null;
+        for (int i = 0; i < terms; i++) {
+            Expression term = constant(1 + random.nextInt(5));
+            for (int f = 0, factors = random.nextInt(4); f < factors; f++) {
+                term = product(term, variable(VARIABLES[random.nextInt(VARIABLES.length)]));
+            }
+            sum = sum == null ? term : sum(sum, term);
+        }
+        return sum;
+    }
+
+    private static void assertNormalizes(Expression expression) {
+        Expression expected = expression.normalize();
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool several = new ForkJoinPool(4);
+        try {
+            assertEquals(expected, ParallelSimplifier.simplify(expression, single));
+            assertEquals(expected, expression.normalize(several));
+            assertEquals(expected, ParallelSimplifier.simplify(expression));
+        } finally {
+            single.shutdown();
+            several.shutdown();
+        }
+    }
+
+    @Test
+    public void testLeaves() {
+        assertNormalizes(Expression.parse("2.5"));
+        assertNormalizes(Expression.parse("x"));
+    }
+
+    @Test
+    public void testNarrow() {
+        assertNormalizes(Expression.parse("(x+1)*(x+y) + x*(2*y + 3) + 0*z"));
+    }
+
+    @Test
+    public void testWideSum() {
+        Expression expression = wideSum(new Random(1), 10 * ParallelSimplifier.THRESHOLD);
+        assertNormalizes(expression);
+        // at most 1 + 3 + 6 + 10 distinct monomials of degree up to 3 in 3 variables
+        assertTrue(Polynomial.of(expression).getTermCount() <= 20);
+    }
+
+    @Test
+    public void testWideProduct() {
+        Expression expression = null;
+        for (int i = 0; i < 3 * ParallelSimplifier.THRESHOLD; i++) {
+            Expression factor = i % 3 == 0 ? variable("x") : i % 3 == 1 ? variable("y") : constant(1);
+            expression = expression == null ? factor : product(expression, factor);
+        }
+        assertNormalizes(expression);
+        assertEquals(2 * ParallelSimplifier.THRESHOLD, Polynomial.of(expression).getDegree());
+    }
+
+    @Test
+    public void testProductOfWideSums() {
+        Random random = new Random(2);
+        Expression expression = product(wideSum(random, 3 * ParallelSimplifier.THRESHOLD),
+                                        sum(wideSum(random, 2 * ParallelSimplifier.THRESHOLD), variable("w")));
+        assertNormalizes(expression);
+    }
+
+    @Test
+    public void testDeeplyNested() {
+        // Horner form ((x+1)*x+1)*x+1... nested far deeper than the maximal depth of the tasks
+        Expression expression = variable("x");
+        for (int i = 0; i < 500; i++) {
+            expression = sum(product(expression, variable("x")), constant(1));
+        }
+        assertNormalizes(expression);
+        assertEquals(501, Polynomial.of(expression).getTermCount());
+    }
+}
@@ -0,0 +1,157 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for PartialDerivatives and Expression.differentiate(variable, order), differentiate(orders) and taylor().
+ */
+public class PartialDerivativesTest {
+
+    // Testing strategy
+    //   - order: 0, 1, several, above the degree (0), high (>= 10)
+    //   - orders: one variable, several variables, variables not in the expression, 0 orders
+    //   - against repeated differentiate() followed by normalize()
+    //   - caching: intermediate derivatives are cached and reused, instances are shared by equal expressions
+    //   - taylor: order 0, below and at the degree, variables not in the point, point at 0, numerically
+    //   - invalid: negative order, negative value in the point
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    /**
+     * @return variable multiplied with itself exponent times
+     */
+    private static String power(String variable, int exponent) {
+        StringBuilder builder = new StringBuilder(variable);
+        for (int i = 1; i < exponent; i++) {
+            builder.append('*').append(variable);
+        }
+        return builder.toString();
+    }
+
+    private static Map<String, Integer> orders(String variable, int order, String other, int otherOrder) {
+        Map<String, Integer> orders = new HashMap<>();
+        orders.put(variable, order);
+        orders.put(other, otherOrder);
+        return orders;
+    }
+
+    @Test
+    public void testNthDerivative() {
+        Expression expression = Expression.parse(power("x", 5) + " + y");
+        assertEquals(expression.normalize(), expression.differentiate("x", 0));
+        assertEquals(Expression.parse("5*" + power("x", 4)).normalize(), expression.differentiate("x", 1));
+        assertEquals(Expression.parse("60*x*x").normalize(), expression.differentiate("x", 3));
+        assertEquals(Expression.parse("120"), expression.differentiate("x", 5));
+        assertEquals(Expression.parse("0"), expression.differentiate("x", 6));
+        assertEquals(Expression.parse("0"), expression.differentiate("z", 1));
+    }
+
+    @Test
+    public void testAgainstRepeatedDifferentiate() {
+        Expression expression = Expression.parse("(x+y+1)*(x*x+2*y)*(x+3)");
+        Expression repeated = expression;
+        for (int order = 1; order <= 4; order++) {
+            repeated = repeated.differentiate("x").simplify();
+            assertEquals(repeated.normalize(), expression.differentiate("x", order));
+        }
+    }
+
+    @Test
+    public void testMixedPartials() {
+        Expression expression = Expression.parse(power("x", 3) + "*y*y + x*z");
+        assertEquals(Expression.parse("12*x*y").normalize(), expression.differentiate(orders("x", 2, "y", 1)));
+        assertEquals(expression.differentiate("y", 1).differentiate("x", 2),
+                     expression.differentiate(orders("x", 2, "y", 1)));
+        assertEquals(Expression.parse("1"), expression.differentiate(orders("x", 1, "z", 1)));
+        assertEquals(expression.differentiate("x", 2), expression.differentiate(orders("x", 2, "y", 0)));
+        assertEquals(Expression.parse("0"), expression.differentiate(orders("y", 3, "x", 1)));
+    }
+
+    @Test
+    public void testHighOrder() {
+        Expression expression = Expression.parse(power("x", 20));
+        assertEquals(Expression.parse("2432902008176640000"), expression.differentiate("x", 20));
+        // without collecting like terms, the tree of the 12th derivative would have 12! terms
+        Expression twelfth = Expression.parse(power("(x+y+1)", 12));
+        assertEquals(Expression.parse("479001600"), twelfth.differentiate("x", 12));
+        assertEquals(Expression.parse("479001600"), twelfth.differentiate(orders("x", 6, "y", 6)));
+    }
+
+    @Test
+    public void testCaching() {
+        PartialDerivatives derivatives = PartialDerivatives.of(Expression.parse(power("x", 4) + "*y*y"));
+        assertSame(derivatives, PartialDerivatives.of(Expression.parse(power("x", 4) + "*y*y")));
+        assertEquals(1, derivatives.size());
+        derivatives.derivative("x", 3);
+        assertEquals(4, derivatives.size());
+        derivatives.derivative("x", 2);
+        assertEquals(4, derivatives.size());
+        // extends d^3/dx^3 by one derivative by y
+        derivatives.derivative(orders("x", 3, "y", 1));
+        assertEquals(5, derivatives.size());
+    }
+
+    @Test
+    public void testTaylor() {
+        Expression cube = Expression.parse(power("x", 3));
+        Map<String, Double> point = Collections.singletonMap("x", 2.);
+        // (2+h)^3 = 8 + 12*h + 6*h^2 + h^3, in the displacement h written as x
+        assertEquals(Expression.parse("8"), cube.taylor(point, 0));
+        assertEquals(Expression.parse("12*x + 8").normalize(), cube.taylor(point, 1));
+        assertEquals(Expression.parse("x*x*x + 6*x*x + 12*x + 8").normalize(), cube.taylor(point, 3));
+        assertEquals(cube.taylor(point, 3), cube.taylor(point, 7));
+        assertEquals(cube.normalize(), cube.taylor(Collections.singletonMap("x", 0.), 3));
+    }
+
+    @Test
+    public void testTaylorSymbolic() {
+        Expression expression = Expression.parse("x*x*y + z");
+        Map<String, Double> point = Collections.singletonMap("x", 1.);
+        // (1+h)^2*y + z = y + z + 2*h*y + h*h*y
+        assertEquals(Expression.parse("2*x*y + y + z").normalize(), expression.taylor(point, 1));
+        assertEquals(Expression.parse("x*x*y + 2*x*y + y + z").normalize(), expression.taylor(point, 2));
+    }
+
+    @Test
+    public void testTaylorNumerically() {
+        Expression expression = Expression.parse("(x+2*y+1)*(x*y+3)*(y+x*x)");
+        Map<String, Double> point = new HashMap<>();
+        point.put("x", 1.5);
+        point.put("y", 0.5);
+        // the degree is 5, so the expansion of order 5 is exact
+        Expression expansion = expression.taylor(point, 5);
+        Map<String, Double> displacement = new HashMap<>();
+        displacement.put("x", 0.25);
+        displacement.put("y", 2.);
+        Map<String, Double> shifted = new HashMap<>();
+        shifted.put("x", 1.75);
+        shifted.put("y", 2.5);
+        double expected = ((Constant) expression.simplify(shifted)).getValue();
+        double actual = ((Constant) expansion.simplify(displacement)).getValue();
+        assertEquals(expected, actual, 1e-9 * expected);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeOrder() {
+        Expression.parse("x").differentiate("x", -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeTaylorOrder() {
+        Expression.parse("x").taylor(Collections.singletonMap("x", 1.), -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativePoint() {
+        Expression.parse("x").taylor(Collections.singletonMap("x", -1.), 2);
+    }
+}
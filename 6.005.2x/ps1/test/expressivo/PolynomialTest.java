@@ -0,0 +1,324 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Polynomial, Expression.normalize(), Expression.expand() and Commands.normalize().
+ */
+public class PolynomialTest {
+
+    // Testing strategy
+    //   - polynomial: zero, constant, single variable, several variables, repeated variables (higher exponents)
+    //   - plus/times/sumOf: none, with zero, with constants, with disjoint and overlapping variables,
+    //                       collecting like terms
+    //   - differentiate: by an absent variable, by a variable with exponent 1 and higher
+    //   - substitute: no, some or all variables
+    //   - canonical form: equal polynomials written differently give equal polynomials and strings,
+    //                     the output parses back to the same polynomial
+    //   - repeated derivatives stay small
+    //   - compare with the values of the expressions on random expressions
+    //   - times: equals the sum of the products of all pairs of terms for sparse and dense factors, univariate and
+    //            multivariate, with integer and fractional coefficients, and with exponents too large to pack;
+    //            dense products by Karatsuba's algorithm equal the schoolbook products, also for lengths that are
+    //            not powers of two, unequal lengths and coefficients too large to multiply exactly;
+    //            exponents of the product too large for an int; power of a single term
+    //   - expand: distributes products over sums; long sums and large products
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testZeroAndConstants() {
+        assertEquals("0", Polynomial.constant(0).toString());
+        assertEquals("0", Polynomial.of(Expression.parse("0*x+0")).toString());
+        assertEquals(0, Polynomial.of(Expression.parse("x*0")).getTermCount());
+        assertEquals("2.5", Polynomial.of(Expression.parse("1+1.5")).toString());
+        assertTrue(Polynomial.of(Expression.parse("2*3")).isConstant());
+        assertEquals(Polynomial.constant(6), Polynomial.of(Expression.parse("2*3")));
+    }
+
+    @Test
+    public void testLikeTermsAreCollected() {
+        assertEquals("x+2", Commands.normalize("((x+1)+1)"));
+        assertEquals("x*x+2*x", Commands.normalize("((x+1)+1)*x"));
+        assertEquals("x*y+2*x", Commands.normalize("x*(y+1)+x"));
+        assertEquals("x*y+2*x", Commands.normalize("y*x + x + x"));
+        assertEquals("x*x*x+3*x*x+3*x+1", Commands.normalize("(x+1)*(x+1)*(x+1)"));
+    }
+
+    @Test
+    public void testCanonicalOrder() {
+        // higher degree first, then higher exponents of the variables in alphabetical order
+        assertEquals("x*x*y+x*y*y+x*x+x*y+y+1", Commands.normalize("1+y+x*y+x*x+y*y*x+y*x*x"));
+        assertEquals("A*b+a", Commands.normalize("a+b*A"));
+        Polynomial polynomial = Polynomial.of(Expression.parse("(z+y)*(y+x)"));
+        assertEquals(polynomial, Polynomial.of(Expression.parse("x*y+x*z+y*y+y*z")));
+        assertEquals(polynomial.hashCode(), Polynomial.of(Expression.parse("y*z+y*y+x*z+x*y")).hashCode());
+        assertEquals(2, polynomial.getDegree());
+        assertEquals(4, polynomial.getTermCount());
+    }
+
+    @Test
+    public void testSumOf() {
+        assertEquals(Polynomial.constant(0), Polynomial.sumOf(Collections.emptyList()));
+        Polynomial sum = Polynomial.sumOf(Arrays.asList(Polynomial.of(Expression.parse("x*y+1")),
+                                                        Polynomial.constant(0),
+                                                        Polynomial.of(Expression.parse("z+2*x*y")),
+                                                        Polynomial.of(Expression.parse("y"))));
+        assertEquals(Polynomial.of(Expression.parse("3*x*y+y+z+1")), sum);
+    }
+
+    @Test
+    public void testOutputParses() {
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            Polynomial polynomial = Polynomial.of(Expression.parse(PrattParserTest.randomExpression(random, 3)));
+            assertEquals(polynomial.toString(), Polynomial.of(Expression.parse(polynomial.toString())).toString());
+            assertEquals(polynomial.toString(), Polynomial.of(polynomial.toExpression()).toString());
+        }
+    }
+
+    @Test
+    public void testDifferentiate() {
+        assertEquals("0", Commands.differentiateNormalized("x*x+3", "y"));
+        assertEquals("2*x+3*y", Commands.differentiateNormalized("x*x+3*x*y+y", "x"));
+        assertEquals("3*x+1", Commands.differentiateNormalized("x*x+3*x*y+y", "y"));
+        assertEquals(Polynomial.constant(0), Polynomial.of(Expression.parse("5")).differentiate("x"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDifferentiateInvalidVariable() {
+        Commands.differentiateNormalized("x*x", "x1");
+    }
+
+    @Test
+    public void testSubstitute() {
+        Polynomial polynomial = Polynomial.of(Expression.parse("x*x*y+2*x+z"));
+        assertSame(polynomial, polynomial.substitute(Collections.singletonMap("w", 3.0)));
+        assertEquals("3*x*x+2*x+z", polynomial.substitute(Collections.singletonMap("y", 3.0)).toString());
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        environment.put("y", 0.5);
+        environment.put("z", 1.0);
+        assertEquals(Polynomial.constant(7), polynomial.substitute(environment));
+    }
+
+    @Test
+    public void testRepeatedDerivativesStaySmall() {
+        String expression = "x*x*x*x*x*x*x*x*y+x*x*x*y*y+x*y";
+        for (int i = 0; i < 8; i++) {
+            expression = Commands.differentiateNormalized(expression, "x");
+            assertTrue(expression, expression.length() < 40);
+        }
+        assertEquals("40320*y", expression);
+    }
+
+    @Test
+    public void testNormalizeAgreesWithValue() {
+        Random random = new Random(8);
+        for (int i = 0; i < 200; i++) {
+            Expression expression = Expression.parse(PrattParserTest.randomExpression(random, 4));
+            Expression normalized = expression.normalize();
+            double[] values = {1 + random.nextInt(5), 1 + random.nextInt(5), 1 + random.nextInt(5)};
+            double expected = expression.compile(Arrays.asList("x", "y", "Foo")).evaluate(values);
+            double actual = normalized.compile(Arrays.asList("x", "y", "Foo")).evaluate(values);
+            assertEquals(expression.toString(), expected, actual, 1e-9 * Math.max(1, expected));
+        }
+    }
+
+    private static final String[] VARIABLES = {"x", "y", "z"};
+
+    /**
+     * @return the terms coefficient * x^exponents[0] * y^exponents[1] * z^exponents[2]
+     */
+    private static Polynomial term(double coefficient, int... exponents) {
+        Polynomial term = Polynomial.constant(coefficient);
+        for (int v = 0; v < exponents.length; v++) {
+            term = term.times(Polynomial.variable(VARIABLES[v]).power(exponents[v]));
+        }
+        return term;
+    }
+
+    /**
+     * @return the polynomial of count terms with distinct random exponents below bound in the first width variables,
+     *         and coefficients that are random multiples of unit up to 100 * unit, added to terms
+     */
+    private static Polynomial random(Random random, int count, int width, int bound, double unit,
+                                     List<Polynomial> terms) {
+        Set<List<Integer>> rows = new HashSet<>();
+        while (rows.size() < count) {
+            Integer[] row = new Integer[width];
+            for (int v = 0; v < width; v++) {
+                row[v] = random.nextInt(bound);
+            }
+            if (rows.add(Arrays.asList(row))) {
+                int[] exponents = new int[width];
+                for (int v = 0; v < width; v++) {
+                    exponents[v] = row[v];
+                }
+                terms.add(term(unit * (1 + random.nextInt(100)), exponents));
+            }
+        }
+        return Polynomial.sumOf(terms);
+    }
+
+    /**
+     * Assert that left.times(right) is the sum of the products of all pairs of their terms, which requires that the
+     * coefficients are added exactly in any order.
+     */
+    private static void assertTimesPairwise(List<Polynomial> left, List<Polynomial> right) {
+        List<Polynomial> products = new ArrayList<>();
+        for (Polynomial l : left) {
+            for (Polynomial r : right) {
+                products.add(l.times(r));
+            }
+        }
+        Polynomial expected = Polynomial.sumOf(products);
+        assertEquals(expected, Polynomial.sumOf(left).times(Polynomial.sumOf(right)));
+        assertEquals(expected, Polynomial.sumOf(right).times(Polynomial.sumOf(left)));
+    }
+
+    @Test
+    public void testTimesAgreesWithPairwiseProducts() {
+        Random random = new Random(24);
+        // {count, width, bound}: dense univariate (unequal lengths), dense bivariate, sparse, tiny
+        int[][] shapes = {{300, 1, 300}, {40, 1, 60}, {150, 2, 15}, {200, 3, 1000}, {3, 2, 4}};
+        for (int[] shape : shapes) {
+            // integer coefficients, which are multiplied exactly, and fractional ones, which are added exactly
+            for (double unit : new double[] {1, 0.25}) {
+                List<Polynomial> left = new ArrayList<>();
+                List<Polynomial> right = new ArrayList<>();
+                random(random, shape[0], shape[1], shape[2], unit, left);
+                random(random, shape[0] / 2 + 1, shape[1], shape[2], unit, right);
+                assertTimesPairwise(left, right);
+            }
+        }
+        // exponents whose keys do not fit in a long
+        int large = 1 << 28;
+        List<Polynomial> terms = new ArrayList<>();
+        terms.add(term(1, large, large, large));
+        for (int i = 0; i < 5; i++) {
+            terms.add(term(i + 1, i, 2 * i, 3 * i));
+        }
+        assertTimesPairwise(terms, terms);
+    }
+
+    /**
+     * @return the terms of polynomial, in their canonical order
+     */
+    private static List<Polynomial> terms(Polynomial polynomial) {
+        List<Polynomial> terms = new ArrayList<>();
+        Expression expression = polynomial.toExpression();
+        while (expression instanceof Sum) {
+            terms.add(0, Polynomial.of(((Sum) expression).getRight()));
+            expression = ((Sum) expression).getLeft();
+        }
+        terms.add(0, Polynomial.of(expression));
+        return terms;
+    }
+
+    @Test
+    public void testTimesRoundsLikeTermOrder() {
+        Random random = new Random(26);
+        // {count, width, bound}: dense univariate, dense bivariate, sparse, tiny
+        int[][] shapes = {{300, 1, 300}, {40, 1, 60}, {150, 2, 15}, {200, 3, 1000}, {3, 2, 4}};
+        for (int[] shape : shapes) {
+            // rounded coefficients, whose sums depend on the order of the additions
+            for (double unit : new double[] {0.1, 1e-3 / 3}) {
+                Polynomial left = random(random, shape[0], shape[1], shape[2], unit, new ArrayList<>());
+                Polynomial right = random(random, shape[0] / 2 + 1, shape[1], shape[2], unit, new ArrayList<>());
+                // a single term times right adds nothing, so this adds the pairs in the order of the terms
+                Polynomial expected = Polynomial.constant(0);
+                for (Polynomial term : terms(left)) {
+                    expected = expected.plus(term.times(right));
+                }
+                assertEquals(expected, left.times(right));
+            }
+        }
+    }
+
+    @Test
+    public void testMultiplyDenseAgreesWithSchoolbook() {
+        Random random = new Random(25);
+        int[] lengths = {1, 2, Polynomial.KARATSUBA_THRESHOLD, Polynomial.KARATSUBA_THRESHOLD + 1, 64, 100, 257};
+        // small integers use Karatsuba's algorithm, fractions and large integers the schoolbook method
+        for (double unit : new double[] {1, 0.1, 1e12}) {
+            for (int leftLength : lengths) {
+                for (int rightLength : lengths) {
+                    double[] left = new double[leftLength];
+                    double[] right = new double[rightLength];
+                    for (int i = 0; i < leftLength; i++) {
+                        left[i] = random.nextInt(4) == 0 ? 0 : unit * random.nextInt(1000);
+                    }
+                    for (int i = 0; i < rightLength; i++) {
+                        right[i] = random.nextInt(4) == 0 ? 0 : unit * random.nextInt(1000);
+                    }
+                    double[] expected = new double[leftLength + rightLength - 1];
+                    for (int i = 0; i < leftLength; i++) {
+                        for (int j = 0; j < rightLength; j++) {
+                            expected[i + j] += left[i] * right[j];
+                        }
+                    }
+                    assertArrayEquals(expected, Polynomial.multiplyDense(left, right), 0);
+                }
+            }
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testTimesExponentTooLarge() {
+        Polynomial large = Polynomial.variable("x").power(1 << 30);
+        large.times(large);
+    }
+
+    @Test
+    public void testPowerOfSingleTerm() {
+        assertEquals(Polynomial.of(Expression.parse("32*x^5*y^15")), Polynomial.of(Expression.parse("(2*x*y^3)^5")));
+        assertEquals(Polynomial.constant(1), term(3, 2, 1).power(0));
+        assertEquals(term(3, 2, 1), term(3, 2, 1).power(1));
+        try {
+            Polynomial.variable("x").power(1 << 20).power(1 << 12);
+            fail("expected ArithmeticException");
+        } catch (ArithmeticException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testExpand() {
+        assertEquals("(((a*c+a*d)+b*c)+b*d)", Expression.parse("(a+b)*(c+d)").expand().toString());
+        assertEquals(Expression.parse("(x+1)^3*(y+x)").normalize(), Expression.parse("(x+1)^3*(y+x)").expand());
+
+        // sum_k (k+1)*x^k squared, whose coefficients add up to (sum_k (k+1))^2
+        int n = 5000;
+        Expression left = null;
+        Expression right = null;
+        for (int k = 0; k < n; k++) {
+            Expression power = ExpressionInterner.power(ExpressionInterner.variable("x"), k);
+            Expression term = ExpressionInterner.product(ExpressionInterner.constant(k + 1), power);
+            left = left == null ? term : ExpressionInterner.sum(left, term);
+            right = right == null ? power : ExpressionInterner.sum(right, power);
+        }
+        Polynomial square = Polynomial.of(ExpressionInterner.product(left, left));
+        assertEquals(2 * n - 1, square.getTermCount());
+        double total = n * (n + 1) / 2.0;
+        assertEquals(Polynomial.constant(total * total), square.substitute(Collections.singletonMap("x", 1.0)));
+        Expression expanded = ExpressionInterner.product(left, right).expand();
+        assertEquals(Polynomial.constant(total * n),
+                     Polynomial.of(expanded).substitute(Collections.singletonMap("x", 1.0)));
+    }
+}
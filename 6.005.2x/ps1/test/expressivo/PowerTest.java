@@ -0,0 +1,188 @@
+package expressivo;
+
+import expressivo.ExpressionParser.Engine;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static expressivo.ExpressionInterner.constant;
+import static expressivo.ExpressionInterner.power;
+import static expressivo.ExpressionInterner.product;
+import static expressivo.ExpressionInterner.sum;
+import static expressivo.ExpressionInterner.variable;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Power and the ^ operator.
+ */
+public class PowerTest {
+
+    // Testing strategy
+    //   - parse: base a variable, a constant, a parenthesized sum and product, a power; exponent 0, 1, large;
+    //     whitespace around ^; both engines agree; invalid exponents (negative, decimal, variable, too large)
+    //   - toString: a product of the factors, or base^exponent with carets; parentheses around a product or power
+    //     base, exponent 0; parse(toString()) is the same power in both modes
+    //   - differentiate: the power rule with exponents 0, 1, 2 and large, the chain rule with a sum base, the size of
+    //     the derivative does not grow with the exponent
+    //   - simplify: exponents 0 and 1, constant bases, powers of powers, x*x and chains of equal factors merged into
+    //     powers, with and without a constant factor; simplify(environment)
+    //   - evaluators agree on powers: compiled, gradient, columns, polynomial, equivalence, binary encoding
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    private static final Variable X = variable("x");
+
+    /**
+     * @return the text of expression with powers written as base^exponent
+     */
+    private static String carets(Expression expression) {
+        return ExpressionPrinter.toString(expression, true);
+    }
+
+    @Test
+    public void testParse() {
+        for (Engine engine : Engine.values()) {
+            assertEquals(power(X, 3), ExpressionParser.parseUncached("x^3", engine));
+            assertEquals(power(X, 10), ExpressionParser.parseUncached("x ^ 10", engine));
+            assertEquals(power(sum(X, constant(1)), 2), ExpressionParser.parseUncached("(x+1)^2", engine));
+            assertEquals(power(product(X, variable("y")), 2), ExpressionParser.parseUncached("(x*y)^2", engine));
+            // powers are simplified like sums and products when they are built
+            assertEquals(power(X, 6), ExpressionParser.parseUncached("((x^2))^3", engine));
+            assertEquals(constant(1), ExpressionParser.parseUncached("x^0", engine));
+            assertEquals(X, ExpressionParser.parseUncached("x^1", engine));
+            assertEquals(constant(8), ExpressionParser.parseUncached("2^3", engine));
+            // ^ binds tighter than * and +
+            assertEquals(sum(constant(1), product(constant(2), power(X, 3))),
+                         ExpressionParser.parseUncached("1+2*x^3", engine));
+            assertEquals(power(X, Integer.MAX_VALUE),
+                         ExpressionParser.parseUncached("x^" + Integer.MAX_VALUE, engine));
+        }
+    }
+
+    @Test
+    public void testInvalidExponents() {
+        for (Engine engine : Engine.values()) {
+            for (String input : Arrays.asList("x^-2", "x^2.5", "x^y", "x^(2)", "x^", "x^2147483648", "x^2^2")) {
+                try {
+                    ExpressionParser.parseUncached(input, engine);
+                    fail("expected IllegalArgumentException for " + input + " with " + engine);
+                } catch (IllegalArgumentException expected) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeExponent() {
+        new Power(X, -1);
+    }
+
+    @Test
+    public void testToString() {
+        assertEquals("x*x*x", power(X, 3).toString());
+        assertEquals("(x+1)*(x+1)", power(sum(X, constant(1)), 2).toString());
+        assertEquals("(x*y)*(x*y)", power(product(X, variable("y")), 2).toString());
+        assertEquals("(x*x)*(x*x)", power(power(X, 2), 2).toString());
+        assertEquals("(2*x*x*x+1)", sum(product(constant(2), power(X, 3)), constant(1)).toString());
+        assertEquals("1", power(X, 0).toString());
+        assertEquals("x", power(X, 1).toString());
+
+        assertEquals("x^3", carets(power(X, 3)));
+        assertEquals("(x+1)^2", carets(power(sum(X, constant(1)), 2)));
+        assertEquals("(x*y)^2", carets(power(product(X, variable("y")), 2)));
+        assertEquals("(x^2)^3", carets(power(power(X, 2), 3)));
+        assertEquals("(2*x^3+1)", carets(sum(product(constant(2), power(X, 3)), constant(1))));
+        assertEquals("x^0", carets(power(X, 0)));
+        for (String input : Arrays.asList("x^3", "(x+1)^2", "(x*y)^2", "(x^2)^3", "2*x^3+y^0", "(2*x^3+1)^4")) {
+            Expression parsed = ExpressionParser.parseUncached(input, Engine.HANDWRITTEN);
+            assertEquals(parsed, Expression.parse(parsed.toString()));
+            assertEquals(parsed, Expression.parse(carets(parsed)));
+        }
+        assertEquals(power(X, 3), new Power(new Variable("x"), 3));
+        assertEquals(power(X, 3).hashCode(), new Power(new Variable("x"), 3).hashCode());
+        assertNotEquals(power(X, 3), power(X, 2));
+        assertNotEquals(power(X, 2), product(X, X));
+    }
+
+    @Test
+    public void testDifferentiate() {
+        assertEquals("20*x^19", carets(power(X, 20).differentiate("x")));
+        assertEquals("2*x", power(X, 2).differentiate("x").toString());
+        assertEquals(constant(1), power(X, 1).differentiate("x"));
+        assertEquals(constant(0), power(X, 0).differentiate("x"));
+        assertEquals(constant(0), power(X, 5).differentiate("y"));
+        assertEquals("3*(x+1)^2", carets(Expression.parse("(x+1)^3").differentiate("x")));
+        Expression derivative = Expression.parse("(x*y)^2").differentiate("x");
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 3.0);
+        environment.put("y", 5.0);
+        assertEquals(constant(2 * 3 * 5 * 5), derivative.simplify(environment));
+    }
+
+    @Test
+    public void testDerivativeSizeDoesNotGrowWithExponent() {
+        Expression derivative = Expression.parse("(x+y)^1000000").differentiate("x");
+        assertEquals("1000000*(x+y)^999999", carets(derivative));
+        Expression second = derivative.differentiate("x");
+        assertEquals("1000000*999999*(x+y)^999998", carets(second));
+    }
+
+    @Test
+    public void testSimplify() {
+        assertEquals(constant(1), power(X, 0).simplify());
+        assertEquals(X, power(X, 1).simplify());
+        assertEquals(constant(1024), power(constant(2), 10).simplify());
+        assertEquals(power(X, 6), power(power(X, 2), 3).simplify());
+        assertEquals(power(X, 2), product(X, X).simplify());
+        assertEquals(power(X, 3), product(power(X, 2), X).simplify());
+        assertEquals(power(X, 3), product(X, power(X, 2)).simplify());
+        assertEquals(power(X, 5), product(power(X, 2), power(X, 3)).simplify());
+        assertEquals("x^5", carets(Expression.parse("x*x*x*x*x")));
+        assertEquals("3*x^2", carets(Expression.parse("3*x*x")));
+        assertEquals("y*x^2", carets(Expression.parse("y*x*x")));
+        assertEquals("(x+1)^2", carets(Expression.parse("(x+1)*(x+1)")));
+        assertEquals("x*y*x", carets(Expression.parse("x*y*x")));
+        assertEquals("2*x^2", carets(Expression.parse("x*x+x*x")));
+        assertEquals(constant(27), Expression.parse("(x+1)^3").simplify(Collections.singletonMap("x", 2.0)));
+        assertEquals("(y+1)^2", carets(Expression.parse("(x*y+1)^2").simplify(Collections.singletonMap("x", 1.0))));
+    }
+
+    @Test
+    public void testEvaluators() {
+        Expression expression = Expression.parse("(x+1)^3*y^2+x^0");
+        double expected = 3 * 3 * 3 * 4 * 4 + 1;
+        CompiledExpression compiled = expression.compile(Arrays.asList("x", "y"));
+        assertEquals(expected, compiled.evaluate(new double[] {2, 4}), 0);
+
+        double[] gradient = expression.gradient(Arrays.asList("x", "y")).evaluate(new double[] {2, 4});
+        assertEquals(3 * 3 * 3 * 16, gradient[0], 0);
+        assertEquals(27 * 2 * 4, gradient[1], 0);
+        assertEquals(Expression.parse("3*(x+1)^2*y^2").simplify(Collections.singletonMap("x", 5.0)),
+                     expression.gradient(Arrays.asList("x", "y")).getPartialDerivatives().get("x")
+                               .simplify(Collections.singletonMap("x", 5.0)));
+
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[] {2, 0, -1});
+        columns.put("y", new double[] {4, 1, 7});
+        double[] output = new double[3];
+        expression.evaluate(columns, output);
+        assertArrayEquals(new double[] {expected, 2, 1}, output, 0);
+
+        assertEquals(Polynomial.of(Expression.parse("x*x*x+3*x*x+3*x+1")), Polynomial.of(Expression.parse("(x+1)^3")));
+        assertEquals("((x^2+2*x*y)+y^2)", carets(Expression.parse("(x+y)^2").normalize()));
+        assertTrue(Equivalence.equivalent(Expression.parse("(x+y)^2"), Expression.parse("x^2+2*x*y+y^2")));
+        assertFalse(Equivalence.equivalent(Expression.parse("(x+y)^2"), Expression.parse("x^2+y^2")));
+        assertTrue(Equivalence.equivalent(Expression.parse("(x^3)^5"), Expression.parse("x^15")));
+
+        Expression large = power(sum(X, constant(1)), Integer.MAX_VALUE);
+        assertSame(large, ExpressionCodec.fromBytes(ExpressionCodec.toBytes(large)));
+        assertSame(expression, ExpressionCodec.fromBytes(ExpressionCodec.toBytes(expression)));
+    }
+}
@@ -0,0 +1,198 @@
+package expressivo;
+
+import expressivo.ExpressionParser.Engine;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Differential tests of the hand-written parser against the grammar-based parser: for every input both engines must
+ * either build equal ASTs, or both reject the input.
+ */
+public class PrattParserTest {
+
+    // Testing strategy
+    //   - valid input: constants (integer, decimal, ".3", "2."), variables, sums, products, powers, nested
+    //     parentheses, whitespace at the begin, middle and end
+    //   - invalid input: unbalanced parentheses, missing operands, unknown characters, adjacent tokens, exponents
+    //     that are not non-negative integers
+    //   - randomly generated valid expressions, and random mutations of them that may or may not be valid
+    //   - the engine flag of ExpressionParser selects the engine used by Expression.parse()
+
+    private static final String[] VALID = {
+            "2", "2+3", "2.1", "2.1+3.1", ".1", "2.", "0.5", "007", "3.000", "2*3.1", "x", "2.0*x", "x*2.0", "x*y",
+            "var", "Var", "var*Var", "x+y", "2+x", "2+3*4", "(2+3)*4", "(1+1+1+1+1)*x", "5*(y)+(((x)))",
+            " 2", "2  ", "  2   +   3  ", "   x  +   3   *  y", "\tx\r\n*\ty", String.valueOf(Long.MAX_VALUE),
+            "0.000000000000000000000000001", "123456789012345678901234567890", "x+x*x+x", "x+y+x",
+            "x*(x+x*(y+x)*x+(y*x+z)*x+x)", "x*x*x*X*X*X*X*z*X*Xx*X*x*Y*X*Y*x", "(5*x+y)*z+t*6",
+            "(x+y*(6*z+1)+5*(x+3*(z+x)))", "5.0 * 6 + 2.5 * (5 * 8.3 + 7)", "((((x))))", "(x)*(y)", "x*(y+z)*w",
+            "(x+x+x)", "(x+(x*3))", "((x+x*2))*y", "x*(x+x*.5)", "3^4", "(x+1)^2*x^3", "x ^ 10",
+    };
+
+    private static final String[] INVALID = {
+            "", " ", "(3", "3)", "3*", "*3", "3x", "(3+", "va r", "3/5", "3^x", "x^-1", "x^1.5", "x^", "^2", "x^2^3",
+            "4E5", "1.5e", "1.2.3", ".", "2..", "()", "x++y", "x y", "3 4", "-1", "x*(y", "x)(", "\u00e9", "x+", "+",
+    };
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testValidInputMatchesGrammar() {
+        for (String input : VALID) {
+            assertSameResult(input);
+        }
+    }
+
+    @Test
+    public void testInvalidInputRejectedByBoth() {
+        for (String input : INVALID) {
+            try {
+                PrattParser.parse(input);
+                fail("expected IllegalArgumentException for " + input);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            assertSameResult(input);
+        }
+    }
+
+    @Test
+    public void testDecimalValues() {
+        assertEquals(new Constant(0.3), PrattParser.parse(".3"));
+        assertEquals(new Constant(2), PrattParser.parse("2."));
+        assertEquals(new Constant(0.1), PrattParser.parse("0.1000"));
+        assertEquals(new Constant(1e-27), PrattParser.parse("0.000000000000000000000000001"));
+        assertEquals(new Constant(Double.parseDouble("123456789.123456789")), PrattParser.parse("123456789.123456789"));
+    }
+
+    @Test
+    public void testRandomExpressionsMatchGrammar() {
+        Random random = new Random(6005);
+        for (int i = 0; i < 500; i++) {
+            String input = randomExpression(random, 4);
+            assertSameResult(input);
+            assertSameResult(mutate(random, input));
+        }
+    }
+
+    @Test
+    public void testEngineFlagSelectsEngine() {
+        Engine previous = ExpressionParser.getEngine();
+        try {
+            ExpressionParser.setEngine(Engine.HANDWRITTEN);
+            assertEquals(Engine.HANDWRITTEN, ExpressionParser.getEngine());
+            assertEquals(ExpressionParser.parseUncached("x*(y+2)", Engine.GRAMMAR),
+                         ExpressionParser.parseUncached("x*(y+2)"));
+            ExpressionParser.setEngine(Engine.GRAMMAR);
+            assertEquals(Engine.GRAMMAR, ExpressionParser.getEngine());
+        } finally {
+            ExpressionParser.setEngine(previous);
+        }
+    }
+
+    /**
+     * Assert that both engines build equal ASTs with equal string representations, or that both reject input.
+     */
+    private static void assertSameResult(String input) {
+        Expression expected = null;
+        Expression actual = null;
+        try {
+            expected = ExpressionParser.parseUncached(input, Engine.GRAMMAR);
+        } catch (IllegalArgumentException e) {
+            // expected stays null
+        }
+        try {
+            actual = ExpressionParser.parseUncached(input, Engine.HANDWRITTEN);
+        } catch (IllegalArgumentException e) {
+            // actual stays null
+        }
+        assertEquals("input: " + input, expected, actual);
+        if (expected != null) {
+            assertEquals("input: " + input, expected.toString(), actual.toString());
+        }
+    }
+
+    /**
+     * @return a random valid expression with random whitespace, nested at most depth levels deep
+     */
+    static String randomExpression(Random random, int depth) {
+        StringBuilder builder = new StringBuilder();
+        appendRandomExpression(random, depth, builder);
+        return builder.toString();
+    }
+
+    private static void appendRandomExpression(Random random, int depth, StringBuilder builder) {
+        int operands = depth == 0 ? 1 : 1 + random.nextInt(4);
+        for (int i = 0; i < operands; i++) {
+            if (i > 0) {
+                appendWhitespace(random, builder);
+                builder.append(random.nextBoolean() ? '+' : '*');
+                appendWhitespace(random, builder);
+            }
+            switch (depth == 0 ? random.nextInt(2) : random.nextInt(4)) {
+                case 0:
+                    appendRandomNumber(random, builder);
+                    break;
+                case 1:
+                    builder.append(random.nextBoolean() ? "x" : random.nextBoolean() ? "y" : "Foo");
+                    break;
+                default:
+                    builder.append('(');
+                    appendWhitespace(random, builder);
+                    appendRandomExpression(random, depth - 1, builder);
+                    appendWhitespace(random, builder);
+                    builder.append(')');
+                    break;
+            }
+        }
+    }
+
+    private static void appendRandomNumber(Random random, StringBuilder builder) {
+        switch (random.nextInt(5)) {
+            case 0:
+                builder.append(random.nextInt(100));
+                break;
+            case 1:
+                builder.append('.').append(random.nextInt(1000));
+                break;
+            case 2:
+                builder.append(random.nextInt(100)).append('.');
+                break;
+            case 3:
+                builder.append(random.nextInt(10)).append('.').append(random.nextInt(100000));
+                break;
+            default:
+                builder.append(random.nextInt(2));
+                break;
+        }
+    }
+
+    private static void appendWhitespace(Random random, StringBuilder builder) {
+        if (random.nextInt(4) == 0) {
+            builder.append(random.nextBoolean() ? " " : " \t ");
+        }
+    }
+
+    /**
+     * @return input with one random character removed, replaced or inserted
+     */
+    private static String mutate(Random random, String input) {
+        final String alphabet = "+*().x1 ";
+        int position = random.nextInt(input.length() + 1);
+        char c = alphabet.charAt(random.nextInt(alphabet.length()));
+        switch (random.nextInt(3)) {
+            case 0:
+                return position < input.length() ? input.substring(0, position) + input.substring(position + 1) : input;
+            case 1:
+                return position < input.length() ? input.substring(0, position) + c + input.substring(position + 1)
+                                                 : input + c;
+            default:
+                return input.substring(0, position) + c + input.substring(position);
+        }
+    }
+}
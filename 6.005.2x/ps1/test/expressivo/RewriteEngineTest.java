@@ -0,0 +1,149 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static expressivo.ExpressionInterner.constant;
+import static expressivo.ExpressionInterner.power;
+import static expressivo.ExpressionInterner.product;
+import static expressivo.ExpressionInterner.sum;
+import static expressivo.ExpressionInterner.variable;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for RewriteEngine, RewriteRule, RewritePattern and SimplificationRules.
+ */
+public class RewriteEngineTest {
+
+    // Testing strategy
+    //   - patterns: ?x, #c, literals, sums, products, parentheses, a name bound twice (equal, unequal operands);
+    //               invalid patterns, patterns of a constant or variable for a rule
+    //   - index: the candidates of a node are the rules whose patterns accept the kinds of its operands, in order
+    //   - rewrite: no rule applies, one step, several steps, a rule declining, factors multiplied back in,
+    //              the step budget running out
+    //   - fire counters: counted per rule, not counted when a rule declines, reset
+    //   - SimplificationRules: the rules of simplify() fire
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    private static final Expression X = variable("x");
+    private static final Expression Y = variable("y");
+    private static final Expression Z = variable("z");
+
+    @Test
+    public void testPatterns() {
+        RewriteRule.Match match = new RewriteRule.Match();
+        RewritePattern pattern = RewritePattern.parse("?x * ?a + ?x * (#c + 1)");
+        assertEquals("((?x * ?a) + (?x * (#c + 1)))", pattern.toString());
+        assertTrue(pattern.match(sum(product(X, Y), product(X, sum(constant(2), constant(1)))), match));
+        assertEquals(Y, match.get("a"));
+        assertEquals(2, match.value("c"), 0);
+        match.clear();
+        // x is bound to two different expressions
+        assertFalse(pattern.match(sum(product(X, Y), product(Z, sum(constant(2), constant(1)))), match));
+        match.clear();
+        // 1 is a literal, #c only matches constants
+        assertFalse(pattern.match(sum(product(X, Y), product(X, sum(constant(2), constant(3)))), match));
+        match.clear();
+        assertFalse(pattern.match(sum(product(X, Y), product(X, sum(Y, constant(1)))), match));
+    }
+
+    @Test
+    public void testInvalidPatterns() {
+        for (String invalid : Arrays.asList("?x +", "x + 1", "(?x + ?y", "?x ?y", "?", "?x - ?y", "")) {
+            try {
+                RewritePattern.parse(invalid);
+                fail("expected IllegalArgumentException for " + invalid);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRuleOfVariable() {
+        new RewriteRule("any", "?x", match -> RewriteRule.Step.done(match.get("x")));
+    }
+
+    @Test
+    public void testIndex() {
+        RewriteEngine engine = SimplificationRules.engine();
+        // the sum of two products is only tried with the rules taking out factors and x + x
+        List<String> products = names(engine.candidates(true, product(X, Y), product(X, Z)));
+        assertEquals(9, products.size());
+        assertFalse(products.contains("sum-constants") || products.contains("zero-plus"));
+        assertEquals(Arrays.asList("sum-constants", "zero-plus", "plus-zero", "double"),
+                     names(engine.candidates(true, constant(1), constant(2))));
+        assertEquals(Arrays.asList("double"), names(engine.candidates(true, X, Y)));
+        assertEquals(Arrays.asList("zero-times", "one-times", "square"),
+                     names(engine.candidates(false, constant(1), X)));
+        assertEquals(Arrays.asList("square", "times-power"), names(engine.candidates(false, X, power(X, 2))));
+    }
+
+    private static List<String> names(List<RewriteRule> rules) {
+        String[] names = new String[rules.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = rules.get(i).getName();
+        }
+        return Arrays.asList(names);
+    }
+
+    @Test
+    public void testRewrite() {
+        RewriteEngine engine = new RewriteEngine(Arrays.asList(
+                new RewriteRule("swap", "?x + #c", match -> RewriteRule.Step.sum(match.get("c"), match.get("x"))),
+                new RewriteRule("decline", "#c + ?x", match -> null),
+                new RewriteRule("distribute", "?x * (?a + ?b)", match -> RewriteRule.Step.factorOut(
+                        match.get("x"), match.get("a"), match.get("b")))),
+                RewriteEngine.DEFAULT_STEP_BUDGET);
+        // no rule applies
+        assertEquals(sum(X, Y), engine.rewriteSum(X, Y));
+        // one step, then the declining rule
+        assertEquals(sum(constant(3), X), engine.rewriteSum(X, constant(3)));
+        assertEquals(1, engine.getFires().get("swap").longValue());
+        assertEquals(0, engine.getFires().get("decline").longValue());
+        // a factor, and a step of the sum under it
+        assertEquals(product(X, sum(constant(2), Y)), engine.rewriteProduct(X, sum(Y, constant(2))));
+        assertEquals(2, engine.getFires().get("swap").longValue());
+        assertEquals(1, engine.getFires().get("distribute").longValue());
+        engine.resetFires();
+        assertEquals(0, engine.getFires().get("swap").longValue());
+    }
+
+    @Test
+    public void testStepBudget() {
+        RewriteRule swap = new RewriteRule("swap", "?x + ?y", match ->
+                RewriteRule.Step.sum(match.get("y"), match.get("x")));
+        // swapping never reaches a fixed point, the budget ends it
+        assertEquals(sum(Y, X), new RewriteEngine(Arrays.asList(swap), 3).rewriteSum(X, Y));
+        assertEquals(sum(X, Y), new RewriteEngine(Arrays.asList(swap), 4).rewriteSum(X, Y));
+        assertEquals(4 + 3, swap.getFires());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidStepBudget() {
+        new RewriteEngine(Arrays.asList(), 0);
+    }
+
+    @Test
+    public void testSimplificationRules() {
+        RewriteEngine engine = SimplificationRules.engine();
+        engine.resetFires();
+        // x*(y*z) + x*(y*w) takes out x, then y, then nothing applies
+        Expression w = variable("w");
+        assertEquals(product(X, product(Y, sum(Z, w))),
+                     Sum.simplifySum(product(X, product(Y, Z)), product(X, product(Y, w))));
+        assertEquals(2, engine.getFires().get("factor-left-left").longValue());
+        // x*3 is 3*x, x + x is 2*x
+        assertEquals(product(constant(3), X), Product.simplifyProduct(X, constant(3)));
+        assertEquals(product(constant(2), X), Sum.simplifySum(X, X));
+        assertEquals(1, engine.getFires().get("constant-left").longValue());
+        assertEquals(1, engine.getFires().get("double").longValue());
+        assertEquals(engine.getRules().size(), engine.getFires().size());
+    }
+}
@@ -0,0 +1,171 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Session.
+ */
+public class SessionTest {
+
+    // Testing strategy
+    //   - input: expression, "$n" reference, !d/d, !simplify and !solve on the current expression and on a "$n"
+    //     reference, !shared on and off, !carets on and off
+    //   - numbering: lines that add a result (expression, !d/d, !simplify) and lines that don't ("$n", !shared,
+    //     !carets, failing lines)
+    //   - references: existing result, $0, past the last result
+    //   - derivatives: first time, again for the same (expression, variable), for another variable
+    //   - !solve: target 0 and nonzero, other variables given or missing; adds no result
+    //   - errors: command without current expression, invalid expression, invalid command; the session is unchanged
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testNumbering() {
+        Session session = new Session();
+        assertEquals("x*y", session.execute("x*y"));
+        assertEquals(1, session.lastResultNumber());
+        assertEquals("y", session.execute("!d/dx"));
+        assertEquals(2, session.lastResultNumber());
+        // the derivative became the current expression
+        assertEquals("y", session.execute("!simplify x=2"));
+        assertEquals(3, session.lastResultNumber());
+        assertEquals(Expression.parse("x*y"), session.expression(1));
+        assertEquals(Expression.parse("y"), session.expression(2));
+    }
+
+    @Test
+    public void testCommandsOnReferences() {
+        Session session = new Session();
+        session.execute("x*x*y");
+        session.execute("x + 1");
+        assertEquals("2*x*y", session.execute("!d/dx $1"));
+        assertEquals(3, session.lastResultNumber());
+        // the derivative of the reference becomes the current expression
+        assertEquals("2*y", session.execute("!d/dx"));
+        assertEquals("3", session.execute("!simplify x=2 $2"));
+        assertEquals("2*y", session.execute("!d/dx $3"));
+    }
+
+    @Test
+    public void testOnlyReference() {
+        Session session = new Session();
+        session.execute("x*y");
+        session.execute("z");
+        assertEquals("x*y", session.execute("$1"));
+        assertEquals(0, session.lastResultNumber());
+        assertEquals("x", session.execute("!d/dy"));
+        assertEquals(3, session.lastResultNumber());
+    }
+
+    @Test
+    public void testDerivativeCache() {
+        Session session = new Session();
+        session.execute("x*x*x + y*x");
+        session.execute("!d/dx $1");
+        session.execute("!d/dx $1");
+        // the second derivative is the same expression as the first
+        assertSame(session.expression(2), session.expression(3));
+        session.execute("!d/dy $1");
+        assertEquals(Expression.parse("x"), session.expression(4));
+    }
+
+    @Test
+    public void testShared() {
+        Session session = new Session();
+        assertEquals("let-bound output on", session.execute("!shared on"));
+        assertEquals(0, session.lastResultNumber());
+        String output = session.execute("(x+y)*(x+y)");
+        assertEquals(1, session.lastResultNumber());
+        assertEquals(LetForm.format(session.expression(1)), output);
+        assertEquals("let-bound output off", session.execute("!shared off"));
+        assertEquals(session.expression(1).toString(), session.execute("$1"));
+    }
+
+    @Test
+    public void testCarets() {
+        Session session = new Session();
+        assertEquals("x*x*x", session.execute("x^3"));
+        assertEquals("caret output on", session.execute("!carets on"));
+        assertEquals(0, session.lastResultNumber());
+        assertEquals("3*x^2", session.execute("!d/dx"));
+        assertEquals("x^3", session.execute("$1"));
+        assertEquals("caret output off", session.execute("!carets off"));
+        assertEquals("3*x*x", session.execute("$2"));
+    }
+
+    @Test(expected = Main.CommandSyntaxException.class)
+    public void testCaretsWithoutSwitch() {
+        new Session().execute("!carets");
+    }
+
+    @Test(expected = Main.CommandSyntaxException.class)
+    public void testReferencePastLast() {
+        Session session = new Session();
+        session.execute("x");
+        session.execute("!d/dx $2");
+    }
+
+    @Test(expected = Main.CommandSyntaxException.class)
+    public void testReferenceZero() {
+        Session session = new Session();
+        session.execute("x");
+        session.execute("$0");
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testNoCurrentExpression() {
+        new Session().execute("!d/dx");
+    }
+
+    @Test
+    public void testErrorsLeaveSessionUnchanged() {
+        Session session = new Session();
+        session.execute("x*y");
+        try {
+            session.execute("x +");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            session.execute("!d/dx $7");
+            fail("expected CommandSyntaxException");
+        } catch (Main.CommandSyntaxException e) {
+            // expected
+        }
+        assertEquals("y", session.execute("!d/dx"));
+        assertEquals(2, session.lastResultNumber());
+    }
+
+    @Test
+    public void testSolve() {
+        Session session = new Session();
+        session.execute("x*x + 2*x");
+        assertEquals("x = 2", session.execute("!solve x to 8"));
+        assertEquals(0, session.lastResultNumber());
+        session.execute("x*y");
+        assertEquals("x = 0.5", session.execute("!solve x to 2 y=4"));
+        assertEquals("x = 3", session.execute("!solve x to 15 $1"));
+        // the current expression is unchanged
+        assertEquals("x", session.execute("!d/dy"));
+    }
+
+    @Test
+    public void testSolveMissingValue() {
+        Session session = new Session();
+        session.execute("x*y");
+        try {
+            session.execute("!solve x to 2");
+            fail("expected a CommandSyntaxException");
+        } catch (Main.CommandSyntaxException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("variable y"));
+        }
+    }
+}
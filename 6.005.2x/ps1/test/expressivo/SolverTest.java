@@ -0,0 +1,148 @@
+package expressivo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Solver.
+ */
+public class SolverTest {
+
+    // Testing strategy
+    //   - root: Newton converges (positive and negative roots, depending on the guess), Newton fails (zero derivative
+    //     at the guess) and bisection finds the root, no root, target 0 and nonzero, with and without parameters,
+    //     the same solver for several parameter values, a product of many factors whose polynomial is
+    //     exponentially larger than the expression
+    //   - minimum: one unknown, several unknowns, with parameters, Hessian zero at the minimum (slow Newton),
+    //     Hessian not positive definite at the guess, unbounded below
+    //   - invalid: no unknowns, a variable twice, a variable neither unknown nor parameter, root() for several
+    //     unknowns, wrong number of values
+
+    private static final double DELTA = 1e-9;
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    private static Solver solver(String expression, List<String> unknowns, String... parameters) {
+        return new Solver(Expression.parse(expression), unknowns, Arrays.asList(parameters));
+    }
+
+    @Test
+    public void testRootNewton() {
+        Solver solver = solver("x*x + 2*x", Collections.singletonList("x"));
+        assertEquals(2, solver.root(8, 1), DELTA);
+        assertEquals(-4, solver.root(8, -3), DELTA);
+        assertEquals(0, solver.root(0, 0.5), DELTA);
+    }
+
+    @Test
+    public void testRootOfLargeProduct() {
+        // (x + a1)*...*(x + a24) has 2^24 terms when expanded, which making the solver must not do
+        int n = 24;
+        Expression product = ExpressionInterner.variable("x");
+        String[] parameters = new String[n];
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            parameters[i] = "a" + (char) ('a' + i);
+            values[i] = i + 1;
+            Expression factor = ExpressionInterner.sum(ExpressionInterner.variable("x"),
+                                                       ExpressionInterner.variable(parameters[i]));
+            product = i == 0 ? factor : ExpressionInterner.product(product, factor);
+        }
+        Solver solver = new Solver(product, Collections.singletonList("x"), Arrays.asList(parameters));
+        assertEquals(-1, solver.root(0, -1.1, values), DELTA);
+        assertEquals(-24, solver.root(0, -24.2, values), DELTA);
+    }
+
+    @Test
+    public void testRootBisection() {
+        // the derivative is 0 at the guess, so the first Newton step fails
+        Solver solver = solver("x*x*x", Collections.singletonList("x"));
+        assertEquals(2, solver.root(8, 0), DELTA);
+        assertEquals(-3, solver.root(-27, 0), DELTA);
+    }
+
+    @Test
+    public void testRootParameters() {
+        Solver solver = solver("x*y + z", Collections.singletonList("x"), "y", "z");
+        assertEquals(Arrays.asList("y", "z"), solver.getParameters());
+        assertEquals(2, solver.root(7, 1, 3, 1), DELTA);
+        assertEquals(0.5, solver.root(7, 1, 4, 5), DELTA);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testNoRoot() {
+        solver("x*x + 1", Collections.singletonList("x")).root(0, 1);
+    }
+
+    @Test
+    public void testMinimumOneUnknown() {
+        double[] minimum = solver("x*x + 2*x + 5", Collections.singletonList("x")).minimum(new double[] {3});
+        assertArrayEquals(new double[] {-1}, minimum, DELTA);
+    }
+
+    @Test
+    public void testMinimumSeveralUnknowns() {
+        // the gradient 2x + y + 1, x + 2y is 0 at x = -2/3, y = 1/3
+        Solver solver = solver("x*x + y*y + x*y + x + 3", Arrays.asList("x", "y"));
+        assertArrayEquals(new double[] {-2.0 / 3, 1.0 / 3}, solver.minimum(new double[] {5, -7}), DELTA);
+    }
+
+    @Test
+    public void testMinimumParameters() {
+        // a*x*x + b*x is minimal at x = -b / 2a
+        Solver solver = solver("a*x*x + b*x", Collections.singletonList("x"), "a", "b");
+        assertArrayEquals(new double[] {-1}, solver.minimum(new double[] {0}, 2, 4), DELTA);
+        assertArrayEquals(new double[] {-0.25}, solver.minimum(new double[] {0}, 2, 1), DELTA);
+    }
+
+    @Test
+    public void testMinimumSingularHessian() {
+        double[] minimum = solver("x*x*x*x", Collections.singletonList("x")).minimum(new double[] {1});
+        assertEquals(0, minimum[0], 1e-3);
+    }
+
+    @Test
+    public void testMinimumIndefiniteHessian() {
+        // x*x*x*x + x*x*x has a negative second derivative at x = -0.25, and its minimum at x = -0.75
+        double[] minimum = solver("x*x*x*x + x*x*x", Collections.singletonList("x")).minimum(new double[] {-0.25});
+        assertEquals(-0.75, minimum[0], DELTA);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testMinimumUnbounded() {
+        solver("x*x*x", Collections.singletonList("x")).minimum(new double[] {-1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoUnknowns() {
+        solver("x", Collections.emptyList(), "x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariableTwice() {
+        solver("x*y", Collections.singletonList("x"), "x", "y");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVariable() {
+        solver("x*y", Collections.singletonList("x"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRootSeveralUnknowns() {
+        solver("x*y", Arrays.asList("x", "y")).root(1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongParameterCount() {
+        solver("x*y", Collections.singletonList("x"), "y").root(1, 1);
+    }
+}
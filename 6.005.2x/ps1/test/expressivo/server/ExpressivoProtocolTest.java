@@ -0,0 +1,98 @@
+package expressivo.server;
+
+import expressivo.Commands;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ExpressivoProtocol.
+ */
+public class ExpressivoProtocolTest {
+
+    // Testing strategy
+    //   - requests: d/d, simplify with 0, 1 and several assignments, stats, help, bye, surrounding whitespace
+    //   - errors: invalid expression, invalid variable, invalid value, unknown request
+    //   - cache: repeated request is a hit, errors are not cached, capacity 0 never hits, eviction of the least
+    //            recently used result
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    private static ExpressivoProtocol protocol(int capacity) {
+        return new ExpressivoProtocol(capacity, new LatencyRecorder());
+    }
+
+    @Test
+    public void testDifferentiate() {
+        ExpressivoProtocol protocol = protocol(10);
+        assertEquals("ok " + Commands.differentiate("x*x*y", "x"), protocol.handleRequest("d/dx x*x*y"));
+        assertEquals("ok " + Commands.differentiate("x * (y + 1)", "y"),
+                     protocol.handleRequest(" d/dy  x * (y + 1) "));
+    }
+
+    @Test
+    public void testSimplify() {
+        ExpressivoProtocol protocol = protocol(10);
+        assertEquals("ok " + Commands.simplify("x*y+1", Collections.emptyMap()),
+                     protocol.handleRequest("simplify x*y+1"));
+        assertEquals("ok " + Commands.simplify("x*y+1", Collections.singletonMap("x", 2.0)),
+                     protocol.handleRequest("simplify x=2 x*y+1"));
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        environment.put("y", 1.5);
+        assertEquals("ok 4", protocol.handleRequest("simplify x=2 y=1.5 x*y+1"));
+        assertEquals("ok " + Commands.simplify("x * y + 1", environment),
+                     protocol.handleRequest("simplify  x=2  y=1.5  x * y + 1"));
+    }
+
+    @Test
+    public void testOtherRequests() {
+        ExpressivoProtocol protocol = protocol(10);
+        assertEquals("ok bye", protocol.handleRequest("bye"));
+        assertTrue(protocol.handleRequest("help").startsWith("ok requests: "));
+        String stats = protocol.handleRequest("stats");
+        assertTrue(stats, stats.startsWith("ok requests=3 hits=0 count=0 p50="));
+    }
+
+    @Test
+    public void testErrors() {
+        ExpressivoProtocol protocol = protocol(10);
+        assertTrue(protocol.handleRequest("d/dx x+").startsWith("error IllegalArgumentException"));
+        assertTrue(protocol.handleRequest("d/d1 x").startsWith("error IllegalArgumentException: Invalid request"));
+        assertTrue(protocol.handleRequest("simplify x=a x").startsWith("error NumberFormatException"));
+        assertTrue(protocol.handleRequest("simplify x=-1 x").startsWith("error IllegalArgumentException"));
+        assertTrue(protocol.handleRequest("integrate x").startsWith("error IllegalArgumentException"));
+        assertTrue(protocol.handleRequest("d/dx x+").startsWith("error "));
+        assertEquals(0, protocol.hits());
+    }
+
+    @Test
+    public void testCache() {
+        ExpressivoProtocol protocol = protocol(2);
+        String first = protocol.handleRequest("d/dx x*x");
+        assertEquals(first, protocol.handleRequest("d/dx x*x"));
+        assertEquals(first, protocol.handleRequest("  d/dx x*x"));
+        assertEquals(2, protocol.hits());
+
+        protocol.handleRequest("d/dy x*y");
+        protocol.handleRequest("d/dx x*x");
+        protocol.handleRequest("d/dz z"); // evicts d/dy x*y
+        protocol.handleRequest("d/dx x*x");
+        assertEquals(4, protocol.hits());
+        protocol.handleRequest("d/dy x*y");
+        assertEquals(4, protocol.hits());
+        assertEquals(8, protocol.requests());
+
+        ExpressivoProtocol uncached = protocol(0);
+        uncached.handleRequest("d/dx x*x");
+        uncached.handleRequest("d/dx x*x");
+        assertEquals(0, uncached.hits());
+    }
+}
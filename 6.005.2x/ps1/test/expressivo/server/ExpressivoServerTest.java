@@ -0,0 +1,198 @@
+package expressivo.server;
+
+import expressivo.Commands;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ExpressivoServer and ExpressivoConnection, with clients on the loopback interface.
+ */
+public class ExpressivoServerTest {
+
+    // Testing strategy
+    //   - one client: one request at a time, pipelined requests (more than PIPELINE_DEPTH) answered in order,
+    //                 errors, bye closes the connection, disconnecting without bye
+    //   - several clients at once, sharing the cache
+    //   - latencies are recorded for every request, and reported by stats
+    //   - close() ends serve() and the connections that are still open
+
+    private static final int TIMEOUT = 10000;
+
+    private ExpressivoServer server;
+    private Thread serving;
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        server = new ExpressivoServer(0, 2, 100);
+        serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        serving.start();
+    }
+
+    @After
+    public void stopServer() throws IOException, InterruptedException {
+        server.close();
+        serving.join(TIMEOUT);
+        assertFalse(serving.isAlive());
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        socket.setSoTimeout(TIMEOUT);
+        return socket;
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static PrintWriter writer(Socket socket) throws IOException {
+        return new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testRequestsAndBye() throws IOException {
+        try (Socket socket = connect()) {
+            BufferedReader in = reader(socket);
+            PrintWriter out = writer(socket);
+            out.println("d/dx x*x*y");
+            assertEquals("ok " + Commands.differentiate("x*x*y", "x"), in.readLine());
+            out.println("simplify x=3 x*x");
+            assertEquals("ok 9", in.readLine());
+            out.println("d/dx (x");
+            assertTrue(in.readLine().startsWith("error "));
+            out.println("bye");
+            assertEquals("ok bye", in.readLine());
+            assertNull(in.readLine());
+        }
+        assertEquals(4, server.getLatencies().count());
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testPipelinedRequestsInOrder() throws IOException {
+        int requests = 3 * ExpressivoConnection.PIPELINE_DEPTH;
+        try (Socket socket = connect()) {
+            BufferedReader in = reader(socket);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+                                                                     StandardCharsets.UTF_8), false);
+            List<String> expected = new ArrayList<>();
+            for (int i = 1; i <= requests; i++) {
+                String expression = "x*(x+" + i + ")*(y+" + (i % 5 + 1) + ")";
+                if (i % 3 == 0) {
+                    out.println("simplify x=" + i + " " + expression);
+                    expected.add("ok " + Commands.simplify(expression, Collections.singletonMap("x", (double) i)));
+                } else {
+                    out.println("d/dx " + expression);
+                    expected.add("ok " + Commands.differentiate(expression, "x"));
+                }
+            }
+            out.println("bye");
+            out.flush();
+            for (String response : expected) {
+                assertEquals(response, in.readLine());
+            }
+            assertEquals("ok bye", in.readLine());
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testDisconnectWithoutBye() throws IOException {
+        try (Socket socket = connect()) {
+            writer(socket).println("d/dx x");
+        }
+        try (Socket socket = connect()) {
+            PrintWriter out = writer(socket);
+            out.println("d/dx x");
+            assertEquals("ok 1", reader(socket).readLine());
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testCloseEndsConnection() throws IOException {
+        try (Socket socket = connect()) {
+            BufferedReader in = reader(socket);
+            writer(socket).println("d/dx x");
+            assertEquals("ok 1", in.readLine());
+            server.close();
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testSeveralClients() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int c = 0; c < 4; c++) {
+                results.add(clients.submit(() -> {
+                    List<String> responses = new ArrayList<>();
+                    try (Socket socket = connect()) {
+                        BufferedReader in = reader(socket);
+                        PrintWriter out = writer(socket);
+                        for (int i = 0; i < 20; i++) {
+                            out.println("d/dx x*x*(y+" + i + ")");
+                            responses.add(in.readLine());
+                        }
+                    }
+                    return responses;
+                }));
+            }
+            for (Future<List<String>> result : results) {
+                List<String> responses = result.get();
+                for (int i = 0; i < 20; i++) {
+                    assertEquals("ok " + Commands.differentiate("x*x*(y+" + i + ")", "x"), responses.get(i));
+                }
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+        // every distinct request is computed at least once, and the 80 requests have only 20 distinct ones
+        assertTrue(server.getProtocol().hits() >= 80 - 4 * 20);
+        assertEquals(80, server.getProtocol().requests());
+        assertEquals(80, server.getLatencies().count());
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testStats() throws IOException {
+        try (Socket socket = connect()) {
+            BufferedReader in = reader(socket);
+            PrintWriter out = writer(socket);
+            out.println("d/dx x*y");
+            in.readLine();
+            out.println("d/dx x*y");
+            in.readLine();
+            out.println("stats");
+            String stats = in.readLine();
+            assertTrue(stats, stats.matches("ok requests=3 hits=1 count=2 p50=\\d+us p90=\\d+us p99=\\d+us "
+                                            + "p999=\\d+us max=\\d+us"));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package expressivo.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for LatencyRecorder.
+ */
+public class LatencyRecorderTest {
+
+    // Testing strategy
+    //   - recorded: nothing, one latency, fewer than the window, more than the window (older ones drop out)
+    //   - percentiles: 0, 50, 100, between ranks; invalid percentiles
+    //   - window: 1, larger; invalid window
+    //   - toString: reports count, percentiles and the maximum ever recorded
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testNothingRecorded() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        assertEquals(0, recorder.count());
+        assertArrayEquals(new long[] {0, 0}, recorder.percentiles(50, 99));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyRecorder recorder = new LatencyRecorder(1000);
+        for (int i = 100; i >= 1; i--) {
+            recorder.record(i * 1000L);
+        }
+        assertEquals(100, recorder.count());
+        assertArrayEquals(new long[] {1000, 50000, 90000, 99000, 100000},
+                          recorder.percentiles(0, 50, 90, 99, 100));
+        assertArrayEquals(new long[] {51000}, recorder.percentiles(50.5));
+        assertEquals("count=100 p50=50us p90=90us p99=99us p999=100us max=100us", recorder.toString());
+    }
+
+    @Test
+    public void testWindow() {
+        LatencyRecorder recorder = new LatencyRecorder(10);
+        for (int i = 1; i <= 25; i++) {
+            recorder.record(i * 1000L);
+        }
+        // only 16..25 are in the window, but the maximum is of all latencies
+        assertEquals(25, recorder.count());
+        assertArrayEquals(new long[] {16000, 25000}, recorder.percentiles(0, 100));
+        recorder = new LatencyRecorder(1);
+        recorder.record(7);
+        recorder.record(3);
+        assertArrayEquals(new long[] {3}, recorder.percentiles(100));
+        assertTrue(recorder.toString().endsWith("max=0us"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        new LatencyRecorder().percentiles(101);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWindow() {
+        new LatencyRecorder(0);
+    }
+}